@@ -2,10 +2,13 @@ package ud.binmonkey.prog3_proyecto_server;
 
 import org.apache.ftpserver.FtpServer;
 import org.apache.ftpserver.ftplet.FtpException;
-import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.MediaScrubber;
 import ud.binmonkey.prog3_proyecto_server.ftp.FTPServer;
-import ud.binmonkey.prog3_proyecto_server.ftp.FTPlet;
+import ud.binmonkey.prog3_proyecto_server.ftp.SessionMonitor;
 import ud.binmonkey.prog3_proyecto_server.http.HTTPSServer;
+import ud.binmonkey.prog3_proyecto_server.neo4j.OrphanSweeper;
+import ud.binmonkey.prog3_proyecto_server.neo4j.PublishQueue;
+import ud.binmonkey.prog3_proyecto_server.users.RenameJournal;
 
 import java.io.IOException;
 
@@ -17,8 +20,6 @@ public enum Server {
 
     HTTPSServer httpsServer;
     FtpServer ftpServer;
-    String ftpLetFile = DocumentReader.getAttr(DocumentReader.getDoc("conf/properties.xml"),
-            "network", "ftp-server", "ftplet-file").getTextContent();
 
     /**
      * Create instances of all services
@@ -29,7 +30,7 @@ public enum Server {
 
         /* main services */
         this.httpsServer = HTTPSServer.INSTANCE;
-        this.ftpServer = FTPServer.getFtpServer(ftpLetFile, FTPlet.class.getSimpleName());
+        this.ftpServer = FTPServer.getFtpServer();
     }
 
     /**
@@ -40,6 +41,14 @@ public enum Server {
             this.httpsServer.init();
             this.httpsServer.getHttpsServer().start();
             this.ftpServer.start();
+            /* publishes interrupted by the last shutdown */
+            PublishQueue.get().resume();
+            RenameJournal.get().resume();
+            /* graph maintenance, if enabled */
+            OrphanSweeper.get().start();
+            /* integrity checks of published media, backing off while users transfer files */
+            MediaScrubber.get().start(() -> SessionMonitor.INSTANCE.getActiveTransfers() +
+                    this.httpsServer.getActiveRequests());
         } catch (IOException | FtpException e) {
             e.printStackTrace();
             System.exit(1);
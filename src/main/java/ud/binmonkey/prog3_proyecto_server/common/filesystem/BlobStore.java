@@ -0,0 +1,347 @@
+package ud.binmonkey.prog3_proyecto_server.common.filesystem;
+
+import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
+import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Content addressed store of published files under `ftpd/.blobs/ab/cd/abcd...`, keyed by SHA-256.
+ * Published files and the files they were published from are hard links to the same blob, so publishing never
+ * copies data and identical files are stored once. The link count of a blob is its reference count: a blob whose
+ * only remaining link is its own entry in the store is deleted.
+ * Files already in the store are recognized by their inode, so publishing them again is O(1), and uploads
+ * already hashed by @ChecksumIndex are not read again.
+ * Links can't cross devices: files in a storage root (@ShardedStorage) on another device than the store are copied
+ * into it, and their duplicates are not replaced by links, so they don't share data with the published file.
+ */
+public class BlobStore {
+
+    private static final Logger LOG = Logger.getLogger(BlobStore.class.getName());
+    static {
+        try {
+            LOG.addHandler(new FileHandler(
+                    "logs/" + BlobStore.class.getName() + "." +
+                            DateUtils.currentFormattedDate() + ".log.xml", true));
+        } catch (SecurityException | IOException e) {
+            LOG.log(Level.SEVERE, "Unable to create log file.");
+        }
+    }
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final File root;
+    /* inode (file key) of every blob -> its hash */
+    private final ConcurrentHashMap<Object, String> index = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+    private final ChecksumIndex checksums; /* null if hashes are always computed */
+
+    /**
+     * Store of the FTP server, created on first use
+     */
+    private static class Holder {
+        private static final BlobStore STORE = new BlobStore(new File(
+                DocumentReader.getAttr(DocumentReader.getDoc("conf/properties.xml"),
+                        "network", "ftp-server", "ftpd").getTextContent(), ".blobs"), ChecksumIndex.get());
+    }
+
+    /**
+     * @return store of the FTP server
+     */
+    public static BlobStore get() {
+        return Holder.STORE;
+    }
+
+    /**
+     * Opens a store, indexing existing blobs and deleting the ones nothing links to anymore
+     * @param root directory of store, must be in the same file system as the files published
+     */
+    public BlobStore(File root) {
+        this(root, null);
+    }
+
+    /**
+     * @param root directory of store, must be in the same file system as the files published
+     * @param checksums index of hashes computed during uploads, null to always hash files
+     */
+    public BlobStore(File root, ChecksumIndex checksums) {
+        this.root = root;
+        this.checksums = checksums;
+        //noinspection ResultOfMethodCallIgnored
+        root.mkdirs();
+        scan();
+    }
+
+    private void scan() {
+        int blobs = 0;
+        int reclaimed = 0;
+        File[] shards = root.listFiles(File::isDirectory);
+        for (File shard : shards == null ? new File[0] : shards) {
+            File[] subShards = shard.listFiles(File::isDirectory);
+            for (File subShard : subShards == null ? new File[0] : subShards) {
+                File[] files = subShard.listFiles(File::isFile);
+                for (File blob : files == null ? new File[0] : files) {
+                    if (linkCount(blob.toPath()) == 1 && blob.delete()) {
+                        reclaimed++;
+                        continue;
+                    }
+                    Object key = fileKey(blob.toPath());
+                    if (key != null) {
+                        index.put(key, blob.getName());
+                    }
+                    blobs++;
+                }
+            }
+        }
+        LOG.log(Level.INFO, "Opened blob store `" + root + "`: " + blobs + " blobs, " + reclaimed + " reclaimed.");
+    }
+
+    /**
+     * Publishes a file: target becomes a link to the blob of source, replacing anything already there
+     * @param source file to publish
+     * @param target path of published file
+     * @return SHA-256 of source
+     */
+    public String publish(File source, File target) throws IOException {
+        if (!source.isFile()) {
+            throw new NoSuchFileException(source.getPath());
+        }
+        Object key = fileKey(source.toPath());
+        String hash = key == null ? null : index.get(key);
+        if (hash == null || !blob(hash).exists()) {
+            hash = add(source);
+        }
+        //noinspection ResultOfMethodCallIgnored
+        target.getParentFile().mkdirs();
+        Object replaced = target.exists() ? fileKey(target.toPath()) : null;
+        link(target.toPath(), blob(hash).toPath());
+        if (replaced != null && !replaced.equals(key)) {
+            reclaim(replaced);
+        }
+        LOG.log(Level.INFO, "Published `" + source + "` as `" + target + "` (" + hash + ").");
+        return hash;
+    }
+
+    /**
+     * Adds a file to the store. A new blob is a link to source; if the blob already existed source is replaced
+     * by a link to it, freeing the duplicated data.
+     * @param source file to add
+     * @return SHA-256 of source
+     */
+    String add(File source) throws IOException {
+        ChecksumIndex.Checksums indexed = checksums == null ? null : checksums.get(source);
+        String hash = indexed != null ? indexed.getSha256() : sha256(source.toPath());
+        synchronized (lock) {
+            Path blob = blob(hash).toPath();
+            boolean sameDevice = sameDevice(source.toPath(), root.toPath());
+            if (!Files.exists(blob)) {
+                Files.createDirectories(blob.getParent());
+                if (!sameDevice) {
+                    LOG.log(Level.INFO, "`" + source + "` is on another device than the blob store, copying it.");
+                    Files.copy(source.toPath(), blob);
+                } else {
+                    try {
+                        Files.createLink(blob, source.toPath());
+                    } catch (UnsupportedOperationException | FileSystemException e) {
+                        LOG.log(Level.WARNING, "Unable to link `" + source + "` into the blob store (" + e +
+                                "), copying it.");
+                        Files.copy(source.toPath(), blob);
+                    }
+                }
+            } else if (sameDevice && !Files.isSameFile(blob, source.toPath())) {
+                link(source.toPath(), blob);
+            }
+            Object key = fileKey(blob);
+            if (key != null) {
+                index.put(key, hash);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Atomically replaces a path with a link to an existing file (a copy if links are not supported)
+     */
+    private static void link(Path path, Path existing) throws IOException {
+        Path tmp = path.resolveSibling("." + path.getFileName() + ".link");
+        Files.deleteIfExists(tmp);
+        try {
+            Files.createLink(tmp, existing);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            LOG.log(Level.WARNING, "Unable to link `" + path + "` to `" + existing + "` (" + e + "), copying it.");
+            Files.copy(existing, tmp);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes the blob of an inode if nothing but the store links to it anymore
+     * @param key file key of a removed link
+     */
+    void reclaim(Object key) {
+        String hash = index.get(key);
+        if (hash == null) {
+            return;
+        }
+        synchronized (lock) {
+            File blob = blob(hash);
+            if (linkCount(blob.toPath()) == 1 && blob.delete()) {
+                index.remove(key);
+                LOG.log(Level.INFO, "Reclaimed blob " + hash + ".");
+            }
+        }
+    }
+
+    /**
+     * Deletes a file, and its blob if it was the last file linking to it
+     * @param file file to delete
+     * @return true if file was deleted
+     */
+    public static boolean delete(File file) {
+        Path path = file.toPath();
+        Object key = fileKey(path);
+        /* only a file linked once besides the store can release a blob */
+        boolean shared = linkCount(path) == 2;
+        if (!file.delete()) {
+            return false;
+        }
+        if (shared && key != null) {
+            get().reclaim(key);
+        }
+        return true;
+    }
+
+    /**
+     * Gives a file its own inode before it is written in place, so the blob and other links keep their data
+     * @param file file about to be written
+     * @param keep bytes at the start of file that must be preserved
+     */
+    public static void detach(File file, long keep) throws IOException {
+        Path path = file.toPath();
+        if (linkCount(path) <= 1) {
+            return;
+        }
+        Path tmp = path.resolveSibling("." + path.getFileName() + ".detach");
+        try (InputStream in = Files.newInputStream(path)) {
+            Files.copy(new BoundedInputStream(in, keep), tmp, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @param file published file, or any other link to a blob
+     * @return SHA-256 the blob of file was stored under, null if file is not in the store
+     */
+    public String hashOf(File file) {
+        Object key = fileKey(file.toPath());
+        return key == null ? null : index.get(key);
+    }
+
+    /**
+     * @param hash SHA-256 of a file
+     * @return location of its blob, sharded by the first two bytes of hash
+     */
+    File blob(String hash) {
+        return new File(new File(new File(root, hash.substring(0, 2)), hash.substring(2, 4)), hash);
+    }
+
+    /**
+     * @return hard link count of a file, -1 if unknown (file system without links)
+     */
+    static int linkCount(Path path) {
+        try {
+            return ((Number) Files.getAttribute(path, "unix:nlink")).intValue();
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return true if both paths are in the same file system, so they can be hard linked
+     */
+    private static boolean sameDevice(Path path, Path other) {
+        try {
+            return Files.getFileStore(path).equals(Files.getFileStore(other));
+        } catch (IOException e) {
+            return true; /* unknown, the link attempt tells */
+        }
+    }
+
+    /**
+     * @return object identifying the inode of a file, null if unknown
+     */
+    private static Object fileKey(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return lowercase hexadecimal SHA-256 of a file
+     */
+    static String sha256(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return ChecksumIndex.hex(digest.digest());
+    }
+
+    /**
+     * Input stream ending after a number of bytes
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b != -1) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(b, off, (int) Math.min(len, remaining));
+            if (read != -1) {
+                remaining -= read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package ud.binmonkey.prog3_proyecto_server.common.filesystem;
+
+import org.json.JSONObject;
+import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
+import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Sidecar index of file checksums (SHA-256, CRC32, CRC32C and, on demand, MD5), kept in `ftpd/.meta`.
+ * Uploads fill it while data is written (@Digester), so nothing has to be read again to verify or deduplicate
+ * a file. Entries are keyed by inode, so they follow renames and hard links, and are only trusted while
+ * size and modification time of the file match.
+ */
+public class ChecksumIndex {
+
+    private static final Logger LOG = Logger.getLogger(ChecksumIndex.class.getName());
+    static {
+        try {
+            LOG.addHandler(new FileHandler(
+                    "logs/" + ChecksumIndex.class.getName() + "." +
+                            DateUtils.currentFormattedDate() + ".log.xml", true));
+        } catch (SecurityException | IOException e) {
+            LOG.log(Level.SEVERE, "Unable to create log file.");
+        }
+    }
+
+    private static final long FLUSH_DELAY = 1000; /* ms */
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final File indexFile;
+    private final ConcurrentHashMap<String, Checksums> checksums = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "checksum-index-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Checksums of a file at a given size and modification time
+     */
+    public static class Checksums {
+        private final long size;
+        private final long modified;
+        private final String sha256;
+        private final long crc32;
+        private final long crc32c;
+        private final String md5; /* null until requested */
+
+        Checksums(long size, long modified, String sha256, long crc32, long crc32c, String md5) {
+            this.size = size;
+            this.modified = modified;
+            this.sha256 = sha256;
+            this.crc32 = crc32;
+            this.crc32c = crc32c;
+            this.md5 = md5;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getModified() {
+            return modified;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
+        public long getCrc32() {
+            return crc32;
+        }
+
+        public long getCrc32c() {
+            return crc32c;
+        }
+
+        public String getMd5() {
+            return md5;
+        }
+
+        public String toJson() {
+            return new JSONObject().put("size", size).put("modified", modified).put("sha256", sha256)
+                    .put("crc32", String.format("%08x", crc32)).put("crc32c", String.format("%08x", crc32c))
+                    .put("md5", md5 == null ? JSONObject.NULL : md5).toString();
+        }
+    }
+
+    /**
+     * Computes every checksum of a stream of bytes in a single pass
+     */
+    public static class Digester {
+        private final MessageDigest sha256 = digest("SHA-256");
+        private final MessageDigest md5;
+        private final CRC32 crc32 = new CRC32();
+        private final Crc32c crc32c = new Crc32c();
+        private byte[] scratch; /* copy of direct buffer contents */
+
+        public Digester() {
+            this(false);
+        }
+
+        /**
+         * @param md5 also compute MD5, uploads skip it as only XMD5 uses it
+         */
+        public Digester(boolean md5) {
+            this.md5 = md5 ? digest("MD5") : null;
+        }
+
+        public void update(byte[] b, int off, int len) {
+            sha256.update(b, off, len);
+            crc32.update(b, off, len);
+            crc32c.update(b, off, len);
+            if (md5 != null) {
+                md5.update(b, off, len);
+            }
+        }
+
+        /**
+         * Digests the remaining bytes of a buffer without moving its position
+         * @param buffer heap or direct buffer
+         */
+        public void update(ByteBuffer buffer) {
+            if (buffer.hasArray()) {
+                update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                return;
+            }
+            /* one copy out of the direct buffer shared by every algorithm */
+            if (scratch == null) {
+                scratch = new byte[64 * 1024];
+            }
+            ByteBuffer view = buffer.duplicate();
+            while (view.hasRemaining()) {
+                int n = Math.min(scratch.length, view.remaining());
+                view.get(scratch, 0, n);
+                update(scratch, 0, n);
+            }
+        }
+
+        /**
+         * @param file file the digested bytes were written to, already closed
+         * @return checksums of file
+         */
+        public Checksums finish(File file) {
+            return new Checksums(file.length(), file.lastModified(), hex(sha256.digest()), crc32.getValue(),
+                    crc32c.getValue(), md5 == null ? null : hex(md5.digest()));
+        }
+    }
+
+    /**
+     * Index of the FTP server, created on first use
+     */
+    private static class Holder {
+        private static final ChecksumIndex INDEX = new ChecksumIndex(new File(
+                DocumentReader.getAttr(DocumentReader.getDoc("conf/properties.xml"),
+                        "network", "ftp-server", "ftpd").getTextContent(), ".meta/checksums.tsv"));
+    }
+
+    /**
+     * @return index of the FTP server
+     */
+    public static ChecksumIndex get() {
+        return Holder.INDEX;
+    }
+
+    /**
+     * @param indexFile file index is stored in, loaded if it exists
+     */
+    public ChecksumIndex(File indexFile) {
+        this.indexFile = indexFile;
+        load();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "checksum-index-flush-on-exit"));
+    }
+
+    /**
+     * @param file regular file
+     * @return checksums of file, null if not indexed or file changed since
+     */
+    public Checksums get(File file) {
+        String key = key(file);
+        Checksums entry = key == null ? null : checksums.get(key);
+        if (entry == null || entry.size != file.length() || entry.modified != file.lastModified()) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * @param file file checksums were computed from
+     * @param entry checksums of file
+     */
+    public void put(File file, Checksums entry) {
+        String key = key(file);
+        if (key != null) {
+            checksums.put(key, entry);
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Drops the entry of a file about to be deleted, unless other links keep its inode alive
+     * @param file file to be deleted
+     */
+    public void forget(File file) {
+        if (BlobStore.linkCount(file.toPath()) <= 1) {
+            String key = key(file);
+            if (key != null && checksums.remove(key) != null) {
+                scheduleFlush();
+            }
+        }
+    }
+
+    /**
+     * Indexed checksums of a file, reading it only if they are missing or stale
+     * @param file regular file
+     * @param md5 true if MD5 is needed
+     * @return checksums of file
+     */
+    public Checksums compute(File file, boolean md5) throws IOException {
+        Checksums entry = get(file);
+        if (entry != null && (!md5 || entry.md5 != null)) {
+            return entry;
+        }
+        Digester digester = new Digester(md5);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digester.update(buffer, 0, read);
+            }
+        }
+        entry = digester.finish(file);
+        put(file, entry);
+        return entry;
+    }
+
+    /**
+     * @return inode of file as text, its canonical path if the file system has no inodes, null if it doesn't exist
+     */
+    private static String key(File file) {
+        try {
+            Object key = Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+            return key != null ? key.toString() : file.getCanonicalPath();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /* Persistence, write-behind like the FTP user file */
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            flusher.schedule(this::flush, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Write index now
+     */
+    public synchronized void flush() {
+        flushScheduled.set(false);
+        File parent = indexFile.getAbsoluteFile().getParentFile();
+        //noinspection ResultOfMethodCallIgnored
+        parent.mkdirs();
+        File tmp = new File(parent, indexFile.getName() + ".tmp");
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp),
+                StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, Checksums> e : checksums.entrySet()) {
+                Checksums c = e.getValue();
+                out.write(e.getKey() + '\t' + c.size + '\t' + c.modified + '\t' + c.sha256 + '\t' + c.crc32 +
+                        '\t' + c.crc32c + '\t' + (c.md5 == null ? "-" : c.md5) + '\n');
+            }
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Unable to write checksum index `" + indexFile + "`: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Unable to replace checksum index `" + indexFile + "`: " + e.getMessage());
+        }
+    }
+
+    private void load() {
+        if (!indexFile.exists()) {
+            return;
+        }
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length != 7) {
+                    continue;
+                }
+                checksums.put(fields[0], new Checksums(Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                        fields[3], Long.parseLong(fields[4]), Long.parseLong(fields[5]),
+                        fields[6].equals("-") ? null : fields[6]));
+            }
+        } catch (IOException | NumberFormatException e) {
+            LOG.log(Level.WARNING, "Unable to read checksum index `" + indexFile + "`: " + e.getMessage());
+        }
+    }
+
+    private static MessageDigest digest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+            hex[i * 2 + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,185 @@
+package ud.binmonkey.prog3_proyecto_server.common.filesystem;
+
+import ud.binmonkey.prog3_proyecto_server.common.jobs.JobManager;
+import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Moves directory trees. Inside a file system a move is a single atomic rename, whatever the size of the tree.
+ * Across devices files are copied in parallel and the source is only deleted once everything was copied.
+ * The copy is resumable: finished files are skipped and partial ones (`.name.part`) continued, so running the
+ * same move again after a failure only copies what is missing.
+ */
+public class DirectoryMover {
+
+    private static final Logger LOG = Logger.getLogger(DirectoryMover.class.getName());
+    static {
+        try {
+            LOG.addHandler(new FileHandler(
+                    "logs/" + DirectoryMover.class.getName() + "." +
+                            DateUtils.currentFormattedDate() + ".log.xml", true));
+        } catch (SecurityException | IOException e) {
+            LOG.log(Level.SEVERE, "Unable to create log file.");
+        }
+    }
+
+    private static final int COPY_THREADS = 4;
+    private static final long CHUNK = 64 * 1024 * 1024; /* bytes per transferTo call, progress granularity */
+
+    /**
+     * @param source directory to move
+     * @param target new path of directory, may exist if it is empty or the result of an interrupted move
+     * @param job job progress is reported to, in bytes; null if not needed
+     */
+    public static void move(Path source, Path target, JobManager.Job job) throws IOException {
+        if (!Files.isDirectory(source)) {
+            throw new NoSuchFileException(source.toString());
+        }
+        if (Files.isDirectory(target)) {
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(target)) {
+                if (!entries.iterator().hasNext()) {
+                    Files.delete(target);
+                }
+            }
+        }
+        if (!Files.exists(target)) {
+            try {
+                Files.createDirectories(target.toAbsolutePath().getParent());
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+                LOG.log(Level.INFO, "Renamed `" + source + "` to `" + target + "`.");
+                if (job != null) {
+                    job.setMessage("Renamed");
+                }
+                return;
+            } catch (AtomicMoveNotSupportedException e) {
+                LOG.log(Level.INFO, "`" + source + "` and `" + target + "` are in different devices, copying.");
+            }
+        }
+        copy(source, target, job);
+        deleteTree(source);
+        if (job != null) {
+            job.setMessage("Copied");
+        }
+    }
+
+    /**
+     * Copies a tree in parallel, skipping files already copied
+     */
+    static void copy(Path source, Path target, JobManager.Job job) throws IOException {
+        List<Path> files = new ArrayList<>();
+        long[] total = {0};
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.add(file);
+                total[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        if (job != null) {
+            job.setTotal(total[0]);
+            job.setMessage("Copying " + files.size() + " files");
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(COPY_THREADS, r -> {
+            Thread thread = new Thread(r, "directory-copy");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> copies = new ArrayList<>(files.size());
+            for (Path file : files) {
+                copies.add(executor.submit(() -> {
+                    copyFile(file, target.resolve(source.relativize(file)), job);
+                    return null;
+                }));
+            }
+            for (Future<?> copy : copies) {
+                copy.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Copy of `" + source + "` interrupted");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Copies a file through a `.part` file renamed when complete, continuing a previous partial copy
+     */
+    private static void copyFile(Path source, Path target, JobManager.Job job) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        long size = attributes.size();
+        if (Files.exists(target) && Files.size(target) == size &&
+                Files.getLastModifiedTime(target).equals(attributes.lastModifiedTime())) {
+            progress(job, size); /* copied by a previous run */
+            return;
+        }
+        Path part = target.resolveSibling("." + target.getFileName() + ".part");
+        long position = Files.exists(part) ? Math.min(Files.size(part), size) : 0;
+        progress(job, position);
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(part, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            out.truncate(position);
+            out.position(position);
+            while (position < size) {
+                long copied = in.transferTo(position, Math.min(CHUNK, size - position), out);
+                if (copied <= 0) {
+                    throw new IOException("Unable to copy `" + source + "` past byte " + position);
+                }
+                position += copied;
+                progress(job, copied);
+            }
+            out.force(true);
+        }
+        Files.setLastModifiedTime(part, attributes.lastModifiedTime());
+        Files.move(part, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void progress(JobManager.Job job, long bytes) {
+        if (job != null) {
+            job.progress(bytes);
+        }
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -4,8 +4,6 @@ import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 
 public class FileUtils {
 
@@ -47,13 +45,10 @@ public class FileUtils {
         mkPath(ftpd + "/common/series");
         new File(ftpd + "/common/movies").mkdirs();
 
-        System.out.println(new File(ftpd + "/" + userName + "/" + filePath).exists());
-        System.out.println(new File(ftpd + "/common/" + newName).exists());
-
-        Files.copy(
-                new File(ftpd + "/" + userName + "/" + filePath).toPath(),
-                new File(ftpd + "/common/" + newName).toPath(),
-                StandardCopyOption.REPLACE_EXISTING);
+        /* published file is a link to the same blob as the user's file, no data is copied */
+        BlobStore.get().publish(
+                new File(ShardedStorage.get().home(userName), filePath),
+                new File(ftpd + "/common/" + newName));
 
 //        /* @DEPRECATED */
 //        String[] components = filePath.split("/");
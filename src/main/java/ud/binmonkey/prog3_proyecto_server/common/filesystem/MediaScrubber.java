@@ -0,0 +1,445 @@
+package ud.binmonkey.prog3_proyecto_server.common.filesystem;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.w3c.dom.Element;
+import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
+import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Background integrity check of published media: every file is read again and its SHA-256 compared to the one
+ * stored when it was uploaded (@ChecksumIndex) or published (@BlobStore), so bit rot is found before users do.
+ * Files with nothing stored get their checksums recorded, to be verified by the next pass.
+ * Reads go through a @FileChannel limited to bytesPerSecond and stop while transfer load is high. The result of
+ * every file is appended to the results file before the position in the pass is persisted, so a restart resumes
+ * where it stopped instead of starting over and keeps what was found.
+ */
+public class MediaScrubber {
+
+    private static final Logger LOG = Logger.getLogger(MediaScrubber.class.getName());
+    static {
+        try {
+            LOG.addHandler(new FileHandler(
+                    "logs/" + MediaScrubber.class.getName() + "." +
+                            DateUtils.currentFormattedDate() + ".log.xml", true));
+        } catch (SecurityException | IOException e) {
+            LOG.log(Level.SEVERE, "Unable to create log file.");
+        }
+    }
+
+    private static final int MAX_CHUNK = 1024 * 1024;
+    private static final long PAUSE = 1000; /* ms between load checks while paused */
+
+    public enum Status {
+        OK, CORRUPT, RECORDED, ERROR
+    }
+
+    public enum State {
+        IDLE, RUNNING, PAUSED, STOPPED
+    }
+
+    private final File root;
+    private final ChecksumIndex checksums;
+    private final BlobStore blobs; /* null if published files are not in a blob store */
+    private final File checkpointFile;
+    private final File resultsFile;
+    private final long bytesPerSecond;
+    private final int maxTransfers;
+    private final long interval;
+
+    /* path relative to root -> last result */
+    private final Map<String, Result> results = new ConcurrentHashMap<>();
+    private volatile State state = State.IDLE;
+    private volatile String current = null;
+    private long pass = 1;
+    private String last = null; /* last file of pass done, null at the start of a pass */
+    private long windowStart;
+    private long windowBytes;
+    private final AtomicLong bytesRead = new AtomicLong();
+    private Thread thread = null;
+
+    /**
+     * Result of the last verification of a file
+     */
+    public static class Result {
+        private final Status status;
+        private final long time;
+        private final String expected;
+        private final String actual;
+
+        private Result(Status status, long time, String expected, String actual) {
+            this.status = status;
+            this.time = time;
+            this.expected = expected;
+            this.actual = actual;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public long getTime() {
+            return time;
+        }
+    }
+
+    /**
+     * Scrubber of the published media of the FTP server, created on first use
+     */
+    private static class Holder {
+        private static final MediaScrubber SCRUBBER = fromProperties();
+    }
+
+    /**
+     * @return scrubber of the FTP server
+     */
+    public static MediaScrubber get() {
+        return Holder.SCRUBBER;
+    }
+
+    private static MediaScrubber fromProperties() {
+        Element ftpServer = DocumentReader.getAttr(DocumentReader.getDoc("conf/properties.xml"),
+                "network", "ftp-server");
+        String ftpd = ftpServer.getElementsByTagName("ftpd").item(0).getTextContent().trim();
+        Element scrubber = (Element) ftpServer.getElementsByTagName("scrubber").item(0);
+        return new MediaScrubber(new File(ftpd, "common"), ChecksumIndex.get(), BlobStore.get(),
+                new File(ftpd, ".meta/scrub"),
+                Long.parseLong(textValue(scrubber, "bytes-per-second")),
+                Integer.parseInt(textValue(scrubber, "max-transfers")),
+                Long.parseLong(textValue(scrubber, "interval")) * 1000);
+    }
+
+    private static String textValue(Element element, String tag) {
+        return element.getElementsByTagName(tag).item(0).getTextContent().trim();
+    }
+
+    /**
+     * @param root directory of published media, walked in path order
+     * @param checksums index checksums are verified against and recorded in
+     * @param blobs store whose hashes are used for files not in the index, null if none
+     * @param state prefix of the checkpoint (`.checkpoint`) and results (`.tsv`) files, loaded if they exist
+     * @param bytesPerSecond read budget, 0 for unlimited
+     * @param maxTransfers load at which scrubbing pauses
+     * @param interval ms between the end of a pass and the start of the next one
+     */
+    public MediaScrubber(File root, ChecksumIndex checksums, BlobStore blobs, File state, long bytesPerSecond,
+                         int maxTransfers, long interval) {
+        this.root = root;
+        this.checksums = checksums;
+        this.blobs = blobs;
+        this.checkpointFile = new File(state.getPath() + ".checkpoint");
+        this.resultsFile = new File(state.getPath() + ".tsv");
+        this.bytesPerSecond = bytesPerSecond;
+        this.maxTransfers = maxTransfers;
+        this.interval = interval;
+        loadCheckpoint();
+        loadResults();
+    }
+
+    /**
+     * Starts scrubbing in a daemon thread, one pass every interval. Safe to call more than once.
+     * @param load transfers in progress (FTP transfers, HTTPS requests...), checked before every read
+     */
+    public synchronized void start(IntSupplier load) {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    scrub(load);
+                    state = State.IDLE;
+                    Thread.sleep(interval);
+                }
+            } catch (InterruptedException e) {
+                /* stopped */
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, "Scrubber stopped: " + e.getMessage());
+            }
+            state = State.STOPPED;
+        }, "media-scrubber");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops scrubbing, the next start resumes from the last file checked
+     */
+    public synchronized void stop() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * Checks the files of the pass not checked yet, in path order
+     * @param load transfers in progress, reading waits while it is at least maxTransfers
+     * @return files checked
+     */
+    int scrub(IntSupplier load) throws IOException, InterruptedException {
+        List<String> files;
+        try (Stream<Path> paths = Files.walk(root.toPath())) {
+            files = paths.filter(Files::isRegularFile)
+                    .map(path -> root.toPath().relativize(path).toString())
+                    .filter(path -> !hidden(path))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (NoSuchFileException e) {
+            files = Collections.emptyList();
+        }
+        state = State.RUNNING;
+        resetWindow();
+        int checked = 0;
+        for (String path : files) {
+            if (last != null && path.compareTo(last) <= 0) {
+                continue; /* done before a restart */
+            }
+            waitForLoad(load);
+            if (!new File(root, path).isFile()) {
+                continue; /* deleted since the walk */
+            }
+            current = path;
+            Result result = verify(new File(root, path));
+            results.put(path, result);
+            current = null;
+            checked++;
+            appendResult(path, result);
+            last = path;
+            saveCheckpoint();
+        }
+        LOG.log(Level.INFO, "Scrub pass " + pass + " finished, " + checked + " files checked.");
+        /* forget files deleted since they were checked */
+        results.keySet().retainAll(new HashSet<>(files));
+        pass++;
+        last = null;
+        /* compacts the results appended during the pass */
+        saveResults();
+        saveCheckpoint();
+        return checked;
+    }
+
+    private static boolean hidden(String path) {
+        for (String part : path.split(java.util.regex.Pattern.quote(File.separator))) {
+            if (part.startsWith(".")) {
+                return true; /* partial copies, temporary links */
+            }
+        }
+        return false;
+    }
+
+    private void waitForLoad(IntSupplier load) throws InterruptedException {
+        if (load.getAsInt() < maxTransfers) {
+            return;
+        }
+        state = State.PAUSED;
+        LOG.log(Level.FINE, "Transfer load high, scrubber paused.");
+        while (load.getAsInt() >= maxTransfers) {
+            Thread.sleep(PAUSE);
+        }
+        state = State.RUNNING;
+        /* time paused is not budget saved up */
+        resetWindow();
+    }
+
+    private void resetWindow() {
+        windowStart = System.nanoTime();
+        windowBytes = 0;
+    }
+
+    /**
+     * Sleeps until reading bytes more keeps the average under bytesPerSecond
+     */
+    private void throttle(long bytes) throws InterruptedException {
+        bytesRead.addAndGet(bytes);
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        windowBytes += bytes;
+        long due = windowBytes * 1000000000L / bytesPerSecond - (System.nanoTime() - windowStart);
+        if (due > 0) {
+            Thread.sleep(due / 1000000, (int) (due % 1000000));
+        }
+    }
+
+    /**
+     * @param file published file
+     * @return result of comparing file with its stored SHA-256
+     */
+    Result verify(File file) throws InterruptedException {
+        ChecksumIndex.Checksums stored = checksums.get(file);
+        String expected = stored != null ? stored.getSha256() : blobs == null ? null : blobs.hashOf(file);
+        ChecksumIndex.Digester digester = new ChecksumIndex.Digester();
+        /* small enough for a few reads per second of budget */
+        long budget = bytesPerSecond <= 0 ? MAX_CHUNK : bytesPerSecond / 10;
+        int chunk = (int) Math.max(4096, Math.min(MAX_CHUNK, budget));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(chunk);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            int read;
+            while ((read = channel.read(buffer)) != -1) {
+                buffer.flip();
+                digester.update(buffer);
+                buffer.clear();
+                throttle(read);
+            }
+        } catch (ClosedByInterruptException e) {
+            throw new InterruptedException("Stopped reading `" + file + "`");
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Unable to read `" + file + "`: " + e.getMessage());
+            return new Result(Status.ERROR, System.currentTimeMillis(), expected, null);
+        }
+        ChecksumIndex.Checksums actual = digester.finish(file);
+        if (expected == null) {
+            checksums.put(file, actual);
+            return new Result(Status.RECORDED, System.currentTimeMillis(), null, actual.getSha256());
+        }
+        if (!expected.equals(actual.getSha256())) {
+            LOG.log(Level.SEVERE, "`" + file + "` is corrupt: SHA-256 " + actual.getSha256() + ", expected " +
+                    expected + ".");
+            return new Result(Status.CORRUPT, System.currentTimeMillis(), expected, actual.getSha256());
+        }
+        if (stored == null) {
+            checksums.put(file, actual);
+        }
+        return new Result(Status.OK, System.currentTimeMillis(), expected, actual.getSha256());
+    }
+
+    /**
+     * @param path path of a file relative to the root
+     * @return result of the last check of file, null if it was never checked
+     */
+    public Result getResult(String path) {
+        return results.get(path);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /* Persistence */
+
+    private void saveCheckpoint() {
+        write(checkpointFile, pass + "\t" + (last == null ? "" : last) + "\n");
+    }
+
+    private void loadCheckpoint() {
+        if (!checkpointFile.exists()) {
+            return;
+        }
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(checkpointFile),
+                StandardCharsets.UTF_8))) {
+            String[] fields = in.readLine().split("\t", -1);
+            pass = Long.parseLong(fields[0]);
+            last = fields.length > 1 && !fields[1].isEmpty() ? fields[1] : null;
+            LOG.log(Level.INFO, "Resuming scrub pass " + pass + (last == null ? "." : " after `" + last + "`."));
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Unable to read scrub checkpoint `" + checkpointFile + "`: " + e.getMessage());
+        }
+    }
+
+    private void saveResults() {
+        StringBuilder tsv = new StringBuilder();
+        for (Map.Entry<String, Result> e : new TreeMap<>(results).entrySet()) {
+            tsv.append(line(e.getKey(), e.getValue()));
+        }
+        write(resultsFile, tsv.toString());
+    }
+
+    /**
+     * Appends the result of a file, read back over any earlier line of the same file
+     */
+    private void appendResult(String path, Result result) {
+        //noinspection ResultOfMethodCallIgnored
+        resultsFile.getAbsoluteFile().getParentFile().mkdirs();
+        try {
+            Files.write(resultsFile.toPath(), line(path, result).getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.DSYNC);
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Unable to write `" + resultsFile + "`: " + e.getMessage());
+        }
+    }
+
+    private static String line(String path, Result r) {
+        return path + '\t' + r.status + '\t' + r.time + '\t' + (r.expected == null ? "-" : r.expected) + '\t' +
+                (r.actual == null ? "-" : r.actual) + '\n';
+    }
+
+    private void loadResults() {
+        if (!resultsFile.exists()) {
+            return;
+        }
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(resultsFile),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length != 5) {
+                    continue; /* last line cut short by a crash */
+                }
+                try {
+                    results.put(fields[0], new Result(Status.valueOf(fields[1]), Long.parseLong(fields[2]),
+                            fields[3].equals("-") ? null : fields[3], fields[4].equals("-") ? null : fields[4]));
+                } catch (IllegalArgumentException e) {
+                    /* same */
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Unable to read scrub results `" + resultsFile + "`: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replaces a file atomically, a crash leaves either the old or the new content
+     */
+    private static void write(File file, String content) {
+        File parent = file.getAbsoluteFile().getParentFile();
+        //noinspection ResultOfMethodCallIgnored
+        parent.mkdirs();
+        File tmp = new File(parent, file.getName() + ".tmp");
+        try {
+            Files.write(tmp.toPath(), content.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Unable to write `" + file + "`: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return JSON with the state of the scrubber and the files found corrupt
+     */
+    public String toJson() {
+        EnumMap<Status, Integer> counts = new EnumMap<>(Status.class);
+        JSONArray corrupt = new JSONArray();
+        for (Map.Entry<String, Result> e : new TreeMap<>(results).entrySet()) {
+            counts.merge(e.getValue().status, 1, Integer::sum);
+            if (e.getValue().status == Status.CORRUPT) {
+                corrupt.put(e.getKey());
+            }
+        }
+        String current = this.current;
+        return new JSONObject().put("state", state.toString())
+                .put("pass", pass).put("current", current == null ? JSONObject.NULL : current)
+                .put("bytesPerSecond", bytesPerSecond).put("bytesRead", bytesRead.get())
+                .put("ok", counts.getOrDefault(Status.OK, 0))
+                .put("recorded", counts.getOrDefault(Status.RECORDED, 0))
+                .put("errors", counts.getOrDefault(Status.ERROR, 0)).put("corrupt", corrupt).toString(1);
+    }
+}
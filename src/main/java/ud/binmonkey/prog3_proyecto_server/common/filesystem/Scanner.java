@@ -7,11 +7,14 @@ import ud.binmonkey.prog3_proyecto_server.common.exceptions.DirIsFileException;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Scanner {
 
     private static final String ftpd = DocumentReader.getAttr(DocumentReader.getDoc("conf/properties.xml"),
             "network", "ftp-server", "ftpd").getTextContent();
+    /* username -> directory tree of home, kept until the home changes */
+    private static final ConcurrentHashMap<String, JSONObject> homes = new ConcurrentHashMap<>();
 
 
     public static JSONObject scanDir(String path) throws FileNotFoundException, DirIsFileException {
@@ -53,6 +56,38 @@ public class Scanner {
         return dir;
     }
 
+    /**
+     * Directory tree of a user home, scanned only the first time and after it changes
+     * @param userName username of user
+     * @return same as @scanDir of home
+     */
+    public static JSONObject scanHome(String userName) throws FileNotFoundException, DirIsFileException {
+        JSONObject home = homes.get(userName);
+        if (home == null) {
+            home = refresh(userName);
+        }
+        return home;
+    }
+
+    /**
+     * Scans a user home again, called after uploads
+     * @param userName username of user
+     * @return directory tree of home
+     */
+    public static JSONObject refresh(String userName) throws FileNotFoundException, DirIsFileException {
+        JSONObject home = scanDir(ShardedStorage.get().home(userName).getPath());
+        homes.put(userName, home);
+        return home;
+    }
+
+    /**
+     * Forgets the directory tree of a user home, it will be scanned on next request
+     * @param userName username of user
+     */
+    public static void invalidate(String userName) {
+        homes.remove(userName);
+    }
+
     public static String getFtpd() {
         return ftpd;
     }
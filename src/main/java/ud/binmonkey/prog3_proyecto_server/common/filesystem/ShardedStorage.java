@@ -0,0 +1,326 @@
+package ud.binmonkey.prog3_proyecto_server.common.filesystem;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
+import ud.binmonkey.prog3_proyecto_server.common.jobs.JobManager;
+import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * User homes spread over several storage roots (disks), each user assigned to one by consistent hashing of its
+ * name. Every root owns points of a hash ring in proportion to its weight (its size in GB unless configured), so
+ * adding a root only moves the users whose points it takes. ftpd is always the first root: published content,
+ * blobs and metadata stay there.
+ * Homes are looked up where they are, not where they should be, so users not yet moved by @rebalance are found.
+ */
+public class ShardedStorage {
+
+    private static final Logger LOG = Logger.getLogger(ShardedStorage.class.getName());
+    static {
+        try {
+            LOG.addHandler(new FileHandler(
+                    "logs/" + ShardedStorage.class.getName() + "." +
+                            DateUtils.currentFormattedDate() + ".log.xml", true));
+        } catch (SecurityException | IOException e) {
+            LOG.log(Level.SEVERE, "Unable to create log file.");
+        }
+    }
+
+    private static final int MIN_POINTS = 16;
+    private static final long GB = 1024L * 1024 * 1024;
+
+    private final List<Shard> shards = new ArrayList<>();
+    /* hash -> root owning the ring from the previous point up to it */
+    private final NavigableMap<Long, Shard> ring = new TreeMap<>();
+    /* user -> root its home was last found in */
+    private final Map<String, Shard> located = new ConcurrentHashMap<>();
+
+    /**
+     * A storage root and its metrics
+     */
+    public static class Shard {
+        private final File root;
+        private final long weight;
+        private final int points;
+        private final AtomicLong read = new AtomicLong();
+        private final AtomicLong written = new AtomicLong();
+        private final AtomicLong movedIn = new AtomicLong();
+
+        private Shard(File root, long weight, int points) {
+            this.root = root;
+            this.weight = weight;
+            this.points = points;
+        }
+
+        public File getRoot() {
+            return root;
+        }
+
+        public long getWeight() {
+            return weight;
+        }
+
+        /**
+         * @param bytes bytes read from a file of this root
+         */
+        public void read(long bytes) {
+            read.addAndGet(bytes);
+        }
+
+        /**
+         * @param bytes bytes written to a file of this root
+         */
+        public void written(long bytes) {
+            written.addAndGet(bytes);
+        }
+
+        private JSONObject toJson() {
+            String[] homes = root.list((dir, name) -> isHome(new File(dir, name)));
+            return new JSONObject().put("root", root.getPath()).put("weight", weight).put("points", points)
+                    .put("homes", homes == null ? 0 : homes.length)
+                    .put("totalSpace", root.getTotalSpace()).put("usableSpace", root.getUsableSpace())
+                    .put("bytesRead", read.get()).put("bytesWritten", written.get())
+                    .put("homesMovedIn", movedIn.get());
+        }
+    }
+
+    /**
+     * Storage of the FTP server, created on first use
+     */
+    private static class Holder {
+        private static final ShardedStorage STORAGE = fromProperties();
+    }
+
+    /**
+     * @return storage of the FTP server
+     */
+    public static ShardedStorage get() {
+        return Holder.STORAGE;
+    }
+
+    private static ShardedStorage fromProperties() {
+        Element ftpServer = DocumentReader.getAttr(DocumentReader.getDoc("conf/properties.xml"),
+                "network", "ftp-server");
+        String ftpd = ftpServer.getElementsByTagName("ftpd").item(0).getTextContent().trim();
+        Element storage = (Element) ftpServer.getElementsByTagName("storage").item(0);
+
+        Map<File, Long> roots = new LinkedHashMap<>();
+        roots.put(new File(ftpd), weightOf(storage.getAttribute("ftpd-weight")));
+        NodeList nodes = storage.getElementsByTagName("root");
+        for (int i = 0; i < nodes.getLength(); i++) {
+            Element root = (Element) nodes.item(i);
+            roots.put(new File(root.getTextContent().trim()), weightOf(root.getAttribute("weight")));
+        }
+        int pointsPerTb = Integer.parseInt(
+                storage.getElementsByTagName("points-per-tb").item(0).getTextContent().trim());
+        return new ShardedStorage(roots, pointsPerTb);
+    }
+
+    private static long weightOf(String attribute) {
+        return attribute == null || attribute.trim().isEmpty() ? 0 : Long.parseLong(attribute.trim());
+    }
+
+    /**
+     * @param roots storage roots, the first one being ftpd, and their weight in GB; 0 to use the size of the disk
+     * @param pointsPerTb points of the ring per TB of weight
+     */
+    public ShardedStorage(Map<File, Long> roots, int pointsPerTb) {
+        for (Map.Entry<File, Long> entry : roots.entrySet()) {
+            File root = entry.getKey();
+            //noinspection ResultOfMethodCallIgnored
+            root.mkdirs();
+            long weight = entry.getValue() > 0 ? entry.getValue() : Math.max(1, root.getTotalSpace() / GB);
+            int points = (int) Math.max(MIN_POINTS, Math.round(pointsPerTb * weight / 1024.0));
+            Shard shard = new Shard(root, weight, points);
+            shards.add(shard);
+            /* points only depend on the root itself, the ones of other roots never move */
+            for (int i = 0; i < points; i++) {
+                ring.put(hash(root.getPath() + "#" + i), shard);
+            }
+        }
+        LOG.log(Level.INFO, "Storage of " + shards.size() + " roots, " + ring.size() + " ring points.");
+    }
+
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long hash = 0;
+            for (int i = 0; i < 8; i++) {
+                hash = hash << 8 | digest[i] & 0xFF;
+            }
+            return hash;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Directories of a root that are not user homes: `common` and hidden ones (blobs, metadata)
+     */
+    private static boolean isHome(File dir) {
+        return dir.isDirectory() && !dir.getName().equals("common") && !dir.getName().startsWith(".");
+    }
+
+    /**
+     * @param userName user
+     * @return root home of user belongs in
+     */
+    public Shard shardOf(String userName) {
+        Map.Entry<Long, Shard> entry = ring.ceilingEntry(hash(userName));
+        return (entry != null ? entry : ring.firstEntry()).getValue();
+    }
+
+    /**
+     * @param userName user
+     * @return directory home of user belongs in, where new homes are created
+     */
+    public File assignedHome(String userName) {
+        return new File(shardOf(userName).root, userName);
+    }
+
+    /**
+     * @param userName user
+     * @return existing home of user, wherever it is; if it doesn't exist the one it belongs in
+     */
+    public File home(String userName) {
+        Shard shard = located.get(userName);
+        if (shard != null && new File(shard.root, userName).isDirectory()) {
+            return new File(shard.root, userName);
+        }
+        File home = assignedHome(userName);
+        if (home.isDirectory()) {
+            located.put(userName, shardOf(userName));
+            return home;
+        }
+        for (Shard other : shards) {
+            File moved = new File(other.root, userName);
+            if (moved.isDirectory()) {
+                located.put(userName, other);
+                return moved;
+            }
+        }
+        return home;
+    }
+
+    /**
+     * @param file physical file
+     * @return root file is stored in, null if none
+     */
+    public Shard shardOfFile(File file) {
+        String path = file.getAbsolutePath();
+        Shard found = null;
+        for (Shard shard : shards) {
+            String root = shard.root.getAbsolutePath();
+            if ((path.equals(root) || path.startsWith(root.endsWith(File.separator) ? root : root + File.separator))
+                    && (found == null || root.length() > found.root.getAbsolutePath().length())) {
+                found = shard;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @param file physical file
+     * @return user whose home (or `common`) file is in, null if it isn't in one
+     */
+    public String ownerOf(File file) {
+        Shard shard = shardOfFile(file);
+        if (shard == null) {
+            return null;
+        }
+        Path relative = shard.root.getAbsoluteFile().toPath().normalize()
+                .relativize(file.getAbsoluteFile().toPath().normalize());
+        String first = relative.getName(0).toString();
+        return first.isEmpty() || first.startsWith(".") ? null : first;
+    }
+
+    /**
+     * @return every user home of every root
+     */
+    public List<File> homes() {
+        List<File> homes = new ArrayList<>();
+        for (Shard shard : shards) {
+            File[] dirs = shard.root.listFiles(ShardedStorage::isHome);
+            if (dirs != null) {
+                homes.addAll(Arrays.asList(dirs));
+            }
+        }
+        return homes;
+    }
+
+    public List<Shard> getShards() {
+        return Collections.unmodifiableList(shards);
+    }
+
+    /**
+     * Moves every home not in the root it belongs in, e.g. after a root was added. Only those homes are moved.
+     * @param job job progress is reported to, in homes; null if not needed
+     * @param busy users whose home can't be moved now (logged in), they are left for a later run
+     * @param moved called with every user whose home was moved
+     * @return homes moved
+     */
+    public int rebalance(JobManager.Job job, Predicate<String> busy, Consumer<String> moved) throws IOException {
+        List<File> misplaced = new ArrayList<>();
+        for (File home : homes()) {
+            if (!home.getParentFile().getAbsoluteFile().equals(shardOf(home.getName()).root.getAbsoluteFile())) {
+                misplaced.add(home);
+            }
+        }
+        if (job != null) {
+            job.setTotal(misplaced.size());
+        }
+        int count = 0;
+        for (File home : misplaced) {
+            String userName = home.getName();
+            if (busy.test(userName)) {
+                LOG.log(Level.INFO, "`" + userName + "` is logged in, home not moved.");
+            } else {
+                Shard target = shardOf(userName);
+                if (job != null) {
+                    job.setMessage("Moving `" + userName + "` to `" + target.root + "`");
+                }
+                DirectoryMover.move(home.toPath(), new File(target.root, userName).toPath(), null);
+                located.put(userName, target);
+                target.movedIn.incrementAndGet();
+                moved.accept(userName);
+                count++;
+            }
+            if (job != null) {
+                job.progress(1);
+            }
+        }
+        if (job != null) {
+            job.setMessage("Moved " + count + " of " + misplaced.size() + " homes");
+        }
+        LOG.log(Level.INFO, "Rebalanced storage: moved " + count + " of " + misplaced.size() + " homes.");
+        return count;
+    }
+
+    /**
+     * @return JSON array with the capacity and IO metrics of every root
+     */
+    public String toJson() {
+        JSONArray json = new JSONArray();
+        for (Shard shard : shards) {
+            json.put(shard.toJson());
+        }
+        return json.toString(1);
+    }
+}
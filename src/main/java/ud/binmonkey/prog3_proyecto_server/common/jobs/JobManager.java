@@ -0,0 +1,199 @@
+package ud.binmonkey.prog3_proyecto_server.common.jobs;
+
+import org.json.JSONObject;
+import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs long operations (home moves, ...) in background threads so HTTP handlers can answer at once with a job
+ * id whose status and progress are polled later. Finished jobs are kept for an hour.
+ */
+public enum JobManager {
+    INSTANCE;
+
+    private static final Logger LOG = Logger.getLogger(JobManager.class.getName());
+    static {
+        try {
+            LOG.addHandler(new FileHandler(
+                    "logs/" + JobManager.class.getName() + "." +
+                            DateUtils.currentFormattedDate() + ".log.xml", true));
+        } catch (SecurityException | IOException e) {
+            LOG.log(Level.SEVERE, "Unable to create log file.");
+        }
+    }
+
+    private static final int WORKERS = 2;
+    private static final long RETENTION = 60 * 60 * 1000; /* ms finished jobs are kept */
+
+    private final ConcurrentHashMap<String, Job> jobs = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newFixedThreadPool(WORKERS, r -> {
+        Thread thread = new Thread(r, "job-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public enum State {
+        QUEUED, RUNNING, DONE, FAILED
+    }
+
+    /**
+     * Work done by a job, reports its progress through the job
+     */
+    public interface Task {
+        void run(Job job) throws Exception;
+    }
+
+    /**
+     * Status of a background operation
+     */
+    public static class Job {
+        private final String id;
+        private final String type;
+        private final String owner;
+        private final long created = System.currentTimeMillis();
+        private volatile State state = State.QUEUED;
+        private volatile long finished = 0;
+        private volatile String message = "";
+        private final AtomicLong done = new AtomicLong();
+        private volatile long total = 0;
+
+        Job(String id, String type, String owner) {
+            this.id = id;
+            this.type = type;
+            this.owner = owner;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * @return ms time the job finished at, 0 while queued or running
+         */
+        public long getFinished() {
+            return finished;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public long getDone() {
+            return done.get();
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        /**
+         * @param total units of work of job, e.g. bytes to copy
+         */
+        public void setTotal(long total) {
+            this.total = total;
+        }
+
+        /**
+         * @param units units of work just finished
+         */
+        public void progress(long units) {
+            done.addAndGet(units);
+        }
+
+        /**
+         * @param message human readable description of current step or result
+         */
+        public void setMessage(String message) {
+            this.message = message;
+        }
+
+        public String toJson() {
+            return new JSONObject().put("id", id).put("type", type).put("owner", owner).put("state", state.toString())
+                    .put("done", done.get()).put("total", total).put("created", created).put("finished", finished)
+                    .put("message", message).toString();
+        }
+    }
+
+    /**
+     * Queues a task
+     * @param type kind of job, e.g. `rename`
+     * @param owner username allowed to see the job
+     * @param task work to do
+     * @return job tracking task
+     */
+    public Job submit(String type, String owner, Task task) {
+        return submit(UUID.randomUUID().toString(), type, owner, task, executor);
+    }
+
+    /**
+     * Queues a task on a pool of its own, e.g. the workers of a kind of job that must not wait for the others
+     * @param id id of the job, the one a resumed job was known by before a restart
+     * @param type kind of job, e.g. `publish`
+     * @param owner username allowed to see the job
+     * @param task work to do
+     * @param executor threads running task
+     * @return job tracking task
+     */
+    public Job submit(String id, String type, String owner, Task task, Executor executor) {
+        prune();
+        Job job = new Job(id, type, owner);
+        jobs.put(job.id, job);
+        executor.execute(() -> {
+            job.state = State.RUNNING;
+            try {
+                task.run(job);
+                job.state = State.DONE;
+                LOG.log(Level.INFO, "Job " + job.id + " (" + type + ") of `" + owner + "` done.");
+            } catch (Exception e) {
+                job.message = String.valueOf(e.getMessage());
+                job.state = State.FAILED;
+                LOG.log(Level.SEVERE, "Job " + job.id + " (" + type + ") of `" + owner + "` failed: " + e);
+            } finally {
+                job.finished = System.currentTimeMillis();
+            }
+        });
+        return job;
+    }
+
+    /**
+     * @param id id of job
+     * @return job, null if unknown or expired
+     */
+    public Job get(String id) {
+        return jobs.get(id);
+    }
+
+    private void prune() {
+        long now = System.currentTimeMillis();
+        Iterator<Job> iterator = jobs.values().iterator();
+        while (iterator.hasNext()) {
+            Job job = iterator.next();
+            if (job.finished != 0 && now - job.finished > RETENTION) {
+                iterator.remove();
+            }
+        }
+    }
+}
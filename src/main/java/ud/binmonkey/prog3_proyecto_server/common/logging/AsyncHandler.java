@@ -0,0 +1,96 @@
+package ud.binmonkey.prog3_proyecto_server.common.logging;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * Handler that hands records to a background thread which publishes them to another handler.
+ * Logging thread only pays for an offer to a bounded queue: formatting and IO are done by the daemon.
+ * If the queue is full the record is dropped instead of blocking the caller.
+ */
+public class AsyncHandler extends Handler {
+
+    private static final int DEFAULT_CAPACITY = 8192;
+
+    private final Handler delegate;
+    private final BlockingQueue<LogRecord> queue;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread worker;
+    private volatile boolean closed = false;
+
+    /**
+     * @param delegate handler that will actually publish the records
+     */
+    public AsyncHandler(Handler delegate) {
+        this(delegate, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param delegate handler that will actually publish the records
+     * @param capacity max records waiting to be published
+     */
+    public AsyncHandler(Handler delegate, int capacity) {
+        this.delegate = delegate;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.worker = new Thread(this::drain, "async-log-" + delegate.getClass().getSimpleName());
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        /* skip caller inference, a stack walk that would also be wrong in the worker thread.
+         * Loggers are named after their class so the source class is still meaningful */
+        record.setSourceClassName(record.getLoggerName());
+        if (!queue.offer(record)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Publish queued records until handler is closed
+     */
+    private void drain() {
+        while (!closed || !queue.isEmpty()) {
+            try {
+                LogRecord record = queue.poll(1, TimeUnit.SECONDS);
+                if (record != null) {
+                    delegate.publish(record);
+                }
+            } catch (InterruptedException e) {
+                closed = true;
+            }
+        }
+        delegate.flush();
+    }
+
+    @Override
+    public void flush() {
+        delegate.flush();
+    }
+
+    @Override
+    public void close() throws SecurityException {
+        closed = true;
+        try {
+            worker.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        delegate.close();
+    }
+
+    /**
+     * @return number of records dropped because the queue was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+}
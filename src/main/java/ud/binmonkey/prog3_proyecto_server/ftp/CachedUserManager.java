@@ -0,0 +1,362 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.apache.ftpserver.ftplet.*;
+import org.apache.ftpserver.usermanager.AnonymousAuthentication;
+import org.apache.ftpserver.usermanager.Md5PasswordEncryptor;
+import org.apache.ftpserver.usermanager.UsernamePasswordAuthentication;
+import org.apache.ftpserver.usermanager.impl.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * FTP user manager that keeps every user in memory and writes the user file behind.
+ * Reads never touch the disk and don't block. Writes are serialized, coalesced and persisted by a single
+ * background thread shortly after the last change, writing a temporary file and renaming it over the old one.
+ * The file format is the same one used by @org.apache.ftpserver.usermanager.impl.PropertiesUserManager.
+ */
+public class CachedUserManager extends AbstractUserManager {
+
+    private static final Logger LOG = Logger.getLogger(CachedUserManager.class.getName());
+    private static final String PREFIX = "ftpserver.user.";
+    private static final long FLUSH_DELAY = 500; /* millis */
+
+    private final File userFile;
+    private final ConcurrentHashMap<String, BaseUser> users = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    private final Object fileLock = new Object(); /* taken before writeLock, never after */
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ftp-user-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private boolean flushScheduled = false; /* guarded by writeLock */
+    private long version = 0;               /* guarded by writeLock */
+    private long flushedVersion = 0;        /* guarded by writeLock, only raised holding fileLock */
+    private long writes = 0;                /* guarded by fileLock */
+
+    /**
+     * @param userFile properties file users are loaded from and persisted to
+     */
+    public CachedUserManager(File userFile) {
+        super("admin", new Md5PasswordEncryptor());
+        this.userFile = userFile;
+        load();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "ftp-user-flush-on-exit"));
+    }
+
+    /* Read operations: lock free */
+
+    @Override
+    public User getUserByName(String userName) {
+        BaseUser user = users.get(userName);
+        if (user == null) {
+            return null;
+        }
+        BaseUser copy = new BaseUser(user);
+        copy.setPassword(null); /* never hand out password hashes */
+        return copy;
+    }
+
+    /**
+     * @param userName username
+     * @return password hash of user as stored in the user file, null if it does not exist. Only for
+     * @UserFileMigration, which moves it to MongoDB
+     */
+    String getPasswordHash(String userName) {
+        BaseUser user = users.get(userName);
+        return user == null ? null : user.getPassword();
+    }
+
+    @Override
+    public String[] getAllUserNames() {
+        String[] names = users.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        return names;
+    }
+
+    @Override
+    public boolean doesExist(String userName) {
+        return users.containsKey(userName);
+    }
+
+    @Override
+    public User authenticate(Authentication authentication) throws AuthenticationFailedException {
+        if (authentication instanceof UsernamePasswordAuthentication) {
+            UsernamePasswordAuthentication upAuth = (UsernamePasswordAuthentication) authentication;
+            if (upAuth.getUsername() == null) {
+                throw new AuthenticationFailedException("Authentication failed");
+            }
+            BaseUser user = users.get(upAuth.getUsername());
+            String password = upAuth.getPassword() == null ? "" : upAuth.getPassword();
+            if (user != null && getPasswordEncryptor().matches(password, user.getPassword())) {
+                return getUserByName(upAuth.getUsername());
+            }
+            throw new AuthenticationFailedException("Authentication failed");
+
+        } else if (authentication instanceof AnonymousAuthentication) {
+            if (doesExist("anonymous")) {
+                return getUserByName("anonymous");
+            }
+            throw new AuthenticationFailedException("Authentication failed");
+        }
+        throw new IllegalArgumentException("Authentication not supported by this user manager");
+    }
+
+    /* Write operations: serialized, persisted behind */
+
+    @Override
+    public void save(User user) {
+        synchronized (writeLock) {
+            put(user);
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Save many users with a single write of the user file
+     * @param newUsers users to be saved
+     */
+    public void saveAll(Collection<? extends User> newUsers) {
+        synchronized (writeLock) {
+            for (User user : newUsers) {
+                put(user);
+            }
+            scheduleFlush();
+        }
+    }
+
+    @Override
+    public void delete(String userName) {
+        synchronized (writeLock) {
+            if (users.remove(userName) != null) {
+                version++;
+                scheduleFlush();
+            }
+        }
+    }
+
+    /**
+     * Rename a user keeping its password and permissions
+     * @param oldUserName current username
+     * @param newUserName new username
+     * @param homeDirectory new home directory
+     * @throws FtpException old user does not exist or new user already exists
+     */
+    public void rename(String oldUserName, String newUserName, String homeDirectory) throws FtpException {
+        synchronized (writeLock) {
+            BaseUser user = users.get(oldUserName);
+            if (user == null || users.containsKey(newUserName)) {
+                throw new FtpException("Unable to rename `" + oldUserName + "` to `" + newUserName + "`");
+            }
+            BaseUser renamed = new BaseUser(user);
+            renamed.setName(newUserName);
+            renamed.setHomeDirectory(homeDirectory);
+            users.put(newUserName, renamed);
+            users.remove(oldUserName);
+            version++;
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Store a copy of user, encrypting its password. A null password keeps the current one.
+     * Must be called holding writeLock.
+     */
+    private void put(User user) {
+        if (user.getName() == null) {
+            throw new NullPointerException("User name is null.");
+        }
+        BaseUser copy = new BaseUser(user);
+        if (user.getPassword() != null) {
+            copy.setPassword(getPasswordEncryptor().encrypt(user.getPassword()));
+        } else {
+            BaseUser current = users.get(user.getName());
+            copy.setPassword(current != null ? current.getPassword() : getPasswordEncryptor().encrypt(""));
+        }
+        copy.setAuthorities(withDefaults(user));
+        users.put(user.getName(), copy);
+        version++;
+    }
+
+    /**
+     * Users are kept as they would be read back from the user file: FtpServer refuses logins of users that
+     * can't authorize a @ConcurrentLoginRequest, so unlimited login and rate permissions are added if missing
+     * @param user user being saved
+     * @return authorities of user plus the missing defaults
+     */
+    private static List<Authority> withDefaults(User user) {
+        List<Authority> authorities = new ArrayList<>(user.getAuthorities());
+        if (user.authorize(new ConcurrentLoginRequest(0, 0)) == null) {
+            authorities.add(new ConcurrentLoginPermission(0, 0));
+        }
+        if (user.authorize(new TransferRateRequest()) == null) {
+            authorities.add(new TransferRatePermission(0, 0));
+        }
+        return authorities;
+    }
+
+    /**
+     * Coalesce writes: at most one pending flush at any time. Must be called holding writeLock.
+     */
+    private void scheduleFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            flusher.schedule(this::flush, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Write user file now if there are unsaved changes. Snapshots are taken under writeLock so writers never wait
+     * for the disk, and written under fileLock, skipping those older than the last one written, so a slow flush
+     * can't replace the file with an older snapshot.
+     */
+    public void flush() {
+        Properties properties;
+        long snapshot;
+        synchronized (writeLock) {
+            flushScheduled = false;
+            if (version == flushedVersion) {
+                return;
+            }
+            snapshot = version;
+            properties = toProperties();
+        }
+        synchronized (fileLock) {
+            synchronized (writeLock) {
+                if (snapshot <= flushedVersion) {
+                    return;
+                }
+            }
+            try {
+                write(properties);
+                synchronized (writeLock) {
+                    flushedVersion = snapshot;
+                }
+            } catch (IOException e) {
+                LOG.log(Level.SEVERE, "Unable to write user file `" + userFile + "`: " + e.getMessage());
+                synchronized (writeLock) {
+                    scheduleFlush();
+                }
+            }
+        }
+    }
+
+    /**
+     * Atomically replace user file. Must be called holding fileLock.
+     */
+    private void write(Properties properties) throws IOException {
+        File parent = userFile.getAbsoluteFile().getParentFile();
+        if (!parent.exists()) {
+            parent.mkdirs();
+        }
+        File tmp = new File(parent, userFile.getName() + ".tmp");
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+            properties.store(out, "Generated file - don't edit (please)");
+        }
+        Files.move(tmp.toPath(), userFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        writes++;
+    }
+
+    /**
+     * @return times the user file was written since start
+     */
+    long getWrites() {
+        synchronized (fileLock) {
+            return writes;
+        }
+    }
+
+    /* Conversion from and to the properties format */
+
+    private Properties toProperties() {
+        Properties properties = new Properties();
+        for (BaseUser user : users.values()) {
+            String key = PREFIX + user.getName() + '.';
+            properties.setProperty(key + ATTR_PASSWORD, user.getPassword());
+            properties.setProperty(key + ATTR_HOME, user.getHomeDirectory() == null ? "/" : user.getHomeDirectory());
+            properties.setProperty(key + ATTR_ENABLE, String.valueOf(user.getEnabled()));
+            properties.setProperty(key + ATTR_WRITE_PERM, String.valueOf(user.authorize(new WriteRequest()) != null));
+            properties.setProperty(key + ATTR_MAX_IDLE_TIME, String.valueOf(user.getMaxIdleTime()));
+
+            TransferRateRequest transferRate = (TransferRateRequest) user.authorize(new TransferRateRequest());
+            if (transferRate != null) {
+                properties.setProperty(key + ATTR_MAX_UPLOAD_RATE, String.valueOf(transferRate.getMaxUploadRate()));
+                properties.setProperty(key + ATTR_MAX_DOWNLOAD_RATE,
+                        String.valueOf(transferRate.getMaxDownloadRate()));
+            }
+
+            ConcurrentLoginRequest concurrentLogin =
+                    (ConcurrentLoginRequest) user.authorize(new ConcurrentLoginRequest(0, 0));
+            if (concurrentLogin != null) {
+                if (concurrentLogin.getMaxConcurrentLogins() != 0) {
+                    properties.setProperty(key + ATTR_MAX_LOGIN_NUMBER,
+                            String.valueOf(concurrentLogin.getMaxConcurrentLogins()));
+                }
+                if (concurrentLogin.getMaxConcurrentLoginsPerIP() != 0) {
+                    properties.setProperty(key + ATTR_MAX_LOGIN_PER_IP,
+                            String.valueOf(concurrentLogin.getMaxConcurrentLoginsPerIP()));
+                }
+            }
+        }
+        return properties;
+    }
+
+    private void load() {
+        if (!userFile.exists()) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(userFile))) {
+            properties.load(in);
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Unable to read user file `" + userFile + "`: " + e.getMessage());
+            return;
+        }
+
+        Set<String> names = new HashSet<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(PREFIX)) {
+                String name = key.substring(PREFIX.length());
+                int end = name.lastIndexOf('.');
+                if (end > 0) {
+                    names.add(name.substring(0, end));
+                }
+            }
+        }
+
+        for (String name : names) {
+            String key = PREFIX + name + '.';
+            BaseUser user = new BaseUser();
+            user.setName(name);
+            user.setPassword(properties.getProperty(key + ATTR_PASSWORD, getPasswordEncryptor().encrypt("")));
+            user.setHomeDirectory(properties.getProperty(key + ATTR_HOME, "/"));
+            user.setEnabled(Boolean.parseBoolean(properties.getProperty(key + ATTR_ENABLE, "true")));
+            user.setMaxIdleTime(Integer.parseInt(properties.getProperty(key + ATTR_MAX_IDLE_TIME, "0")));
+
+            List<Authority> authorities = new ArrayList<>();
+            if (Boolean.parseBoolean(properties.getProperty(key + ATTR_WRITE_PERM, "false"))) {
+                authorities.add(new WritePermission());
+            }
+            authorities.add(new ConcurrentLoginPermission(
+                    Integer.parseInt(properties.getProperty(key + ATTR_MAX_LOGIN_NUMBER, "0")),
+                    Integer.parseInt(properties.getProperty(key + ATTR_MAX_LOGIN_PER_IP, "0"))));
+            authorities.add(new TransferRatePermission(
+                    Integer.parseInt(properties.getProperty(key + ATTR_MAX_DOWNLOAD_RATE, "0")),
+                    Integer.parseInt(properties.getProperty(key + ATTR_MAX_UPLOAD_RATE, "0"))));
+            user.setAuthorities(authorities);
+
+            users.put(name, user);
+        }
+        LOG.log(Level.INFO, "Loaded " + users.size() + " FTP users from `" + userFile + "`");
+    }
+}
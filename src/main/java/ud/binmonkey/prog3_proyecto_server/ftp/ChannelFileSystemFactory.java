@@ -0,0 +1,104 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.apache.ftpserver.filesystem.nativefs.NativeFileSystemFactory;
+import org.apache.ftpserver.ftplet.FileSystemFactory;
+import org.apache.ftpserver.ftplet.FileSystemView;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.User;
+import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.ChecksumIndex;
+
+/**
+ * File system of the FTP server: the native file system, but files are read and written through
+ * @java.nio.channels.FileChannel with large direct buffers (@ChannelFtpFile) instead of 4KB stream copies.
+ * Directories of ftpd can be mounted read only in the view of every user (@VirtualMounts), except base users
+ * who already see them. Uploads can be digested while written (@ChecksumIndex).
+ * Configured as a bean in the ftplet XML file, buffer sizes are in bytes.
+ */
+public class ChannelFileSystemFactory implements FileSystemFactory {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private final NativeFileSystemFactory nativeFactory = new NativeFileSystemFactory();
+    private int readBufferSize = DEFAULT_BUFFER_SIZE;
+    private int writeBufferSize = DEFAULT_BUFFER_SIZE;
+    private String mounts = null;
+    private VirtualMounts virtualMounts = new VirtualMounts(null, null);
+    private ChecksumIndex checksumIndex = null;
+
+    @Override
+    public FileSystemView createFileSystemView(User user) throws FtpException {
+        return new ChannelFileSystemView(nativeFactory.createFileSystemView(user), readBufferSize, writeBufferSize,
+                MongoUserManager.isBaseUser(user.getName()) ? new VirtualMounts(null, null) : virtualMounts,
+                checksumIndex);
+    }
+
+    public boolean isCreateHome() {
+        return nativeFactory.isCreateHome();
+    }
+
+    public void setCreateHome(boolean createHome) {
+        nativeFactory.setCreateHome(createHome);
+    }
+
+    public boolean isCaseInsensitive() {
+        return nativeFactory.isCaseInsensitive();
+    }
+
+    public void setCaseInsensitive(boolean caseInsensitive) {
+        nativeFactory.setCaseInsensitive(caseInsensitive);
+    }
+
+    public int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    /**
+     * @param readBufferSize bytes read from disk at once by downloads
+     */
+    public void setReadBufferSize(int readBufferSize) {
+        this.readBufferSize = readBufferSize;
+    }
+
+    public int getWriteBufferSize() {
+        return writeBufferSize;
+    }
+
+    /**
+     * @param writeBufferSize bytes written to disk at once by uploads
+     */
+    public void setWriteBufferSize(int writeBufferSize) {
+        this.writeBufferSize = writeBufferSize;
+    }
+
+    public String getMounts() {
+        return mounts;
+    }
+
+    /**
+     * @param mounts semicolon separated `virtual=physical` pairs, physical paths relative to ftpd
+     */
+    public void setMounts(String mounts) {
+        this.mounts = mounts;
+        this.virtualMounts = new VirtualMounts(DocumentReader.getAttr(DocumentReader.getDoc("conf/properties.xml"),
+                "network", "ftp-server", "ftpd").getTextContent(), mounts);
+    }
+
+    public boolean isChecksums() {
+        return checksumIndex != null;
+    }
+
+    /**
+     * @param checksums true to compute SHA-256, CRC32 and CRC32C of uploads while they are written
+     */
+    public void setChecksums(boolean checksums) {
+        this.checksumIndex = checksums ? ChecksumIndex.get() : null;
+    }
+
+    /**
+     * @param checksumIndex index filled by uploads, null to disable
+     */
+    void setChecksumIndex(ChecksumIndex checksumIndex) {
+        this.checksumIndex = checksumIndex;
+    }
+}
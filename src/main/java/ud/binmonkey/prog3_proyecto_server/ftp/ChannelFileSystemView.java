@@ -0,0 +1,173 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.apache.ftpserver.filesystem.nativefs.impl.NativeFtpFile;
+import org.apache.ftpserver.ftplet.FileSystemView;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.ChecksumIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Native file system view whose files are wrapped in @ChannelFtpFile.
+ * Paths inside @VirtualMounts are served read only from their physical directory, hiding any file of the user
+ * with the same name. Everything else (path resolution, working directory, permissions) is left to the native view.
+ */
+public class ChannelFileSystemView implements FileSystemView {
+
+    private final FileSystemView nativeView;
+    private final int readBufferSize;
+    private final int writeBufferSize;
+    private final VirtualMounts mounts;
+    private final ChecksumIndex checksums; /* null if uploads are not digested */
+    /* working directory when it is inside a mount, the native view can't hold it */
+    private String virtualCwd = null;
+
+    /**
+     * @param nativeView native view of the user
+     * @param readBufferSize bytes read from disk at once
+     * @param writeBufferSize bytes written to disk at once
+     */
+    public ChannelFileSystemView(FileSystemView nativeView, int readBufferSize, int writeBufferSize) {
+        this(nativeView, readBufferSize, writeBufferSize, new VirtualMounts(null, null));
+    }
+
+    /**
+     * @param nativeView native view of the user
+     * @param readBufferSize bytes read from disk at once
+     * @param writeBufferSize bytes written to disk at once
+     * @param mounts read only directories shown in the view
+     */
+    public ChannelFileSystemView(FileSystemView nativeView, int readBufferSize, int writeBufferSize,
+                                 VirtualMounts mounts) {
+        this(nativeView, readBufferSize, writeBufferSize, mounts, null);
+    }
+
+    /**
+     * @param nativeView native view of the user
+     * @param readBufferSize bytes read from disk at once
+     * @param writeBufferSize bytes written to disk at once
+     * @param mounts read only directories shown in the view
+     * @param checksums index filled with the checksums of uploads, null to skip digesting
+     */
+    public ChannelFileSystemView(FileSystemView nativeView, int readBufferSize, int writeBufferSize,
+                                 VirtualMounts mounts, ChecksumIndex checksums) {
+        this.nativeView = nativeView;
+        this.readBufferSize = readBufferSize;
+        this.writeBufferSize = writeBufferSize;
+        this.mounts = mounts;
+        this.checksums = checksums;
+    }
+
+    /**
+     * @param file file of the native view
+     * @return file reading and writing through channels
+     */
+    FtpFile wrap(FtpFile file) {
+        if (file instanceof NativeFtpFile) {
+            return new ChannelFtpFile((NativeFtpFile) file, this);
+        }
+        return file;
+    }
+
+    @Override
+    public FtpFile getHomeDirectory() throws FtpException {
+        return wrap(nativeView.getHomeDirectory());
+    }
+
+    /**
+     * Adds the virtual entries of a directory to its native ones
+     * @param path absolute virtual path of directory
+     * @param files native files of directory
+     * @return files plus the mounts (or directories leading to them) in directory
+     */
+    List<FtpFile> withMounts(String path, List<FtpFile> files) {
+        Set<String> names = mounts.children(path);
+        if (names.isEmpty()) {
+            return files;
+        }
+        List<FtpFile> merged = new ArrayList<>(files.size() + names.size());
+        for (FtpFile file : files) {
+            if (!names.contains(file.getName())) {
+                merged.add(file);
+            }
+        }
+        String prefix = path.endsWith("/") ? path : path + "/";
+        for (String name : names) {
+            merged.add(new MountedFtpFile(prefix + name, mounts, this));
+        }
+        return merged;
+    }
+
+    /**
+     * @return absolute virtual path of working directory
+     */
+    private String cwd() throws FtpException {
+        return virtualCwd != null ? virtualCwd : nativeView.getWorkingDirectory().getAbsolutePath();
+    }
+
+    @Override
+    public FtpFile getWorkingDirectory() throws FtpException {
+        if (virtualCwd != null) {
+            return new MountedFtpFile(virtualCwd, mounts, this);
+        }
+        return wrap(nativeView.getWorkingDirectory());
+    }
+
+    @Override
+    public boolean changeWorkingDirectory(String dir) throws FtpException {
+        if (mounts.isEmpty()) {
+            return nativeView.changeWorkingDirectory(dir);
+        }
+        String path = VirtualMounts.normalize(cwd(), dir);
+        if (mounts.contains(path)) {
+            FtpFile file = new MountedFtpFile(path, mounts, this);
+            if (!file.doesExist() || !file.isDirectory()) {
+                return false;
+            }
+            virtualCwd = path;
+            return true;
+        }
+        if (nativeView.changeWorkingDirectory(path)) {
+            virtualCwd = null;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public FtpFile getFile(String file) throws FtpException {
+        if (mounts.isEmpty()) {
+            return wrap(nativeView.getFile(file));
+        }
+        String path = VirtualMounts.normalize(cwd(), file);
+        if (mounts.contains(path)) {
+            return new MountedFtpFile(path, mounts, this);
+        }
+        return wrap(nativeView.getFile(path));
+    }
+
+    @Override
+    public boolean isRandomAccessible() throws FtpException {
+        return nativeView.isRandomAccessible();
+    }
+
+    @Override
+    public void dispose() {
+        nativeView.dispose();
+    }
+
+    int getReadBufferSize() {
+        return readBufferSize;
+    }
+
+    int getWriteBufferSize() {
+        return writeBufferSize;
+    }
+
+    ChecksumIndex getChecksums() {
+        return checksums;
+    }
+}
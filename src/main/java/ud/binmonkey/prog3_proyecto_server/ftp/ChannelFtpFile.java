@@ -0,0 +1,411 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.apache.ftpserver.filesystem.nativefs.impl.NativeFtpFile;
+import org.apache.ftpserver.ftplet.FtpFile;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.BlobStore;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.ChecksumIndex;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.ShardedStorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Native FTP file that is read and written through a @FileChannel and a large direct buffer (@DirectBufferPool).
+ * FtpServer copies data connections 4KB at a time; with these streams the disk sees one system call per buffer
+ * instead of one per 4KB, and bytes transferred are reported live to @SessionMonitor and to the storage root
+ * (@ShardedStorage) the file is in.
+ * Whole uploads are digested from the same buffer before it is written (@ChecksumIndex).
+ */
+public class ChannelFtpFile implements FtpFile {
+
+    private final NativeFtpFile file;
+    private final ChannelFileSystemView view;
+
+    ChannelFtpFile(NativeFtpFile file, ChannelFileSystemView view) {
+        this.file = file;
+        this.view = view;
+    }
+
+    @Override
+    public InputStream createInputStream(long offset) throws IOException {
+        if (!isReadable()) {
+            throw new IOException("No read permission : " + file.getPhysicalFile().getName());
+        }
+        FileChannel channel = FileChannel.open(file.getPhysicalFile().toPath(), StandardOpenOption.READ);
+        channel.position(offset);
+        return new ChannelInputStream(channel, view.getReadBufferSize(),
+                ShardedStorage.get().shardOfFile(file.getPhysicalFile()));
+    }
+
+    @Override
+    public OutputStream createOutputStream(long offset) throws IOException {
+        if (!isWritable()) {
+            throw new IOException("No write permission : " + file.getPhysicalFile().getName());
+        }
+        /* a published file shares its data with a blob, writing must not change it */
+        BlobStore.detach(file.getPhysicalFile(), offset);
+        FileChannel channel = FileChannel.open(file.getPhysicalFile().toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        /* same as native file: anything after offset is discarded */
+        channel.truncate(offset);
+        channel.position(offset);
+        /* resumed uploads are not digested, the stale entry is recomputed when it is requested */
+        ChecksumIndex checksums = offset == 0 ? view.getChecksums() : null;
+        return new ChannelOutputStream(channel, view.getWriteBufferSize(), file.getPhysicalFile(), checksums,
+                ShardedStorage.get().shardOfFile(file.getPhysicalFile()));
+    }
+
+    /**
+     * Reads a channel a whole buffer at a time and serves the small reads of FtpServer from it
+     */
+    static class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final ShardedStorage.Shard shard; /* null if not counted */
+        private boolean eof = false;
+        private boolean closed = false;
+
+        ChannelInputStream(FileChannel channel, int bufferSize) {
+            this(channel, bufferSize, null);
+        }
+
+        /**
+         * @param shard storage root bytes read are counted in, null to not count them
+         */
+        ChannelInputStream(FileChannel channel, int bufferSize, ShardedStorage.Shard shard) {
+            this.channel = channel;
+            this.buffer = DirectBufferPool.get().acquire(bufferSize);
+            this.buffer.flip(); /* empty */
+            this.shard = shard;
+        }
+
+        /**
+         * @return false if channel has no more data
+         */
+        private boolean fill() throws IOException {
+            ensureOpen();
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+            if (eof) {
+                return false;
+            }
+            buffer.clear();
+            int read = channel.read(buffer);
+            buffer.flip();
+            if (read <= 0) {
+                eof = true;
+                return false;
+            }
+            SessionMonitor.transferred(read);
+            if (shard != null) {
+                shard.read(read);
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            ensureOpen();
+            if (n <= 0) {
+                return 0;
+            }
+            long skipped = Math.min(n, buffer.remaining());
+            buffer.position(buffer.position() + (int) skipped);
+            if (skipped < n) {
+                long position = channel.position();
+                long target = Math.min(channel.size(), position + n - skipped);
+                channel.position(target);
+                skipped += target - position;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            ensureOpen();
+            return buffer.remaining();
+        }
+
+        /* the buffer belongs to another stream once closed */
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                channel.close();
+            } finally {
+                DirectBufferPool.get().release(buffer);
+            }
+        }
+    }
+
+    /**
+     * Collects the small writes of FtpServer and writes them to the channel a whole buffer at a time
+     */
+    static class ChannelOutputStream extends OutputStream {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private final File file;
+        private final ChecksumIndex checksums;
+        private final ChecksumIndex.Digester digester;
+        private final ShardedStorage.Shard shard; /* null if not counted */
+        private boolean closed = false;
+
+        ChannelOutputStream(FileChannel channel, int bufferSize) {
+            this(channel, bufferSize, null, null);
+        }
+
+        /**
+         * @param file file channel writes, indexed on close
+         * @param checksums index to store checksums of file in, null to skip digesting
+         */
+        ChannelOutputStream(FileChannel channel, int bufferSize, File file, ChecksumIndex checksums) {
+            this(channel, bufferSize, file, checksums, null);
+        }
+
+        /**
+         * @param file file channel writes, indexed on close
+         * @param checksums index to store checksums of file in, null to skip digesting
+         * @param shard storage root bytes written are counted in, null to not count them
+         */
+        ChannelOutputStream(FileChannel channel, int bufferSize, File file, ChecksumIndex checksums,
+                            ShardedStorage.Shard shard) {
+            this.channel = channel;
+            this.buffer = DirectBufferPool.get().acquire(bufferSize);
+            this.file = file;
+            this.checksums = checksums;
+            this.digester = checksums != null ? new ChecksumIndex.Digester() : null;
+            this.shard = shard;
+        }
+
+        private void drain() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            buffer.flip();
+            int written = buffer.remaining();
+            if (digester != null) {
+                digester.update(buffer);
+            }
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+            SessionMonitor.transferred(written);
+            if (shard != null) {
+                shard.written(written);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (closed || !buffer.hasRemaining()) {
+                drain();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (closed || !buffer.hasRemaining()) {
+                    drain();
+                }
+                int n = Math.min(len, buffer.remaining());
+                buffer.put(b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (buffer.position() > 0) {
+                drain();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            try {
+                flush();
+            } finally {
+                closed = true;
+                try {
+                    channel.close();
+                } finally {
+                    DirectBufferPool.get().release(buffer);
+                }
+            }
+            if (digester != null) {
+                checksums.put(file, digester.finish(file));
+            }
+        }
+    }
+
+    /* Everything else is done by the native file */
+
+    @Override
+    public List<FtpFile> listFiles() {
+        List<FtpFile> files = file.listFiles();
+        if (files == null) {
+            return null;
+        }
+        List<FtpFile> wrapped = new ArrayList<>(files.size());
+        for (FtpFile child : files) {
+            wrapped.add(view.wrap(child));
+        }
+        return view.withMounts(getAbsolutePath(), wrapped);
+    }
+
+    @Override
+    public boolean move(FtpFile destination) {
+        if (destination instanceof ChannelFtpFile) {
+            destination = ((ChannelFtpFile) destination).file;
+        }
+        return file.move(destination);
+    }
+
+    @Override
+    public String getAbsolutePath() {
+        return file.getAbsolutePath();
+    }
+
+    @Override
+    public String getName() {
+        return file.getName();
+    }
+
+    @Override
+    public boolean isHidden() {
+        return file.isHidden();
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return file.isDirectory();
+    }
+
+    @Override
+    public boolean isFile() {
+        return file.isFile();
+    }
+
+    @Override
+    public boolean doesExist() {
+        return file.doesExist();
+    }
+
+    @Override
+    public boolean isReadable() {
+        return file.isReadable();
+    }
+
+    @Override
+    public boolean isWritable() {
+        return file.isWritable();
+    }
+
+    @Override
+    public boolean isRemovable() {
+        return file.isRemovable();
+    }
+
+    @Override
+    public String getOwnerName() {
+        return file.getOwnerName();
+    }
+
+    @Override
+    public String getGroupName() {
+        return file.getGroupName();
+    }
+
+    @Override
+    public int getLinkCount() {
+        return file.getLinkCount();
+    }
+
+    @Override
+    public long getLastModified() {
+        return file.getLastModified();
+    }
+
+    @Override
+    public boolean setLastModified(long time) {
+        return file.setLastModified(time);
+    }
+
+    @Override
+    public long getSize() {
+        return file.getSize();
+    }
+
+    @Override
+    public File getPhysicalFile() {
+        return file.getPhysicalFile();
+    }
+
+    @Override
+    public boolean mkdir() {
+        return file.mkdir();
+    }
+
+    @Override
+    public boolean delete() {
+        if (!isRemovable()) {
+            return false;
+        }
+        if (view.getChecksums() != null) {
+            view.getChecksums().forget(file.getPhysicalFile());
+        }
+        return BlobStore.delete(file.getPhysicalFile());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof ChannelFtpFile && file.equals(((ChannelFtpFile) obj).file);
+    }
+
+    @Override
+    public int hashCode() {
+        return file.hashCode();
+    }
+}
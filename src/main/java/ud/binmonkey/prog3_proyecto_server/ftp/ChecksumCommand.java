@@ -0,0 +1,91 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.apache.ftpserver.command.AbstractCommand;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.FtpReply;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.impl.FtpIoSession;
+import org.apache.ftpserver.impl.FtpServerContext;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.ChecksumIndex;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Checksum extensions answered from @ChecksumIndex: XCRC (CRC32), XMD5 (MD5) and HASH (SHA-256, reply as in
+ * draft-bryan-ftp-hash). Uploads are digested while written, so their checksums are sent without reading them.
+ * Mapped to command names in the ftplet XML file, one bean per algorithm.
+ */
+public class ChecksumCommand extends AbstractCommand {
+
+    private String algorithm = "SHA-256";
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @param algorithm one of `CRC32`, `CRC32C`, `MD5` or `SHA-256`
+     */
+    public void setAlgorithm(String algorithm) {
+        this.algorithm = algorithm.toUpperCase();
+    }
+
+    @Override
+    public void execute(FtpIoSession session, FtpServerContext context, FtpRequest request) throws IOException {
+        session.resetState();
+
+        String argument = request.getArgument();
+        if (argument == null || argument.trim().isEmpty()) {
+            session.write(new DefaultFtpReply(FtpReply.REPLY_501_SYNTAX_ERROR_IN_PARAMETERS_OR_ARGUMENTS,
+                    "Syntax error in parameters or arguments."));
+            return;
+        }
+
+        FtpFile file;
+        try {
+            file = session.getFileSystemView().getFile(argument);
+        } catch (FtpException e) {
+            file = null;
+        }
+        if (file == null || !file.isFile() || !file.isReadable() || !(file.getPhysicalFile() instanceof File)) {
+            session.write(new DefaultFtpReply(FtpReply.REPLY_550_REQUESTED_ACTION_NOT_TAKEN,
+                    "Not a readable file: `" + argument + "`."));
+            return;
+        }
+
+        ChecksumIndex.Checksums checksums;
+        try {
+            checksums = ChecksumIndex.get().compute((File) file.getPhysicalFile(), algorithm.equals("MD5"));
+        } catch (IOException e) {
+            session.write(new DefaultFtpReply(FtpReply.REPLY_451_REQUESTED_ACTION_ABORTED,
+                    "Unable to read file: `" + argument + "`."));
+            return;
+        }
+
+        switch (algorithm) {
+            case "CRC32":
+                session.write(new DefaultFtpReply(FtpReply.REPLY_250_REQUESTED_FILE_ACTION_OKAY,
+                        String.format("%08X", checksums.getCrc32())));
+                break;
+
+            case "CRC32C":
+                session.write(new DefaultFtpReply(FtpReply.REPLY_250_REQUESTED_FILE_ACTION_OKAY,
+                        String.format("%08X", checksums.getCrc32c())));
+                break;
+
+            case "MD5":
+                session.write(new DefaultFtpReply(FtpReply.REPLY_250_REQUESTED_FILE_ACTION_OKAY,
+                        checksums.getMd5()));
+                break;
+
+            default:
+                session.write(new DefaultFtpReply(FtpReply.REPLY_213_FILE_STATUS,
+                        "SHA-256 0-" + Math.max(0, checksums.getSize() - 1) + " " + checksums.getSha256() + " " +
+                                file.getName()));
+                break;
+        }
+    }
+}
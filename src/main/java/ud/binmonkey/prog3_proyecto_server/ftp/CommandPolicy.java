@@ -0,0 +1,94 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.User;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Commands each class of user is allowed to execute, compiled once into EnumSets (bitsets)
+ * so checking a command costs a hash lookup and a bit test.
+ */
+public class CommandPolicy {
+
+    private static final Logger LOG = Logger.getLogger(CommandPolicy.class.getName());
+    /* session attribute holding the UserClass of the logged in user */
+    static final String USER_CLASS = "policy.userClass";
+    private static final int COMMAND_COUNT = FtpCommand.values().length;
+
+    /**
+     * Class of FTP user, decided once per session
+     */
+    public enum UserClass {
+        ADMIN, COMMON, USER;
+
+        /**
+         * @param user logged in FTP user
+         * @return class of user
+         */
+        static UserClass of(User user) {
+            if (user.getName().equals("admin")) {
+                return ADMIN;
+            } else if (user.getName().equals("common") || user.getHomeDirectory().matches(".*/common/?")) {
+                return COMMON;
+            }
+            return USER;
+        }
+    }
+
+    private final EnumMap<UserClass, EnumSet<FtpCommand>> allowed = new EnumMap<>(UserClass.class);
+
+    /**
+     * @param commonCommands commands allowed for user `common`, every other class may run any command
+     */
+    public CommandPolicy(String... commonCommands) {
+        EnumSet<FtpCommand> common = EnumSet.noneOf(FtpCommand.class);
+        for (String command : commonCommands) {
+            FtpCommand ftpCommand = FtpCommand.lookup(command.trim().toUpperCase());
+            if (ftpCommand != null) {
+                common.add(ftpCommand);
+            } else {
+                LOG.log(Level.WARNING, "Unknown FTP command in policy: `" + command + "`");
+            }
+        }
+        allowed.put(UserClass.ADMIN, EnumSet.allOf(FtpCommand.class));
+        allowed.put(UserClass.COMMON, common);
+        allowed.put(UserClass.USER, EnumSet.allOf(FtpCommand.class));
+    }
+
+    /**
+     * Decide the class of the session user and cache it in the session. Must be called once the user is logged in.
+     * @param session logged in session
+     * @return class of session user
+     */
+    public static UserClass classify(FtpSession session) {
+        UserClass userClass = UserClass.of(session.getUser());
+        session.setAttribute(USER_CLASS, userClass);
+        return userClass;
+    }
+
+    /**
+     * @param session current session
+     * @return cached class of session user, null if not logged in
+     */
+    public static UserClass userClass(FtpSession session) {
+        return (UserClass) session.getAttribute(USER_CLASS);
+    }
+
+    /**
+     * @param userClass class of user
+     * @param command command as sent by client
+     * @return true if command is allowed, unknown commands are only allowed to unrestricted classes
+     */
+    public boolean isAllowed(UserClass userClass, String command) {
+        EnumSet<FtpCommand> commands = allowed.get(userClass);
+        FtpCommand ftpCommand = FtpCommand.lookup(command);
+        if (ftpCommand == null) {
+            return commands.size() == COMMAND_COUNT;
+        }
+        return commands.contains(ftpCommand);
+    }
+}
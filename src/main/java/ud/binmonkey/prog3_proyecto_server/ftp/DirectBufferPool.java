@@ -0,0 +1,85 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Direct buffers of the @ChannelFtpFile streams. A stream takes one when it is opened and gives it back when it is
+ * closed, instead of allocating a large direct buffer per transfer that only the GC frees.
+ * At most maxDirect buffers are direct at a time, idle ones included: streams opened past that get heap buffers,
+ * so many concurrent transfers can't exhaust direct memory.
+ */
+class DirectBufferPool {
+
+    static final int MAX_DIRECT = 64; /* 64MB with the default 1MB buffers */
+    private static final DirectBufferPool POOL = new DirectBufferPool(MAX_DIRECT);
+
+    /**
+     * @return pool shared by every stream of the server
+     */
+    static DirectBufferPool get() {
+        return POOL;
+    }
+
+    private final Semaphore direct; /* direct buffers that can still be allocated */
+    private final ConcurrentHashMap<Integer, Queue<ByteBuffer>> idle = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxDirect max direct buffers in use or idle
+     */
+    DirectBufferPool(int maxDirect) {
+        this.direct = new Semaphore(maxDirect);
+    }
+
+    /**
+     * @param size capacity of buffer
+     * @return empty buffer, direct unless the pool is exhausted
+     */
+    ByteBuffer acquire(int size) {
+        ByteBuffer buffer = idle(size).poll();
+        if (buffer != null) {
+            buffer.clear();
+            return buffer;
+        }
+        if (direct.tryAcquire() || dropIdle()) {
+            return ByteBuffer.allocateDirect(size);
+        }
+        return ByteBuffer.allocate(size);
+    }
+
+    /**
+     * @param buffer buffer given by @acquire, not to be used after
+     */
+    void release(ByteBuffer buffer) {
+        if (buffer.isDirect()) {
+            idle(buffer.capacity()).offer(buffer);
+        }
+    }
+
+    /**
+     * @return idle direct buffers of size
+     */
+    int getIdle(int size) {
+        return idle(size).size();
+    }
+
+    private Queue<ByteBuffer> idle(int size) {
+        return idle.computeIfAbsent(size, k -> new ConcurrentLinkedQueue<>());
+    }
+
+    /**
+     * Frees an idle buffer of another size (e.g. after buffer sizes were changed), its slot is taken by the caller
+     * @return false if there was none
+     */
+    private boolean dropIdle() {
+        for (Queue<ByteBuffer> buffers : idle.values()) {
+            if (buffers.poll() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -1,20 +1,18 @@
 package ud.binmonkey.prog3_proyecto_server.ftp;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.ftpserver.FtpServer;
 import org.apache.ftpserver.ftplet.Authority;
 import org.apache.ftpserver.ftplet.FtpException;
-import org.apache.ftpserver.ftplet.User;
 import org.apache.ftpserver.ftplet.UserManager;
 import org.apache.ftpserver.impl.DefaultFtpServer;
 import org.apache.ftpserver.impl.FtpServerContext;
-import org.apache.ftpserver.usermanager.PropertiesUserManagerFactory;
 import org.apache.ftpserver.usermanager.impl.BaseUser;
 import org.apache.ftpserver.usermanager.impl.WritePermission;
-import org.springframework.context.support.FileSystemXmlApplicationContext;
 import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
 import ud.binmonkey.prog3_proyecto_server.common.exceptions.*;
-import ud.binmonkey.prog3_proyecto_server.common.security.UserAuthentication;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.DirectoryMover;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.ShardedStorage;
+import ud.binmonkey.prog3_proyecto_server.common.jobs.JobManager;
 import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
 
 import java.io.File;
@@ -33,8 +31,10 @@ public class FTPServer extends DefaultFtpServer{
             "network", "ftp-server", "ftpd").getTextContent();
     private static final String userFile = DocumentReader.getAttr(DocumentReader.getDoc("conf/properties.xml"),
             "network", "ftp-server", "user-file").getTextContent();
-    private static final String ftpLetFile = DocumentReader.getAttr(DocumentReader.getDoc("conf/properties.xml"),
-            "network", "ftp-server", "ftplet-file").getTextContent();
+    /* base users, cached and written behind */
+    private static final CachedUserManager userManager = new CachedUserManager(new File(userFile));
+    /* every other user is stored in MongoDB */
+    private static final MongoUserManager mongoUserManager = new MongoUserManager(userManager);
 
     static {
         try {
@@ -62,6 +62,7 @@ public class FTPServer extends DefaultFtpServer{
         try {
             createAdmin();
             createCommon();
+            warnUnmigratedUsers();
 
             /* create common directory */
             File commonDir = new File(ftpd + "/common/data/images/");
@@ -74,6 +75,20 @@ public class FTPServer extends DefaultFtpServer{
         }
     }
 
+    /**
+     * @return user manager holding the base users (admin, common), stored in the user file
+     */
+    public static CachedUserManager getCachedUserManager() {
+        return userManager;
+    }
+
+    /**
+     * @return user manager used by the FTP server, referenced from the spring configuration
+     */
+    public static MongoUserManager getMongoUserManager() {
+        return mongoUserManager;
+    }
+
     /**
      * Checks if FTP user exists
      * @param userName username to be checked
@@ -86,41 +101,22 @@ public class FTPServer extends DefaultFtpServer{
     }
 
     /**
-     * XXX: ONLY USE THIS METHOD FOR USER MANAGEMENT
-     * @param userName username of new user
-     * @param password password of new user
+     * @param userName username
+     * @param password password
+     * @param homeDir home directory of user
+     * @return basic user with write permission
      */
-    public static void createUser(String userName, String password) throws FtpException,
-            NewUserExistsException, AdminEditException, InvalidNameException {
-
-        /* lowercase usernames */
-        userName = userName.toLowerCase();
-        UserAuthentication.checkAdmin(userName);
-        UserAuthentication.isValidName(userName);
-
-        PropertiesUserManagerFactory userManagerFactory = new PropertiesUserManagerFactory();
-        userManagerFactory.setFile(new File(userFile));
+    private static BaseUser newUser(String userName, String password, String homeDir) {
+        BaseUser user = new BaseUser();
+        user.setName(userName);
+        user.setPassword(password);
+        user.setHomeDirectory(homeDir);
 
-        UserManager userManager = userManagerFactory.createUserManager();
-
-        if (!userExists(userName, userManager)) {
-            /* create basic user */
-            BaseUser user = new BaseUser();
-            user.setName(userName);
-            user.setPassword(password);
-            user.setHomeDirectory(ftpd + userName);
-
-            /* give permissions */
-            List<Authority> authorities = new ArrayList<>();
-            authorities.add(new WritePermission());
-            user.setAuthorities(authorities);
-
-            /* save user */
-            userManager.save(user);
-            LOG.log(Level.INFO, "New user `" + userName + "` created.");
-        } else {
-            throw new NewUserExistsException(userName);
-        }
+        /* give permissions */
+        List<Authority> authorities = new ArrayList<>();
+        authorities.add(new WritePermission());
+        user.setAuthorities(authorities);
+        return user;
     }
 
     /**
@@ -145,24 +141,8 @@ public class FTPServer extends DefaultFtpServer{
      */
     private static void createBaseUser(String userName, String password, String homeDir) {
         try {
-            PropertiesUserManagerFactory userManagerFactory = new PropertiesUserManagerFactory();
-            userManagerFactory.setFile(new File(userFile));
-
-            UserManager userManager = userManagerFactory.createUserManager();
-
-        /* create basic user */
-            BaseUser user = new BaseUser();
-            user.setName(userName);
-            user.setPassword(password);
-            user.setHomeDirectory(ftpd + homeDir);
-
-        /* give permissions */
-            List<Authority> authorities = new ArrayList<>();
-            authorities.add(new WritePermission());
-            user.setAuthorities(authorities);
-
-        /* save user */
-            userManager.save(user);
+            /* save user */
+            userManager.save(newUser(userName, password, ftpd + homeDir));
             LOG.log(Level.INFO, "Admin user `" + userName + "` created.");
         } catch (Exception e){
             e.printStackTrace();
@@ -170,134 +150,62 @@ public class FTPServer extends DefaultFtpServer{
     }
 
     /**
-     * Creates new dir, copies all files from old dir to new dir and deletes old dir
-     * @param oldDir current directory
-     * @param newDir new directory
+     * Users used to be duplicated in the user file, MongoDB is now the only place they are stored. They are moved
+     * by @UserFileMigration, never on startup, so users missing from MongoDB are not lost
      */
-    private static void migrateAllFiles(String oldDir, String newDir) throws IOException {
-        FileUtils.copyDirectory(new File(oldDir), new File(newDir));
-        LOG.log(Level.INFO, "Copied directory + `" + oldDir + "` to new directory `" + newDir + "`");
-        FileUtils.deleteDirectory(new File(oldDir));
-        LOG.log(Level.INFO, "Deleted directory `" + oldDir + "`");
+    private static void warnUnmigratedUsers() {
+        int pending = UserFileMigration.pending(userManager);
+        if (pending > 0) {
+            LOG.log(Level.WARNING, pending + " users of user file are not in MongoDB yet, run " +
+                    UserFileMigration.class.getName() + " to migrate them.");
+        }
     }
 
     /**
-     * Renames username and copies all it's files to dir of new user
+     * Moves home directory of a renamed user: a rename of the directory, or a resumable copy if the new home
+     * is in another device
      * @param oldUserName current username
      * @param newUserName new username
+     * @param job job progress (bytes copied) is reported to, null if not needed
      */
-    public static void renameUser(String oldUserName, String newUserName)
-            throws FtpException, IOException, NewUserExistsException, UserNotFoundException,
-            AdminEditException, InvalidNameException {
-
-        /* lowercase usernames */
-        oldUserName = oldUserName.toLowerCase();
-        newUserName = newUserName.toLowerCase();
-
-        UserAuthentication.checkAdmin(oldUserName, newUserName);
-        /* validity of name will be checked at @createUser */
-
-        PropertiesUserManagerFactory userManagerFactory = new PropertiesUserManagerFactory();
-        userManagerFactory.setFile(new File(userFile));
-
-        UserManager userManager = userManagerFactory.createUserManager();
-
-        if (userExists(oldUserName, userManager)) {
-            if (!userExists(newUserName, userManager)) {
-            /* create basic user */
-                User user = userManager.getUserByName(oldUserName);
-                BaseUser newUser = new BaseUser();
-                newUser.setName(newUserName);
-                newUser.setHomeDirectory(ftpd + "/" + newUserName);
-                newUser.setPassword(user.getPassword());
-
-            /* save user */
-                userManager.save(newUser);
-                userManager.delete(oldUserName);
-                LOG.log(Level.INFO, "User `" + oldUserName + "` migrated to user `" + newUserName + "`.");
-                migrateAllFiles(user.getHomeDirectory(), newUser.getHomeDirectory());
-            } else {
-                throw new NewUserExistsException(newUserName);
-            }
-        } else {
-            throw new UserNotFoundException(oldUserName);
+    public static void moveHome(String oldUserName, String newUserName, JobManager.Job job) throws IOException {
+        File oldDir = ShardedStorage.get().home(oldUserName.toLowerCase());
+        File newDir = ShardedStorage.get().assignedHome(newUserName.toLowerCase());
+        if (!oldDir.exists()) {
+            return;
         }
+        DirectoryMover.move(oldDir.toPath(), newDir.toPath(), job);
+        LOG.log(Level.INFO, "Moved directory `" + oldDir + "` to `" + newDir + "`");
     }
 
-    /**
-     * Change password of FTP user. TODO: there ust be a better way of doing this that does not involve total rebuild
-     * @param userName username of user changing it's password
-     * @param oldPassword current password
-     * @param newPassword new password
-     */
-    @SuppressWarnings({"unused", "unchecked"})
-    public static void changePassword(String userName, String oldPassword, String newPassword)
-            throws AdminEditException, FtpException, UserNotFoundException, IncorrectPasswordException {
-
-        /* lowercase username */
-        userName = userName.toLowerCase();
-
-        UserAuthentication.checkAdmin(userName);
-
-        PropertiesUserManagerFactory userManagerFactory = new PropertiesUserManagerFactory();
-        userManagerFactory.setFile(new File(userFile));
 
-        UserManager userManager = userManagerFactory.createUserManager();
 
-        if (userExists(userName, userManager)) {
-            User user = userManager.getUserByName(userName);
-            if (user.getPassword().equals(oldPassword)) {
-                throw new IncorrectPasswordException(userName);
-            }
-            BaseUser newUser = new BaseUser();
-            newUser.setAuthorities((List<Authority>) user.getAuthorities());
-            newUser.setName(user.getName());
-            newUser.setPassword(newPassword);
-            newUser.setHomeDirectory(user.getHomeDirectory());
-            deleteUser(userName);
-            userManager.save(newUser);
-            LOG.log(Level.INFO, "Changed password of user `" + userName +  "`.");
-        } else {
-            throw new UserNotFoundException(userName);
-        }
+    /**
+     * Moves, in a background job, the homes not in the storage root they belong in, e.g. after adding a root.
+     * Homes of logged in users are left for a later run.
+     * @param owner user that asked for the rebalance
+     * @return job moving the homes
+     */
+    public static JobManager.Job rebalanceHomes(String owner) {
+        return JobManager.INSTANCE.submit("rebalance", owner, job -> ShardedStorage.get().rebalance(job,
+                SessionMonitor.INSTANCE::isLoggedIn, mongoUserManager::invalidate));
     }
 
     /**
-     * Delete a FTP user
-     * @param userName username of user to be deleted
+     * @return FTP server built as set in properties.xml (@FtpServerBootstrap)
      */
-    public static void deleteUser(String userName) throws FtpException, UserNotFoundException, AdminEditException {
-
-        /* lowercase usernames */
-        userName = userName.toLowerCase();
-        UserAuthentication.checkAdmin(userName);
-
-        PropertiesUserManagerFactory userManagerFactory = new PropertiesUserManagerFactory();
-        userManagerFactory.setFile(new File(userFile));
-
-        UserManager userManager = userManagerFactory.createUserManager();
-
-        if (userExists(userName, userManager)) {
-            userManager.delete(userName);
-        } else {
-            throw new UserNotFoundException(userName);
-        }
+    public static FtpServer getFtpServer() {
+        return FtpServerBootstrap.create();
     }
 
-
-
     @SuppressWarnings("WeakerAccess")  /* for probable later use from outside class*/
     public static FtpServer getFtpServer(String configLocation, String beanName) {
-        FileSystemXmlApplicationContext context = new FileSystemXmlApplicationContext(configLocation);
-        context.setAllowBeanDefinitionOverriding(true);
-        context.setBeanName("FTPServer");
-
-        return context.getBean(beanName, FtpServer.class);
+        return FtpServerBootstrap.fromXml(configLocation, beanName);
     }
 
     public static void main(String[] args) throws FtpException, InvalidNameException, AdminEditException {
 
-        FtpServer ftpServer = FTPServer.getFtpServer(ftpLetFile, FTPlet.class.getSimpleName());
+        FtpServer ftpServer = FTPServer.getFtpServer();
         FTPServer.init();
         ftpServer.start();
     }
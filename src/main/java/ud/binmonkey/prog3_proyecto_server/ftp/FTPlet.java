@@ -1,10 +1,17 @@
 package ud.binmonkey.prog3_proyecto_server.ftp;
 
 import org.apache.ftpserver.ftplet.*;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.Scanner;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.ShardedStorage;
+import ud.binmonkey.prog3_proyecto_server.common.logging.AsyncHandler;
 import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.ConsoleHandler;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -16,19 +23,32 @@ import java.util.logging.Logger;
 public class FTPlet extends DefaultFtplet {
 
     private static final Logger LOG = Logger.getLogger(FTPlet.class.getName());
+    /* session attribute holding the size of the target file before an upload or deletion */
+    private static final String QUOTA_SIZE = "quota.size";
+    /* session attribute holding the bytes a download will send */
+    private static final String DOWNLOAD_SIZE = "monitor.size";
+    /* session attribute holding the owner of the file named by RNFR */
+    private static final String RENAME_OWNER = "rename.owner";
+    /* commands that change the directory tree of a home */
+    private static final Set<String> TREE_COMMANDS = new HashSet<>(Arrays.asList(
+            "RNFR", "RNTO", "STOR", "APPE", "STOU", "DELE", "MKD", "XMKD", "RMD", "XRMD"));
     private static String[] testAllowedCommands; /* only for testing */
 
     static {
         try {
-            LOG.addHandler(new FileHandler(
+            /* FTPlet logs every command, IO is done off the FTP threads */
+            LOG.addHandler(new AsyncHandler(new FileHandler(
                     "logs/" + FTPlet.class.getName() + "." +
-                            DateUtils.currentFormattedDate() + ".log.xml", true));
+                            DateUtils.currentFormattedDate() + ".log.xml", true)));
+            LOG.addHandler(new AsyncHandler(new ConsoleHandler()));
+            LOG.setUseParentHandlers(false);
         } catch (SecurityException | IOException e) {
             LOG.log(Level.SEVERE, "Unable to create log file.");
         }
     }
 
     private String[] allowedCommonCommands;
+    private CommandPolicy policy;
 
      /* used in test FTPlet generation from XML file */
     public static String[] getTestAllowedCommands() {
@@ -41,16 +61,38 @@ public class FTPlet extends DefaultFtplet {
 
     @Override
     public void init(FtpletContext ftpletContext) throws FtpException {
+        if (policy == null) {
+            policy = new CommandPolicy(allowedCommonCommands != null ? allowedCommonCommands : new String[0]);
+        }
         LOG.log(Level.INFO, "FTPlet initialized.");
+        QuotaManager.INSTANCE.start();
+        UploadPipeline.INSTANCE.start();
         super.init(ftpletContext);
     }
 
     @Override
     public void destroy() {
         LOG.log(Level.INFO, "FTPlet destroyed");
+        QuotaManager.INSTANCE.stop();
+        UploadPipeline.INSTANCE.stop();
         super.destroy();
     }
 
+    @Override
+    public FtpletResult onLogin(FtpSession session, FtpRequest request) throws FtpException, IOException {
+        /* decided once per session, beforeCommand only reads the cached class */
+        CommandPolicy.classify(session);
+        QuotaManager.INSTANCE.login(session.getUser().getName());
+        SessionMonitor.INSTANCE.login(session);
+        return super.onLogin(session, request);
+    }
+
+    @Override
+    public FtpletResult onDisconnect(FtpSession session) throws FtpException, IOException {
+        SessionMonitor.INSTANCE.logout(session);
+        return super.onDisconnect(session);
+    }
+
     /**
      * Runs before any command is executed, prevents execution without explicit permission in common folder.
      * @param session current session
@@ -74,22 +116,26 @@ public class FTPlet extends DefaultFtplet {
 
             case "PASS":
                 /* Keep users from changing common password */
-                if (session.isLoggedIn() && session.getUser().equals("common")) {
+                if (session.isLoggedIn() && CommandPolicy.userClass(session) == CommandPolicy.UserClass.COMMON) {
                     return FtpletResult.SKIP;
                 }
                 LOG.log(Level.INFO, "PASS request received." /* `" + request.getArgument() + "`" */);
                 break;
 
             default:
-                LOG.log(Level.INFO, "Request received. User: `" + session.getUser().getName() + "`, Command: `" +
-                        request.getCommand() + "`.");
+                CommandPolicy.UserClass userClass = CommandPolicy.userClass(session);
+                if (userClass == null) {
+                    /* not logged in, FtpServer will reject anything that requires login */
+                    break;
+                }
+                LOG.log(Level.INFO, "Request received. User: `{0}`, Command: `{1}`.",
+                        new Object[]{session.getUser().getName(), request.getCommand()});
 
                 /* avoid execution of forbidden commands */
-                if (session.getUser().getHomeDirectory().matches(".*/common") &&
-                        !Arrays.asList(allowedCommonCommands).contains(request.getCommand())) {
+                if (!policy.isAllowed(userClass, request.getCommand())) {
 
                     /* Log attempt*/
-                    LOG.log(Level.WARNING, "Attempted command: `" + request.getCommand() + "`");
+                    LOG.log(Level.WARNING, "Attempted command: `{0}`", request.getCommand());
 
                     /* Write reply*/
                     String[] path = session.getUser().getHomeDirectory().split("/");
@@ -99,6 +145,32 @@ public class FTPlet extends DefaultFtplet {
                     /* request will be skipped */
                     return FtpletResult.SKIP;
                 }
+
+                switch (request.getCommand()) {
+                    case "STOR":
+                    case "APPE":
+                    case "STOU":
+                        /* O(1) quota check, usage is kept up to date by afterCommand */
+                        if (QuotaManager.INSTANCE.isExceeded(session.getUser().getName())) {
+                            LOG.log(Level.WARNING, "Quota exceeded by user: `" + session.getUser().getName() + "`");
+                            session.write(new DefaultFtpReply(
+                                    FtpReply.REPLY_552_REQUESTED_FILE_ACTION_ABORTED_EXCEEDED_STORAGE,
+                                    "Disk quota exceeded."));
+                            return FtpletResult.SKIP;
+                        }
+                        session.setAttribute(QUOTA_SIZE, fileSize(session, request));
+                        SessionMonitor.INSTANCE.start(session, request.getCommand(), request.getArgument());
+                        break;
+
+                    case "RETR":
+                        session.setAttribute(DOWNLOAD_SIZE, fileSize(session, request) - session.getFileOffset());
+                        SessionMonitor.INSTANCE.start(session, request.getCommand(), request.getArgument());
+                        break;
+
+                    case "DELE":
+                        session.setAttribute(QUOTA_SIZE, fileSize(session, request));
+                        break;
+                }
                 break;
         }
         return super.beforeCommand(session, request);
@@ -107,10 +179,129 @@ public class FTPlet extends DefaultFtplet {
     @Override
     public FtpletResult afterCommand(FtpSession session, FtpRequest request, FtpReply reply)
             throws FtpException, IOException {
-        LOG.log(Level.INFO, "Reply sent. Code: `" + reply.getCode() + "`, Message: `" + reply.getMessage() + "`");
+        LOG.log(Level.INFO, "Reply sent. Code: `{0}`, Message: `{1}`",
+                new Object[]{reply.getCode(), reply.getMessage()});
+        updateUsage(session, request, reply);
+        process(session, request, reply);
         return super.afterCommand(session, request, reply);
     }
 
+    /**
+     * Hands new files to @UploadPipeline and forgets the directory tree of homes that changed, which need not be
+     * the home of the session user: admins work from the root of every home.
+     * Only cheap lookups are done here, processing happens in the pipeline workers.
+     * @param session current session
+     * @param request processed request
+     * @param reply reply sent to client
+     */
+    private static void process(FtpSession session, FtpRequest request, FtpReply reply) throws FtpException {
+        if (session.getUser() == null) {
+            return;
+        }
+        String command = request.getCommand();
+        if (!TREE_COMMANDS.contains(command)) {
+            return;
+        }
+        /* STOU may have no argument, the file is created in the working directory */
+        FileSystemView view = session.getFileSystemView();
+        FtpFile target = request.getArgument() == null ? view.getWorkingDirectory() :
+                view.getFile(request.getArgument());
+        Object file = target == null ? null : target.getPhysicalFile();
+        String owner = file instanceof File ? ShardedStorage.get().ownerOf((File) file) : null;
+        if (owner == null) {
+            owner = session.getUser().getName();
+        }
+
+        switch (command) {
+            case "RNFR":
+                session.setAttribute(RENAME_OWNER, owner);
+                break;
+
+            case "STOR":
+            case "APPE":
+            case "RNTO":
+                if (command.equals("RNTO")) {
+                    /* the source path is gone from its home */
+                    Object source = session.getAttribute(RENAME_OWNER);
+                    session.removeAttribute(RENAME_OWNER);
+                    Scanner.invalidate(source != null ? (String) source : owner);
+                }
+                if (reply.getCode() == FtpReply.REPLY_226_CLOSING_DATA_CONNECTION ||
+                        reply.getCode() == FtpReply.REPLY_250_REQUESTED_FILE_ACTION_OKAY) {
+                    boolean submitted = file instanceof File &&
+                            UploadPipeline.INSTANCE.submit(owner, CommandPolicy.userClass(session), (File) file);
+                    /* a dropped file never reaches the pipeline */
+                    if (!submitted) {
+                        Scanner.invalidate(owner);
+                    }
+                }
+                break;
+
+            default:
+                Scanner.invalidate(owner);
+                break;
+        }
+    }
+
+    /**
+     * Applies the size change of a finished upload or deletion to the quota of the user and records finished
+     * transfers in @SessionMonitor
+     * @param session current session
+     * @param request processed request
+     * @param reply reply sent to client
+     */
+    private static void updateUsage(FtpSession session, FtpRequest request, FtpReply reply) throws FtpException {
+        boolean transferred = reply.getCode() == FtpReply.REPLY_226_CLOSING_DATA_CONNECTION ||
+                reply.getCode() == FtpReply.REPLY_250_REQUESTED_FILE_ACTION_OKAY;
+
+        if (request.getCommand().equals("RETR")) {
+            Object size = session.getAttribute(DOWNLOAD_SIZE);
+            session.removeAttribute(DOWNLOAD_SIZE);
+            SessionMonitor.INSTANCE.end(session, transferred && size != null ? (Long) size : 0, false);
+            return;
+        }
+
+        Object before = session.getAttribute(QUOTA_SIZE);
+        if (before == null) {
+            return;
+        }
+        session.removeAttribute(QUOTA_SIZE);
+        String userName = session.getUser().getName();
+
+        switch (request.getCommand()) {
+            case "STOR":
+            case "APPE":
+                long delta = transferred ? fileSize(session, request) - (Long) before : 0;
+                QuotaManager.INSTANCE.add(userName, delta);
+                SessionMonitor.INSTANCE.end(session, Math.max(0, delta), true);
+                break;
+
+            case "DELE":
+                if (reply.getCode() == FtpReply.REPLY_250_REQUESTED_FILE_ACTION_OKAY) {
+                    QuotaManager.INSTANCE.add(userName, -(Long) before);
+                }
+                break;
+
+            case "STOU":
+                /* STOU generates the file name, it is accounted for by the next scan of QuotaManager */
+                SessionMonitor.INSTANCE.end(session, 0, true);
+                break;
+        }
+    }
+
+    /**
+     * @param session current session
+     * @param request request whose argument is a file
+     * @return size of file in bytes, 0 if it does not exist
+     */
+    private static long fileSize(FtpSession session, FtpRequest request) throws FtpException {
+        if (request.getArgument() == null) {
+            return 0;
+        }
+        FtpFile file = session.getFileSystemView().getFile(request.getArgument());
+        return file != null && file.isFile() ? file.getSize() : 0;
+    }
+
     @SuppressWarnings("unused")  /* used in FTPlet generation from XML file */
     public String[] getAllowedCommonCommands() {
         return this.allowedCommonCommands;
@@ -123,6 +314,7 @@ public class FTPlet extends DefaultFtplet {
     @SuppressWarnings("unused")  /* used in FTPlet generation from XML file */
     public void setAllowedCommonCommands(String[] allowedCommonCommands) {
         this.allowedCommonCommands = allowedCommonCommands[0].split(";");
+        this.policy = new CommandPolicy(this.allowedCommonCommands);
 
         /* TODO: the following try-catch is only for testing */
         try {
@@ -1,29 +1,66 @@
 package ud.binmonkey.prog3_proyecto_server.ftp;
 
 import org.apache.commons.net.ftp.FTPClient;
+import org.w3c.dom.Element;
+import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
 import ud.binmonkey.prog3_proyecto_server.common.network.URI;
 
 import java.io.IOException;
+import java.util.List;
 
 public class FTPlib {
 
-    private static String host = URI.getHost("ftp");
-    private static int port = URI.getPort("ftp");
+    private static String host = URI.getHost("ftp-server");
+    private static int port = URI.getPort("ftp-server");
+    private static final FtpClientPool pool;
+
+    static {
+        Element config = DocumentReader.getAttr(DocumentReader.getDoc("conf/properties.xml"),
+                "network", "ftp-server", "client-pool");
+        pool = new FtpClientPool(host, port, intValue(config, "max-per-user"), intValue(config, "idle-timeout"),
+                intValue(config, "validate-after"), intValue(config, "borrow-timeout"));
+        pool.start();
+    }
+
+    private static int intValue(Element element, String tag) {
+        return Integer.parseInt(element.getElementsByTagName(tag).item(0).getTextContent().trim());
+    }
+
+    /**
+     * FTP calls made with a pooled client
+     */
+    private interface Operation<T> {
+        T run(FTPClient client) throws IOException;
+    }
 
     /**
      * ACCESS IS PRIVATE SO ALL FTP CALLS ARE DEFINED IN THIS CLASS AND CALLED FROM WHEREVER
-     * Returns logged in client.
+     * Runs an operation with a logged in client of the pool, which is given back afterwards.
+     * If operation throws the client is closed instead, its connection may be broken.
      *
      * @param userName username to log in with
      * @param password password
-     * @return logged in @FTPClient if success, null if false
+     * @param operation FTP calls to make
+     * @return result of operation
      * @throws IOException FTP or connection error
      */
-    private static FTPClient logIn(String userName, String password) throws IOException {
-        FTPClient client = new FTPClient();
-        client.connect(host, port);
-        client.login(userName, password);
-        return client;
+    private static <T> T execute(String userName, String password, Operation<T> operation) throws IOException {
+        FTPClient client = pool.borrow(userName, password);
+        boolean broken = true;
+        try {
+            T result = operation.run(client);
+            broken = false;
+            return result;
+        } finally {
+            pool.release(userName, password, client, broken);
+        }
+    }
+
+    /**
+     * @return JSON with the metrics of the client pool
+     */
+    public static String poolToJson() {
+        return pool.toJson();
     }
 
     /**
@@ -39,8 +76,6 @@ public class FTPlib {
     public static void rename(String username, String password, String oldFile, String newFile, boolean sameDir)
             throws IOException {
 
-        FTPClient client = logIn(username, password);
-
         String newDir = "";
         if (sameDir) {
             String[] oldDir = oldFile.split("/");
@@ -51,9 +86,9 @@ public class FTPlib {
                 }
             }
         }
-        newFile = newDir + newFile;
+        String target = newDir + newFile;
 
-        client.rename(oldFile, newFile);
+        execute(username, password, client -> client.rename(oldFile, target));
     }
 
     /**
@@ -64,9 +99,31 @@ public class FTPlib {
      * @throws IOException FTP or connection error
      */
     public static void delete(String username, String password, String file) throws IOException {
-        FTPClient client = logIn(username, password);
-        client.deleteFile(file);
-        client.removeDirectory(file);
+        execute(username, password, client -> delete(client, file));
+    }
+
+    /**
+     * Delete many files or directories in the FTP server with a single connection
+     * @param username username of the user that will delete the files or directories
+     * @param password password of user
+     * @param files files to be deleted
+     * @return number of files or directories deleted
+     * @throws IOException FTP or connection error
+     */
+    public static int delete(String username, String password, List<String> files) throws IOException {
+        return execute(username, password, client -> {
+            int deleted = 0;
+            for (String file : files) {
+                if (delete(client, file)) {
+                    deleted++;
+                }
+            }
+            return deleted;
+        });
+    }
+
+    private static boolean delete(FTPClient client, String file) throws IOException {
+        return client.deleteFile(file) || client.removeDirectory(file);
     }
 
     /**
@@ -77,8 +134,27 @@ public class FTPlib {
      * @throws IOException FTP or connection error
      */
     public static void mkdir(String username, String password, String dirname) throws IOException {
-        FTPClient client = logIn(username, password);
-        client.makeDirectory(dirname);
+        execute(username, password, client -> client.makeDirectory(dirname));
+    }
+
+    /**
+     * Create many directories in the FTP server with a single connection, in order, so parents go first
+     * @param username username of the user that will crate the directories
+     * @param password password of user
+     * @param dirnames names of new directories
+     * @return number of directories created
+     * @throws IOException FTP or connection error
+     */
+    public static int mkdir(String username, String password, List<String> dirnames) throws IOException {
+        return execute(username, password, client -> {
+            int created = 0;
+            for (String dirname : dirnames) {
+                if (client.makeDirectory(dirname)) {
+                    created++;
+                }
+            }
+            return created;
+        });
     }
 
 }
@@ -0,0 +1,314 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+import org.json.JSONObject;
+import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logged in @FTPClient connections kept open between calls of @FTPlib, one small pool per user.
+ * A connection is only handed out to the same user and password that logged it in. Connections idle for longer
+ * than validateAfter are checked with NOOP before being reused, and closed by a daemon thread when idle for
+ * longer than idleTimeout, which should be shorter than the idle timeout of the server.
+ */
+public class FtpClientPool {
+
+    private static final Logger LOG = Logger.getLogger(FtpClientPool.class.getName());
+    static {
+        try {
+            LOG.addHandler(new FileHandler(
+                    "logs/" + FtpClientPool.class.getName() + "." +
+                            DateUtils.currentFormattedDate() + ".log.xml", true));
+        } catch (SecurityException | IOException e) {
+            LOG.log(Level.SEVERE, "Unable to create log file.");
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final int maxPerUser;
+    private final long idleTimeout;
+    private final long validateAfter;
+    private final long borrowTimeout;
+
+    /* user and password digest -> connections of user */
+    private final Map<String, UserPool> pools = new ConcurrentHashMap<>();
+    private Thread evictor = null;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong validated = new AtomicLong();
+    private final AtomicLong invalid = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * Connections of one user: idle ones, most recently used first, and permits for the ones that can be open
+     */
+    private class UserPool {
+        private final Deque<Idle> idle = new ArrayDeque<>();
+        private final Semaphore permits = new Semaphore(maxPerUser, true);
+    }
+
+    private static class Idle {
+        private final FTPClient client;
+        private final long since;
+
+        private Idle(FTPClient client, long since) {
+            this.client = client;
+            this.since = since;
+        }
+    }
+
+    /**
+     * @param host FTP server host
+     * @param port FTP server port
+     * @param maxPerUser connections a user can have open at once, borrowed or idle
+     * @param idleTimeout milliseconds an idle connection is kept open
+     * @param validateAfter milliseconds idle after which a connection is checked with NOOP before reuse
+     * @param borrowTimeout milliseconds a borrow waits for a connection of the user to be released
+     */
+    public FtpClientPool(String host, int port, int maxPerUser, long idleTimeout, long validateAfter,
+                         long borrowTimeout) {
+        this.host = host;
+        this.port = port;
+        this.maxPerUser = maxPerUser;
+        this.idleTimeout = idleTimeout;
+        this.validateAfter = validateAfter;
+        this.borrowTimeout = borrowTimeout;
+    }
+
+    private static String key(String userName, String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            /* the password itself is never kept */
+            byte[] hash = digest.digest(password.getBytes(StandardCharsets.UTF_8));
+            return userName + ":" + new BigInteger(1, hash).toString(16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns an idle connection of the user or logs in a new one. Must be given back with @release.
+     * @param userName user to log in with
+     * @param password password of user
+     * @return logged in client
+     * @throws IOException connection or login error, or user has maxPerUser connections borrowed for too long
+     */
+    public FTPClient borrow(String userName, String password) throws IOException {
+        UserPool pool = pools.computeIfAbsent(key(userName, password), k -> new UserPool());
+        waiting.incrementAndGet();
+        try {
+            if (!pool.permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new IOException("Too many FTP connections of `" + userName + "`.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for an FTP connection.", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+
+        try {
+            Idle idle;
+            while ((idle = poll(pool)) != null) {
+                if (System.currentTimeMillis() - idle.since < validateAfter || valid(idle.client)) {
+                    reused.incrementAndGet();
+                    active.incrementAndGet();
+                    return idle.client;
+                }
+                invalid.incrementAndGet();
+                close(idle.client);
+            }
+            FTPClient client = logIn(userName, password);
+            created.incrementAndGet();
+            active.incrementAndGet();
+            return client;
+        } catch (IOException | RuntimeException e) {
+            pool.permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives back a borrowed connection
+     * @param userName user connection was borrowed for
+     * @param password password connection was borrowed with
+     * @param client borrowed connection
+     * @param broken true if an operation failed and connection may be unusable, it is closed instead of kept
+     */
+    public void release(String userName, String password, FTPClient client, boolean broken) {
+        UserPool pool = pools.get(key(userName, password));
+        active.decrementAndGet();
+        if (pool == null || broken || !client.isConnected()) {
+            discarded.incrementAndGet();
+            close(client);
+        } else {
+            synchronized (pool) {
+                pool.idle.push(new Idle(client, System.currentTimeMillis()));
+            }
+        }
+        if (pool != null) {
+            pool.permits.release();
+        }
+    }
+
+    private static Idle poll(UserPool pool) {
+        synchronized (pool) {
+            return pool.idle.poll();
+        }
+    }
+
+    private boolean valid(FTPClient client) {
+        validated.incrementAndGet();
+        try {
+            return client.isConnected() && client.sendNoOp();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private FTPClient logIn(String userName, String password) throws IOException {
+        FTPClient client = new FTPClient();
+        client.connect(host, port);
+        try {
+            if (!FTPReply.isPositiveCompletion(client.getReplyCode()) || !client.login(userName, password)) {
+                throw new IOException("FTP login of `" + userName + "` failed: " + client.getReplyString());
+            }
+        } catch (IOException e) {
+            client.disconnect();
+            throw e;
+        }
+        return client;
+    }
+
+    private static void close(FTPClient client) {
+        try {
+            if (client.isConnected()) {
+                client.logout();
+            }
+        } catch (IOException e) {
+            /* closing anyway */
+        }
+        try {
+            client.disconnect();
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Error disconnecting FTP client: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Closes connections idle for longer than idleTimeout
+     */
+    void evict() {
+        long now = System.currentTimeMillis();
+        for (UserPool pool : pools.values()) {
+            synchronized (pool) {
+                /* most recently used first, the stale ones are at the end */
+                while (!pool.idle.isEmpty() && now - pool.idle.peekLast().since >= idleTimeout) {
+                    close(pool.idle.pollLast().client);
+                    evicted.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts the evictor thread. Safe to call more than once.
+     */
+    public synchronized void start() {
+        if (evictor != null) {
+            return;
+        }
+        evictor = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(Math.max(idleTimeout / 2, 100));
+                } catch (InterruptedException e) {
+                    return;
+                }
+                evict();
+            }
+        }, "ftp-client-pool-evictor");
+        evictor.setDaemon(true);
+        evictor.start();
+    }
+
+    /**
+     * Stops the evictor and closes every idle connection, borrowed ones are closed when released
+     */
+    public synchronized void stop() {
+        if (evictor != null) {
+            evictor.interrupt();
+            evictor = null;
+        }
+        for (UserPool pool : pools.values()) {
+            synchronized (pool) {
+                while (!pool.idle.isEmpty()) {
+                    close(pool.idle.poll().client);
+                    evicted.incrementAndGet();
+                }
+            }
+        }
+        pools.clear();
+    }
+
+    public long getCreated() {
+        return created.get();
+    }
+
+    public long getReused() {
+        return reused.get();
+    }
+
+    public long getEvicted() {
+        return evicted.get();
+    }
+
+    public long getInvalid() {
+        return invalid.get();
+    }
+
+    /**
+     * @return connections idle in the pool
+     */
+    public int getIdle() {
+        int idle = 0;
+        for (UserPool pool : pools.values()) {
+            synchronized (pool) {
+                idle += pool.idle.size();
+            }
+        }
+        return idle;
+    }
+
+    public String toJson() {
+        return new JSONObject().put("host", host).put("port", port).put("maxPerUser", maxPerUser)
+                .put("users", pools.size()).put("active", active.get()).put("idle", getIdle())
+                .put("waiting", waiting.get()).put("created", created.get()).put("reused", reused.get())
+                .put("validated", validated.get()).put("invalid", invalid.get()).put("evicted", evicted.get())
+                .put("discarded", discarded.get()).put("timeouts", timeouts.get()).toString(1);
+    }
+}
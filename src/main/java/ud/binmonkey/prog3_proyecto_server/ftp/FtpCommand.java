@@ -0,0 +1,28 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import java.util.HashMap;
+
+/**
+ * FTP commands known by the server, used to compile command policies into EnumSets
+ */
+public enum FtpCommand {
+    ABOR, ACCT, ALLO, APPE, AUTH, CCC, CDUP, CWD, DELE, EPRT, EPSV, FEAT, HASH, HELP, LANG, LIST, LPRT, MD5, MDTM,
+    MFMT, MKD, MLSD, MLST, MMD5, MODE, NLST, NOOP, OPTS, PASS, PASV, PBSZ, PORT, PROT, PWD, QUIT, REIN, REST, RETR,
+    RMD, RNFR, RNTO, SITE, SIZE, STAT, STOR, STOU, STRU, SYST, TYPE, USER, XCRC, XCUP, XCWD, XMD5, XMKD, XPWD, XRMD;
+
+    private static final HashMap<String, FtpCommand> commands = new HashMap<>();
+    static {
+        for (FtpCommand command : values()) {
+            commands.put(command.name(), command);
+        }
+    }
+
+    /**
+     * Constant time lookup of a command
+     * @param command command as sent by the client, uppercase
+     * @return matching command, null if unknown
+     */
+    public static FtpCommand lookup(String command) {
+        return commands.get(command);
+    }
+}
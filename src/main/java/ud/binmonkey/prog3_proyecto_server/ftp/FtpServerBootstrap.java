@@ -0,0 +1,111 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.command.CommandFactoryFactory;
+import org.apache.ftpserver.ftplet.Ftplet;
+import org.apache.ftpserver.listener.ListenerFactory;
+import org.springframework.context.support.FileSystemXmlApplicationContext;
+import org.w3c.dom.Element;
+import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds the FTP server, in one of two ways chosen by `bootstrap` in properties.xml:
+ * `programmatic` wires it with @FtpServerFactory from the `server` settings of properties.xml, `xml` loads the
+ * ftplet file into a Spring context. Both give the same server; the Spring context only adds startup time.
+ */
+public class FtpServerBootstrap {
+
+    public static final String PROGRAMMATIC = "programmatic";
+    public static final String XML = "xml";
+
+    /**
+     * @return FTP server built the way properties.xml says, not started
+     */
+    public static FtpServer create() {
+        Element config = DocumentReader.getAttr(DocumentReader.getDoc("conf/properties.xml"),
+                "network", "ftp-server");
+        String bootstrap = textValue(config, "bootstrap");
+        if (bootstrap.equals(XML)) {
+            return fromXml(textValue(config, "ftplet-file"), FTPlet.class.getSimpleName());
+        }
+        if (bootstrap.equals(PROGRAMMATIC)) {
+            return fromProperties(config);
+        }
+        throw new IllegalArgumentException("Unknown FTP bootstrap `" + bootstrap + "`, expected " + PROGRAMMATIC +
+                " or " + XML);
+    }
+
+    /**
+     * @param configLocation Spring XML file defining the server
+     * @param beanName id of the server in file
+     * @return FTP server defined in file, not started
+     */
+    public static FtpServer fromXml(String configLocation, String beanName) {
+        FileSystemXmlApplicationContext context = new FileSystemXmlApplicationContext(configLocation);
+        context.setAllowBeanDefinitionOverriding(true);
+        context.setBeanName("FTPServer");
+
+        return context.getBean(beanName, FtpServer.class);
+    }
+
+    /**
+     * @param config `ftp-server` element of properties.xml
+     * @return FTP server built from config, not started
+     */
+    public static FtpServer fromProperties(Element config) {
+        Element server = (Element) config.getElementsByTagName("server").item(0);
+
+        ListenerFactory listenerFactory = new ListenerFactory();
+        listenerFactory.setPort(Integer.parseInt(textValue(config, "port")));
+        listenerFactory.setIdleTimeout(Integer.parseInt(textValue(server, "idle-timeout")));
+        listenerFactory.setImplicitSsl(false);
+
+        FTPlet ftplet = new FTPlet();
+        ftplet.setAllowedCommonCommands(new String[]{textValue(server, "allowed-common-commands")});
+        Map<String, Ftplet> ftplets = new LinkedHashMap<>();
+        ftplets.put(FTPlet.class.getSimpleName(), ftplet);
+
+        ChannelFileSystemFactory fileSystem = new ChannelFileSystemFactory();
+        fileSystem.setCaseInsensitive(false);
+        fileSystem.setCreateHome(true);
+        fileSystem.setReadBufferSize(Integer.parseInt(textValue(server, "read-buffer-size")));
+        fileSystem.setWriteBufferSize(Integer.parseInt(textValue(server, "write-buffer-size")));
+        String mounts = textValue(server, "mounts");
+        if (!mounts.isEmpty()) {
+            fileSystem.setMounts(mounts);
+        }
+        fileSystem.setChecksums(Boolean.parseBoolean(textValue(server, "checksums")));
+
+        /* default commands are kept, these are added or replaced */
+        CommandFactoryFactory commands = new CommandFactoryFactory();
+        for (String command : textValue(server, "checksum-commands").split(";")) {
+            if (command.trim().isEmpty()) {
+                continue;
+            }
+            String[] parts = command.trim().split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid checksum command `" + command +
+                        "`, expected NAME=algorithm");
+            }
+            ChecksumCommand checksum = new ChecksumCommand();
+            checksum.setAlgorithm(parts[1].trim());
+            commands.addCommand(parts[0].trim(), checksum);
+        }
+
+        FtpServerFactory serverFactory = new FtpServerFactory();
+        serverFactory.addListener("default", listenerFactory.createListener());
+        serverFactory.setFtplets(ftplets);
+        serverFactory.setUserManager(FTPServer.getMongoUserManager());
+        serverFactory.setFileSystem(fileSystem);
+        serverFactory.setCommandFactory(commands.createCommandFactory());
+        return serverFactory.createServer();
+    }
+
+    private static String textValue(Element element, String tag) {
+        return element.getElementsByTagName(tag).item(0).getTextContent().trim();
+    }
+}
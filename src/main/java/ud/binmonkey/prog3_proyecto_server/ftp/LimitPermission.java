@@ -0,0 +1,50 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.ftplet.AuthorizationRequest;
+import org.apache.ftpserver.usermanager.impl.ConcurrentLoginPermission;
+import org.apache.ftpserver.usermanager.impl.ConcurrentLoginRequest;
+import org.apache.ftpserver.usermanager.impl.TransferRatePermission;
+import org.apache.ftpserver.usermanager.impl.TransferRateRequest;
+import ud.binmonkey.prog3_proyecto_server.users.attributes.Role;
+
+/**
+ * Transfer rate and concurrent login authority that reads the current limits of the user from @LimitRegistry
+ * every time it is asked, instead of the fixed values of @TransferRatePermission and @ConcurrentLoginPermission.
+ */
+public class LimitPermission implements Authority {
+
+    private final String userName;
+    private final Role role;
+
+    /**
+     * @param userName username of user
+     * @param role role of user
+     */
+    public LimitPermission(String userName, Role role) {
+        this.userName = userName;
+        this.role = role;
+    }
+
+    @Override
+    public boolean canAuthorize(AuthorizationRequest request) {
+        return request instanceof TransferRateRequest || request instanceof ConcurrentLoginRequest;
+    }
+
+    @Override
+    public AuthorizationRequest authorize(AuthorizationRequest request) {
+        LimitRegistry.Limits limits = LimitRegistry.INSTANCE.get(userName, role);
+        if (request instanceof TransferRateRequest) {
+            return new TransferRatePermission(limits.getDownload(), limits.getUpload()).authorize(request);
+        } else if (request instanceof ConcurrentLoginRequest) {
+            /* returns null if there are too many logins, FtpServer then refuses the new one */
+            return new ConcurrentLoginPermission(limits.getMaxLogins(), limits.getMaxLoginsPerIp())
+                    .authorize(request);
+        }
+        return null;
+    }
+
+    public Role getRole() {
+        return role;
+    }
+}
@@ -0,0 +1,153 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.json.JSONObject;
+import org.w3c.dom.Element;
+import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
+import ud.binmonkey.prog3_proyecto_server.users.attributes.Role;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Transfer rate and concurrent login limits of FTP users.
+ * Defaults per @Role are read from properties and can be replaced at runtime, as can the limits of a single user.
+ * Limits are looked up every time FtpServer asks for them (@LimitPermission), so changes apply to the next login
+ * or transfer without a restart.
+ */
+public enum LimitRegistry {
+    INSTANCE;
+
+    private static final int KB = 1024;
+
+    private final Map<Role, Limits> roles = new EnumMap<>(Role.class);
+    private final ConcurrentHashMap<String, Limits> users = new ConcurrentHashMap<>();
+
+    /**
+     * Immutable set of limits, 0 means unlimited
+     */
+    public static class Limits {
+        private final int upload;   /* bytes/s */
+        private final int download; /* bytes/s */
+        private final int maxLogins;
+        private final int maxLoginsPerIp;
+
+        /**
+         * @param upload max upload rate in bytes/s
+         * @param download max download rate in bytes/s
+         * @param maxLogins max concurrent logins
+         * @param maxLoginsPerIp max concurrent logins from the same address
+         */
+        public Limits(int upload, int download, int maxLogins, int maxLoginsPerIp) {
+            if (upload < 0 || download < 0 || maxLogins < 0 || maxLoginsPerIp < 0) {
+                throw new IllegalArgumentException("Limits can't be negative.");
+            }
+            this.upload = upload;
+            this.download = download;
+            this.maxLogins = maxLogins;
+            this.maxLoginsPerIp = maxLoginsPerIp;
+        }
+
+        public int getUpload() {
+            return upload;
+        }
+
+        public int getDownload() {
+            return download;
+        }
+
+        public int getMaxLogins() {
+            return maxLogins;
+        }
+
+        public int getMaxLoginsPerIp() {
+            return maxLoginsPerIp;
+        }
+
+        private JSONObject toJson() {
+            return new JSONObject().put("upload", upload).put("download", download).put("max-logins", maxLogins)
+                    .put("max-logins-per-ip", maxLoginsPerIp);
+        }
+
+        @Override
+        public String toString() {
+            return toJson().toString();
+        }
+    }
+
+    LimitRegistry() {
+        Element limits = DocumentReader.getAttr(DocumentReader.getDoc("conf/properties.xml"),
+                "network", "ftp-server", "limits");
+        for (Role role : Role.values()) {
+            Element roleLimits = (Element) limits.getElementsByTagName(role.toString()).item(0);
+            roles.put(role, new Limits(
+                    read(roleLimits, "upload") * KB,
+                    read(roleLimits, "download") * KB,
+                    read(roleLimits, "max-logins"),
+                    read(roleLimits, "max-logins-per-ip")));
+        }
+    }
+
+    private static int read(Element element, String tag) {
+        return Integer.parseInt(element.getElementsByTagName(tag).item(0).getTextContent().trim());
+    }
+
+    /**
+     * @param userName username of user
+     * @param role role of user
+     * @return limits of the user if it has its own, of its role if not
+     */
+    public Limits get(String userName, Role role) {
+        Limits limits = users.get(userName);
+        return limits != null ? limits : get(role);
+    }
+
+    /**
+     * @param role role
+     * @return current limits of role
+     */
+    public synchronized Limits get(Role role) {
+        return roles.get(role);
+    }
+
+    /**
+     * Replace limits of every user of a role that has no limits of its own
+     * @param role role
+     * @param limits new limits
+     */
+    public synchronized void set(Role role, Limits limits) {
+        roles.put(role, limits);
+    }
+
+    /**
+     * Give a user its own limits, overriding those of its role
+     * @param userName username of user
+     * @param limits new limits
+     */
+    public void set(String userName, Limits limits) {
+        users.put(userName, limits);
+    }
+
+    /**
+     * Go back to the limits of the role of a user
+     * @param userName username of user
+     */
+    public void reset(String userName) {
+        users.remove(userName);
+    }
+
+    /**
+     * @return JSON with the limits of every role and user
+     */
+    public synchronized String toJson() {
+        JSONObject roleLimits = new JSONObject();
+        for (Map.Entry<Role, Limits> entry : roles.entrySet()) {
+            roleLimits.put(entry.getKey().toString(), entry.getValue().toJson());
+        }
+        JSONObject userLimits = new JSONObject();
+        for (Map.Entry<String, Limits> entry : users.entrySet()) {
+            userLimits.put(entry.getKey(), entry.getValue().toJson());
+        }
+        return new JSONObject().put("roles", roleLimits).put("users", userLimits).toString(1);
+    }
+}
@@ -0,0 +1,229 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.apache.ftpserver.ftplet.*;
+import org.apache.ftpserver.usermanager.UsernamePasswordAuthentication;
+import org.apache.ftpserver.usermanager.impl.AbstractUserManager;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+import org.bson.Document;
+import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
+import ud.binmonkey.prog3_proyecto_server.common.exceptions.UserNotFoundException;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.ShardedStorage;
+import ud.binmonkey.prog3_proyecto_server.mongodb.MongoDB;
+import ud.binmonkey.prog3_proyecto_server.users.attributes.Role;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.*;
+
+/**
+ * FTP user manager backed by the MongoDB users collection, so FTP logins use the same PBKDF2 hashes as the
+ * HTTPS server and users only exist in one place.
+ * Base users (admin, common) are not stored in MongoDB and are delegated to a @CachedUserManager.
+ * Successful logins are remembered for a short time so reconnecting clients don't pay for a PBKDF2 hash and a
+ * database query on every login.
+ */
+public class MongoUserManager extends AbstractUserManager {
+
+    private static final long cacheTtl = Long.parseLong(DocumentReader.getAttr(
+            DocumentReader.getDoc("conf/properties.xml"), "network", "ftp-server", "auth-cache-ttl")
+            .getTextContent().trim()) * 1000;
+    private static final int CACHE_SIZE = 1024;
+    private static final Set<String> BASE_USERS = new HashSet<>(Arrays.asList("admin", "common"));
+
+    private final CachedUserManager baseUsers;
+    /* random per process, cached digests are useless outside of it */
+    private final byte[] salt = new byte[16];
+    private final Map<String, AuthEntry> authCache = Collections.synchronizedMap(
+            new LinkedHashMap<String, AuthEntry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, AuthEntry> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
+
+    /**
+     * Successful login: digest of the password used and the user returned
+     */
+    private static class AuthEntry {
+        private final byte[] digest;
+        private final User user;
+        private final long expires;
+
+        private AuthEntry(byte[] digest, User user, long expires) {
+            this.digest = digest;
+            this.user = user;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * @param baseUsers user manager holding the users that are not in MongoDB
+     */
+    public MongoUserManager(CachedUserManager baseUsers) {
+        super("admin", baseUsers.getPasswordEncryptor());
+        this.baseUsers = baseUsers;
+        new SecureRandom().nextBytes(salt);
+    }
+
+    /**
+     * @param userName username
+     * @return true if user is stored by the base user manager instead of MongoDB
+     */
+    static boolean isBaseUser(String userName) {
+        return BASE_USERS.contains(userName);
+    }
+
+    @Override
+    public User getUserByName(String userName) throws FtpException {
+        if (userName == null) {
+            return null;
+        }
+        userName = userName.toLowerCase();
+        if (isBaseUser(userName)) {
+            return withLimits(baseUsers.getUserByName(userName));
+        }
+        try {
+            return toFtpUser(MongoDB.getUser(userName));
+        } catch (UserNotFoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String[] getAllUserNames() throws FtpException {
+        Set<String> names = new TreeSet<>(MongoDB.getUserNames());
+        names.addAll(Arrays.asList(baseUsers.getAllUserNames()));
+        return names.toArray(new String[0]);
+    }
+
+    @Override
+    public boolean doesExist(String userName) throws FtpException {
+        return getUserByName(userName) != null;
+    }
+
+    @Override
+    public User authenticate(Authentication authentication) throws AuthenticationFailedException {
+        if (!(authentication instanceof UsernamePasswordAuthentication)) {
+            return baseUsers.authenticate(authentication);
+        }
+        UsernamePasswordAuthentication upAuth = (UsernamePasswordAuthentication) authentication;
+        if (upAuth.getUsername() == null) {
+            throw new AuthenticationFailedException("Authentication failed");
+        }
+        String userName = upAuth.getUsername().toLowerCase();
+        if (isBaseUser(userName)) {
+            return withLimits(baseUsers.authenticate(new UsernamePasswordAuthentication(
+                    userName, upAuth.getPassword(), upAuth.getUserMetadata())));
+        }
+        String password = upAuth.getPassword() == null ? "" : upAuth.getPassword();
+
+        /* recent login with same password */
+        byte[] digest = digest(password);
+        AuthEntry entry = authCache.get(userName);
+        if (entry != null && entry.expires > System.currentTimeMillis()
+                && MessageDigest.isEqual(entry.digest, digest)) {
+            return entry.user;
+        }
+
+        try {
+            Document user = MongoDB.getUser(userName);
+            if (UserFileMigration.authenticate(userName, password.toCharArray(), user.getString("password"))) {
+                User ftpUser = toFtpUser(user);
+                authCache.put(userName, new AuthEntry(digest, ftpUser, System.currentTimeMillis() + cacheTtl));
+                return ftpUser;
+            }
+        } catch (UserNotFoundException e) {
+            /* same answer as a wrong password */
+        } catch (RuntimeException e) {
+            throw new AuthenticationFailedException("Authentication failed", e);
+        }
+        authCache.remove(userName);
+        throw new AuthenticationFailedException("Authentication failed");
+    }
+
+    /**
+     * Forget cached logins of a user, must be called when its password or name change or it is deleted
+     * @param userName username of user
+     */
+    public void invalidate(String userName) {
+        authCache.remove(userName.toLowerCase());
+    }
+
+    /**
+     * Only base users are saved here, the rest are managed through @users.UserManager
+     */
+    @Override
+    public void save(User user) throws FtpException {
+        if (!isBaseUser(user.getName())) {
+            throw new FtpException("User `" + user.getName() + "` is managed through MongoDB.");
+        }
+        baseUsers.save(user);
+    }
+
+    /**
+     * Only base users are deleted here, the rest are managed through @users.UserManager
+     */
+    @Override
+    public void delete(String userName) throws FtpException {
+        if (!isBaseUser(userName)) {
+            throw new FtpException("User `" + userName + "` is managed through MongoDB.");
+        }
+        baseUsers.delete(userName);
+    }
+
+    /**
+     * @param document MongoDB user
+     * @return FTP user with its home in the storage root it is in, permission to write and the limits of its role
+     */
+    private static User toFtpUser(Document document) {
+        String userName = document.getString("username");
+        BaseUser user = new BaseUser();
+        user.setName(userName);
+        user.setHomeDirectory(ShardedStorage.get().home(userName).getPath());
+        user.setEnabled(true);
+
+        List<Authority> authorities = new ArrayList<>();
+        authorities.add(new WritePermission());
+        authorities.add(new LimitPermission(userName, Role.fromString(document.getString("role"))));
+        user.setAuthorities(authorities);
+        return user;
+    }
+
+    /**
+     * Replace fixed rate and login limits of a base user with the live limits of @Role.ADMIN
+     * @param user base user
+     * @return copy of user with live limits, null if user was null
+     */
+    private static User withLimits(User user) {
+        if (user == null) {
+            return null;
+        }
+        BaseUser copy = new BaseUser(user);
+        List<Authority> authorities = new ArrayList<>();
+        for (Authority authority : user.getAuthorities()) {
+            if (authority instanceof WritePermission) {
+                authorities.add(authority);
+            }
+        }
+        authorities.add(new LimitPermission(user.getName(), Role.ADMIN));
+        copy.setAuthorities(authorities);
+        return copy;
+    }
+
+    /**
+     * @param password plain password
+     * @return salted SHA-256 of password, only ever compared against other digests of this instance
+     */
+    private byte[] digest(String password) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(salt);
+            return sha.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); /* every JVM has SHA-256 */
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.apache.ftpserver.ftplet.FtpFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read only file of a @VirtualMounts mount, or a virtual directory leading to one.
+ * It can be listed and downloaded but never written, deleted, renamed or created.
+ */
+public class MountedFtpFile implements FtpFile {
+
+    private final String path;
+    private final File physical; /* null outside mounts */
+    private final VirtualMounts mounts;
+    private final ChannelFileSystemView view;
+
+    /**
+     * Paths next to a virtual directory entry (`/common/x`) are handled here too, so they can't be created
+     * in the native home hidden behind the mount.
+     * @param path normalized absolute virtual path
+     * @param mounts mount table path belongs to
+     * @param view view the file belongs to
+     */
+    MountedFtpFile(String path, VirtualMounts mounts, ChannelFileSystemView view) {
+        this.path = path;
+        this.physical = mounts.resolve(path);
+        this.mounts = mounts;
+        this.view = view;
+    }
+
+    @Override
+    public String getAbsolutePath() {
+        return path;
+    }
+
+    @Override
+    public String getName() {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    @Override
+    public boolean isHidden() {
+        return false;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return physical == null ? mounts.isVirtual(path) : physical.isDirectory();
+    }
+
+    @Override
+    public boolean isFile() {
+        return physical != null && physical.isFile();
+    }
+
+    @Override
+    public boolean doesExist() {
+        return physical == null ? mounts.isVirtual(path) : physical.exists();
+    }
+
+    @Override
+    public boolean isReadable() {
+        return physical == null ? mounts.isVirtual(path) : physical.canRead();
+    }
+
+    @Override
+    public boolean isWritable() {
+        return false;
+    }
+
+    @Override
+    public boolean isRemovable() {
+        return false;
+    }
+
+    @Override
+    public String getOwnerName() {
+        return "user";
+    }
+
+    @Override
+    public String getGroupName() {
+        return "group";
+    }
+
+    @Override
+    public int getLinkCount() {
+        return isDirectory() ? 3 : 1;
+    }
+
+    @Override
+    public long getLastModified() {
+        return physical == null ? 0 : physical.lastModified();
+    }
+
+    @Override
+    public boolean setLastModified(long time) {
+        return false;
+    }
+
+    @Override
+    public long getSize() {
+        return physical == null ? 0 : physical.length();
+    }
+
+    @Override
+    public Object getPhysicalFile() {
+        return physical;
+    }
+
+    @Override
+    public boolean mkdir() {
+        return false;
+    }
+
+    @Override
+    public boolean delete() {
+        return false;
+    }
+
+    @Override
+    public boolean move(FtpFile destination) {
+        return false;
+    }
+
+    @Override
+    public List<FtpFile> listFiles() {
+        if (!isDirectory()) {
+            return null;
+        }
+        String prefix = path.endsWith("/") ? path : path + "/";
+        List<FtpFile> files = new ArrayList<>();
+        if (physical == null) {
+            for (String name : mounts.children(path)) {
+                files.add(new MountedFtpFile(prefix + name, mounts, view));
+            }
+        } else {
+            String[] names = physical.list();
+            if (names != null) {
+                Arrays.sort(names);
+                for (String name : names) {
+                    files.add(new MountedFtpFile(prefix + name, mounts, view));
+                }
+            }
+        }
+        return files;
+    }
+
+    @Override
+    public OutputStream createOutputStream(long offset) throws IOException {
+        throw new IOException("No write permission : " + getName());
+    }
+
+    @Override
+    public InputStream createInputStream(long offset) throws IOException {
+        if (!isFile() || !isReadable()) {
+            throw new IOException("No read permission : " + getName());
+        }
+        FileChannel channel = FileChannel.open(physical.toPath(), StandardOpenOption.READ);
+        channel.position(offset);
+        return new ChannelFtpFile.ChannelInputStream(channel, view.getReadBufferSize());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof MountedFtpFile && path.equals(((MountedFtpFile) obj).path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+}
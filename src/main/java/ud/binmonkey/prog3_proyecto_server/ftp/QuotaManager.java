@@ -0,0 +1,327 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.w3c.dom.Element;
+import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.ShardedStorage;
+import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
+import ud.binmonkey.prog3_proyecto_server.mongodb.MongoDB;
+import ud.binmonkey.prog3_proyecto_server.users.attributes.Role;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of the disk usage of every FTP user.
+ * Usage is updated incrementally by @FTPlet on every upload and deletion, so checking a quota is a single
+ * map lookup. A low priority daemon walks the user homes periodically to correct any drift.
+ */
+public enum QuotaManager {
+    INSTANCE;
+
+    private static final Logger LOG = Logger.getLogger(QuotaManager.class.getName());
+    static {
+        try {
+            LOG.addHandler(new FileHandler(
+                    "logs/" + QuotaManager.class.getName() + "." +
+                            DateUtils.currentFormattedDate() + ".log.xml", true));
+        } catch (SecurityException | IOException e) {
+            LOG.log(Level.SEVERE, "Unable to create log file.");
+        }
+    }
+
+    private static final long MB = 1024 * 1024;
+
+    private final Map<Role, Long> limits = new EnumMap<>(Role.class);
+    private final ConcurrentHashMap<String, Quota> quotas = new ConcurrentHashMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean(false);
+    private final File quotaFile;
+    private final long scanPeriod;
+    private Thread scanner;
+
+    /**
+     * Disk usage and limit of a single user
+     */
+    public static class Quota {
+        private final AtomicLong used = new AtomicLong();
+        /* count of changes, a scan only applies its result if none happened while it walked the home */
+        private long changes = 0; /* guarded by this */
+        private volatile long limit;
+        private volatile Role role;
+
+        public long getUsed() {
+            return used.get();
+        }
+
+        public long getLimit() {
+            return limit;
+        }
+
+        public Role getRole() {
+            return role;
+        }
+
+        /**
+         * @return true if limit is set and usage reached it
+         */
+        public boolean isExceeded() {
+            return limit > 0 && used.get() >= limit;
+        }
+    }
+
+    QuotaManager() {
+        Element quota = DocumentReader.getAttr(DocumentReader.getDoc("conf/properties.xml"),
+                "network", "ftp-server", "quota");
+        for (Role role : Role.values()) {
+            limits.put(role, Long.parseLong(
+                    quota.getElementsByTagName(role.toString()).item(0).getTextContent().trim()) * MB);
+        }
+        quotaFile = new File(quota.getElementsByTagName("quota-file").item(0).getTextContent().trim());
+        scanPeriod = Long.parseLong(
+                quota.getElementsByTagName("scan-period").item(0).getTextContent().trim()) * 1000;
+        load(quotaFile);
+    }
+
+    /**
+     * Starts the background reconciliation daemon. Safe to call more than once.
+     */
+    public synchronized void start() {
+        if (scanner != null && scanner.isAlive()) {
+            return;
+        }
+        scanner = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                reconcile();
+                try {
+                    Thread.sleep(scanPeriod);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "quota-scanner");
+        scanner.setDaemon(true);
+        scanner.setPriority(Thread.MIN_PRIORITY);
+        scanner.start();
+    }
+
+    /**
+     * Stops the reconciliation daemon and persists current usage
+     */
+    public synchronized void stop() {
+        if (scanner != null) {
+            scanner.interrupt();
+            scanner = null;
+        }
+        save(quotaFile);
+    }
+
+    /**
+     * Called when a user logs in: resolves the role of the user (only the first time) and sets its limit
+     * @param userName username of user
+     */
+    public void login(String userName) {
+        Quota quota = get(userName);
+        if (quota.role == null) {
+            setRole(userName, resolveRole(userName));
+        }
+    }
+
+    /**
+     * Assign a role to a user, updating its limit to the default of the role
+     * @param userName username of user
+     * @param role role of user
+     */
+    public void setRole(String userName, Role role) {
+        Quota quota = get(userName);
+        quota.role = role;
+        quota.limit = limits.get(role);
+    }
+
+    /**
+     * @param userName username of user
+     * @return quota of user, created empty if user had none
+     */
+    public Quota get(String userName) {
+        return quotas.computeIfAbsent(userName, k -> new Quota());
+    }
+
+    /**
+     * O(1) check of quota
+     * @param userName username of user
+     * @return true if user can't store more data
+     */
+    public boolean isExceeded(String userName) {
+        Quota quota = quotas.get(userName);
+        return quota != null && quota.isExceeded();
+    }
+
+    /**
+     * Add (or subtract if negative) bytes to the usage of a user
+     * @param userName username of user
+     * @param bytes bytes added
+     */
+    public void add(String userName, long bytes) {
+        if (bytes == 0) {
+            return;
+        }
+        Quota quota = get(userName);
+        synchronized (quota) {
+            quota.changes++;
+            if (quota.used.addAndGet(bytes) < 0) {
+                quota.used.set(0);
+            }
+        }
+        dirty.set(true);
+    }
+
+    /**
+     * Walks every user home of every storage root and corrects the stored usage
+     */
+    void reconcile() {
+        List<File> homes = ShardedStorage.get().homes();
+        int skipped = 0;
+        for (File home : homes) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            try {
+                if (!reconcile(home)) {
+                    skipped++;
+                }
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Unable to scan `" + home + "`: " + e.getMessage());
+            }
+        }
+        if (dirty.get()) {
+            save(quotaFile);
+        }
+        LOG.log(Level.INFO, "Reconciled quota of " + (homes.size() - skipped) + " directories, " + skipped +
+                " changed while scanned.");
+    }
+
+    /**
+     * Replaces the usage of the owner of a home with the size of the home. Bytes added while the home is walked
+     * may or may not be in its size, so the size is only applied if none were; otherwise the incremental usage
+     * is kept until the next scan.
+     * @param home user home, named as its owner
+     * @return true if usage was replaced
+     */
+    boolean reconcile(File home) throws IOException {
+        Quota quota = get(home.getName());
+        long changes;
+        synchronized (quota) {
+            changes = quota.changes;
+        }
+        long size = du(home.toPath());
+        synchronized (quota) {
+            if (quota.changes != changes) {
+                return false;
+            }
+            quota.used.set(size);
+        }
+        dirty.set(true);
+        return true;
+    }
+
+    /**
+     * @param root directory to measure
+     * @return size in bytes of all regular files under root
+     */
+    static long du(Path root) throws IOException {
+        final AtomicLong size = new AtomicLong();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    size.addAndGet(attrs.size());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size.get();
+    }
+
+    /**
+     * Persist usage as a compact binary file: entry count followed by (username, bytes) pairs.
+     * Written to a temporary file and then renamed so a crash never leaves a half written file.
+     * @param file file to write to
+     */
+    synchronized void save(File file) {
+        dirty.set(false);
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(quotas.size());
+            for (Map.Entry<String, Quota> entry : quotas.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().used.get());
+            }
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Unable to save quota file `" + file + "`: " + e.getMessage());
+            dirty.set(true);
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Unable to save quota file `" + file + "`: " + e.getMessage());
+            dirty.set(true);
+        }
+    }
+
+    /**
+     * Load usage saved by @save
+     * @param file file to read from
+     */
+    synchronized void load(File file) {
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                get(in.readUTF()).used.set(in.readLong());
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Corrupt quota file `" + file + "`, usage will be rebuilt by the next scan.");
+        }
+    }
+
+    /**
+     * Role of an FTP user. Base users (admin, common) are not stored in MongoDB and have no limit.
+     * @param userName username of user
+     * @return role of user, @Role.USER if it can't be determined
+     */
+    private static Role resolveRole(String userName) {
+        if (userName.equals("admin") || userName.equals("common")) {
+            return Role.ADMIN;
+        }
+        try {
+            return Role.fromString(MongoDB.getUser(userName).getString("role"));
+        } catch (Exception e) {
+            return Role.USER;
+        }
+    }
+
+    public long getLimit(Role role) {
+        return limits.get(role);
+    }
+
+    void clear() {
+        quotas.clear();
+    }
+}
@@ -0,0 +1,173 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps transfer statistics of every open FTP session so admins can see who is using the bandwidth.
+ * Updated by @FTPlet, read by the `/ftpSessions` @http.handlers.AdminJsonHandler.
+ */
+public enum SessionMonitor {
+    INSTANCE;
+
+    private final ConcurrentHashMap<UUID, Stats> sessions = new ConcurrentHashMap<>();
+    /* FtpServer runs a command in the thread that called FTPlet.beforeCommand, so file streams created by the
+     * command find the session they belong to here */
+    private static final ThreadLocal<Stats> transferring = new ThreadLocal<>();
+
+    /**
+     * Statistics of a single session
+     */
+    public static class Stats {
+        private final String userName;
+        private final String address;
+        private final long loginTime = System.currentTimeMillis();
+        private final AtomicLong uploaded = new AtomicLong();
+        private final AtomicLong downloaded = new AtomicLong();
+        private final AtomicLong transfers = new AtomicLong();
+        /* transfer in progress, null command if there is none */
+        private volatile String command;
+        private volatile String file;
+        private volatile long transferStart;
+        private final AtomicLong transferred = new AtomicLong(); /* bytes of transfer in progress */
+        private volatile long lastRate; /* bytes/s of last finished transfer */
+
+        private Stats(String userName, String address) {
+            this.userName = userName;
+            this.address = address;
+        }
+
+        /**
+         * @return average bytes/s since login
+         */
+        public long getAverageRate() {
+            long elapsed = Math.max(1, System.currentTimeMillis() - loginTime);
+            return (uploaded.get() + downloaded.get()) * 1000 / elapsed;
+        }
+
+        private JSONObject toJson() {
+            JSONObject json = new JSONObject().put("username", userName).put("address", address)
+                    .put("login", loginTime).put("uploaded", uploaded.get()).put("downloaded", downloaded.get())
+                    .put("transfers", transfers.get()).put("last-rate", lastRate)
+                    .put("average-rate", getAverageRate());
+            String command = this.command;
+            if (command == null) {
+                return json.put("transfer", JSONObject.NULL);
+            }
+            long elapsed = Math.max(1, System.currentTimeMillis() - transferStart);
+            long bytes = transferred.get();
+            return json.put("transfer", new JSONObject().put("command", command).put("file", file)
+                    .put("elapsed", elapsed).put("bytes", bytes).put("rate", bytes * 1000 / elapsed));
+        }
+    }
+
+    /**
+     * @param session session that just logged in
+     */
+    public void login(FtpSession session) {
+        sessions.put(session.getSessionId(), new Stats(session.getUser().getName(),
+                session.getClientAddress().getAddress().getHostAddress()));
+    }
+
+    /**
+     * @param session session that was closed
+     */
+    public void logout(FtpSession session) {
+        sessions.remove(session.getSessionId());
+    }
+
+    /**
+     * @param session session starting a transfer
+     * @param command transfer command
+     * @param file file being transferred
+     */
+    public void start(FtpSession session, String command, String file) {
+        Stats stats = sessions.get(session.getSessionId());
+        if (stats != null) {
+            stats.file = file;
+            stats.transferStart = System.currentTimeMillis();
+            stats.transferred.set(0);
+            stats.command = command;
+            transferring.set(stats);
+        }
+    }
+
+    /**
+     * Called by file streams while a transfer is in progress in the current thread
+     * @param bytes bytes read or written
+     */
+    static void transferred(long bytes) {
+        Stats stats = transferring.get();
+        if (stats != null) {
+            stats.transferred.addAndGet(bytes);
+        }
+    }
+
+    /**
+     * @param session session that finished a transfer
+     * @param bytes bytes transferred, 0 if it failed
+     * @param upload true if the client sent the data
+     */
+    public void end(FtpSession session, long bytes, boolean upload) {
+        transferring.remove();
+        Stats stats = sessions.get(session.getSessionId());
+        if (stats == null || stats.command == null) {
+            return;
+        }
+        (upload ? stats.uploaded : stats.downloaded).addAndGet(bytes);
+        stats.transfers.incrementAndGet();
+        stats.lastRate = bytes * 1000 / Math.max(1, System.currentTimeMillis() - stats.transferStart);
+        stats.command = null;
+        stats.file = null;
+    }
+
+    /**
+     * @param userName username
+     * @return true if user has an open session
+     */
+    public boolean isLoggedIn(String userName) {
+        for (Stats stats : sessions.values()) {
+            if (stats.userName.equals(userName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return transfers in progress in every session
+     */
+    public int getActiveTransfers() {
+        int active = 0;
+        for (Stats stats : sessions.values()) {
+            if (stats.command != null) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    /**
+     * @param sessionId id of session
+     * @return statistics of session, null if it is not open
+     */
+    public Stats get(UUID sessionId) {
+        return sessions.get(sessionId);
+    }
+
+    /**
+     * @return JSON array with the statistics of every open session
+     */
+    public String toJson() {
+        JSONArray json = new JSONArray();
+        for (Stats stats : sessions.values()) {
+            json.put(stats.toJson());
+        }
+        return json.toString(1);
+    }
+}
@@ -0,0 +1,307 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.w3c.dom.Element;
+import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.ChecksumIndex;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.Scanner;
+import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
+import ud.binmonkey.prog3_proyecto_server.omdb.TitleMatcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Processing of uploaded files off the FTP threads, in three stages with their own bounded priority queue and
+ * workers: checksum (verify or compute the @ChecksumIndex entry), match (guess the OMDB title from the file
+ * name) and index (refresh the cached directory tree of the user).
+ * FTPlet only offers files to the first queue and never waits: when it is full the file is rejected and
+ * counted. Later stages apply backpressure by blocking the workers of the previous one.
+ */
+public enum UploadPipeline {
+    INSTANCE;
+
+    private static final Logger LOG = Logger.getLogger(UploadPipeline.class.getName());
+    static {
+        try {
+            LOG.addHandler(new FileHandler(
+                    "logs/" + UploadPipeline.class.getName() + "." +
+                            DateUtils.currentFormattedDate() + ".log.xml", true));
+        } catch (SecurityException | IOException e) {
+            LOG.log(Level.SEVERE, "Unable to create log file.");
+        }
+    }
+
+    private static final int MAX_TITLES = 10000;
+
+    private final List<Stage> stages = new ArrayList<>();
+    private final Stage first;
+    /* physical path of video -> IMDB id, most recent matches */
+    private final Map<String, String> titles = Collections.synchronizedMap(
+            new LinkedHashMap<String, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > MAX_TITLES;
+                }
+            });
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Work a stage does on every file
+     */
+    interface Task {
+        void process(Job job) throws Exception;
+    }
+
+    /**
+     * File going through the pipeline. Admins go first, then smaller files, then older ones.
+     */
+    static class Job implements Comparable<Job> {
+        final File file;
+        final String userName;
+        final int priority;
+        final long size;
+        final long sequence;
+        volatile long enqueued;
+
+        Job(File file, String userName, int priority, long sequence) {
+            this.file = file;
+            this.userName = userName;
+            this.priority = priority;
+            this.size = file.length();
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            if (priority != other.priority) {
+                return Integer.compare(priority, other.priority);
+            }
+            if (size != other.size) {
+                return Long.compare(size, other.size);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * Bounded priority queue with its workers and metrics
+     */
+    static class Stage {
+        private final String name;
+        private final int workers;
+        private final int capacity;
+        private final Task task;
+        private final PriorityBlockingQueue<Job> queue = new PriorityBlockingQueue<>();
+        /* free places in queue, PriorityBlockingQueue itself is unbounded */
+        private final Semaphore slots;
+        private final List<Thread> threads = new ArrayList<>();
+        Stage next;
+
+        private final AtomicLong submitted = new AtomicLong();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong waitNanos = new AtomicLong();
+        private final AtomicLong processNanos = new AtomicLong();
+        private final AtomicInteger active = new AtomicInteger();
+
+        Stage(String name, int workers, int capacity, Task task) {
+            this.name = name;
+            this.workers = workers;
+            this.capacity = capacity;
+            this.task = task;
+            this.slots = new Semaphore(capacity);
+        }
+
+        /**
+         * Never blocks
+         * @return false if queue is full
+         */
+        boolean offer(Job job) {
+            if (!slots.tryAcquire()) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            add(job);
+            return true;
+        }
+
+        /**
+         * Waits for a free place in queue
+         */
+        void put(Job job) throws InterruptedException {
+            slots.acquire();
+            add(job);
+        }
+
+        private void add(Job job) {
+            job.enqueued = System.nanoTime();
+            submitted.incrementAndGet();
+            queue.add(job);
+        }
+
+        private void work() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Job job = queue.take();
+                    slots.release();
+                    long start = System.nanoTime();
+                    waitNanos.addAndGet(start - job.enqueued);
+                    active.incrementAndGet();
+                    try {
+                        task.process(job);
+                        completed.incrementAndGet();
+                    } catch (Exception | LinkageError e) {
+                        failed.incrementAndGet();
+                        LOG.log(Level.WARNING, "Stage `" + name + "` failed for `" + job.file + "`: " + e);
+                    } finally {
+                        active.decrementAndGet();
+                        processNanos.addAndGet(System.nanoTime() - start);
+                    }
+                    if (next != null) {
+                        next.put(job);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized void start() {
+            if (!threads.isEmpty()) {
+                return;
+            }
+            for (int i = 0; i < workers; i++) {
+                Thread thread = new Thread(this::work, "upload-" + name + "-" + i);
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                thread.start();
+                threads.add(thread);
+            }
+        }
+
+        synchronized void stop() {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            threads.clear();
+        }
+
+        int getQueued() {
+            return queue.size();
+        }
+
+        long getRejected() {
+            return rejected.get();
+        }
+
+        long getCompleted() {
+            return completed.get();
+        }
+
+        JSONObject toJson() {
+            long done = completed.get() + failed.get();
+            return new JSONObject().put("stage", name).put("workers", workers).put("queued", queue.size())
+                    .put("capacity", capacity).put("active", active.get()).put("submitted", submitted.get())
+                    .put("completed", completed.get()).put("failed", failed.get()).put("rejected", rejected.get())
+                    .put("avgWaitMs", done == 0 ? 0 : waitNanos.get() / done / 1000000)
+                    .put("avgProcessMs", done == 0 ? 0 : processNanos.get() / done / 1000000);
+        }
+    }
+
+    UploadPipeline() {
+        Element pipeline = DocumentReader.getAttr(DocumentReader.getDoc("conf/properties.xml"),
+                "network", "ftp-server", "pipeline");
+        int capacity = intValue(pipeline, "queue-size");
+
+        Stage checksum = new Stage("checksum", intValue(pipeline, "checksum-workers"), capacity, job -> {
+            if (job.file.isFile()) {
+                /* free if digested during upload */
+                ChecksumIndex.get().compute(job.file, false);
+            }
+        });
+        Stage match = new Stage("match", intValue(pipeline, "match-workers"), capacity, this::matchTitle);
+        Stage index = new Stage("index", intValue(pipeline, "index-workers"), capacity,
+                job -> Scanner.refresh(job.userName));
+        checksum.next = match;
+        match.next = index;
+        stages.add(checksum);
+        stages.add(match);
+        stages.add(index);
+        first = checksum;
+    }
+
+    private void matchTitle(Job job) {
+        if (job.file.isFile() && TitleMatcher.isVideo(job.file.getName())) {
+            String id = TitleMatcher.match(job.file.getName());
+            if (id != null) {
+                titles.put(job.file.getAbsolutePath(), id);
+                LOG.log(Level.INFO, "Matched `" + job.file.getName() + "` to " + id + ".");
+            }
+        }
+    }
+
+    private static int intValue(Element element, String tag) {
+        return Integer.parseInt(element.getElementsByTagName(tag).item(0).getTextContent().trim());
+    }
+
+    /**
+     * Starts the workers of every stage. Safe to call more than once.
+     */
+    public void start() {
+        for (Stage stage : stages) {
+            stage.start();
+        }
+    }
+
+    public void stop() {
+        for (Stage stage : stages) {
+            stage.stop();
+        }
+    }
+
+    /**
+     * Offers an uploaded or renamed file to the pipeline, without blocking
+     * @param userName owner of file
+     * @param userClass class of owner, admins are processed first
+     * @param file physical file
+     * @return false if pipeline is full and file was dropped
+     */
+    public boolean submit(String userName, CommandPolicy.UserClass userClass, File file) {
+        int priority = userClass == CommandPolicy.UserClass.ADMIN ? 0 : 1;
+        boolean accepted = first.offer(new Job(file, userName, priority, sequence.incrementAndGet()));
+        if (!accepted) {
+            LOG.log(Level.WARNING, "Upload pipeline full, `" + file + "` of `" + userName + "` not processed.");
+        }
+        return accepted;
+    }
+
+    /**
+     * @param file physical file
+     * @return IMDB id matched to file, null if none
+     */
+    public String getTitle(File file) {
+        return titles.get(file.getAbsolutePath());
+    }
+
+    /**
+     * @return JSON array with the metrics of every stage
+     */
+    public String toJson() {
+        JSONArray json = new JSONArray();
+        for (Stage stage : stages) {
+            json.put(stage.toJson());
+        }
+        return json.toString(1);
+    }
+}
@@ -0,0 +1,111 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.apache.ftpserver.usermanager.Md5PasswordEncryptor;
+import ud.binmonkey.prog3_proyecto_server.common.security.PasswordAuthentication;
+import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
+import ud.binmonkey.prog3_proyecto_server.mongodb.MongoDB;
+
+import java.io.IOException;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One-off migration of the users of the FTP user file to MongoDB, the only place they are stored now.
+ * Every user is upserted first (users already in MongoDB are kept as they are) and removed from the file only once
+ * MongoDB acknowledged it; users that fail stay in the file for the next run. Users new to MongoDB keep their MD5
+ * hash, prefixed with LEGACY_PREFIX, until their first login rehashes the password with PBKDF2.
+ */
+public class UserFileMigration {
+
+    private static final Logger LOG = Logger.getLogger(UserFileMigration.class.getName());
+    static {
+        try {
+            LOG.addHandler(new FileHandler(
+                    "logs/" + UserFileMigration.class.getName() + "." +
+                            DateUtils.currentFormattedDate() + ".log.xml", true));
+        } catch (SecurityException | IOException e) {
+            LOG.log(Level.SEVERE, "Unable to create log file.");
+        }
+    }
+
+    /**
+     * Prefix of the MD5 hashes imported from the user file
+     */
+    public static final String LEGACY_PREFIX = "md5:";
+
+    /**
+     * @param userManager user manager of the user file
+     * @return users of the file that are not base users, i.e. not migrated yet
+     */
+    static int pending(CachedUserManager userManager) {
+        int pending = 0;
+        for (String userName : userManager.getAllUserNames()) {
+            if (!MongoUserManager.isBaseUser(userName)) {
+                pending++;
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Moves every user of the file that is not a base user to MongoDB
+     * @param userManager user manager of the user file
+     * @return users left in the file because they couldn't be stored in MongoDB
+     */
+    public static int migrate(CachedUserManager userManager) {
+        int migrated = 0;
+        int failed = 0;
+        for (String userName : userManager.getAllUserNames()) {
+            if (MongoUserManager.isBaseUser(userName)) {
+                continue;
+            }
+            String hash = userManager.getPasswordHash(userName);
+            try {
+                if (hash != null && MongoDB.upsertLegacyUser(userName, LEGACY_PREFIX + hash)) {
+                    userManager.delete(userName);
+                    migrated++;
+                    continue;
+                }
+                LOG.log(Level.WARNING, "MongoDB did not acknowledge user `" + userName + "`, kept in user file.");
+            } catch (Exception e) {
+                LOG.log(Level.SEVERE, "Unable to migrate user `" + userName + "`, kept in user file: " +
+                        e.getMessage());
+            }
+            failed++;
+        }
+        userManager.flush();
+        LOG.log(Level.INFO, "Migrated " + migrated + " users from user file to MongoDB, " + failed + " left.");
+        return failed;
+    }
+
+    /**
+     * Checks a password against a MongoDB hash, rehashing imported MD5 hashes with PBKDF2 on success
+     * @param userName username of user
+     * @param password plain password
+     * @param token hash stored in MongoDB
+     * @return true if password matches
+     */
+    public static boolean authenticate(String userName, char[] password, String token) {
+        if (!token.startsWith(LEGACY_PREFIX)) {
+            return new PasswordAuthentication().authenticate(password, token);
+        }
+        if (!new Md5PasswordEncryptor().matches(new String(password), token.substring(LEGACY_PREFIX.length()))) {
+            return false;
+        }
+        try {
+            MongoDB.setPassword(userName, new PasswordAuthentication().hash(password));
+        } catch (Exception e) {
+            /* login is still valid, retried on the next one */
+            LOG.log(Level.WARNING, "Unable to rehash password of user `" + userName + "`: " + e.getMessage());
+        }
+        return true;
+    }
+
+    public static void main(String[] args) {
+        int failed = migrate(FTPServer.getCachedUserManager());
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Table of read only directories of ftpd shown inside the FTP view of every user, e.g. `/common/movies` showing
+ * `ftpd/common/movies`. Paths are resolved when they are looked up: nothing is copied or linked on disk.
+ */
+public class VirtualMounts {
+
+    /* virtual absolute path -> physical directory */
+    private final Map<String, File> mounts = new TreeMap<>();
+
+    /**
+     * @param ftpd root of the FTP server, physical paths are relative to it
+     * @param mounts semicolon separated `virtual=physical` pairs, e.g. `/common/movies=common/movies`
+     */
+    public VirtualMounts(String ftpd, String mounts) {
+        if (mounts == null) {
+            return;
+        }
+        for (String mount : mounts.split(";")) {
+            String[] paths = mount.trim().split("=");
+            if (paths.length != 2) {
+                throw new IllegalArgumentException("Invalid mount `" + mount + "`, expected virtual=physical");
+            }
+            String virtual = normalize("/", paths[0].trim());
+            if (virtual.equals("/")) {
+                throw new IllegalArgumentException("Root can't be a mount point");
+            }
+            File physical = new File(ftpd, paths[1].trim());
+            physical.mkdirs();
+            this.mounts.put(virtual, physical);
+        }
+    }
+
+    public boolean isEmpty() {
+        return mounts.isEmpty();
+    }
+
+    /**
+     * @param path normalized absolute virtual path
+     * @return true if path is a mount, inside one, a directory containing one or an entry of such directory
+     */
+    public boolean contains(String path) {
+        if (path.equals("/")) {
+            return false;
+        }
+        String parent = path.substring(0, path.lastIndexOf('/'));
+        return mountOf(path) != null || isVirtual(path) || (!parent.isEmpty() && isVirtual(parent));
+    }
+
+    /**
+     * @param path normalized absolute virtual path
+     * @return true if path is a directory leading to a mount but not inside one
+     */
+    public boolean isVirtual(String path) {
+        return mountOf(path) == null && !children(path).isEmpty();
+    }
+
+    /**
+     * @param path normalized absolute virtual path
+     * @return physical file of path, null if path is not inside a mount
+     */
+    public File resolve(String path) {
+        String mount = mountOf(path);
+        if (mount == null) {
+            return null;
+        }
+        return path.length() == mount.length() ? mounts.get(mount) :
+                new File(mounts.get(mount), path.substring(mount.length() + 1));
+    }
+
+    /**
+     * @param path normalized absolute virtual path
+     * @return names of the entries of a virtual directory that lead to a mount
+     */
+    public Set<String> children(String path) {
+        String prefix = path.endsWith("/") ? path : path + "/";
+        Set<String> names = new TreeSet<>();
+        for (String mount : mounts.keySet()) {
+            if (mount.startsWith(prefix)) {
+                names.add(mount.substring(prefix.length()).split("/")[0]);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @param path normalized absolute virtual path
+     * @return mount point path is in, null if none
+     */
+    private String mountOf(String path) {
+        for (String mount : mounts.keySet()) {
+            if (path.equals(mount) || path.startsWith(mount + "/")) {
+                return mount;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Absolute path without `.`, `..` or repeated slashes. `..` never goes above root, so a path can't escape
+     * a mount before being resolved.
+     * @param cwd current absolute directory
+     * @param path absolute or relative path, `~` is the home (root of the view)
+     * @return normalized absolute path
+     */
+    public static String normalize(String cwd, String path) {
+        if (path == null || path.isEmpty()) {
+            path = cwd;
+        } else if (path.startsWith("~")) {
+            path = "/" + path.substring(1);
+        } else if (!path.startsWith("/")) {
+            path = cwd + "/" + path;
+        }
+        Deque<String> parts = new ArrayDeque<>();
+        for (String part : path.split("/")) {
+            if (part.isEmpty() || part.equals(".")) {
+                continue;
+            }
+            if (part.equals("..")) {
+                parts.pollLast();
+            } else {
+                parts.addLast(part);
+            }
+        }
+        StringBuilder normalized = new StringBuilder();
+        for (String part : parts) {
+            normalized.append('/').append(part);
+        }
+        return normalized.length() == 0 ? "/" : normalized.toString();
+    }
+}
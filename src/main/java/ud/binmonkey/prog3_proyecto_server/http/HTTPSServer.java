@@ -1,5 +1,7 @@
 package ud.binmonkey.prog3_proyecto_server.http;
 
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpsConfigurator;
 import com.sun.net.httpserver.HttpsParameters;
@@ -10,11 +12,19 @@ import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
 import ud.binmonkey.prog3_proyecto_server.common.exceptions.AdminEditException;
 import ud.binmonkey.prog3_proyecto_server.common.exceptions.InvalidNameException;
 import ud.binmonkey.prog3_proyecto_server.common.exceptions.UserNotFoundException;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.MediaScrubber;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.ShardedStorage;
 import ud.binmonkey.prog3_proyecto_server.common.network.URI;
 import ud.binmonkey.prog3_proyecto_server.common.security.SessionHandler;
 import ud.binmonkey.prog3_proyecto_server.common.security.SessionWatcher;
 import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
+import ud.binmonkey.prog3_proyecto_server.ftp.FTPlib;
+import ud.binmonkey.prog3_proyecto_server.ftp.SessionMonitor;
+import ud.binmonkey.prog3_proyecto_server.ftp.UploadPipeline;
 import ud.binmonkey.prog3_proyecto_server.http.handlers.*;
+import ud.binmonkey.prog3_proyecto_server.neo4j.CypherTemplates;
+import ud.binmonkey.prog3_proyecto_server.neo4j.Neo4jDriver;
+import ud.binmonkey.prog3_proyecto_server.neo4j.Neo4jSchema;
 import ud.binmonkey.prog3_proyecto_server.users.UserManager;
 
 import javax.net.ssl.KeyManagerFactory;
@@ -30,6 +40,7 @@ import java.util.HashMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -52,19 +63,50 @@ public enum HTTPSServer {
     private final SessionHandler sessionHandler = SessionHandler.INSTANCE;
     private final SessionWatcher sessionWatcher = new SessionWatcher(sessionHandler);
     private final Thread watcherThread = new Thread(() -> sessionWatcher.watch());
+    /* requests being answered, background work backs off while it is high */
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private final Filter requestCounter = new Filter() {
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            activeRequests.incrementAndGet();
+            try {
+                chain.doFilter(exchange);
+            } finally {
+                activeRequests.decrementAndGet();
+            }
+        }
+
+        @Override
+        public String description() {
+            return "Counts requests in progress";
+        }
+    };
+    /* admin reports (@AdminJsonHandler) are built on request, components are not loaded before */
     private final HashMap<String, HttpHandler> contexts = new HashMap<String, HttpHandler>() {{
         put("/", new WebHandlers.IndexHandler());
         put("/check", new DefaultHandler());
         put("/changeProperty", new PropertyChangeHandler());
         put("/changePassword", new PasswordChangeHandler());
+        put("/cypherStats", new AdminJsonHandler(CypherTemplates.INSTANCE::toJson));
+        put("/fileMetadata", new FileMetadataHandler());
+        put("/ftpClientPool", new AdminJsonHandler(FTPlib::poolToJson));
+        put("/ftpLimits", new FtpLimitsHandler());
+        put("/ftpPipeline", new AdminJsonHandler(UploadPipeline.INSTANCE::toJson));
+        put("/ftpSessions", new AdminJsonHandler(SessionMonitor.INSTANCE::toJson));
         put("/getMovieJson", new GetMovieJSONHandler());
         put("/getTitleJson", new GetTitleJSONHandler());
+        put("/jobStatus", new JobStatusHandler());
         put("/listDir", new ShowFileSystemHandler());
         put("/login", new LoginHandler());
+        put("/mediaScrubber", new AdminJsonHandler(() -> MediaScrubber.get().toJson()));
+        put("/neo4jPool", new AdminJsonHandler(() -> Neo4jDriver.get().toJson()));
+        put("/neo4jSchema", new AdminJsonHandler(Neo4jSchema::verify));
         put("/publishMovie", new PublishMovieHandler());
         put("/searchMovie", new SearchMovieHandler());
         put("/sessionInfo", new SessionInfoHandler());
         put("/signUp", new SignUpHandler());
+        put("/storageRebalance", new StorageRebalanceHandler());
+        put("/storageShards", new AdminJsonHandler(() -> ShardedStorage.get().toJson()));
         put("/userInfo", new UserInfoHandler());
 
         /* extras */
@@ -148,7 +190,7 @@ public enum HTTPSServer {
             });
 
             for (String context : contexts.keySet()) {
-                httpsServer.createContext(context, contexts.get(context));
+                httpsServer.createContext(context, contexts.get(context)).getFilters().add(requestCounter);
             }
 
             /* set multithreaded executor */
@@ -167,6 +209,13 @@ public enum HTTPSServer {
         return httpsServer;
     }
 
+    /**
+     * @return requests being answered
+     */
+    public int getActiveRequests() {
+        return activeRequests.get();
+    }
+
     public SessionHandler getSessionHandler() {
         return sessionHandler;
     }
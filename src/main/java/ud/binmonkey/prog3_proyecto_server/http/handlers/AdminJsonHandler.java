@@ -0,0 +1,77 @@
+package ud.binmonkey.prog3_proyecto_server.http.handlers;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsExchange;
+import ud.binmonkey.prog3_proyecto_server.common.exceptions.EmptyArgException;
+import ud.binmonkey.prog3_proyecto_server.common.exceptions.UriUnescapedArgsException;
+import ud.binmonkey.prog3_proyecto_server.common.security.SessionHandler;
+import ud.binmonkey.prog3_proyecto_server.http.URI;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.function.Supplier;
+
+import static ud.binmonkey.prog3_proyecto_server.http.handlers.HandlerUtils.isAdmin;
+import static ud.binmonkey.prog3_proyecto_server.http.handlers.HandlerUtils.printRequest;
+import static ud.binmonkey.prog3_proyecto_server.http.handlers.HandlerUtils.validateArgs;
+
+/**
+ * Returns a JSON report (metrics, state...) of a server component. Admins only.
+ * Params:
+ *  username: username of admin
+ *  token: token of current session
+ */
+public class AdminJsonHandler implements HttpHandler {
+
+    private final Supplier<String> report;
+
+    /**
+     * @param report builds the JSON answered, called once per request
+     */
+    public AdminJsonHandler(Supplier<String> report) {
+        this.report = report;
+    }
+
+    @Override
+    public void handle(HttpExchange he) throws IOException {
+        HttpsExchange hes = (HttpsExchange) he;
+        printRequest(hes);
+
+        OutputStream os;
+        try {
+            HashMap<String, String> args = URI.getArgs(hes.getRequestURI());
+
+            boolean err = validateArgs(hes, args, "username", "token");
+            if (err) {
+                return;
+            }
+
+            String userName = args.get("username");
+            String token = args.get("token");
+
+            if (SessionHandler.INSTANCE.validToken(userName, token) && isAdmin(userName)) {
+
+                SessionHandler.INSTANCE.userActivity(userName);
+                hes.getResponseHeaders().add("content-type", "application/json");
+                hes.sendResponseHeaders(200, 0);
+                os = hes.getResponseBody();
+                os.write(report.get().getBytes());
+
+            } else {
+                hes.getResponseHeaders().add("content-type", "text/plain");
+                hes.sendResponseHeaders(401, 0);
+                os = hes.getResponseBody();
+                os.write("Unauthorized.".getBytes());
+            }
+
+        } catch (EmptyArgException | UriUnescapedArgsException e) {
+            hes.getResponseHeaders().add("content-type", "text/plain");
+            hes.sendResponseHeaders(400, 0);
+            os = hes.getResponseBody();
+            os.write(e.getMessage().getBytes());
+        }
+        os.close();
+    }
+}
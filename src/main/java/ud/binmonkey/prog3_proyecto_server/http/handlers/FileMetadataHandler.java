@@ -0,0 +1,86 @@
+package ud.binmonkey.prog3_proyecto_server.http.handlers;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsExchange;
+import ud.binmonkey.prog3_proyecto_server.common.exceptions.EmptyArgException;
+import ud.binmonkey.prog3_proyecto_server.common.exceptions.UriUnescapedArgsException;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.ChecksumIndex;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.ShardedStorage;
+import ud.binmonkey.prog3_proyecto_server.common.security.SessionHandler;
+import ud.binmonkey.prog3_proyecto_server.ftp.UploadPipeline;
+import ud.binmonkey.prog3_proyecto_server.http.URI;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+
+import static ud.binmonkey.prog3_proyecto_server.http.handlers.HandlerUtils.printRequest;
+import static ud.binmonkey.prog3_proyecto_server.http.handlers.HandlerUtils.validateArgs;
+
+/**
+ * Returns size, modification time and checksums (SHA-256, CRC32, CRC32C) of a file of the user.
+ * Checksums of uploads come from the index filled while they were written, other files are read once.
+ * Videos also carry the IMDB id matched by the upload pipeline, if any.
+ */
+public class FileMetadataHandler implements HttpHandler {
+
+    @Override
+    public void handle(HttpExchange he) throws IOException {
+        HttpsExchange hes = (HttpsExchange) he;
+        printRequest(hes);
+
+        OutputStream os;
+        try {
+            HashMap<String, String> args = URI.getArgs(hes.getRequestURI());
+
+            boolean err = validateArgs(hes, args, "username", "token", "filePath");
+            if (err) {
+                return;
+            }
+
+            String userName = args.get("username");
+            String token = args.get("token");
+            String filePath = args.get("filePath");
+
+            if (SessionHandler.INSTANCE.validToken(userName, token)) {
+
+                SessionHandler.INSTANCE.userActivity(userName);
+                File home = ShardedStorage.get().home(userName).getCanonicalFile();
+                File file = new File(home, filePath).getCanonicalFile();
+
+                if (!file.getPath().startsWith(home.getPath() + File.separator) || !file.isFile()) {
+                    /* also files outside the home of the user */
+                    hes.getResponseHeaders().add("content-type", "text/plain");
+                    hes.sendResponseHeaders(404, 0);
+                    os = hes.getResponseBody();
+                    os.write(("File " + filePath + " not found").getBytes());
+                } else {
+                    String json = ChecksumIndex.get().compute(file, false).toJson();
+                    String imdbID = UploadPipeline.INSTANCE.getTitle(file);
+                    if (imdbID != null) {
+                        json = json.substring(0, json.length() - 1) + ", \"imdbID\": \"" + imdbID + "\"}";
+                    }
+                    hes.getResponseHeaders().add("content-type", "application/json");
+                    hes.sendResponseHeaders(200, 0);
+                    os = hes.getResponseBody();
+                    os.write(json.getBytes());
+                }
+
+            } else {
+                hes.getResponseHeaders().add("content-type", "text/plain");
+                hes.sendResponseHeaders(401, 0);
+                os = hes.getResponseBody();
+                os.write("Unauthorized.".getBytes());
+            }
+
+        } catch (EmptyArgException | UriUnescapedArgsException e) {
+            hes.getResponseHeaders().add("content-type", "text/plain");
+            hes.sendResponseHeaders(400, 0);
+            os = hes.getResponseBody();
+            os.write(e.getMessage().getBytes());
+        }
+        os.close();
+    }
+}
@@ -0,0 +1,130 @@
+package ud.binmonkey.prog3_proyecto_server.http.handlers;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsExchange;
+import ud.binmonkey.prog3_proyecto_server.common.exceptions.EmptyArgException;
+import ud.binmonkey.prog3_proyecto_server.common.exceptions.UriUnescapedArgsException;
+import ud.binmonkey.prog3_proyecto_server.common.security.SessionHandler;
+import ud.binmonkey.prog3_proyecto_server.ftp.LimitRegistry;
+import ud.binmonkey.prog3_proyecto_server.http.URI;
+import ud.binmonkey.prog3_proyecto_server.users.attributes.Role;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+
+import static ud.binmonkey.prog3_proyecto_server.http.handlers.HandlerUtils.isAdmin;
+import static ud.binmonkey.prog3_proyecto_server.http.handlers.HandlerUtils.printRequest;
+import static ud.binmonkey.prog3_proyecto_server.http.handlers.HandlerUtils.validateArgs;
+
+/**
+ * Shows and changes FTP transfer and login limits without restarting the server. Admins only.
+ * Without `role` or `user` args current limits are returned. With one of them, `upload`, `download`
+ * (KB/s), `maxLogins` and `maxLoginsPerIp` replace its limits; `reset` drops the limits of a user.
+ */
+public class FtpLimitsHandler implements HttpHandler {
+
+    private static final int KB = 1024;
+
+    @Override
+    public void handle(HttpExchange he) throws IOException {
+        HttpsExchange hes = (HttpsExchange) he;
+        printRequest(hes);
+
+        OutputStream os;
+        try {
+            HashMap<String, String> args = URI.getArgs(hes.getRequestURI());
+
+            boolean err = validateArgs(hes, args, "username", "token");
+            if (err) {
+                return;
+            }
+
+            String userName = args.get("username");
+            String token = args.get("token");
+
+            if (!SessionHandler.INSTANCE.validToken(userName, token) || !isAdmin(userName)) {
+                hes.getResponseHeaders().add("content-type", "text/plain");
+                hes.sendResponseHeaders(401, 0);
+                os = hes.getResponseBody();
+                os.write("Unauthorized.".getBytes());
+                os.close();
+                return;
+            }
+            SessionHandler.INSTANCE.userActivity(userName);
+
+            Role role = null;
+            if (args.get("role") != null) {
+                role = role(args.get("role"));
+                if (role == null) {
+                    hes.getResponseHeaders().add("content-type", "text/plain");
+                    hes.sendResponseHeaders(400, 0);
+                    os = hes.getResponseBody();
+                    os.write(("Unknown role: " + args.get("role")).getBytes());
+                    os.close();
+                    return;
+                }
+            }
+
+            try {
+                if (args.get("user") != null && args.get("reset") != null) {
+                    LimitRegistry.INSTANCE.reset(args.get("user").toLowerCase());
+                } else if (args.get("user") != null) {
+                    LimitRegistry.INSTANCE.set(args.get("user").toLowerCase(), parseLimits(args));
+                } else if (role != null) {
+                    LimitRegistry.INSTANCE.set(role, parseLimits(args));
+                }
+            } catch (IllegalArgumentException e) {
+                /* also NumberFormatException */
+                hes.getResponseHeaders().add("content-type", "text/plain");
+                hes.sendResponseHeaders(400, 0);
+                os = hes.getResponseBody();
+                os.write(("Invalid limits: " + e.getMessage()).getBytes());
+                os.close();
+                return;
+            }
+
+            hes.getResponseHeaders().add("content-type", "application/json");
+            hes.sendResponseHeaders(200, 0);
+            os = hes.getResponseBody();
+            os.write(LimitRegistry.INSTANCE.toJson().getBytes());
+
+        } catch (EmptyArgException | UriUnescapedArgsException e) {
+            hes.getResponseHeaders().add("content-type", "text/plain");
+            hes.sendResponseHeaders(400, 0);
+            os = hes.getResponseBody();
+            os.write(e.getMessage().getBytes());
+        }
+        os.close();
+    }
+
+    /**
+     * @param name name of a role, as in @Role.toString
+     * @return role named name, null if there is none (@Role.fromString would default to @Role.USER)
+     */
+    private static Role role(String name) {
+        for (Role role : Role.values()) {
+            if (role.toString().equals(name.toLowerCase())) {
+                return role;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param args request args, missing limits are 0 (unlimited)
+     * @return limits in args
+     */
+    private static LimitRegistry.Limits parseLimits(HashMap<String, String> args) {
+        return new LimitRegistry.Limits(
+                parse(args, "upload") * KB,
+                parse(args, "download") * KB,
+                parse(args, "maxLogins"),
+                parse(args, "maxLoginsPerIp"));
+    }
+
+    private static int parse(HashMap<String, String> args, String key) {
+        return args.get(key) == null ? 0 : Integer.parseInt(args.get(key));
+    }
+}
@@ -3,10 +3,13 @@ package ud.binmonkey.prog3_proyecto_server.http.handlers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpsExchange;
 import ud.binmonkey.prog3_proyecto_server.common.exceptions.EmptyArgException;
+import ud.binmonkey.prog3_proyecto_server.common.exceptions.UserNotFoundException;
 import ud.binmonkey.prog3_proyecto_server.common.exceptions.UriUnescapedArgsException;
 import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
 import ud.binmonkey.prog3_proyecto_server.http.HTTPSServer;
 import ud.binmonkey.prog3_proyecto_server.http.URI;
+import ud.binmonkey.prog3_proyecto_server.mongodb.MongoDB;
+import ud.binmonkey.prog3_proyecto_server.users.attributes.Role;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -85,4 +88,16 @@ public class HandlerUtils {
         }
         return false;
     }
+
+    /**
+     * @param userName username of user
+     * @return true if user has @Role.ADMIN
+     */
+    public static boolean isAdmin(String userName) {
+        try {
+            return Role.fromString(MongoDB.getUser(userName).getString("role")) == Role.ADMIN;
+        } catch (UserNotFoundException e) {
+            return false;
+        }
+    }
 }
@@ -0,0 +1,72 @@
+package ud.binmonkey.prog3_proyecto_server.http.handlers;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsExchange;
+import ud.binmonkey.prog3_proyecto_server.common.exceptions.EmptyArgException;
+import ud.binmonkey.prog3_proyecto_server.common.exceptions.UriUnescapedArgsException;
+import ud.binmonkey.prog3_proyecto_server.common.jobs.JobManager;
+import ud.binmonkey.prog3_proyecto_server.common.security.SessionHandler;
+import ud.binmonkey.prog3_proyecto_server.http.URI;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+
+import static ud.binmonkey.prog3_proyecto_server.http.handlers.HandlerUtils.isAdmin;
+import static ud.binmonkey.prog3_proyecto_server.http.handlers.HandlerUtils.printRequest;
+import static ud.binmonkey.prog3_proyecto_server.http.handlers.HandlerUtils.validateArgs;
+
+/**
+ * Returns state and progress of a background job. Only its owner and admins can see it.
+ */
+public class JobStatusHandler implements HttpHandler {
+
+    @Override
+    public void handle(HttpExchange he) throws IOException {
+        HttpsExchange hes = (HttpsExchange) he;
+        printRequest(hes);
+
+        OutputStream os;
+        try {
+            HashMap<String, String> args = URI.getArgs(hes.getRequestURI());
+
+            boolean err = validateArgs(hes, args, "username", "token", "job");
+            if (err) {
+                return;
+            }
+
+            String userName = args.get("username");
+            String token = args.get("token");
+
+            JobManager.Job job = JobManager.INSTANCE.get(args.get("job"));
+
+            if (!SessionHandler.INSTANCE.validToken(userName, token)) {
+                hes.getResponseHeaders().add("content-type", "text/plain");
+                hes.sendResponseHeaders(401, 0);
+                os = hes.getResponseBody();
+                os.write("Unauthorized.".getBytes());
+
+            } else if (job == null || !(job.getOwner().equals(userName.toLowerCase()) || isAdmin(userName))) {
+                hes.getResponseHeaders().add("content-type", "text/plain");
+                hes.sendResponseHeaders(404, 0);
+                os = hes.getResponseBody();
+                os.write(("Job " + args.get("job") + " not found").getBytes());
+
+            } else {
+                SessionHandler.INSTANCE.userActivity(userName);
+                hes.getResponseHeaders().add("content-type", "application/json");
+                hes.sendResponseHeaders(200, 0);
+                os = hes.getResponseBody();
+                os.write(job.toJson().getBytes());
+            }
+
+        } catch (EmptyArgException | UriUnescapedArgsException e) {
+            hes.getResponseHeaders().add("content-type", "text/plain");
+            hes.sendResponseHeaders(400, 0);
+            os = hes.getResponseBody();
+            os.write(e.getMessage().getBytes());
+        }
+        os.close();
+    }
+}
@@ -4,6 +4,7 @@ import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpsExchange;
 import ud.binmonkey.prog3_proyecto_server.common.exceptions.*;
+import ud.binmonkey.prog3_proyecto_server.common.jobs.JobManager;
 import ud.binmonkey.prog3_proyecto_server.common.security.SessionHandler;
 import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
 import ud.binmonkey.prog3_proyecto_server.http.HTTPSServer;
@@ -23,7 +24,7 @@ import static ud.binmonkey.prog3_proyecto_server.http.handlers.HandlerUtils.vali
 /**
  * Change properties of one user
  * Params:
- *  property: property to be changed
+ *  property: property to be changed, a new username is applied by a background job (202 with the job)
  *  value: new value of property
  *  username: username of user
  *  token: token of current session
@@ -89,6 +90,17 @@ public class PropertyChangeHandler implements HttpHandler {
                             UserManager.changePreferredLanguage(userName, value);
                             break;
 
+                        case "username":
+                            /* moving the home can take long: answer with the job to poll in /jobStatus */
+                            JobManager.Job job = UserManager.changeUserName(userName, value);
+                            LOG.log(Level.INFO, "Username: '" + userName + "' changed to '" + value + "'");
+                            hes.getResponseHeaders().add("content-type", "application/json");
+                            hes.sendResponseHeaders(202, 0);
+                            os = hes.getResponseBody();
+                            os.write(job.toJson().getBytes());
+                            os.close();
+                            return;
+
                         /* Role can't be changed by user */
 
                         default:
@@ -108,7 +120,8 @@ public class PropertyChangeHandler implements HttpHandler {
                     os.close();
                     return;
 
-                } catch (IncorrectFormatException | UnsupportedLanguageException e) {
+                } catch (IncorrectFormatException | UnsupportedLanguageException | InvalidNameException |
+                        NewUserExistsException | UserNotFoundException e) {
                     hes.getResponseHeaders().add("content-type", "text/plain");
                     hes.sendResponseHeaders(400, 0);
                     os = hes.getResponseBody();
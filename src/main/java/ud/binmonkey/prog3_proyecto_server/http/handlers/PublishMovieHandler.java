@@ -3,14 +3,13 @@ package ud.binmonkey.prog3_proyecto_server.http.handlers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpsExchange;
-import org.json.JSONObject;
+import org.json.JSONException;
 import ud.binmonkey.prog3_proyecto_server.common.exceptions.EmptyArgException;
 import ud.binmonkey.prog3_proyecto_server.common.exceptions.UriUnescapedArgsException;
-import ud.binmonkey.prog3_proyecto_server.common.filesystem.FileUtils;
+import ud.binmonkey.prog3_proyecto_server.common.jobs.JobManager;
 import ud.binmonkey.prog3_proyecto_server.common.security.SessionHandler;
 import ud.binmonkey.prog3_proyecto_server.http.URI;
-import ud.binmonkey.prog3_proyecto_server.neo4j.Neo4jUtils;
-import ud.binmonkey.prog3_proyecto_server.omdb.OmdbMovie;
+import ud.binmonkey.prog3_proyecto_server.neo4j.PublishQueue;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -55,24 +54,13 @@ public class PublishMovieHandler implements HttpHandler {
             if (validToken) {
 
                 String content = convertStreamToString(hes.getRequestBody());
-                System.out.println(content);
-                System.out.println(srcFile);
 
-                OmdbMovie movie = new OmdbMovie(new JSONObject(content));
-                movie.setFilename("movies/" + movie.getFilename());
-
-                try {
-                    FileUtils.publishFile(srcFile, userName, movie.getFilename(), movie.getType().toString());
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-
-                Neo4jUtils utils = new Neo4jUtils();
-                utils.addMovie(movie);
+                /* copy, graph and poster run in the background, the client polls /jobStatus */
+                JobManager.Job job = PublishQueue.get().submit(userName, srcFile, content);
                 hes.getResponseHeaders().add("content-type", "application/json");
-                hes.sendResponseHeaders(200, 0);
+                hes.sendResponseHeaders(202, 0);
                 os = hes.getResponseBody();
-                os.write("OK".toString().getBytes());
+                os.write(job.toJson().getBytes());
 
             } else {
                 hes.getResponseHeaders().add("content-type", "text/plain");
@@ -81,7 +69,7 @@ public class PublishMovieHandler implements HttpHandler {
                 os.write("Unauthorized.".getBytes());
             }
 
-        } catch (EmptyArgException | UriUnescapedArgsException e) {
+        } catch (EmptyArgException | UriUnescapedArgsException | JSONException e) {
             hes.getResponseHeaders().add("content-type", "text/plain");
             hes.sendResponseHeaders(400, 0);
             os = hes.getResponseBody();
@@ -7,6 +7,7 @@ import ud.binmonkey.prog3_proyecto_server.common.exceptions.DirIsFileException;
 import ud.binmonkey.prog3_proyecto_server.common.exceptions.EmptyArgException;
 import ud.binmonkey.prog3_proyecto_server.common.exceptions.UriUnescapedArgsException;
 import ud.binmonkey.prog3_proyecto_server.common.filesystem.Scanner;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.ShardedStorage;
 import ud.binmonkey.prog3_proyecto_server.common.security.SessionHandler;
 import ud.binmonkey.prog3_proyecto_server.http.URI;
 
@@ -63,7 +64,9 @@ public class ShowFileSystemHandler implements HttpHandler {
                     }
                 }
                 try {
-                    String response = Scanner.scanDir(Scanner.getFtpd() + userName + directory).toString();
+                    /* whole home is cached, refreshed by the upload pipeline */
+                    String response = (directory.isEmpty() ? Scanner.scanHome(userName) :
+                            Scanner.scanDir(ShardedStorage.get().home(userName).getPath() + directory)).toString();
                     hes.getResponseHeaders().add("content-type", "application/json");
                     hes.sendResponseHeaders(200, 0);
                     os = hes.getResponseBody();
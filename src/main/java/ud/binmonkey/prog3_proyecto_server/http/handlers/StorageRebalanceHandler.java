@@ -0,0 +1,68 @@
+package ud.binmonkey.prog3_proyecto_server.http.handlers;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsExchange;
+import ud.binmonkey.prog3_proyecto_server.common.exceptions.EmptyArgException;
+import ud.binmonkey.prog3_proyecto_server.common.exceptions.UriUnescapedArgsException;
+import ud.binmonkey.prog3_proyecto_server.common.jobs.JobManager;
+import ud.binmonkey.prog3_proyecto_server.common.security.SessionHandler;
+import ud.binmonkey.prog3_proyecto_server.ftp.FTPServer;
+import ud.binmonkey.prog3_proyecto_server.http.URI;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+
+import static ud.binmonkey.prog3_proyecto_server.http.handlers.HandlerUtils.isAdmin;
+import static ud.binmonkey.prog3_proyecto_server.http.handlers.HandlerUtils.printRequest;
+import static ud.binmonkey.prog3_proyecto_server.http.handlers.HandlerUtils.validateArgs;
+
+/**
+ * Starts moving user homes to the storage root they belong in, after a root was added. Admins only.
+ * Answers 202 with the job, its progress (homes) is polled through @JobStatusHandler.
+ */
+public class StorageRebalanceHandler implements HttpHandler {
+
+    @Override
+    public void handle(HttpExchange he) throws IOException {
+        HttpsExchange hes = (HttpsExchange) he;
+        printRequest(hes);
+
+        OutputStream os;
+        try {
+            HashMap<String, String> args = URI.getArgs(hes.getRequestURI());
+
+            boolean err = validateArgs(hes, args, "username", "token");
+            if (err) {
+                return;
+            }
+
+            String userName = args.get("username");
+            String token = args.get("token");
+
+            if (SessionHandler.INSTANCE.validToken(userName, token) && isAdmin(userName)) {
+
+                SessionHandler.INSTANCE.userActivity(userName);
+                hes.getResponseHeaders().add("content-type", "application/json");
+                JobManager.Job job = FTPServer.rebalanceHomes(userName);
+                hes.sendResponseHeaders(202, 0);
+                os = hes.getResponseBody();
+                os.write(job.toJson().getBytes());
+
+            } else {
+                hes.getResponseHeaders().add("content-type", "text/plain");
+                hes.sendResponseHeaders(401, 0);
+                os = hes.getResponseBody();
+                os.write("Unauthorized.".getBytes());
+            }
+
+        } catch (EmptyArgException | UriUnescapedArgsException e) {
+            hes.getResponseHeaders().add("content-type", "text/plain");
+            hes.sendResponseHeaders(400, 0);
+            os = hes.getResponseBody();
+            os.write(e.getMessage().getBytes());
+        }
+        os.close();
+    }
+}
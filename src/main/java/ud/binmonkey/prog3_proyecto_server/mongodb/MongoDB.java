@@ -2,10 +2,14 @@ package ud.binmonkey.prog3_proyecto_server.mongodb;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
 import com.mongodb.MongoCommandException;
+import com.mongodb.ServerAddress;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.result.UpdateResult;
 import org.bson.Document;
 import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
 import ud.binmonkey.prog3_proyecto_server.common.exceptions.*;
@@ -16,6 +20,8 @@ import ud.binmonkey.prog3_proyecto_server.users.attributes.Language;
 import ud.binmonkey.prog3_proyecto_server.users.attributes.Role;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -30,6 +36,9 @@ public class MongoDB {
             "network", "mongodb-server", "host").getTextContent();
     private static final int port = Integer.parseInt(DocumentReader.getAttr(DocumentReader.getDoc("conf/properties.xml"),
             "network", "mongodb-server", "port").getTextContent());
+    private static final int poolSize = Integer.parseInt(DocumentReader.getAttr(
+            DocumentReader.getDoc("conf/properties.xml"), "network", "mongodb-server", "pool-size").getTextContent());
+    private static volatile boolean collectionCreated = false;
 
     static {
         try {
@@ -41,7 +50,14 @@ public class MongoDB {
         }
     }
 
-    /* should there be MongoClient, MongoDB and MongoCollection attrs? */
+    /**
+     * Single client for the whole process, created on first use. MongoClient is thread safe and keeps its own
+     * connection pool, so it must be shared instead of opening a new one for every query.
+     */
+    private static class ClientHolder {
+        private static final MongoClient CLIENT = new MongoClient(new ServerAddress(ns, port),
+                MongoClientOptions.builder().connectionsPerHost(poolSize).build());
+    }
 
     /**
      * Change username of existing user
@@ -82,16 +98,27 @@ public class MongoDB {
      * @return User MongoDatabase object
      */
     private static MongoDatabase getUsersDB(){
-        MongoClient mongoClient = new MongoClient(ns, port);
-        MongoDatabase db = mongoClient.getDatabase(COLLECTION);
-        try {
-            db.createCollection(COLLECTION);
-        } catch (MongoCommandException e) {
-            /* Database is already created */
+        MongoDatabase db = ClientHolder.CLIENT.getDatabase(COLLECTION);
+        if (!collectionCreated) {
+            try {
+                db.createCollection(COLLECTION);
+            } catch (MongoCommandException e) {
+                /* Database is already created */
+            }
+            collectionCreated = true;
         }
         return db;
     }
 
+    /**
+     * @return usernames of all users in database
+     */
+    public static List<String> getUserNames() {
+        MongoDatabase db = getUsersDB();
+        MongoCollection<Document> collection = db.getCollection(COLLECTION);
+        return collection.distinct("username", String.class).into(new ArrayList<>());
+    }
+
     /**
      * Find user in database
      * @param userName username of user to be found
@@ -395,6 +422,61 @@ public class MongoDB {
         changePassword(userName, new String(oldPassword), new String(newPassword));
     }
 
+    /**
+     * Replace password of MongoDB user, old password must have been verified by the caller
+     * @param userName username whose password will be changed
+     * @param hashedPassword new password, already hashed
+     * @throws UserNotFoundException user was not found
+     */
+    public static void setPassword(String userName, String hashedPassword)
+            throws UserNotFoundException, AdminEditException {
+
+        userName = userName.toLowerCase();
+        UserAuthentication.checkAdmin(userName);
+
+        MongoDatabase db = getUsersDB();
+        MongoCollection<Document> collection = db.getCollection(COLLECTION);
+        if (collection.updateOne(
+                new BasicDBObject("username", userName),
+                new BasicDBObject("$set",
+                        new BasicDBObject("password", hashedPassword)
+                )
+        ).getMatchedCount() == 0) {
+            throw new UserNotFoundException(userName);
+        }
+        LOG.log(Level.INFO, "Changed password of user `" + userName +  "`.");
+    }
+
+    /**
+     * Stores a user of the FTP user file, kept as it is if it is already in MongoDB
+     * @param userName username of user
+     * @param legacyPassword password hash of the user file, prefixed so it can be told from PBKDF2 hashes
+     * @return true if MongoDB acknowledged the user is stored
+     */
+    public static boolean upsertLegacyUser(String userName, String legacyPassword)
+            throws AdminEditException, InvalidNameException {
+
+        userName = userName.toLowerCase();
+        UserAuthentication.checkAdmin(userName);
+        UserAuthentication.isValidName(userName);
+
+        MongoDatabase db = getUsersDB();
+        MongoCollection<Document> collection = db.getCollection(COLLECTION);
+        UpdateResult result = collection.updateOne(
+                new Document("username", userName),
+                new Document("$setOnInsert", new Document("username", userName)
+                        .append("password", legacyPassword)
+                        .append("preferred_language", Language.EN.toString())
+                        .append("role", Role.USER.toString())),
+                new UpdateOptions().upsert(true));
+        boolean stored = result.wasAcknowledged()
+                && (result.getMatchedCount() > 0 || result.getUpsertedId() != null);
+        if (stored && result.getUpsertedId() != null) {
+            LOG.log(Level.INFO, "Imported user `" + userName + "` from FTP user file.");
+        }
+        return stored;
+    }
+
     /**
      * Create user from document
      * @param user Document containing user
@@ -0,0 +1,362 @@
+package ud.binmonkey.prog3_proyecto_server.neo4j;
+
+import org.json.JSONObject;
+import org.neo4j.driver.v1.Value;
+import org.neo4j.driver.v1.exceptions.TransientException;
+import org.neo4j.driver.v1.summary.SummaryCounters;
+import org.w3c.dom.Element;
+import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
+import ud.binmonkey.prog3_proyecto_server.common.jobs.JobManager;
+import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
+import ud.binmonkey.prog3_proyecto_server.omdb.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import static org.neo4j.driver.v1.Values.parameters;
+
+/**
+ * Loads or refreshes many titles at once. Titles are grouped in batches of batchSize, and every batch is written
+ * with UNWIND statements by several transactions in parallel, in three steps: title nodes, the nodes they share
+ * (people, genres...) and the relations between both. Shared nodes are partitioned by name, so popular ones are
+ * only written by one transaction of a step, their relations going with them; relations are sorted by title so
+ * transactions tend to lock titles in the same order. Deadlocks left are retried.
+ * Properties of titles already in the graph are overwritten. Series of episodes aren't fetched, they must be in
+ * the graph or loaded too. Titles loaded this way aren't logged to the DWH and have no poster downloaded.
+ */
+public class BulkLoader {
+
+    private static final Logger LOG = Logger.getLogger(BulkLoader.class.getName());
+    static {
+        try {
+            LOG.addHandler(new FileHandler(
+                    "logs/" + BulkLoader.class.getName() + "." +
+                            DateUtils.currentFormattedDate() + ".log.xml", true));
+        } catch (SecurityException | IOException e) {
+            LOG.log(Level.SEVERE, "Unable to create log file.");
+        }
+    }
+
+    /* ms waited before the first retry of a transaction, doubled every time */
+    private static final long RETRY_DELAY = 50;
+
+    private final int batchSize;
+    private final int threads;
+    private final int retries;
+
+    private final AtomicLong titles = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong transactions = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong nodesCreated = new AtomicLong();
+    private final AtomicLong relationshipsCreated = new AtomicLong();
+    private volatile long started = 0;
+
+    /**
+     * @return loader configured in conf/properties.xml
+     */
+    public static BulkLoader fromProperties() {
+        Element config = (Element) ((Element) DocumentReader.getDoc("conf/properties.xml")
+                .getElementsByTagName("neo4j-server").item(0)).getElementsByTagName("bulk-load").item(0);
+        return new BulkLoader(
+                Integer.parseInt(config.getElementsByTagName("batch-size").item(0).getTextContent().trim()),
+                Integer.parseInt(config.getElementsByTagName("threads").item(0).getTextContent().trim()),
+                Integer.parseInt(config.getElementsByTagName("retries").item(0).getTextContent().trim()));
+    }
+
+    /**
+     * @param batchSize titles written per batch
+     * @param threads   transactions a batch is written by in parallel, at most the pool size of @Neo4jDriver
+     * @param retries   times a transaction failed with a transient error (deadlock) is retried
+     */
+    public BulkLoader(int batchSize, int threads, int retries) {
+        this.batchSize = batchSize;
+        this.threads = threads;
+        this.retries = retries;
+    }
+
+    /**
+     * Rows of the statements writing a batch of titles. Every step is split in partitions, each one written by a
+     * transaction of its own: statement -> rows.
+     */
+    static class Batch {
+        final List<Map<String, List<Object>>> titles = new ArrayList<>();
+        final List<Map<String, List<Object>>> nodes = new ArrayList<>();
+        final List<Map<String, List<Object>>> relations = new ArrayList<>();
+
+        Batch(List<? extends OmdbTitle> batch, int partitions) {
+            for (int i = 0; i < partitions; i++) {
+                titles.add(new HashMap<>());
+                nodes.add(new HashMap<>());
+                relations.add(new HashMap<>());
+            }
+            for (OmdbTitle title : batch) {
+                add(title);
+            }
+            for (Map<String, List<Object>> partition : relations) {
+                for (List<Object> rows : partition.values()) {
+                    rows.sort(Comparator.comparing(row -> String.valueOf(((Map) row).get("to"))));
+                }
+            }
+        }
+
+        private void add(OmdbTitle title) {
+            String id = title.getImdbID();
+
+            if (title instanceof OmdbMovie) {
+                OmdbMovie movie = (OmdbMovie) title;
+                addTitle("Movie", id, movie.toParameters());
+                relate("Language", movie.getLanguage(), "SPOKEN_LANGUAGE", "Movie", id,
+                        Collections.singletonMap("filename", movie.getFilename()));
+                relateAll("Rating", Collections.singletonList(movie.getAgeRating()), "RATED", "Movie", id);
+                relateAll("Genre", movie.getGenre(), "GENRE", "Movie", id);
+                relateAll("Person", movie.getWriter(), "WROTE", "Movie", id);
+                relateAll("Person", movie.getDirector(), "DIRECTED", "Movie", id);
+                relateAll("Person", movie.getActors(), "ACTED_IN", "Movie", id);
+                relateAll("Producer", movie.getProducers(), "PRODUCED", "Movie", id);
+                relateAll("Country", movie.getCountry(), "COUNTRY", "Movie", id);
+                score("Movie", movie, movie.getRatings());
+
+            } else if (title instanceof OmdbSeries) {
+                OmdbSeries series = (OmdbSeries) title;
+                addTitle("Series", id, series.toParameters());
+                relateAll("Rating", Collections.singletonList(series.getAgeRating()), "RATED", "Series", id);
+                relateAll("Genre", series.getGenre(), "GENRE", "Series", id);
+                relateAll("Producer", series.getProducers(), "PRODUCED", "Series", id);
+                relateAll("Country", series.getCountry(), "COUNTRY", "Series", id);
+                score("Series", series, Neo4jUtils.scores(series));
+
+            } else if (title instanceof OmdbEpisode) {
+                OmdbEpisode episode = (OmdbEpisode) title;
+                addTitle("Episode", id, episode.toParameters());
+                relate("Language", episode.getLanguage(), "SPOKEN_LANGUAGE", "Episode", id,
+                        Collections.singletonMap("filename", episode.getFilename()));
+                relateAll("Person", episode.getWriter(), "WROTE", "Episode", id);
+                relateAll("Person", episode.getDirector(), "DIRECTED", "Episode", id);
+                relateAll("Person", episode.getActors(), "ACTED_IN", "Episode", id);
+                score("Episode", episode, Neo4jUtils.scores(episode));
+
+                /* partitioned by series, the node episodes share */
+                Map<String, Object> props = new HashMap<>();
+                props.put("season", episode.getSeason());
+                props.put("episode", episode.getEpisode());
+                add(relations, episode.getSeriesID(), relationStatement("Episode", "BELONGS_TO", "Series"),
+                        row(id, episode.getSeriesID(), props));
+            }
+        }
+
+        private void addTitle(String title_type, String id, Object parameters) {
+            add(titles, id, "UNWIND {rows} AS row MERGE (a:" + title_type + " {name: row.name}) SET a += row",
+                    ((Value) parameters).asMap());
+        }
+
+        private void relateAll(String node_type, List<?> nodes, String relation_type, String title_type,
+                               String title) {
+            for (Object node : nodes) {
+                relate(node_type, node, relation_type, title_type, title, Collections.emptyMap());
+            }
+        }
+
+        private void relate(String node_type, Object node, String relation_type, String title_type, String title,
+                            Map<String, Object> props) {
+            if (node == null) {
+                return;
+            }
+            String name = node.toString();
+            add(nodes, name, "UNWIND {rows} AS row MERGE (a:" + node_type + " {name: row})", name);
+            add(relations, name, relationStatement(node_type, relation_type, title_type), row(name, title, props));
+        }
+
+        private void score(String title_type, OmdbTitle title, Map<?, ?> scores) {
+            for (Map.Entry<?, ?> score : scores.entrySet()) {
+                Map<String, Object> props = new HashMap<>();
+                props.put("score", score.getValue());
+                if (Neo4jUtils.IMDB.equals(score.getKey())) {
+                    props.put("votes", title.getImdbVotes());
+                }
+                relate("ScoreOutlet", score.getKey(), "SCORED", title_type, title.getImdbID(), props);
+            }
+        }
+
+        private static String relationStatement(String from_type, String relation_type, String to_type) {
+            return "UNWIND {rows} AS row MATCH (a:" + from_type + " {name: row.from}), (b:" + to_type +
+                    " {name: row.to}) MERGE (a)-[r:" + relation_type + "]->(b) SET r += row.props";
+        }
+
+        private static Map<String, Object> row(String from, String to, Map<String, Object> props) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("from", from);
+            row.put("to", to);
+            row.put("props", props);
+            return row;
+        }
+
+        /**
+         * @param key name deciding the partition, the same name always goes to the same one
+         */
+        private static void add(List<Map<String, List<Object>>> step, String key, String statement, Object row) {
+            step.get(Math.floorMod(key.hashCode(), step.size()))
+                    .computeIfAbsent(statement, s -> new ArrayList<>()).add(row);
+        }
+    }
+
+    /**
+     * Loads titles in batches, blocking until all are written
+     *
+     * @param source titles to load, null ones are skipped
+     * @param job    job progress is reported to, in titles; null if not needed
+     * @return titles loaded
+     */
+    public long load(Iterator<? extends OmdbTitle> source, JobManager.Job job) throws InterruptedException {
+        if (started == 0) {
+            started = System.currentTimeMillis();
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "bulk-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long count = 0;
+        try {
+            List<OmdbTitle> batch = new ArrayList<>(batchSize);
+            while (source.hasNext()) {
+                OmdbTitle title = source.next();
+                if (title != null) {
+                    batch.add(title);
+                }
+                if (batch.size() == batchSize) {
+                    count += load(executor, batch, job);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                count += load(executor, batch, job);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        LOG.log(Level.INFO, "Bulk load finished: " + toJson());
+        return count;
+    }
+
+    /**
+     * @param titles titles to load
+     * @return titles loaded
+     */
+    public long load(List<? extends OmdbTitle> titles) throws InterruptedException {
+        return load(titles.iterator(), null);
+    }
+
+    private int load(ExecutorService executor, List<OmdbTitle> batch, JobManager.Job job)
+            throws InterruptedException {
+        Batch rows = new Batch(batch, threads);
+        /* every step needs the nodes of the previous one committed */
+        write(executor, rows.titles);
+        write(executor, rows.nodes);
+        write(executor, rows.relations);
+
+        titles.addAndGet(batch.size());
+        batches.incrementAndGet();
+        String progress = "Loaded " + titles.get() + " titles, " +
+                String.format(Locale.ROOT, "%.1f", titlesPerSecond()) + " titles/s";
+        if (job != null) {
+            job.progress(batch.size());
+            job.setMessage(progress);
+        }
+        LOG.log(Level.INFO, progress);
+        return batch.size();
+    }
+
+    private void write(ExecutorService executor, List<Map<String, List<Object>>> partitions)
+            throws InterruptedException {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (Map<String, List<Object>> partition : partitions) {
+            if (!partition.isEmpty()) {
+                tasks.add(() -> {
+                    write(partition);
+                    return null;
+                });
+            }
+        }
+        for (Future<Void> future : executor.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    private void write(Map<String, List<Object>> partition) throws InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                Neo4jDriver.get().inTransaction(tx -> {
+                    for (Map.Entry<String, List<Object>> statement : partition.entrySet()) {
+                        SummaryCounters counters = tx.run(statement.getKey(),
+                                parameters("rows", statement.getValue())).consume().counters();
+                        nodesCreated.addAndGet(counters.nodesCreated());
+                        relationshipsCreated.addAndGet(counters.relationshipsCreated());
+                    }
+                    return null;
+                });
+                transactions.incrementAndGet();
+                return;
+            } catch (TransientException e) {
+                if (attempt >= retries) {
+                    throw e;
+                }
+                retried.incrementAndGet();
+                LOG.log(Level.INFO, "Retrying transaction: " + e.getMessage());
+                Thread.sleep(RETRY_DELAY << attempt);
+            }
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    private double titlesPerSecond() {
+        long elapsed = System.currentTimeMillis() - started;
+        return elapsed == 0 ? 0 : titles.get() * 1000.0 / elapsed;
+    }
+
+    /**
+     * @return progress and throughput of the titles loaded so far
+     */
+    public String toJson() {
+        return new JSONObject().put("batchSize", batchSize).put("threads", threads).put("titles", titles.get())
+                .put("batches", batches.get()).put("transactions", transactions.get()).put("retried", retried.get())
+                .put("nodesCreated", nodesCreated.get()).put("relationshipsCreated", relationshipsCreated.get())
+                .put("seconds", started == 0 ? 0 : (System.currentTimeMillis() - started) / 1000.0)
+                .put("titlesPerSecond", Math.round(titlesPerSecond() * 10) / 10.0).toString(1);
+    }
+
+    /**
+     * Loads the titles whose IMDB ids are listed in a file, one per line, fetching them from OMDB
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 1) {
+            System.err.println("Usage: BulkLoader <file of IMDB ids>");
+            System.exit(1);
+        }
+        Neo4jSchema.bootstrap();
+        BulkLoader loader = fromProperties();
+        try (Stream<String> ids = Files.lines(Paths.get(args[0]))) {
+            loader.load(ids.map(String::trim).filter(id -> !id.isEmpty())
+                    .map(Omdb::getTitle).filter(Objects::nonNull).map(Omdb::toTitle).iterator(), null);
+        }
+        System.out.println(loader.toJson());
+    }
+}
@@ -0,0 +1,209 @@
+package ud.binmonkey.prog3_proyecto_server.neo4j;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cypher statements of @Neo4j and @Neo4jUtils whose label or relationship type varies. Labels and types can't be
+ * parameters, so every (statement, label, relationship) has a text of its own: it is built once, only from the
+ * whitelisted labels (@Neo4jSchema.LABELS) and RELATIONS, so the server always gets the same text and reuses its
+ * plan, and names coming from requests can't inject Cypher. Every template times its executions.
+ */
+public enum CypherTemplates {
+    INSTANCE;
+
+    /**
+     * Relationship types used by @Neo4jUtils
+     */
+    public static final List<String> RELATIONS = Collections.unmodifiableList(Arrays.asList("ACTED_IN",
+            "BELONGS_TO", "CONTAINS", "COUNTRY", "DIRECTED", "GENRE", "PRODUCED", "RATED", "SCORED",
+            "SPOKEN_LANGUAGE", "WROTE"));
+
+    /**
+     * Statements, %1$s being the label, %2$s the relationship type and %3$s the label of the other node
+     */
+    public enum Statement {
+        CHECK_NODE("MATCH (a:%1$s) WHERE a.name={name} RETURN a.name"),
+        CHECK_RELATION("MATCH (a:%1$s)-[:%2$s]->(b) WHERE a.name={node} AND b.name={title} RETURN a.name"),
+        CREATE_NODE("CREATE (p:%1$s {name: {name}})"),
+        CREATE_RELATION("MATCH (a:%1$s {name: {name}}), (b:%3$s {name: {title}}) CREATE (a)-[:%2$s]->(b)"),
+        CREATE_SCORE("MATCH (a:ScoreOutlet {name: {name}}), (b:%1$s {name: {id}})" +
+                " CREATE (a)-[:SCORED {score: {score}}]->(b)"),
+        CREATE_SCORE_VOTES("MATCH (a:ScoreOutlet {name: {name}}), (b:%1$s {name: {id}})" +
+                " CREATE (a)-[:SCORED {score: {score}, votes: {votes}}]->(b)"),
+        MERGE_RELATIONS("MATCH (b:%1$s {name: {title}}) UNWIND {nodes} AS node" +
+                " MERGE (a:%3$s {name: node}) MERGE (a)-[:%2$s]->(b)"),
+        MERGE_RATINGS("MATCH (b:%1$s {name: {title}}) UNWIND {ratings} AS rating" +
+                " MERGE (a:ScoreOutlet {name: rating.outlet})" +
+                " MERGE (a)-[r:SCORED]->(b) SET r.score = rating.score, r.votes = rating.votes"),
+        MERGE_LANGUAGE("MATCH (b:%1$s {name: {title}}) MERGE (a:Language {name: {name}})" +
+                " MERGE (a)-[r:SPOKEN_LANGUAGE]->(b) SET r.filename = {filename}"),
+        DELETE_NODE("MATCH (n:%1$s {name: {node}})" +
+                " OPTIONAL MATCH (n)--(m) WHERE m <> n" +
+                " WITH n, collect(DISTINCT m) AS neighbours" +
+                " DETACH DELETE n" +
+                " WITH neighbours UNWIND neighbours AS m" +
+                " WITH DISTINCT m WHERE size((m)--())=0" +
+                " DELETE m" +
+                " RETURN count(m) AS orphans"),
+        RENAME_NODE("MATCH (n:%1$s) WHERE n.name={name} SET n.name={new_name}"),
+        RELATION_TYPES_OF("MATCH (a:%1$s {name: {node}})-[r]-()" +
+                " RETURN DISTINCT type(r) AS type, startNode(r) = a AS outgoing"),
+        /* relations between both nodes are left to be deleted with node */
+        MOVE_OUTGOING("MATCH (a:%1$s {name: {node}}), (b:%1$s {name: {into}})" +
+                " MATCH (a)-[r:%2$s]->(c) WHERE c <> a AND c <> b" +
+                " MERGE (b)-[s:%2$s]->(c) SET s += properties(r) DELETE r" +
+                " RETURN count(*) AS moved"),
+        MOVE_INCOMING("MATCH (a:%1$s {name: {node}}), (b:%1$s {name: {into}})" +
+                " MATCH (c)-[r:%2$s]->(a) WHERE c <> a AND c <> b" +
+                " MERGE (c)-[s:%2$s]->(b) SET s += properties(r) DELETE r" +
+                " RETURN count(*) AS moved");
+
+        private final String format;
+
+        Statement(String format) {
+            this.format = format;
+        }
+
+        private boolean hasRelation() {
+            return format.contains("%2$s");
+        }
+
+        private boolean hasOtherLabel() {
+            return format.contains("%3$s");
+        }
+    }
+
+    /**
+     * Text of a statement for a label and relationship, and timings of its executions
+     */
+    public static class Template {
+        private final String key;
+        private final String text;
+        private final AtomicLong executions = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private Template(String key, String text) {
+            this.key = key;
+            this.text = text;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getText() {
+            return text;
+        }
+
+        public long getExecutions() {
+            return executions.get();
+        }
+
+        /**
+         * Runs an execution of the template, timing it
+         *
+         * @param execution - Runs text and returns its result
+         * @return result of execution
+         */
+        public <T> T time(Supplier<T> execution) {
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                T result = execution.get();
+                failed = false;
+                return result;
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                executions.incrementAndGet();
+                if (failed) {
+                    failures.incrementAndGet();
+                }
+                totalNanos.addAndGet(elapsed);
+                maxNanos.accumulateAndGet(elapsed, Math::max);
+            }
+        }
+
+        public JSONObject toJson() {
+            long count = executions.get();
+            double avgMs = count == 0 ? 0 : totalNanos.get() / 1e6 / count;
+            return new JSONObject().put("key", key).put("executions", count).put("failures", failures.get())
+                    .put("avgMs", Math.round(avgMs * 1000) / 1000.0)
+                    .put("maxMs", Math.round(maxNanos.get() / 1e3) / 1000.0);
+        }
+    }
+
+    private final ConcurrentHashMap<String, Template> templates = new ConcurrentHashMap<>();
+
+    /**
+     * @param statement - Statement without relationship type
+     * @param label     - Label of the node
+     * @return template of statement for label
+     * @throws IllegalArgumentException if label isn't whitelisted
+     */
+    public Template get(Statement statement, String label) {
+        return get(statement, label, null, null);
+    }
+
+    /**
+     * @param statement - Statement with a relationship type
+     * @param label     - Label of the node
+     * @param relation  - Type of the relationship
+     * @return template of statement for label and relation
+     * @throws IllegalArgumentException if label or relation aren't whitelisted
+     */
+    public Template get(Statement statement, String label, String relation) {
+        return get(statement, label, relation, null);
+    }
+
+    /**
+     * @param statement  - Statement with a relationship type and two labels
+     * @param label      - Label of the first node
+     * @param relation   - Type of the relationship
+     * @param otherLabel - Label of the second node
+     * @return template of statement for the labels and relation
+     * @throws IllegalArgumentException if a label or relation aren't whitelisted
+     */
+    public Template get(Statement statement, String label, String relation, String otherLabel) {
+        String key = statement + ":" + label + (relation == null ? "" : ":" + relation) +
+                (otherLabel == null ? "" : ":" + otherLabel);
+        Template template = templates.get(key);
+        if (template != null) {
+            return template;
+        }
+        if (!Neo4jSchema.LABELS.contains(label)) {
+            throw new IllegalArgumentException("Unknown label: " + label);
+        }
+        if (statement.hasRelation() != (relation != null) || statement.hasOtherLabel() != (otherLabel != null)) {
+            throw new IllegalArgumentException("Wrong arguments for " + statement);
+        }
+        if (relation != null && !RELATIONS.contains(relation)) {
+            throw new IllegalArgumentException("Unknown relationship type: " + relation);
+        }
+        if (otherLabel != null && !Neo4jSchema.LABELS.contains(otherLabel)) {
+            throw new IllegalArgumentException("Unknown label: " + otherLabel);
+        }
+        return templates.computeIfAbsent(key, k ->
+                new Template(k, String.format(Locale.ROOT, statement.format, label, relation, otherLabel)));
+    }
+
+    /**
+     * @return timings of every template used, by key
+     */
+    public String toJson() {
+        JSONArray json = new JSONArray();
+        List<String> keys = new ArrayList<>(templates.keySet());
+        Collections.sort(keys);
+        for (String key : keys) {
+            json.put(templates.get(key).toJson());
+        }
+        return new JSONObject().put("templates", json).toString(1);
+    }
+}
@@ -0,0 +1,288 @@
+package ud.binmonkey.prog3_proyecto_server.neo4j;
+
+import org.json.JSONObject;
+import ud.binmonkey.prog3_proyecto_server.common.jobs.JobManager;
+import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
+import ud.binmonkey.prog3_proyecto_server.omdb.Omdb;
+import ud.binmonkey.prog3_proyecto_server.omdb.OmdbTitle;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Imports a local dump of OMDB title documents, one JSON object per line, without calling OMDB. The dump is
+ * streamed in chunks of batchSize lines: a chunk is parsed in parallel while the previous one is written, and the
+ * position after the last chunk written is saved to `<dump>.checkpoint`, so an interrupted import resumes there.
+ * Lines that aren't a movie, series or episode are skipped. Delete the checkpoint to import a dump again.
+ */
+public class DumpImporter {
+
+    private static final Logger LOG = Logger.getLogger(DumpImporter.class.getName());
+    static {
+        try {
+            LOG.addHandler(new FileHandler(
+                    "logs/" + DumpImporter.class.getName() + "." +
+                            DateUtils.currentFormattedDate() + ".log.xml", true));
+        } catch (SecurityException | IOException e) {
+            LOG.log(Level.SEVERE, "Unable to create log file.");
+        }
+    }
+
+    /**
+     * Graph writes a chunk of titles is handed to, @BulkLoader in the server
+     */
+    public interface Writer {
+        void write(List<OmdbTitle> titles) throws InterruptedException;
+    }
+
+    private final File dump;
+    private final File checkpointFile;
+    private final int batchSize;
+    private final Writer writer;
+
+    /* bytes and lines of the dump already written */
+    private volatile long offset = 0;
+    private volatile long lines = 0;
+    private volatile long titles = 0;
+    /* when this run started and titles imported by previous ones */
+    private volatile long started = 0;
+    private volatile long resumedTitles = 0;
+
+    /**
+     * Lines read from the dump and the titles parsed from them
+     */
+    private static class Chunk {
+        private final long end;
+        private final int lines;
+        private final List<OmdbTitle> titles;
+
+        private Chunk(long end, int lines, List<OmdbTitle> titles) {
+            this.end = end;
+            this.lines = lines;
+            this.titles = titles;
+        }
+    }
+
+    /**
+     * @param dump      JSON lines file of OMDB title documents
+     * @param batchSize lines read, parsed and written at once
+     * @param writer    graph writes titles are handed to
+     */
+    public DumpImporter(File dump, int batchSize, Writer writer) {
+        this.dump = dump;
+        this.checkpointFile = new File(dump.getPath() + ".checkpoint");
+        this.batchSize = batchSize;
+        this.writer = writer;
+        loadCheckpoint();
+    }
+
+    /**
+     * Imports the dump from the checkpoint on, blocking until done
+     *
+     * @param job job progress is reported to, in bytes of the dump; null if not needed
+     * @return titles imported
+     */
+    public long importDump(JobManager.Job job) throws IOException, InterruptedException {
+        started = System.currentTimeMillis();
+        resumedTitles = titles;
+        long imported = 0;
+        if (job != null) {
+            job.setTotal(dump.length());
+            job.progress(offset);
+        }
+        ExecutorService reader = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "dump-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (FileInputStream file = new FileInputStream(dump)) {
+            file.getChannel().position(offset);
+            InputStream in = new BufferedInputStream(file, 1 << 16);
+
+            CompletableFuture<Chunk> next = CompletableFuture.supplyAsync(() -> read(in, offset), reader);
+            while (true) {
+                Chunk chunk = join(next);
+                if (chunk.lines == 0) {
+                    break;
+                }
+                /* the following chunk is read and parsed while this one is written */
+                next = CompletableFuture.supplyAsync(() -> read(in, chunk.end), reader);
+
+                writer.write(chunk.titles);
+                if (job != null) {
+                    job.progress(chunk.end - offset);
+                }
+                offset = chunk.end;
+                lines += chunk.lines;
+                titles += chunk.titles.size();
+                imported += chunk.titles.size();
+                saveCheckpoint();
+
+                String progress = "Imported " + titles + " titles, " +
+                        String.format(Locale.ROOT, "%.1f", titlesPerSecond()) + " titles/s";
+                if (job != null) {
+                    job.setMessage(progress);
+                }
+                LOG.log(Level.INFO, progress);
+            }
+        } finally {
+            reader.shutdownNow();
+        }
+        LOG.log(Level.INFO, "Dump import finished: " + toJson());
+        return imported;
+    }
+
+    private static Chunk join(CompletableFuture<Chunk> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Reads up to batchSize lines and parses them in parallel
+     *
+     * @param start offset in the dump in is at
+     */
+    private Chunk read(InputStream in, long start) {
+        List<String> chunk = new ArrayList<>(batchSize);
+        long end = start;
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        try {
+            while (chunk.size() < batchSize) {
+                line.reset();
+                long read = readLine(in, line);
+                if (read < 0) {
+                    break;
+                }
+                end += read;
+                chunk.add(new String(line.toByteArray(), StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        List<OmdbTitle> parsed = chunk.parallelStream().map(DumpImporter::parse).filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        return new Chunk(end, chunk.size(), parsed);
+    }
+
+    /**
+     * @param line line to read to, without its line break
+     * @return bytes read including the line break, -1 at the end of the dump
+     */
+    private static long readLine(InputStream in, ByteArrayOutputStream line) throws IOException {
+        long read = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            read++;
+            if (b == '\n') {
+                return read;
+            }
+            line.write(b);
+        }
+        return read == 0 ? -1 : read;
+    }
+
+    /**
+     * @param line OMDB title document
+     * @return title, null if it isn't a valid movie, series or episode
+     */
+    static OmdbTitle parse(String line) {
+        if (line.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return Omdb.toTitle(new JSONObject(line));
+        } catch (RuntimeException e) {
+            LOG.log(Level.FINE, "Skipped invalid title: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void saveCheckpoint() {
+        File tmp = new File(checkpointFile.getPath() + ".tmp");
+        try {
+            Files.write(tmp.toPath(), (offset + "\t" + lines + "\t" + titles + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Unable to write `" + checkpointFile + "`: " + e.getMessage());
+        }
+    }
+
+    private void loadCheckpoint() {
+        if (!checkpointFile.exists()) {
+            return;
+        }
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(checkpointFile),
+                StandardCharsets.UTF_8))) {
+            String[] fields = in.readLine().split("\t");
+            offset = Long.parseLong(fields[0]);
+            lines = Long.parseLong(fields[1]);
+            titles = Long.parseLong(fields[2]);
+            LOG.log(Level.INFO, "Resuming import of `" + dump + "` at line " + lines + ".");
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Unable to read checkpoint `" + checkpointFile + "`: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return titles per second imported since this run started
+     */
+    private double titlesPerSecond() {
+        long elapsed = System.currentTimeMillis() - started;
+        return started == 0 || elapsed == 0 ? 0 : (titles - resumedTitles) * 1000.0 / elapsed;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getTitles() {
+        return titles;
+    }
+
+    /**
+     * @return lines that weren't a valid movie, series or episode
+     */
+    public long getSkipped() {
+        return lines - titles;
+    }
+
+    public String toJson() {
+        return new JSONObject().put("dump", dump.getPath()).put("bytes", dump.length()).put("offset", offset)
+                .put("lines", lines).put("titles", titles).put("skipped", getSkipped())
+                .put("titlesPerSecond", Math.round(titlesPerSecond() * 10) / 10.0).toString(1);
+    }
+
+    /**
+     * Imports a JSON lines dump of OMDB titles into the graph, resuming where a previous run stopped
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 1) {
+            System.err.println("Usage: DumpImporter <dump.jsonl>");
+            System.exit(1);
+        }
+        Neo4jSchema.bootstrap();
+        BulkLoader loader = BulkLoader.fromProperties();
+        DumpImporter importer = new DumpImporter(new File(args[0]), loader.getBatchSize(), loader::load);
+        importer.importDump(null);
+        System.out.println(importer.toJson());
+    }
+}
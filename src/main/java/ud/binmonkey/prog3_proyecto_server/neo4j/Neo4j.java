@@ -1,17 +1,18 @@
 package ud.binmonkey.prog3_proyecto_server.neo4j;
 
-import org.neo4j.driver.v1.*;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Value;
+import org.neo4j.driver.v1.Values;
 import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 
 import static org.neo4j.driver.v1.Values.parameters;
+import static ud.binmonkey.prog3_proyecto_server.neo4j.CypherTemplates.Statement.CHECK_NODE;
+import static ud.binmonkey.prog3_proyecto_server.neo4j.CypherTemplates.Statement.CHECK_RELATION;
 
 public class Neo4j {
 
@@ -29,19 +30,20 @@ public class Neo4j {
     }
     /* END Logger for Neo4j */
 
-    private String username;
-    private String password;
-    private String server_address;
-    private Driver driver;
-    private Session session;
+    /* true once the server has been reached, later instances don't check it again */
+    private static volatile boolean connected = false;
+
+    /* nodes deleted per transaction by cleanDB */
+    private static final int CLEAN_BATCH = 10000;
+    static final String CLEAN = "MATCH (n) WHERE size((n)--())=0 WITH n LIMIT {batch} DELETE n" +
+            " RETURN count(n) AS deleted";
 
 
     /**
      * Constructor for the class Neoj
      */
     public Neo4j() {
-        readConfig();
-        while (!startSession()) {
+        while (!connected && !startSession()) {
             LOG.log(Level.INFO, " Retrying Connection in 5s");
             try {
                 Thread.sleep(5000);                 //1000 milliseconds is one second.
@@ -53,28 +55,19 @@ public class Neo4j {
     }
 
     /* Server Utility Methods */
-    private void readConfig() {
-
-        NodeList nList = DocumentReader.getDoc("conf/properties.xml").getElementsByTagName("neo4j-server");
-        Node nNode = nList.item(0);
-        Element eElement = (Element) nNode;
-
-
-        username = eElement.getElementsByTagName("username").item(0).getTextContent();
-        password = eElement.getElementsByTagName("password").item(0).getTextContent();
-        server_address = eElement.getElementsByTagName("server_address").item(0).getTextContent();
-    }
-
-    public Session getSession() {
-        return session;
-    }
 
+    /**
+     * Checks the shared driver can reach the server, and creates the indexes missing the first time it can
+     *
+     * @return true if it can
+     */
     public boolean startSession() {
 
         try {
-            driver = GraphDatabase.driver(server_address, AuthTokens.basic(username, password));
-            session = driver.session();
+            Neo4jDriver.get().withSession(session -> session.run("RETURN 1").consume());
             LOG.log(Level.INFO, "Connection to Neo4j server started");
+            Neo4jSchema.bootstrap();
+            connected = true;
             return true;
         } catch (org.neo4j.driver.v1.exceptions.ServiceUnavailableException e) {
             LOG.log(Level.SEVERE, "ServiceUnavailableException: Unable to connect to server," +
@@ -88,12 +81,66 @@ public class Neo4j {
         return false;
     }
 
+    /**
+     * Nothing to close for Neo4j: sessions are closed after every operation and the driver, shared by every
+     * instance, when the server stops
+     */
     public void closeSession() {
-        session.close();
-        driver.close();
-
         LOG.log(Level.INFO, "Connection to Neo4j server ended");
     }
+
+    /**
+     * Runs a statement in a session of its own
+     *
+     * @param statement  - Cypher statement
+     * @param parameters - Parameters of the statement
+     */
+    protected void run(String statement, Value parameters) {
+        Neo4jDriver.get().withSession(session -> session.run(statement, parameters).consume());
+    }
+
+    /**
+     * Runs a query in a session of its own
+     *
+     * @param statement  - Cypher query
+     * @param parameters - Parameters of the query
+     * @return every record returned
+     */
+    public List<Record> query(String statement, Value parameters) {
+        return Neo4jDriver.get().withSession(session -> session.run(statement, parameters).list());
+    }
+
+    /**
+     * Runs a template in a session of its own, timing it
+     *
+     * @param template   - Cypher statement from @CypherTemplates
+     * @param parameters - Parameters of the statement
+     */
+    protected void run(CypherTemplates.Template template, Value parameters) {
+        template.time(() -> Neo4jDriver.get().withSession(session ->
+                session.run(template.getText(), parameters).consume()));
+    }
+
+    /**
+     * Runs a template query in a session of its own, timing it
+     *
+     * @param template   - Cypher query from @CypherTemplates
+     * @param parameters - Parameters of the query
+     * @return every record returned
+     */
+    public List<Record> query(CypherTemplates.Template template, Value parameters) {
+        return template.time(() -> query(template.getText(), parameters));
+    }
+
+    /**
+     * Runs a query without parameters in a session of its own
+     *
+     * @param statement - Cypher query
+     * @return every record returned
+     */
+    public List<Record> query(String statement) {
+        return query(statement, Values.EmptyMap);
+    }
     /* END Server Utility Methods */
 
     /* DB utility Methods */
@@ -102,19 +149,34 @@ public class Neo4j {
      * Deletes all nodes and relationships from the DB
      */
     public void clearDB() {
-        session.run("MATCH (n) DETACH DELETE n;");
-
-        cleanDB();
+        run("MATCH (n) DETACH DELETE n;", Values.EmptyMap);
 
         LOG.log(Level.INFO, "Cleared Neo4j DB");
     }
 
     /**
-     * Deletes all nodes without relationships from the DB
+     * Deletes all nodes without relationships from the DB. Scans every node, deletes already remove the orphans
+     * they leave: this is a maintenance sweep, see @OrphanSweeper
      */
     public void cleanDB() {
-        session.run("MATCH (n) WHERE size((n)--())=0 DELETE (n)");
-        LOG.log(Level.INFO, "Cleaned DB");
+        cleanDB(CLEAN_BATCH);
+    }
+
+    /**
+     * Deletes all nodes without relationships from the DB, batchSize nodes per transaction
+     *
+     * @param batchSize - Nodes deleted per transaction
+     * @return nodes deleted
+     */
+    public long cleanDB(int batchSize) {
+        long deleted = 0;
+        long batch;
+        do {
+            batch = query(CLEAN, parameters("batch", batchSize)).get(0).get("deleted").asLong();
+            deleted += batch;
+        } while (batch == batchSize);
+        LOG.log(Level.INFO, "Cleaned DB: " + deleted + " nodes deleted");
+        return deleted;
     }
 
     /**
@@ -126,12 +188,9 @@ public class Neo4j {
     public boolean checkNode(String name, String type) {
 
         boolean existance = false;
-        StatementResult result = session.run("MATCH (a:" + type + ") WHERE a.name={name} RETURN a.name",
-                parameters("name", name));
-
-        while (result.hasNext()) {
-            Record record = result.next();
+        List<Record> result = query(CypherTemplates.INSTANCE.get(CHECK_NODE, type), parameters("name", name));
 
+        for (Record record : result) {
             if (record.get("a.name").asString().equals(name)) {
                 existance = true;
             }
@@ -146,12 +205,10 @@ public class Neo4j {
 
         boolean existance = false;
 
-        StatementResult result = session.run("MATCH (a:" + node_type + ")-[:" + relation_type + "]->(b) " +
-                "WHERE a.name={node} AND b.name={title} RETURN a.name", parameters("node", node, "title", title));
-
-        while (result.hasNext()) {
-            Record record = result.next();
+        List<Record> result = query(CypherTemplates.INSTANCE.get(CHECK_RELATION, node_type, relation_type),
+                parameters("node", node, "title", title));
 
+        for (Record record : result) {
             if (record.get("a.name").asString().equals(node)) {
                 existance = true;
             }
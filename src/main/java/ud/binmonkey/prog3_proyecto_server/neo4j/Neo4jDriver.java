@@ -0,0 +1,190 @@
+package ud.binmonkey.prog3_proyecto_server.neo4j;
+
+import org.json.JSONObject;
+import org.neo4j.driver.v1.AuthTokens;
+import org.neo4j.driver.v1.Config;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.GraphDatabase;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.exceptions.ClientException;
+import org.w3c.dom.Element;
+import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
+import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The single Neo4j @Driver of the server and its connection pool. Sessions aren't thread safe, so every unit of
+ * work gets its own short-lived session (@withSession) or transaction (@inTransaction), closed as soon as it ends.
+ * At most poolSize sessions are open at once; the others wait for one to be closed up to acquisitionTimeout.
+ */
+public class Neo4jDriver {
+
+    private static final Logger LOG = Logger.getLogger(Neo4jDriver.class.getName());
+    static {
+        try {
+            LOG.addHandler(new FileHandler(
+                    "logs/" + Neo4jDriver.class.getName() + "." +
+                            DateUtils.currentFormattedDate() + ".log.xml", true));
+        } catch (SecurityException | IOException e) {
+            LOG.log(Level.SEVERE, "Unable to create log file.");
+        }
+    }
+
+    private final Driver driver;
+    private final int poolSize;
+    private final long acquisitionTimeout;
+    private final Semaphore permits;
+
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger peakInUse = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    /* nanoseconds waited for a session */
+    private final AtomicLong waitTotal = new AtomicLong();
+    private final AtomicLong waitMax = new AtomicLong();
+
+    /**
+     * Driver of the server, created on first use and closed with the JVM
+     */
+    private static class Holder {
+        private static final Neo4jDriver DRIVER = fromProperties();
+    }
+
+    /**
+     * @return driver of the server
+     */
+    public static Neo4jDriver get() {
+        return Holder.DRIVER;
+    }
+
+    private static Neo4jDriver fromProperties() {
+        Element config = (Element) DocumentReader.getDoc("conf/properties.xml")
+                .getElementsByTagName("neo4j-server").item(0);
+        String serverAddress = config.getElementsByTagName("server_address").item(0).getTextContent().trim();
+        String username = config.getElementsByTagName("username").item(0).getTextContent().trim();
+        String password = config.getElementsByTagName("password").item(0).getTextContent().trim();
+        int poolSize = Integer.parseInt(config.getElementsByTagName("pool-size").item(0).getTextContent().trim());
+        long acquisitionTimeout = Long.parseLong(
+                config.getElementsByTagName("acquisition-timeout").item(0).getTextContent().trim());
+
+        Neo4jDriver driver = new Neo4jDriver(GraphDatabase.driver(serverAddress,
+                AuthTokens.basic(username, password),
+                Config.build().withMaxIdleSessions(poolSize).toConfig()), poolSize, acquisitionTimeout);
+        Runtime.getRuntime().addShutdownHook(new Thread(driver::close, "neo4j-driver-close"));
+        LOG.log(Level.INFO, "Neo4j driver for " + serverAddress + " with " + poolSize + " sessions.");
+        return driver;
+    }
+
+    /**
+     * @param driver driver sessions are opened with
+     * @param poolSize sessions that can be open at once
+     * @param acquisitionTimeout milliseconds to wait for a session when poolSize are open
+     */
+    public Neo4jDriver(Driver driver, int poolSize, long acquisitionTimeout) {
+        this.driver = driver;
+        this.poolSize = poolSize;
+        this.acquisitionTimeout = acquisitionTimeout;
+        this.permits = new Semaphore(poolSize, true);
+    }
+
+    private void acquire() {
+        long start = System.nanoTime();
+        waiting.incrementAndGet();
+        try {
+            if (!permits.tryAcquire(acquisitionTimeout, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new ClientException("No Neo4j session available after " + acquisitionTimeout + "ms, " +
+                        poolSize + " in use.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClientException("Interrupted waiting for a Neo4j session.", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+        long waited = System.nanoTime() - start;
+        waitTotal.addAndGet(waited);
+        waitMax.accumulateAndGet(waited, Math::max);
+        acquired.incrementAndGet();
+        peakInUse.accumulateAndGet(inUse.incrementAndGet(), Math::max);
+    }
+
+    private void release() {
+        inUse.decrementAndGet();
+        permits.release();
+    }
+
+    /**
+     * Runs work in a session of its own, its statements committed one by one. Results must be consumed before
+     * returning, the session is closed afterwards.
+     * @param work work to run
+     * @return result of work
+     */
+    public <T> T withSession(Function<Session, T> work) {
+        acquire();
+        try (Session session = driver.session()) {
+            return work.apply(session);
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            throw e;
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Runs work in a transaction of its own, committed if work returns and rolled back if it throws
+     * @param work work to run
+     * @return result of work
+     */
+    public <T> T inTransaction(Function<Transaction, T> work) {
+        return withSession(session -> {
+            try (Transaction tx = session.beginTransaction()) {
+                T result = work.apply(tx);
+                tx.success();
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Closes the driver and every connection of its pool
+     */
+    public void close() {
+        driver.close();
+        LOG.log(Level.INFO, "Neo4j driver closed.");
+    }
+
+    public int getInUse() {
+        return inUse.get();
+    }
+
+    public long getAcquired() {
+        return acquired.get();
+    }
+
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    public String toJson() {
+        long count = acquired.get();
+        return new JSONObject().put("poolSize", poolSize).put("acquisitionTimeout", acquisitionTimeout)
+                .put("inUse", inUse.get()).put("peakInUse", peakInUse.get()).put("waiting", waiting.get())
+                .put("acquired", count).put("timeouts", timeouts.get()).put("failures", failures.get())
+                .put("avgWaitMs", count == 0 ? 0 : waitTotal.get() / count / 1000000.0)
+                .put("maxWaitMs", waitMax.get() / 1000000.0).toString(1);
+    }
+}
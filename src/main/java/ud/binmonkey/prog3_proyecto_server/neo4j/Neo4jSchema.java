@@ -0,0 +1,123 @@
+package ud.binmonkey.prog3_proyecto_server.neo4j;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.exceptions.ClientException;
+import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Indexes on `name` of every label of the graph, every node is looked up by it. Created as uniqueness constraints
+ * (which are backed by an index), or as plain indexes for labels whose existing nodes have duplicate names.
+ * Idempotent: run every time the server connects to Neo4j.
+ */
+public class Neo4jSchema {
+
+    private static final Logger LOG = Logger.getLogger(Neo4jSchema.class.getName());
+    static {
+        try {
+            LOG.addHandler(new FileHandler(
+                    "logs/" + Neo4jSchema.class.getName() + "." +
+                            DateUtils.currentFormattedDate() + ".log.xml", true));
+        } catch (SecurityException | IOException e) {
+            LOG.log(Level.SEVERE, "Unable to create log file.");
+        }
+    }
+
+    /**
+     * Labels used by @Neo4jUtils
+     */
+    public static final List<String> LABELS = Collections.unmodifiableList(Arrays.asList("Movie", "Series",
+            "Episode", "Person", "Genre", "Producer", "Country", "Language", "Rating", "ScoreOutlet", "List"));
+
+    /* seconds to wait for new indexes to be populated */
+    private static final int AWAIT_INDEXES = 60;
+    /* "INDEX ON :Movie(name)" */
+    private static final Pattern INDEX = Pattern.compile(":`?(\\w+)`?\\(`?(\\w+)`?\\)");
+
+    /**
+     * Creates the constraints and indexes missing and checks all are there
+     *
+     * @return verification report, see @report
+     */
+    public static String bootstrap() {
+        for (String label : LABELS) {
+            try {
+                run("CREATE CONSTRAINT ON (n:" + label + ") ASSERT n.name IS UNIQUE");
+            } catch (ClientException e) {
+                LOG.log(Level.WARNING, "No uniqueness constraint on " + label + ".name, creating an index instead: " +
+                        e.getMessage());
+                try {
+                    run("CREATE INDEX ON :" + label + "(name)");
+                } catch (ClientException ex) {
+                    LOG.log(Level.SEVERE, "Unable to index " + label + ".name: " + ex.getMessage());
+                }
+            }
+        }
+        try {
+            run("CALL db.awaitIndexes(" + AWAIT_INDEXES + ")");
+        } catch (ClientException e) {
+            LOG.log(Level.WARNING, "Indexes still populating: " + e.getMessage());
+        }
+
+        String report = verify();
+        LOG.log(Level.INFO, "Neo4j schema: " + report);
+        return report;
+    }
+
+    private static void run(String statement) {
+        Neo4jDriver.get().withSession(session -> session.run(statement).consume());
+    }
+
+    /**
+     * @return verification report of the indexes in the database, see @report
+     */
+    public static String verify() {
+        List<Map<String, Object>> indexes = new ArrayList<>();
+        for (Record record : Neo4jDriver.get().withSession(session -> session.run("CALL db.indexes()").list())) {
+            indexes.add(record.asMap());
+        }
+        return report(indexes);
+    }
+
+    /**
+     * @param indexes rows of `CALL db.indexes()`: description, state and type of every index
+     * @return JSON with the index of `name` of every label, its state and whether it is unique, and the labels
+     * missing one or whose one isn't online
+     */
+    static String report(List<Map<String, Object>> indexes) {
+        Map<String, Map<String, Object>> found = new HashMap<>();
+        for (Map<String, Object> index : indexes) {
+            Matcher matcher = INDEX.matcher(String.valueOf(index.get("description")));
+            if (matcher.find() && matcher.group(2).equals("name")) {
+                found.put(matcher.group(1), index);
+            }
+        }
+
+        JSONObject labels = new JSONObject();
+        JSONArray missing = new JSONArray();
+        for (String label : LABELS) {
+            Map<String, Object> index = found.get(label);
+            if (index == null) {
+                labels.put(label, JSONObject.NULL);
+                missing.put(label);
+            } else {
+                String state = String.valueOf(index.get("state"));
+                boolean unique = String.valueOf(index.get("type")).contains("unique");
+                labels.put(label, new JSONObject().put("state", state).put("unique", unique));
+                if (!state.equalsIgnoreCase("online")) {
+                    missing.put(label);
+                }
+            }
+        }
+        return new JSONObject().put("labels", labels).put("missing", missing).toString(1);
+    }
+}
@@ -2,7 +2,7 @@ package ud.binmonkey.prog3_proyecto_server.neo4j;
 
 import org.apache.commons.lang3.StringUtils;
 import org.neo4j.driver.v1.Record;
-import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.Transaction;
 import org.neo4j.driver.v1.Value;
 import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
 import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
@@ -11,11 +11,13 @@ import ud.binmonkey.prog3_proyecto_server.omdb.*;
 
 import java.io.*;
 import java.net.URL;
-import java.util.ArrayList;
+import java.util.*;
+import java.util.function.Consumer;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 
 import static org.neo4j.driver.v1.Values.parameters;
+import static ud.binmonkey.prog3_proyecto_server.neo4j.CypherTemplates.Statement.*;
 
 public class Neo4jUtils extends Neo4j {
 
@@ -35,6 +37,29 @@ public class Neo4jUtils extends Neo4j {
     }
     /* END Logger for Neo4j */
 
+    static final String IMDB = "Internet Movie Database";
+
+    /* Title nodes, their properties only set when created */
+    static final String MERGE_MOVIE = "MERGE (a:Movie {name: {name}})" +
+            " ON CREATE SET a.title = {title}, a.year = {year}, a.released = {released}, a.dvd = {dvd}," +
+            " a.plot = {plot}, a.awards = {awards}, a.boxOffice = {boxOffice}," +
+            " a.metascore = {metascore}, a.imdbRating = {imdbRating}, a.imdbVotes = {imdbVotes}," +
+            " a.runtime = {runtime}, a.website = {website}, a.poster = {poster}";
+    static final String MERGE_SERIES = "MERGE (a:Series {name: {name}})" +
+            " ON CREATE SET a.title = {title}, a.year = {year}, a.seasons = {seasons}," +
+            " a.released = {released}, a.plot = {plot}, a.awards = {awards}," +
+            " a.metascore = {metascore}, a.imdbRating = {imdbRating}, a.imdbVotes = {imdbVotes}," +
+            " a.runtime = {runtime}, a.poster = {poster}";
+    static final String MERGE_EPISODE = "MERGE (a:Episode {name: {name}})" +
+            " ON CREATE SET a.title = {title}, a.year = {year}, a.released = {released}," +
+            " a.plot = {plot}, a.awards = {awards}, a.metascore = {metascore}," +
+            " a.imdbRating = {imdbRating}, a.imdbVotes = {imdbVotes}, a.runtime = {runtime}, a.poster = {poster}";
+    static final String MERGE_BELONGS_TO = "MATCH (a:Episode {name: {name}}), (b:Series {name: {title}})" +
+            " MERGE (a)-[r:BELONGS_TO]->(b) SET r.season = {season}, r.episode = {episode}";
+
+    /* Score outlets of addRating */
+    static final String CREATE_OUTLET = "CREATE (a:ScoreOutlet {name: {name}})";
+
     private MySQLUtils mySQL;
 
     public Neo4jUtils() {
@@ -62,73 +87,100 @@ public class Neo4jUtils extends Neo4j {
 
     }
 
+    /**
+     * @param title - OmdbTitle
+     * @return label of the node of title
+     * @throws IllegalArgumentException if title isn't a movie, series or episode
+     */
+    static String labelOf(OmdbTitle title) {
+        if (title instanceof OmdbMovie) {
+            return "Movie";
+        } else if (title instanceof OmdbSeries) {
+            return "Series";
+        } else if (title instanceof OmdbEpisode) {
+            return "Episode";
+        }
+        throw new IllegalArgumentException("Unknown title type: " + title.getClass().getSimpleName());
+    }
+
     /**
      * Adds an IMDB movie to the DB
      *
      * @param movie - OmdbMovie to add to the DB
      */
     public void addMovie(OmdbMovie movie) {
-        if (!checkNode(movie.getImdbID(), "Movie")) {
-            getSession().run(
-                    "CREATE (a:Movie {title: {title}, name: {name}, year: {year}, released: {released}, dvd: {dvd}," +
-                            " plot: {plot}, awards: {awards}, boxOffice: {boxOffice}," +
-                            " metascore: {metascore}, imdbRating: {imdbRating}, imdbVotes: {imdbVotes}," +
-                            " runtime: {runtime}, website: {website}, poster: {poster}})",
-                    (Value) movie.toParameters());
-
-            LOG.log(Level.INFO, "Added Movie: " + movie.getImdbID());
-            mySQL.dwhLog("ADD", movie.getImdbID(), MediaType.MOVIE);
+        if (writeMovie(movie)) {
+            downloadPoster(movie);
+        }
+    }
 
-            addLanguage(movie.getLanguage(), movie.getImdbID(), movie.getFilename());
+    /**
+     * Adds an IMDB movie to the DB without its poster, @PublishQueue downloads it in a step of its own
+     *
+     * @param movie - OmdbMovie to add to the DB
+     * @return whether the movie was created, false if it already existed
+     */
+    public boolean writeMovie(OmdbMovie movie) {
+        String id = movie.getImdbID();
 
-            addNode(movie.getAgeRating(), "Rating", movie.getImdbID(), "RATED");
-            addNodeList(movie.getGenre(), "Genre", movie.getImdbID(), "GENRE");
-            addNodeList(movie.getWriter(), "Person", movie.getImdbID(), "WROTE");
-            addNodeList(movie.getDirector(), "Person", movie.getImdbID(), "DIRECTED");
-            addNodeList(movie.getActors(), "Person", movie.getImdbID(), "ACTED_IN");
-            addNodeList(movie.getProducers(), "Producer", movie.getImdbID(), "PRODUCED");
-            addNodeList(movie.getCountry(), "Country", movie.getImdbID(), "COUNTRY");
+        boolean created = writeTitle(MERGE_MOVIE, (Value) movie.toParameters(), tx -> {
+            mergeLanguage(tx, "Movie", id, movie.getLanguage(), movie.getFilename());
 
+            mergeRelations(tx, "Movie", id, "Rating", "RATED", Collections.singletonList(movie.getAgeRating()));
+            mergeRelations(tx, "Movie", id, "Genre", "GENRE", movie.getGenre());
+            mergeRelations(tx, "Movie", id, "Person", "WROTE", movie.getWriter());
+            mergeRelations(tx, "Movie", id, "Person", "DIRECTED", movie.getDirector());
+            mergeRelations(tx, "Movie", id, "Person", "ACTED_IN", movie.getActors());
+            mergeRelations(tx, "Movie", id, "Producer", "PRODUCED", movie.getProducers());
+            mergeRelations(tx, "Movie", id, "Country", "COUNTRY", movie.getCountry());
 
             /* ScoreOutles */
-            for (Object outlet : movie.getRatings().keySet()) {
-                addRating(movie, (String) outlet, (Integer) movie.getRatings().get(outlet));
-            }
-            /* END Score Outlets */
+            mergeRatings(tx, "Movie", movie, movie.getRatings());
+        });
 
-            /* Download image */
-            String fileName = ftpd + "/common/data/images/" +
-                    (movie.getTitle()) + "(" + movie.getYear() + ").jpg";
+        if (created) {
+            LOG.log(Level.INFO, "Added Movie: " + id);
+            mySQL.dwhLog("ADD", id, MediaType.MOVIE);
+        } else {
+            LOG.log(Level.WARNING, id + " already exists");
+        }
+        return created;
+    }
 
+    /**
+     * Downloads the poster of a movie to the common images unless already there
+     *
+     * @param movie - OmdbMovie whose poster to download
+     */
+    public static void downloadPoster(OmdbMovie movie) {
+        String fileName = ftpd + "/common/data/images/" +
+                (movie.getTitle()) + "(" + movie.getYear() + ").jpg";
 
-            java.io.File file = new File(fileName);
-            if (!file.exists()) {
-                try {
-                    InputStream in = new BufferedInputStream(new URL(movie.getPoster()).openStream());
 
-                    ByteArrayOutputStream out = new ByteArrayOutputStream();
-                    byte[] buf = new byte[1024];
-                    int n;
+        java.io.File file = new File(fileName);
+        if (!file.exists()) {
+            try {
+                InputStream in = new BufferedInputStream(new URL(movie.getPoster()).openStream());
 
-                    while ((n = in.read(buf)) != -1) {
-                        out.write(buf, 0, n);
-                    }
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buf = new byte[1024];
+                int n;
 
-                    out.close();
-                    in.close();
-                    byte[] response = out.toByteArray();
+                while ((n = in.read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                }
 
-                    FileOutputStream fos = new FileOutputStream(file.getPath());
-                    fos.write(response);
-                    fos.close();
+                out.close();
+                in.close();
+                byte[] response = out.toByteArray();
 
-                } catch (IOException e) {
-                    return;
-                }
-            }
+                FileOutputStream fos = new FileOutputStream(file.getPath());
+                fos.write(response);
+                fos.close();
 
-        } else {
-            LOG.log(Level.WARNING, movie.getImdbID() + " already exists");
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Unable to download poster of " + movie.getImdbID());
+            }
         }
     }
 
@@ -138,77 +190,168 @@ public class Neo4jUtils extends Neo4j {
      * @param series - OmdbSeries to add to the DB
      */
     public void addSeries(OmdbSeries series) {
-        if (!checkNode(series.getImdbID(), "Series")) {
-
-            getSession().run(
-                    "CREATE (a:Series {title: {title}, name: {name}, year: {year}, seasons: {seasons}," +
-                            " released: {released}, plot: {plot}, awards: {awards}," +
-                            " metascore: {metascore}, imdbRating: {imdbRating}, imdbVotes: {imdbVotes}," +
-                            " runtime: {runtime}, poster: {poster}})",
-                    (Value) series.toParameters());
-
-            LOG.log(Level.INFO, "Added Series: " + series.getImdbID());
-            mySQL.dwhLog("ADD", series.getImdbID(), MediaType.SERIES);
+        String id = series.getImdbID();
 
+        boolean created = writeTitle(MERGE_SERIES, (Value) series.toParameters(), tx -> {
             /* Score Outles*/
-            addRating(series, "Internet Movie Database", series.getImdbRating());
-            if (series.getMetascore() != 0)
-                addRating(series, "Metacritic", series.getMetascore());
-            /* END Score Outlets */
+            mergeRatings(tx, "Series", series, scores(series));
 
-            addNode(series.getAgeRating(), "Rating", series.getImdbID(), "RATED");
-            addNodeList(series.getGenre(), "Genre", series.getImdbID(), "GENRE");
-            addNodeList(series.getProducers(), "Producer", series.getImdbID(), "PRODUCED");
-            addNodeList(series.getCountry(), "Country", series.getImdbID(), "COUNTRY");
+            mergeRelations(tx, "Series", id, "Rating", "RATED", Collections.singletonList(series.getAgeRating()));
+            mergeRelations(tx, "Series", id, "Genre", "GENRE", series.getGenre());
+            mergeRelations(tx, "Series", id, "Producer", "PRODUCED", series.getProducers());
+            mergeRelations(tx, "Series", id, "Country", "COUNTRY", series.getCountry());
+        });
 
+        if (created) {
+            LOG.log(Level.INFO, "Added Series: " + id);
+            mySQL.dwhLog("ADD", id, MediaType.SERIES);
         } else {
-            LOG.log(Level.WARNING, series.getImdbID() + " already exists");
+            LOG.log(Level.WARNING, id + " already exists");
         }
     }
 
     /**
-     * Adds an IMDB episode to the DB
+     * Adds an IMDB episode to the DB, and its series if it's not there yet
      *
      * @param episode - OmdbEpisode to add to the DB
      */
     public void addEpisode(OmdbEpisode episode) {
-        if (!checkNode(episode.getImdbID(), "Episode")) {
-
+        String id = episode.getImdbID();
 
-            getSession().run(
-                    "CREATE (a:Episode {title: {title}, name: {name}, year: {year}, released: {released}," +
-                            " plot: {plot}, awards: {awards}, metascore: {metascore}," +
-                            " imdbRating: {imdbRating}, imdbVotes: {imdbVotes}, runtime: {runtime}, poster: {poster}})",
-                    (Value) episode.toParameters());
+        if (checkNode(id, "Episode")) {
+            LOG.log(Level.WARNING, id + " already exists");
+            return;
+        }
 
-            LOG.log(Level.INFO, "Added Episode: " + episode.getImdbID());
-            mySQL.dwhLog("ADD", episode.getImdbID(), MediaType.EPISODE);
+        /* fetched from OMDB before the transaction starts, not while holding it */
+        if (!checkNode(episode.getSeriesID(), "Series")) {
+            addSeries(new OmdbSeries(Omdb.getTitle(episode.getSeriesID())));
+        }
 
+        boolean created = writeTitle(MERGE_EPISODE, (Value) episode.toParameters(), tx -> {
             /* Score Outles*/
-            addRating(episode, "Internet Movie Database", episode.getImdbRating());
-            if (episode.getMetascore() != 0)
-                addRating(episode, "Metacritic", episode.getMetascore());
-            /* END Score Outlets */
-            addNodeList(episode.getWriter(), "Person", episode.getImdbID(), "WROTE");
-            addNodeList(episode.getDirector(), "Person", episode.getImdbID(), "DIRECTED");
-            addNodeList(episode.getActors(), "Person", episode.getImdbID(), "ACTED_IN");
-            addLanguage(episode.getLanguage(), episode.getImdbID(), episode.getFilename());
-
-            if (!checkNode(episode.getSeriesID(), "Series")) {
-                addSeries(new OmdbSeries(Omdb.getTitle(episode.getSeriesID())));
-            } else {
-                LOG.log(Level.WARNING, episode.getImdbID() + " already exists");
-            }
+            mergeRatings(tx, "Episode", episode, scores(episode));
 
-            getSession().run("MATCH (a: Episode { name: {name}}), (b:Series { name: {title}}) " +
-                            "CREATE (a)-[:BELONGS_TO { season: {season}, episode: {episode}}]->(b)",
-                    parameters("name", episode.getImdbID(), "title", episode.getSeriesID(), "season",
-                            episode.getSeason(), "episode", episode.getEpisode()));
+            mergeRelations(tx, "Episode", id, "Person", "WROTE", episode.getWriter());
+            mergeRelations(tx, "Episode", id, "Person", "DIRECTED", episode.getDirector());
+            mergeRelations(tx, "Episode", id, "Person", "ACTED_IN", episode.getActors());
+            mergeLanguage(tx, "Episode", id, episode.getLanguage(), episode.getFilename());
+
+            tx.run(MERGE_BELONGS_TO, parameters("name", id, "title", episode.getSeriesID(),
+                    "season", episode.getSeason(), "episode", episode.getEpisode()));
+        });
+
+        if (created) {
+            LOG.log(Level.INFO, "Added Episode: " + id);
+            mySQL.dwhLog("ADD", id, MediaType.EPISODE);
         } else {
-            LOG.log(Level.WARNING, episode.getImdbID() + " already exists");
+            LOG.log(Level.WARNING, id + " already exists");
         }
     }
 
+    /**
+     * Writes a title and everything attached to it in a single transaction, only if there is no title with its name
+     *
+     * @param statement  - MERGE statement of the title node, its properties set on create
+     * @param parameters - Properties of the title
+     * @param relations  - Writes the relations of the title in the same transaction
+     * @return true if the title was created
+     */
+    private boolean writeTitle(String statement, Value parameters, Consumer<Transaction> relations) {
+        return Neo4jDriver.get().inTransaction(tx -> {
+            if (tx.run(statement, parameters).consume().counters().nodesCreated() == 0) {
+                return false;
+            }
+            relations.accept(tx);
+            return true;
+        });
+    }
+
+    /**
+     * Relates a title to nodes of a type, creating the ones that don't exist. One statement for all of them.
+     *
+     * @param tx            - Transaction to write in
+     * @param title_type    - Label of the title
+     * @param title         - Title the relations are assigned to
+     * @param node_type     - Type of the nodes
+     * @param relation_type - Type of the relation between the nodes and the title
+     * @param nodes         - Names of the nodes
+     */
+    private static void mergeRelations(Transaction tx, String title_type, String title, String node_type,
+                                       String relation_type, List<?> nodes) {
+        List<String> names = new ArrayList<>();
+        for (Object node : nodes) {
+            if (node != null) {
+                names.add(node.toString());
+            }
+        }
+        if (names.isEmpty()) {
+            return;
+        }
+
+        CypherTemplates.Template template = CypherTemplates.INSTANCE.get(MERGE_RELATIONS, title_type, relation_type,
+                node_type);
+        template.time(() -> tx.run(template.getText(), parameters("title", title, "nodes", names)).consume());
+
+        LOG.log(Level.INFO, "Added " + relation_type + ": " + names + " -> " + title);
+    }
+
+    /**
+     * Relates a title to its score outlets, creating the ones that don't exist
+     *
+     * @param tx         - Transaction to write in
+     * @param title_type - Label of the title
+     * @param title      - Title
+     * @param scores     - Score of every outlet
+     */
+    private static void mergeRatings(Transaction tx, String title_type, OmdbTitle title, Map<?, ?> scores) {
+        List<Map<String, Object>> ratings = new ArrayList<>();
+        for (Map.Entry<?, ?> score : scores.entrySet()) {
+            Map<String, Object> rating = new HashMap<>();
+            rating.put("outlet", score.getKey());
+            rating.put("score", score.getValue());
+            if (IMDB.equals(score.getKey())) { /* IMDB Rating also contain number of votes */
+                rating.put("votes", title.getImdbVotes());
+            }
+            ratings.add(rating);
+        }
+        if (ratings.isEmpty()) {
+            return;
+        }
+
+        CypherTemplates.Template template = CypherTemplates.INSTANCE.get(MERGE_RATINGS, title_type);
+        template.time(() -> tx.run(template.getText(), parameters("title", title.getImdbID(), "ratings", ratings))
+                .consume());
+
+        LOG.log(Level.INFO, "Added SCORED: " + scores + " -> " + title.getImdbID());
+    }
+
+    /**
+     * @param title - Series or episode
+     * @return IMDB score of the title, and Metacritic one if it has it
+     */
+    static Map<String, Integer> scores(OmdbTitle title) {
+        Map<String, Integer> scores = new LinkedHashMap<>();
+        scores.put(IMDB, title.getImdbRating());
+        if (title.getMetascore() != 0) {
+            scores.put("Metacritic", title.getMetascore());
+        }
+        return scores;
+    }
+
+    private static void mergeLanguage(Transaction tx, String title_type, String title, String language,
+                                      String filename) {
+        if (language == null) {
+            return;
+        }
+
+        CypherTemplates.Template template = CypherTemplates.INSTANCE.get(MERGE_LANGUAGE, title_type);
+        template.time(() -> tx.run(template.getText(),
+                parameters("name", language, "title", title, "filename", filename)).consume());
+
+        LOG.log(Level.INFO, "Added SPOKEN_LANGUAGE: " + filename + "(" + language + ") -> " + title);
+    }
+
     /**
      * Adds a rating to the DB creating the outlet if necessary
      *
@@ -222,78 +365,49 @@ public class Neo4jUtils extends Neo4j {
 
 
         if (!checkNode(outlet, "ScoreOutlet")) {
-            getSession().run("CREATE (a:ScoreOutlet {name: {name}})",
-                    parameters("name", outlet));
+            run(CREATE_OUTLET, parameters("name", outlet));
 
             LOG.log(Level.INFO, "Added ScoreOutlet: " + outlet);
         }
 
-        if (outlet.equals("Internet Movie Database")) { /* IMDB Rating also contain number of votes */
+        if (outlet.equals(IMDB)) { /* IMDB Rating also contain number of votes */
 
             int votes = title.getImdbVotes();
 
-            getSession().run("MATCH (a:ScoreOutlet { name: {name}}), (b { name: {id}}) " +
-                            "CREATE (a)-[:SCORED {score: {score}, votes: {votes}}]->(b)"
-                    , parameters("name", outlet, "id", id, "score", score,
-                            "votes", votes));
+            run(CypherTemplates.INSTANCE.get(CREATE_SCORE_VOTES, labelOf(title)),
+                    parameters("name", outlet, "id", id, "score", score, "votes", votes));
 
             LOG.log(Level.INFO, "Added SCORED: " + outlet + " -(" + score + ", "
                     + votes + ")-> " + id);
 
         } else {
 
-            getSession().run("MATCH (a:ScoreOutlet { name: {name}}), (b { name: {id}}) " +
-                            "CREATE (a)-[:SCORED {score: {score}}]->(b)"
-                    , parameters("name", outlet, "score", score, "id", id));
+            run(CypherTemplates.INSTANCE.get(CREATE_SCORE, labelOf(title)),
+                    parameters("name", outlet, "score", score, "id", id));
 
             LOG.log(Level.INFO, "Added SCORED: " + outlet + " -(" + score + ")-> " + id);
         }
     }
 
-    private void addLanguage(String language, String title, String filename) {
-
-        if (!checkNode(language, "Language")) {
-            getSession().run(
-                    "CREATE(p:Language {name: {name}})",
-                    parameters("name", language));
-
-            LOG.log(Level.INFO, "Added Language: " + language);
-        } else {
-            LOG.log(Level.WARNING, language + " already exists");
-        }
-
-        if (!checkRelation(language, "Language", title, "SPOKEN_LANGUAGE")) {
-            getSession().run("MATCH (a:Language { name: {name}}), (b { name: {title}}) " +
-                            "CREATE (a)-[:SPOKEN_LANGUAGE {filename: {filename}}]->(b)",
-                    parameters("name", language, "title", title, "filename", filename));
-
-            LOG.log(Level.INFO, "Added SPOKEN_LANGUAGE: " + filename + "(" + language + ") -> " + title);
-
-        } else {
-            LOG.log(Level.WARNING, "SPOKEN_LANGUAGE: " + language + " -> " + title + " already exists");
-        }
-    }
-
     /**
      * Adds a Node to the DB creating a relation with another node
      *
      * @param node_type     - Type of the node to create
      * @param title         - Title the relation is assigned to
+     * @param title_type    - Type of the title: Movie, Series or Episode
      * @param relation_type - Type of the relation between the node and the title
      */
-    public void addNode(String node, String node_type, String title, String relation_type) {
+    public void addNode(String node, String node_type, String title, String title_type, String relation_type) {
 
         if (!checkNode(node, node_type)) {
-            getSession().run(
-                    "CREATE(p:" + node_type + " {name: {name}})",
-                    parameters("name", node));
+            run(CypherTemplates.INSTANCE.get(CREATE_NODE, node_type), parameters("name", node));
 
             LOG.log(Level.INFO, "Added " + node_type + ": " + node);
         } else {
             LOG.log(Level.WARNING, node + " already exists");
         }
 
-        addRelation(node, node_type, title, relation_type);
+        addRelation(node, node_type, title, title_type, relation_type);
     }
 
     /**
@@ -302,12 +416,13 @@ public class Neo4jUtils extends Neo4j {
      * @param node          - Node to start the relation with
      * @param node_type     - Type of node to start the relation with
      * @param title         - Title to attach the relation to
+     * @param title_type    - Type of the title: Movie, Series or Episode
      * @param relation_type - Type of relation
      */
-    public void addRelation(String node, String node_type, String title, String relation_type) {
+    public void addRelation(String node, String node_type, String title, String title_type, String relation_type) {
         if (!checkRelation(node, node_type, title, relation_type)) {
-            getSession().run("MATCH (a:" + node_type + " { name: {name}}), (b { name: {title}}) " +
-                    "CREATE (a)-[:" + relation_type + "]->(b)", parameters("name", node, "title", title));
+            run(CypherTemplates.INSTANCE.get(CREATE_RELATION, node_type, relation_type, title_type),
+                    parameters("name", node, "title", title));
 
             LOG.log(Level.INFO, "Added " + relation_type + ": " + node + " -> " + title);
 
@@ -322,19 +437,20 @@ public class Neo4jUtils extends Neo4j {
      * @param list          - List of values to turn into Nodes
      * @param node_type     - Type of the nodes to create
      * @param title         - Title the relation is assigned to
+     * @param title_type    - Type of the title: Movie, Series or Episode
      * @param relation_type - Type of the relation between the node and the title
      */
-    public void addNodeList(ArrayList list, String node_type, String title, String relation_type) {
+    public void addNodeList(ArrayList list, String node_type, String title, String title_type, String relation_type) {
         for (Object o : list) {
             String node = o.toString();
-            addNode(node, node_type, title, relation_type);
+            addNode(node, node_type, title, title_type, relation_type);
         }
     }
 
     public void addList(String name, OmdbTitle... titles) {
         for (OmdbTitle title : titles) {
             addTitle(title);
-            addNode(name, "List", title.getImdbID(), "CONTAINS");
+            addNode(name, "List", title.getImdbID(), labelOf(title), "CONTAINS");
         }
     }
     /* END Add Methods */
@@ -348,15 +464,9 @@ public class Neo4jUtils extends Neo4j {
      * @param type  - Omdb type of title
      */
     public void removeTitle(String title, MediaType type) {
-        getSession().run(
-                "MATCH (n:" + StringUtils.capitalize(type.toString()) + "{name: {title}})" +
-                        "OPTIONAL MATCH (n)-[r]-()" +
-                        "DELETE n, r",
-                parameters("title", title));
+        long orphans = deleteDetached(StringUtils.capitalize(type.toString()), title);
 
-        cleanDB();
-
-        LOG.log(Level.INFO, title + " deleted");
+        LOG.log(Level.INFO, title + " deleted, and " + orphans + " nodes left without relations");
 
         mySQL.dwhLog("DELETE", title, type);
     }
@@ -368,15 +478,22 @@ public class Neo4jUtils extends Neo4j {
      * @param node_type - Type of node to delete
      */
     public void deleteNode(String node, String node_type) {
-        getSession().run(
-                "MATCH (n:" + node_type + "{name: {node}})" +
-                        "OPTIONAL MATCH (n)-[r]-()" +
-                        "DELETE n, r",
-                parameters("node", node));
+        long orphans = deleteDetached(node_type, node);
 
-        cleanDB();
+        LOG.log(Level.INFO, node + " deleted, and " + orphans + " nodes left without relations");
+    }
 
-        LOG.log(Level.INFO, node + " deleted");
+    /**
+     * Deletes a node and its relations, then the neighbours it leaves without any relation, in one transaction.
+     * Only the neighbours are checked, instead of every node of the DB
+     *
+     * @param node_type - Type of node to delete
+     * @param node      - Node to delete
+     * @return neighbours deleted
+     */
+    private long deleteDetached(String node_type, String node) {
+        return query(CypherTemplates.INSTANCE.get(DELETE_NODE, node_type), parameters("node", node))
+                .get(0).get("orphans").asLong();
     }
 
     /**
@@ -388,38 +505,52 @@ public class Neo4jUtils extends Neo4j {
      */
     public void renameNode(String node, String new_name, String node_type) {
 
-        Record record;
-
         if (checkNode(node, node_type)) {
             if (!checkNode(new_name, node_type)) {
-                getSession().run(
-                        "MATCH (n:" + node_type + ")" +
-                                " WHERE n.name={name}" +
-                                " SET n.name={new_name}",
+                run(CypherTemplates.INSTANCE.get(RENAME_NODE, node_type),
                         parameters("name", node, "new_name", new_name));
                 LOG.log(Level.INFO, "Renamed " + node_type + ": " + node + " to " + new_name);
             } else {
-                LOG.log(Level.WARNING, node + " already exists starting to move relations");
-
-                StatementResult result = getSession().run(
-                        "MATCH (a:" + node_type + " )-[r]-(b) " +
-                                " WHERE a.name={node}" +
-                                " RETURN b.name as title, TYPE(r) as relation_type",
-                        parameters("node", node));
-
-                while (result.hasNext()) {
-                    record = result.next();
-
-                    addRelation(new_name, node_type, record.get("title").asString(), record.get("relation_type").asString());
-                }
+                LOG.log(Level.WARNING, new_name + " already exists, merging " + node + " into it");
 
-                deleteNode(node, node_type);
+                long moved = mergeNode(node, new_name, node_type);
+                LOG.log(Level.INFO, "Merged " + node_type + ": " + node + " into " + new_name + ", " + moved +
+                        " relations moved");
             }
         } else {
             LOG.log(Level.WARNING, node + " does not exist");
         }
 
     }
+    /**
+     * Moves every relation of a node to another node of the same type, with its properties, and deletes the node,
+     * all in one transaction. Relations are moved in bulk by the server, one statement per type and direction
+     * the node has, so only the relations of both nodes are read
+     *
+     * @param node      - Node to merge
+     * @param into      - Node that gets the relations
+     * @param node_type - Type of both nodes
+     * @return relations moved, relations that into already had included
+     */
+    private static long mergeNode(String node, String into, String node_type) {
+        CypherTemplates templates = CypherTemplates.INSTANCE;
+        return Neo4jDriver.get().inTransaction(tx -> {
+            Value parameters = parameters("node", node, "into", into);
+            CypherTemplates.Template types = templates.get(RELATION_TYPES_OF, node_type);
+            List<Record> present = types.time(() -> tx.run(types.getText(), parameters).list());
+
+            long moved = 0;
+            for (Record record : present) {
+                CypherTemplates.Template move = templates.get(record.get("outgoing").asBoolean() ?
+                        MOVE_OUTGOING : MOVE_INCOMING, node_type, record.get("type").asString());
+                moved += move.time(() -> tx.run(move.getText(), parameters).single().get("moved").asLong());
+            }
+
+            CypherTemplates.Template delete = templates.get(DELETE_NODE, node_type);
+            delete.time(() -> tx.run(delete.getText(), parameters).consume());
+            return moved;
+        });
+    }
     /* END Modify Methods */
 
     /* Overriden Methods */
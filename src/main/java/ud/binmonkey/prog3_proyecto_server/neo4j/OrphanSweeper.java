@@ -0,0 +1,123 @@
+package ud.binmonkey.prog3_proyecto_server.neo4j;
+
+import org.w3c.dom.Element;
+import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
+import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Maintenance sweep deleting the nodes of the graph left without relations, e.g. by writes outside
+ * @Neo4jUtils, whose deletes already remove the orphans they leave. The sweep scans every node, so it runs every
+ * interval seconds in batches (@Neo4j.cleanDB) instead of after every delete; an interval of 0 disables it.
+ */
+public class OrphanSweeper {
+
+    private static final Logger LOG = Logger.getLogger(OrphanSweeper.class.getName());
+    static {
+        try {
+            LOG.addHandler(new FileHandler(
+                    "logs/" + OrphanSweeper.class.getName() + "." +
+                            DateUtils.currentFormattedDate() + ".log.xml", true));
+        } catch (SecurityException | IOException e) {
+            LOG.log(Level.SEVERE, "Unable to create log file.");
+        }
+    }
+
+    private final long interval;
+    private final int batchSize;
+    private ScheduledExecutorService scheduler = null;
+    private volatile long lastRun = 0;
+    private volatile long lastDeleted = 0;
+
+    /**
+     * Sweeper of the Neo4j server, created on first use
+     */
+    private static class Holder {
+        private static final OrphanSweeper SWEEPER = fromProperties();
+    }
+
+    /**
+     * @return sweeper of the Neo4j server
+     */
+    public static OrphanSweeper get() {
+        return Holder.SWEEPER;
+    }
+
+    private static OrphanSweeper fromProperties() {
+        Element config = (Element) ((Element) DocumentReader.getDoc("conf/properties.xml")
+                .getElementsByTagName("neo4j-server").item(0)).getElementsByTagName("orphan-sweep").item(0);
+        return new OrphanSweeper(
+                Long.parseLong(config.getElementsByTagName("interval").item(0).getTextContent().trim()),
+                Integer.parseInt(config.getElementsByTagName("batch-size").item(0).getTextContent().trim()));
+    }
+
+    /**
+     * @param interval  seconds between sweeps, 0 to never sweep
+     * @param batchSize nodes deleted per transaction
+     */
+    public OrphanSweeper(long interval, int batchSize) {
+        this.interval = interval;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Schedules sweeps, the first one after interval seconds. Does nothing if disabled or already started
+     */
+    public synchronized void start() {
+        if (interval <= 0 || scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "neo4j-orphan-sweeper");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                sweep();
+            } catch (RuntimeException e) {
+                LOG.log(Level.SEVERE, "Orphan sweep failed: " + e.getMessage());
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+        LOG.log(Level.INFO, "Orphan sweep every " + interval + "s.");
+    }
+
+    /**
+     * Cancels the sweeps not started yet
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Deletes every node without relations now
+     *
+     * @return nodes deleted
+     */
+    public long sweep() {
+        long start = System.currentTimeMillis();
+        lastDeleted = new Neo4j().cleanDB(batchSize);
+        lastRun = System.currentTimeMillis();
+        LOG.log(Level.INFO, "Orphan sweep deleted " + lastDeleted + " nodes in " + (lastRun - start) + "ms.");
+        return lastDeleted;
+    }
+
+    public long getLastRun() {
+        return lastRun;
+    }
+
+    public long getLastDeleted() {
+        return lastDeleted;
+    }
+}
@@ -0,0 +1,239 @@
+package ud.binmonkey.prog3_proyecto_server.neo4j;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.w3c.dom.Element;
+import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.FileUtils;
+import ud.binmonkey.prog3_proyecto_server.common.jobs.JobManager;
+import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
+import ud.binmonkey.prog3_proyecto_server.omdb.OmdbMovie;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Publishes movies in the background: the file is linked to the common directory, the movie written to the graph
+ * and its poster downloaded by a pool of workers, each publish tracked by a @JobManager job.
+ * Every publish is journaled to `<journal>/<job id>.json` with the next step to run, so publishes interrupted by a
+ * restart are resumed at that step with the same job id. All steps can be run again safely.
+ */
+public class PublishQueue {
+
+    private static final Logger LOG = Logger.getLogger(PublishQueue.class.getName());
+    static {
+        try {
+            LOG.addHandler(new FileHandler(
+                    "logs/" + PublishQueue.class.getName() + "." +
+                            DateUtils.currentFormattedDate() + ".log.xml", true));
+        } catch (SecurityException | IOException e) {
+            LOG.log(Level.SEVERE, "Unable to create log file.");
+        }
+    }
+
+    static final int MAX_ATTEMPTS = 3; /* runs of a publish before its journal entry is left for inspection */
+
+    public enum Step {
+        COPY, GRAPH, POSTER, DONE
+    }
+
+    /**
+     * Work done by each step of a publish
+     */
+    public interface Steps {
+        void copy(String userName, String sourceFile, OmdbMovie movie) throws Exception;
+
+        void graph(OmdbMovie movie) throws Exception;
+
+        void poster(OmdbMovie movie) throws Exception;
+    }
+
+    /**
+     * Queue of the HTTPS server, created on first use
+     */
+    private static class Holder {
+        private static final PublishQueue QUEUE = fromProperties();
+    }
+
+    /**
+     * @return publish queue of the HTTPS server
+     */
+    public static PublishQueue get() {
+        return Holder.QUEUE;
+    }
+
+    private static PublishQueue fromProperties() {
+        Element network = DocumentReader.getAttr(DocumentReader.getDoc("conf/properties.xml"), "network");
+        Element ftpServer = (Element) network.getElementsByTagName("ftp-server").item(0);
+        Element httpServer = (Element) network.getElementsByTagName("http-server").item(0);
+        String ftpd = ftpServer.getElementsByTagName("ftpd").item(0).getTextContent().trim();
+        int workers = Integer.parseInt(
+                httpServer.getElementsByTagName("publish-workers").item(0).getTextContent().trim());
+        return new PublishQueue(new File(ftpd, ".meta/publish"), workers, new Steps() {
+            @Override
+            public void copy(String userName, String sourceFile, OmdbMovie movie) throws IOException {
+                FileUtils.publishFile(sourceFile, userName, movie.getFilename(), movie.getType().toString());
+            }
+
+            @Override
+            public void graph(OmdbMovie movie) {
+                Neo4jUtils utils = new Neo4jUtils();
+                try {
+                    utils.writeMovie(movie);
+                } finally {
+                    /* the Neo4j driver is shared, only the MySQL connection of utils is closed */
+                    utils.closeSession();
+                }
+            }
+
+            @Override
+            public void poster(OmdbMovie movie) {
+                Neo4jUtils.downloadPoster(movie);
+            }
+        });
+    }
+
+    private final File journal;
+    private final ExecutorService workers;
+    private final Steps steps;
+
+    /**
+     * @param journal directory publishes in progress are journaled to
+     * @param workers publishes run at once
+     * @param steps   work done by each step
+     */
+    public PublishQueue(File journal, int workers, Steps steps) {
+        this.journal = journal;
+        this.steps = steps;
+        this.workers = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "publish-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        //noinspection ResultOfMethodCallIgnored
+        journal.mkdirs();
+    }
+
+    /**
+     * Queues the publish of a movie, returning once it is journaled
+     *
+     * @param userName   owner of sourceFile
+     * @param sourceFile path of the movie in the home of userName
+     * @param content    OMDB document of the movie, with the name it is published as in `Filename`
+     * @return job tracking the publish
+     * @throws JSONException if content isn't a valid movie
+     */
+    public JobManager.Job submit(String userName, String sourceFile, String content) throws IOException {
+        movie(content);
+        String id = UUID.randomUUID().toString();
+        JSONObject entry = new JSONObject()
+                .put("username", userName).put("sourceFile", sourceFile).put("movie", content)
+                .put("step", Step.COPY.toString()).put("attempts", 0);
+        save(id, entry);
+        LOG.log(Level.INFO, "Queued publish " + id + " of `" + sourceFile + "` by `" + userName + "`.");
+        return schedule(id, entry);
+    }
+
+    /**
+     * Queues again the publishes journaled by a previous run
+     *
+     * @return publishes resumed
+     */
+    public int resume() {
+        File[] entries = journal.listFiles((dir, name) -> name.endsWith(".json"));
+        if (entries == null) {
+            return 0;
+        }
+        Arrays.sort(entries);
+        int resumed = 0;
+        for (File file : entries) {
+            String id = file.getName().substring(0, file.getName().length() - ".json".length());
+            try {
+                JSONObject entry = new JSONObject(new String(Files.readAllBytes(file.toPath()),
+                        StandardCharsets.UTF_8));
+                if (entry.getInt("attempts") >= MAX_ATTEMPTS) {
+                    LOG.log(Level.SEVERE, "Publish " + id + " failed " + MAX_ATTEMPTS + " times, not resumed.");
+                    continue;
+                }
+                LOG.log(Level.INFO, "Resuming publish " + id + " at " + entry.getString("step") + ".");
+                schedule(id, entry);
+                resumed++;
+            } catch (IOException | JSONException e) {
+                LOG.log(Level.SEVERE, "Unable to read `" + file + "`: " + e.getMessage());
+            }
+        }
+        return resumed;
+    }
+
+    private JobManager.Job schedule(String id, JSONObject entry) {
+        return JobManager.INSTANCE.submit(id, "publish", entry.getString("username"),
+                job -> run(id, entry, job), workers);
+    }
+
+    /**
+     * Runs the steps of a publish from the journaled one on, journaling each one done
+     */
+    private void run(String id, JSONObject entry, JobManager.Job job) throws Exception {
+        entry.put("attempts", entry.getInt("attempts") + 1);
+        save(id, entry);
+
+        OmdbMovie movie = movie(entry.getString("movie"));
+        Step step = Step.valueOf(entry.getString("step"));
+        job.setTotal(Step.DONE.ordinal());
+        job.progress(step.ordinal());
+        while (step != Step.DONE) {
+            job.setMessage(step.toString());
+            switch (step) {
+                case COPY:
+                    steps.copy(entry.getString("username"), entry.getString("sourceFile"), movie);
+                    break;
+                case GRAPH:
+                    steps.graph(movie);
+                    break;
+                case POSTER:
+                    steps.poster(movie);
+                    break;
+            }
+            step = Step.values()[step.ordinal() + 1];
+            if (step != Step.DONE) {
+                entry.put("step", step.toString());
+                save(id, entry);
+            }
+            job.progress(1);
+        }
+        Files.deleteIfExists(new File(journal, id + ".json").toPath());
+        job.setMessage("Published " + movie.getImdbID());
+        LOG.log(Level.INFO, "Published " + movie.getImdbID() + " (" + id + ").");
+    }
+
+    /**
+     * @param content OMDB document of a movie
+     * @return movie, its file name under `movies/`
+     */
+    private static OmdbMovie movie(String content) {
+        OmdbMovie movie = new OmdbMovie(new JSONObject(content));
+        movie.setFilename("movies/" + movie.getFilename());
+        return movie;
+    }
+
+    /**
+     * Replaces the journal entry of a publish atomically, a crash leaves either the old or the new one
+     */
+    private void save(String id, JSONObject entry) throws IOException {
+        File file = new File(journal, id + ".json");
+        File tmp = new File(journal, id + ".json.tmp");
+        Files.write(tmp.toPath(), entry.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
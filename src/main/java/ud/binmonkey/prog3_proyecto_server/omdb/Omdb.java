@@ -127,6 +127,25 @@ public class Omdb {
         return null;
     }
 
+    /**
+     * Builds the title of its type from the info of a IMDB Title
+     *
+     * @param title - Info of the title, as returned by getTitle
+     * @return OmdbMovie, OmdbSeries or OmdbEpisode; null if it is of another type
+     */
+    public static OmdbTitle toTitle(JSONObject title) {
+        Object type = title.opt("Type");
+
+        if (MediaType.MOVIE.equalsName(String.valueOf(type))) {
+            return new OmdbMovie(title);
+        } else if (MediaType.SERIES.equalsName(String.valueOf(type))) {
+            return new OmdbSeries(title);
+        } else if (MediaType.EPISODE.equalsName(String.valueOf(type))) {
+            return new OmdbEpisode(title);
+        }
+        return null;
+    }
+
     /**
      * Gets the type from a IMDB Title
      *
@@ -0,0 +1,77 @@
+package ud.binmonkey.prog3_proyecto_server.omdb;
+
+import org.json.JSONObject;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Guesses the OMDB title of a video file from its name, e.g. `The.Matrix.1999.1080p.BluRay.mkv`
+ */
+public class TitleMatcher {
+
+    private static final Pattern VIDEO = Pattern.compile("(?i).*\\.(mkv|mp4|avi|mov|m4v|webm|wmv|mpg|mpeg)$");
+    private static final Pattern YEAR = Pattern.compile("(?:^|\\s)\\(?((?:19|20)\\d{2})\\)?(?:\\s|$)");
+    /* first release tag, nothing after it is part of the title */
+    private static final Pattern TAG = Pattern.compile("(?i)(?:^|\\s)(?:\\d{3,4}p|bluray|brrip|bdrip|web-?dl|webrip|" +
+            "hdtv|dvdrip|x26[45]|h26[45]|hevc|xvid|remastered|extended|unrated)(?:\\s|$)");
+
+    /**
+     * @param fileName name of a file
+     * @return true if file is a video that can be matched
+     */
+    public static boolean isVideo(String fileName) {
+        return VIDEO.matcher(fileName).matches();
+    }
+
+    /**
+     * @param fileName name of a video file
+     * @return title and year (null if not in name) of the video
+     */
+    public static String[] parse(String fileName) {
+        String name = fileName.replaceAll("\\.[^.]+$", "")
+                .replaceAll("\\[[^]]*]", " ")
+                .replaceAll("[._]", " ")
+                .replaceAll("\\s+", " ")
+                .trim();
+        String year = null;
+        Matcher yearMatcher = YEAR.matcher(name);
+        /* a title can start with a year (`2001 A Space Odyssey 1968`), the last one is the release year */
+        int end = name.length();
+        while (yearMatcher.find()) {
+            if (yearMatcher.start() > 0) {
+                year = yearMatcher.group(1);
+                end = yearMatcher.start();
+            }
+        }
+        Matcher tagMatcher = TAG.matcher(name);
+        if (tagMatcher.find() && tagMatcher.start() < end) {
+            end = tagMatcher.start();
+        }
+        String title = name.substring(0, end).replaceAll("[-(\\s]+$", "").trim();
+        return new String[]{title.isEmpty() ? name : title, year};
+    }
+
+    /**
+     * Searches the parsed title in OMDB
+     * @param fileName name of a video file
+     * @return IMDB id of the best match (same year if known), null if none
+     */
+    public static String match(String fileName) {
+        String[] parsed = parse(fileName);
+        JSONObject results = Omdb.search(parsed[0], MediaType.MOVIE.toString());
+        if (results == null || results.length() == 0) {
+            return null;
+        }
+        String first = null;
+        for (String id : results.keySet()) {
+            if (first == null) {
+                first = id;
+            }
+            if (parsed[1] != null && parsed[1].equals(results.getJSONObject(id).optString("Year"))) {
+                return id;
+            }
+        }
+        return parsed[1] == null ? first : null;
+    }
+}
@@ -0,0 +1,254 @@
+package ud.binmonkey.prog3_proyecto_server.users;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
+import ud.binmonkey.prog3_proyecto_server.common.jobs.JobManager;
+import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
+import ud.binmonkey.prog3_proyecto_server.ftp.FTPServer;
+import ud.binmonkey.prog3_proyecto_server.mongodb.MongoDB;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Journal of username changes: MongoDB is renamed at once and the home moved by a @JobManager job, so a rename
+ * is journaled to `<journal>/<job id>.json` with its state before MongoDB is touched. Renames interrupted by a
+ * restart are resumed: a pending move is run again, a failed move is rolled back to the old name.
+ */
+public class RenameJournal {
+
+    private static final Logger LOG = Logger.getLogger(RenameJournal.class.getName());
+    static {
+        try {
+            LOG.addHandler(new FileHandler(
+                    "logs/" + RenameJournal.class.getName() + "." +
+                            DateUtils.currentFormattedDate() + ".log.xml", true));
+        } catch (SecurityException | IOException e) {
+            LOG.log(Level.SEVERE, "Unable to create log file.");
+        }
+    }
+
+    static final int MAX_ATTEMPTS = 3; /* runs of a rename before its journal entry is left for inspection */
+
+    public enum State {
+        /* MongoDB may or may not be renamed yet */
+        RENAMING,
+        /* MongoDB renamed, home not moved yet */
+        MOVING,
+        /* home could not be moved, MongoDB must get the old name back */
+        REVERTING
+    }
+
+    /**
+     * Work done by a rename
+     */
+    public interface Steps {
+        boolean exists(String userName);
+
+        void rename(String oldUserName, String newUserName) throws Exception;
+
+        void move(String oldUserName, String newUserName, JobManager.Job job) throws Exception;
+    }
+
+    /**
+     * Journal of the server, created on first use
+     */
+    private static class Holder {
+        private static final RenameJournal JOURNAL = fromProperties();
+    }
+
+    /**
+     * @return rename journal of the server
+     */
+    public static RenameJournal get() {
+        return Holder.JOURNAL;
+    }
+
+    private static RenameJournal fromProperties() {
+        String ftpd = DocumentReader.getAttr(DocumentReader.getDoc("conf/properties.xml"),
+                "network", "ftp-server", "ftpd").getTextContent().trim();
+        return new RenameJournal(new File(ftpd, ".meta/rename"), new Steps() {
+            @Override
+            public boolean exists(String userName) {
+                return MongoDB.userExists(userName);
+            }
+
+            @Override
+            public void rename(String oldUserName, String newUserName) throws Exception {
+                MongoDB.changeUserName(oldUserName, newUserName);
+                FTPServer.getMongoUserManager().invalidate(oldUserName);
+            }
+
+            @Override
+            public void move(String oldUserName, String newUserName, JobManager.Job job) throws IOException {
+                FTPServer.moveHome(oldUserName, newUserName, job);
+            }
+        });
+    }
+
+    private final File journal;
+    private final ExecutorService worker;
+    private final Steps steps;
+
+    /**
+     * @param journal directory renames in progress are journaled to
+     * @param steps   work done by a rename
+     */
+    public RenameJournal(File journal, Steps steps) {
+        this.journal = journal;
+        this.steps = steps;
+        this.worker = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "rename-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        //noinspection ResultOfMethodCallIgnored
+        journal.mkdirs();
+    }
+
+    /**
+     * Journals a rename about to be done in MongoDB
+     *
+     * @param oldUserName current username
+     * @param newUserName new username
+     * @return id of the rename
+     */
+    public String begin(String oldUserName, String newUserName) throws IOException {
+        String id = UUID.randomUUID().toString();
+        save(id, new JSONObject()
+                .put("oldUserName", oldUserName.toLowerCase()).put("newUserName", newUserName.toLowerCase())
+                .put("state", State.RENAMING.toString()).put("attempts", 0));
+        return id;
+    }
+
+    /**
+     * Forgets a rename MongoDB refused
+     *
+     * @param id id of the rename
+     */
+    public void abort(String id) throws IOException {
+        Files.deleteIfExists(new File(journal, id + ".json").toPath());
+    }
+
+    /**
+     * Queues the move of the home of a user renamed in MongoDB
+     *
+     * @param id id of the rename
+     * @return job moving the home
+     */
+    public JobManager.Job moved(String id) throws IOException {
+        JSONObject entry = read(new File(journal, id + ".json"));
+        entry.put("state", State.MOVING.toString());
+        save(id, entry);
+        return schedule(id, entry);
+    }
+
+    /**
+     * Queues again the renames journaled by a previous run
+     *
+     * @return renames resumed
+     */
+    public int resume() {
+        File[] entries = journal.listFiles((dir, name) -> name.endsWith(".json"));
+        if (entries == null) {
+            return 0;
+        }
+        Arrays.sort(entries);
+        int resumed = 0;
+        for (File file : entries) {
+            String id = file.getName().substring(0, file.getName().length() - ".json".length());
+            try {
+                JSONObject entry = read(file);
+                if (entry.getInt("attempts") >= MAX_ATTEMPTS) {
+                    LOG.log(Level.SEVERE, "Rename " + id + " failed " + MAX_ATTEMPTS + " times, not resumed.");
+                    continue;
+                }
+                LOG.log(Level.INFO, "Resuming rename " + id + " at " + entry.getString("state") + ".");
+                schedule(id, entry);
+                resumed++;
+            } catch (IOException | JSONException e) {
+                LOG.log(Level.SEVERE, "Unable to read `" + file + "`: " + e.getMessage());
+            }
+        }
+        return resumed;
+    }
+
+    private JobManager.Job schedule(String id, JSONObject entry) {
+        return JobManager.INSTANCE.submit(id, "rename", entry.getString("oldUserName"),
+                job -> run(id, entry, job), worker);
+    }
+
+    /**
+     * Runs a rename from its journaled state on
+     */
+    private void run(String id, JSONObject entry, JobManager.Job job) throws Exception {
+        entry.put("attempts", entry.getInt("attempts") + 1);
+        save(id, entry);
+
+        String oldUserName = entry.getString("oldUserName");
+        String newUserName = entry.getString("newUserName");
+        State state = State.valueOf(entry.getString("state"));
+
+        if (state == State.RENAMING && !(steps.exists(newUserName) && !steps.exists(oldUserName))) {
+            /* interrupted before MongoDB was renamed */
+            abort(id);
+            job.setMessage("Not renamed");
+            LOG.log(Level.INFO, "Rename " + id + " of `" + oldUserName + "` was never applied, dropped.");
+            return;
+        }
+        if (state != State.REVERTING) {
+            try {
+                steps.move(oldUserName, newUserName, job);
+                abort(id);
+                job.setMessage("Renamed to " + newUserName);
+                return;
+            } catch (Exception e) {
+                /* keep user and its files together, files not copied yet stay in the old home */
+                LOG.log(Level.SEVERE, "Unable to move home of user `" + oldUserName + "`: " + e.getMessage());
+                entry.put("state", State.REVERTING.toString());
+                save(id, entry);
+                revert(id, oldUserName, newUserName);
+                throw e;
+            }
+        }
+        revert(id, oldUserName, newUserName);
+        job.setMessage("Reverted to " + oldUserName);
+    }
+
+    /**
+     * Gives the user its old name back in MongoDB, the entry is kept if it fails
+     */
+    private void revert(String id, String oldUserName, String newUserName) throws Exception {
+        if (steps.exists(newUserName) && !steps.exists(oldUserName)) {
+            steps.rename(newUserName, oldUserName);
+        }
+        abort(id);
+        LOG.log(Level.INFO, "Reverted rename of `" + oldUserName + "` to `" + newUserName + "`.");
+    }
+
+    private static JSONObject read(File file) throws IOException {
+        return new JSONObject(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Replaces the journal entry of a rename atomically, a crash leaves either the old or the new one
+     */
+    private void save(String id, JSONObject entry) throws IOException {
+        File file = new File(journal, id + ".json");
+        File tmp = new File(journal, id + ".json.tmp");
+        Files.write(tmp.toPath(), entry.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
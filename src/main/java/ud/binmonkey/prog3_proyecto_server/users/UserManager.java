@@ -1,14 +1,16 @@
 package ud.binmonkey.prog3_proyecto_server.users;
 
 import org.apache.ftpserver.ftplet.FtpException;
-import org.bson.Document;
 import org.json.JSONObject;
-import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
 import ud.binmonkey.prog3_proyecto_server.common.TextFile;
 import ud.binmonkey.prog3_proyecto_server.common.exceptions.*;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.ShardedStorage;
+import ud.binmonkey.prog3_proyecto_server.common.jobs.JobManager;
 import ud.binmonkey.prog3_proyecto_server.common.security.PasswordAuthentication;
+import ud.binmonkey.prog3_proyecto_server.common.security.UserAuthentication;
 import ud.binmonkey.prog3_proyecto_server.common.time.DateUtils;
 import ud.binmonkey.prog3_proyecto_server.ftp.FTPServer;
+import ud.binmonkey.prog3_proyecto_server.ftp.UserFileMigration;
 import ud.binmonkey.prog3_proyecto_server.mongodb.MongoDB;
 import ud.binmonkey.prog3_proyecto_server.users.attributes.Language;
 import ud.binmonkey.prog3_proyecto_server.users.attributes.Role;
@@ -23,8 +25,6 @@ import java.util.logging.Logger;
 public class UserManager {
 
     private static final Logger LOG = Logger.getLogger(UserManager.class.getName());
-    private static final String ftpd = DocumentReader.getAttr(DocumentReader.getDoc("conf/properties.xml"),
-            "network", "ftp-server", "ftpd").getTextContent();
     static {
         try {
             LOG.addHandler(new FileHandler(
@@ -42,37 +42,33 @@ public class UserManager {
      * @return true if user was successfully authenticated
      */
     public static boolean authUser(String userName, char[] password) throws UserNotFoundException, AdminEditException {
-        return (new PasswordAuthentication().authenticate(password, MongoDB.getPassword(userName)));
+        return UserFileMigration.authenticate(userName, password, new String(MongoDB.getPassword(userName)));
     }
 
     /**
-     * Changes username in both FTP and MongoDB
+     * Changes username. FTP logins are read from MongoDB so only its home directory has to be moved, which is
+     * done by a background job: the new name is reverted if the move fails. The rename is journaled by
+     * @RenameJournal, so a restart resumes the move or the revert.
      * @param oldUserName current username
-     * @param newUserName old username
+     * @param newUserName new username
+     * @return job moving the home directory
      */
-    public static void changeUserName(String oldUserName, String newUserName)
-            throws FtpException, IOException, AdminEditException, InvalidNameException {
+    public static JobManager.Job changeUserName(String oldUserName, String newUserName)
+            throws UserNotFoundException, NewUserExistsException, AdminEditException, InvalidNameException,
+            IOException {
+        String id = RenameJournal.get().begin(oldUserName, newUserName);
         try {
             MongoDB.changeUserName(oldUserName, newUserName);
-            try {
-                FTPServer.renameUser(oldUserName, newUserName);
-                return;
-            } catch (UserNotFoundException e) {
-                LOG.log(Level.SEVERE, "FTP user `" + oldUserName + "` not found.");
-            } catch (NewUserExistsException e) {
-                LOG.log(Level.SEVERE, "FTP user `" + newUserName + "` already exists.");
-            }
-            /* Revert changes */
-            MongoDB.changeUserName(newUserName, oldUserName);
-        } catch (UserNotFoundException e) {
-            LOG.log(Level.SEVERE, "MongoDB user `" + oldUserName + "` not found.");
-        } catch (NewUserExistsException e) {
-            LOG.log(Level.SEVERE, "MongoDB user `" + newUserName + "` already exists.");
+        } catch (Exception e) {
+            RenameJournal.get().abort(id);
+            throw e;
         }
+        FTPServer.getMongoUserManager().invalidate(oldUserName);
+        return RenameJournal.get().moved(id);
     }
 
     /**
-     * Create user on both FTP and MongoDB
+     * Create user, FTP logins are read from MongoDB
      * @param user user to be created
      */
     public static void createUser(User user)
@@ -87,25 +83,15 @@ public class UserManager {
             user.setPassword(hashedPassword.toCharArray());
             MongoDB.createUser(user);
 
-            try {
-                FTPServer.createUser(user.getUserName(), new String(unhashedPassword));
-                java.io.File userDir = new File(ftpd + user.getUserName());
-                userDir.mkdirs();
-                return;
-            } catch (NewUserExistsException e) {
-                LOG.log(Level.SEVERE, "FTP user `" + user.getUserName() + "` already exists.");
-            }
-            /* revert changes */
-            MongoDB.deleteUser(user.getUserName());
-        } catch (UserNotFoundException e) {
-            LOG.log(Level.SEVERE, "MongoDB user `" + user.getUserName() + "` not found.");
+            File userDir = ShardedStorage.get().assignedHome(user.getUserName());
+            userDir.mkdirs();
         } catch (NewUserExistsException e) {
             LOG.log(Level.SEVERE, "MongoDB user `" + user.getUserName() + "` already exists.");
         }
     }
 
     /**
-     * Change password of both FTP and MongoDB
+     * Change password, used both by the HTTPS and the FTP server
      * @param userName username of user whose password will be changed
      * @param oldPassword current password
      * @param newPassword new password
@@ -113,23 +99,16 @@ public class UserManager {
     public static void changePassword(String userName, String oldPassword, String newPassword)
             throws UserNotFoundException, IncorrectPasswordException, AdminEditException {
 
-
-        PasswordAuthentication passAuth = new PasswordAuthentication();
-        MongoDB.changePassword(userName, passAuth.hash(oldPassword.toCharArray()),
-                                         passAuth.hash(newPassword.toCharArray()));
-
-        try {
-            FTPServer.changePassword(userName, oldPassword, newPassword);
-        } catch (FtpException | AdminEditException | IncorrectPasswordException | UserNotFoundException e) {
-            /* revert chagnes */
-            MongoDB.changePassword(userName, passAuth.hash(newPassword.toCharArray()),
-                                             passAuth.hash(oldPassword.toCharArray()));
+        if (!authUser(userName, oldPassword.toCharArray())) {
+            throw new IncorrectPasswordException(userName);
         }
+        MongoDB.setPassword(userName, new PasswordAuthentication().hash(newPassword.toCharArray()));
+        FTPServer.getMongoUserManager().invalidate(userName);
     }
 
 
     /**
-     * Create user on both FTP and MongoDB
+     * Create user
      * @param userJson user to be created
      */
     private static void createUser(JSONObject userJson) throws FtpException, InvalidNameException, AdminEditException {
@@ -171,23 +150,15 @@ public class UserManager {
     }
 
     /**
-     * Deletes user from both FTP and MongoDB
+     * Deletes user, FTP logins are read from MongoDB so it can't log in anymore
      * @param userName username to be deleted
      */
     @SuppressWarnings("WeakerAccess")
     public static void deleteUser(String userName) throws FtpException, AdminEditException {
         try {
-            /* document to restore user if FTP deletion fails */
-            Document backUpUser = MongoDB.getUser(userName);
+            UserAuthentication.checkAdmin(userName.toLowerCase());
             MongoDB.deleteUser(userName);
-            try {
-                FTPServer.deleteUser(userName);
-                return;
-            } catch (UserNotFoundException e) {
-                LOG.log(Level.SEVERE, "FTP user `" + userName + "` not found.");
-            }
-            /* restore user */
-            MongoDB.createUser(backUpUser);
+            FTPServer.getMongoUserManager().invalidate(userName);
         } catch (UserNotFoundException e) {
             LOG.log(Level.SEVERE, "MongoDB user `" + userName + "` not found.");
         }
@@ -277,17 +248,12 @@ public class UserManager {
         JSONObject users = new JSONObject(TextFile.read(userList));
         for (Object o: users.getJSONArray("users")) {
             if (o instanceof JSONObject) {
-                /* remove user from both ftp and mongodb */
+                /* remove user */
                 try {
                     MongoDB.deleteUser((String) ((JSONObject) o).get("username"));
                 } catch (UserNotFoundException e) {
                     /* as expected */
                 }
-                try {
-                    FTPServer.deleteUser((String) ((JSONObject) o).get("username"));
-                } catch (UserNotFoundException e) {
-                    /* as expected */
-                }
                 createUser((JSONObject) o);
             }
         }
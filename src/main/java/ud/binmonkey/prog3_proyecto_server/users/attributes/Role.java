@@ -9,6 +9,22 @@ public enum Role {
         this.role = role;
     }
 
+    /**
+     * Obtain role from its string representation
+     * @param role string representation of role, case insensitive
+     * @return matching role, @USER if none matches
+     */
+    public static Role fromString(String role) {
+        if (role != null) {
+            for (Role r : values()) {
+                if (r.role.equalsIgnoreCase(role)) {
+                    return r;
+                }
+            }
+        }
+        return USER;
+    }
+
     @Override
     public String toString() {
         return role;
@@ -0,0 +1,112 @@
+package ud.binmonkey.prog3_proyecto_server.common.filesystem;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+
+public class BlobStoreTest {
+
+    private File ftpd;
+    private BlobStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        ftpd = Files.createTempDirectory("ftpd").toFile();
+        store = new BlobStore(new File(ftpd, ".blobs"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(ftpd);
+    }
+
+    private File write(String path, String content) throws Exception {
+        File file = new File(ftpd, path);
+        FileUtils.writeStringToFile(file, content, "UTF-8");
+        return file;
+    }
+
+    @Test
+    public void testPublishLinks() throws Exception {
+        File source = write("user/movie.mkv", "movie");
+        File target = new File(ftpd, "common/movies/movie.mkv");
+        String hash = store.publish(source, target);
+
+        Assert.assertEquals(BlobStore.sha256(source.toPath()), hash);
+        Assert.assertTrue(Files.isSameFile(source.toPath(), target.toPath()));
+        Assert.assertTrue(Files.isSameFile(source.toPath(), store.blob(hash).toPath()));
+        Assert.assertEquals(3, BlobStore.linkCount(store.blob(hash).toPath()));
+
+        /* publishing again is recognized by inode */
+        Assert.assertEquals(hash, store.publish(source, new File(ftpd, "common/movies/copy.mkv")));
+        Assert.assertEquals(4, BlobStore.linkCount(store.blob(hash).toPath()));
+    }
+
+    @Test
+    public void testDuplicatesShareBlob() throws Exception {
+        File first = write("a/movie.mkv", "same");
+        File second = write("b/movie.mkv", "same");
+        String hash = store.publish(first, new File(ftpd, "common/movies/a.mkv"));
+        Assert.assertEquals(hash, store.publish(second, new File(ftpd, "common/movies/b.mkv")));
+        Assert.assertTrue(Files.isSameFile(first.toPath(), second.toPath()));
+        Assert.assertEquals(5, BlobStore.linkCount(store.blob(hash).toPath()));
+    }
+
+    @Test
+    public void testOtherDeviceCopied() throws Exception {
+        /* a tmpfs is another device than the temporary directory on most Linux systems */
+        Assume.assumeTrue(Files.isWritable(Paths.get("/dev/shm")) &&
+                !Files.getFileStore(Paths.get("/dev/shm")).equals(Files.getFileStore(ftpd.toPath())));
+        File home = Files.createTempDirectory(Paths.get("/dev/shm"), "home").toFile();
+        try {
+            File source = new File(home, "movie.mkv");
+            FileUtils.writeStringToFile(source, "movie", "UTF-8");
+            Object key = Files.readAttributes(source.toPath(), BasicFileAttributes.class).fileKey();
+            File target = new File(ftpd, "common/movies/movie.mkv");
+            store.publish(source, target);
+            store.publish(source, new File(ftpd, "common/movies/again.mkv"));
+
+            Assert.assertEquals("movie", FileUtils.readFileToString(target, "UTF-8"));
+            /* source is left as it is */
+            Assert.assertEquals(key, Files.readAttributes(source.toPath(), BasicFileAttributes.class).fileKey());
+        } finally {
+            FileUtils.deleteDirectory(home);
+        }
+    }
+
+    @Test
+    public void testDetachAndReclaim() throws Exception {
+        File source = write("user/movie.mkv", "movie");
+        File target = new File(ftpd, "common/movies/movie.mkv");
+        String hash = store.publish(source, target);
+
+        /* writing the user's file in place leaves the published one untouched */
+        BlobStore.detach(source, 2);
+        Assert.assertEquals("mo", FileUtils.readFileToString(source, "UTF-8"));
+        Assert.assertEquals("movie", FileUtils.readFileToString(target, "UTF-8"));
+
+        Assert.assertTrue(target.delete());
+        store.reclaim(Files.readAttributes(store.blob(hash).toPath(),
+                BasicFileAttributes.class).fileKey());
+        Assert.assertFalse(store.blob(hash).exists());
+    }
+
+    @Test
+    public void testScanReclaimsOrphans() throws Exception {
+        File source = write("user/movie.mkv", "movie");
+        String hash = store.publish(source, new File(ftpd, "common/movies/movie.mkv"));
+        Assert.assertTrue(source.delete());
+        Assert.assertTrue(new File(ftpd, "common/movies/movie.mkv").delete());
+
+        new BlobStore(new File(ftpd, ".blobs"));
+        Assert.assertFalse(store.blob(hash).exists());
+    }
+}
@@ -0,0 +1,64 @@
+package ud.binmonkey.prog3_proyecto_server.common.filesystem;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class ChecksumIndexTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("checksums").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testCrc32c() {
+        /* check value of CRC-32C */
+        byte[] data = "123456789".getBytes(StandardCharsets.US_ASCII);
+        Crc32c crc = new Crc32c();
+        crc.update(data, 0, data.length);
+        Assert.assertEquals(0xE3069283L, crc.getValue());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        crc.reset();
+        crc.update(direct);
+        Assert.assertEquals(0xE3069283L, crc.getValue());
+    }
+
+    @Test
+    public void testComputeAndPersist() throws Exception {
+        File file = new File(dir, "movie.mkv");
+        FileUtils.writeStringToFile(file, "abc", "UTF-8");
+        File indexFile = new File(dir, ".meta/checksums.tsv");
+
+        ChecksumIndex index = new ChecksumIndex(indexFile);
+        ChecksumIndex.Checksums checksums = index.compute(file, true);
+        Assert.assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                checksums.getSha256());
+        Assert.assertEquals("900150983cd24fb0d6963f7d28e17f72", checksums.getMd5());
+        Assert.assertEquals(0x352441C2L, checksums.getCrc32());
+        index.flush();
+
+        ChecksumIndex reloaded = new ChecksumIndex(indexFile);
+        Assert.assertEquals(checksums.getSha256(), reloaded.get(file).getSha256());
+
+        /* modified files are not trusted */
+        FileUtils.writeStringToFile(file, "abcd", "UTF-8");
+        Assert.assertNull(reloaded.get(file));
+    }
+}
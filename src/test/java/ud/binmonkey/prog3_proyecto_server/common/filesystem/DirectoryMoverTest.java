@@ -0,0 +1,67 @@
+package ud.binmonkey.prog3_proyecto_server.common.filesystem;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ud.binmonkey.prog3_proyecto_server.common.jobs.JobManager;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+public class DirectoryMoverTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("mover").toFile();
+        FileUtils.writeStringToFile(new File(dir, "old/movies/a.mkv"), "aaaaaaaaaa", "UTF-8");
+        FileUtils.writeStringToFile(new File(dir, "old/b.mkv"), "bbbbbbbbbb", "UTF-8");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testSameDeviceIsRename() throws Exception {
+        Path old = new File(dir, "old/movies/a.mkv").toPath();
+        Object inode = Files.readAttributes(old, BasicFileAttributes.class).fileKey();
+        /* a new empty home, as created by a login during the move, does not prevent the rename */
+        Assert.assertTrue(new File(dir, "new").mkdir());
+
+        DirectoryMover.move(new File(dir, "old").toPath(), new File(dir, "new").toPath(), null);
+
+        Assert.assertFalse(new File(dir, "old").exists());
+        Path moved = new File(dir, "new/movies/a.mkv").toPath();
+        Assert.assertEquals(inode, Files.readAttributes(moved, BasicFileAttributes.class).fileKey());
+    }
+
+    @Test
+    public void testCopyResumes() throws Exception {
+        File target = new File(dir, "new");
+        /* previous run copied b.mkv and half of a.mkv */
+        FileUtils.copyFile(new File(dir, "old/b.mkv"), new File(target, "b.mkv"), true);
+        FileUtils.writeStringToFile(new File(target, "movies/.a.mkv.part"), "aaaaa", "UTF-8");
+
+        JobManager.Job job = JobManager.INSTANCE.submit("test", "test",
+                j -> DirectoryMover.copy(new File(dir, "old").toPath(), target.toPath(), j));
+        for (int i = 0; i < 50 && job.getState() != JobManager.State.DONE; i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+
+        Assert.assertEquals(JobManager.State.DONE, job.getState());
+        Assert.assertEquals(20, job.getTotal());
+        Assert.assertEquals(20, job.getDone());
+        Assert.assertEquals("aaaaaaaaaa", FileUtils.readFileToString(new File(target, "movies/a.mkv"), "UTF-8"));
+        Assert.assertFalse(new File(target, "movies/.a.mkv.part").exists());
+        Assert.assertEquals(new File(dir, "old/movies/a.mkv").lastModified(),
+                new File(target, "movies/a.mkv").lastModified());
+    }
+}
@@ -0,0 +1,107 @@
+package ud.binmonkey.prog3_proyecto_server.common.filesystem;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MediaScrubberTest {
+
+    private File dir;
+    private File common;
+    private ChecksumIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("scrub").toFile();
+        common = new File(dir, "common");
+        byte[] data = new byte[64 * 1024];
+        Random random = new Random(7);
+        for (String name : new String[]{"movies/a.mkv", "movies/b.mkv", "series/c.mkv"}) {
+            random.nextBytes(data);
+            FileUtils.writeByteArrayToFile(new File(common, name), data);
+        }
+        index = new ChecksumIndex(new File(dir, ".meta/checksums.tsv"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private MediaScrubber scrubber(long bytesPerSecond) {
+        return new MediaScrubber(common, index, null, new File(dir, ".meta/scrub"), bytesPerSecond, 1, 0);
+    }
+
+    @Test
+    public void testDetectsCorruption() throws Exception {
+        MediaScrubber scrubber = scrubber(0);
+        /* nothing stored yet, checksums are recorded */
+        assertEquals(3, scrubber.scrub(() -> 0));
+        assertEquals(MediaScrubber.Status.RECORDED, scrubber.getResult("movies/a.mkv").getStatus());
+
+        /* one bit flipped, size and modification time unchanged */
+        File file = new File(common, "movies/b.mkv");
+        long modified = file.lastModified();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(1000);
+            int b = raf.read();
+            raf.seek(1000);
+            raf.write(b ^ 1);
+        }
+        assertTrue(file.setLastModified(modified));
+
+        assertEquals(3, scrubber.scrub(() -> 0));
+        assertEquals(MediaScrubber.Status.OK, scrubber.getResult("movies/a.mkv").getStatus());
+        assertEquals(MediaScrubber.Status.CORRUPT, scrubber.getResult("movies/b.mkv").getStatus());
+        assertEquals("[\"movies/b.mkv\"]", new JSONObject(scrubber.toJson()).getJSONArray("corrupt").toString());
+
+        /* results survive a restart */
+        assertEquals(MediaScrubber.Status.CORRUPT, scrubber(0).getResult("movies/b.mkv").getStatus());
+    }
+
+    @Test
+    public void testResultsSurviveCrashMidPass() throws Exception {
+        /* dies before reading the second file */
+        int[] calls = {0};
+        try {
+            scrubber(0).scrub(() -> {
+                if (calls[0]++ == 1) {
+                    throw new IllegalStateException("crash");
+                }
+                return 0;
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            /* crashed */
+        }
+        MediaScrubber restarted = scrubber(0);
+        assertEquals(MediaScrubber.Status.RECORDED, restarted.getResult("movies/a.mkv").getStatus());
+        assertEquals(2, restarted.scrub(() -> 0));
+    }
+
+    @Test
+    public void testResumesAndThrottles() throws Exception {
+        /* interrupted after the first file */
+        FileUtils.writeStringToFile(new File(dir, ".meta/scrub.checkpoint"), "1\tmovies/a.mkv\n", "UTF-8");
+        MediaScrubber scrubber = scrubber(256 * 1024);
+
+        long start = System.nanoTime();
+        assertEquals(2, scrubber.scrub(() -> 0));
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        assertNull(scrubber.getResult("movies/a.mkv"));
+        /* 128KB at 256KB/s */
+        assertTrue("took " + elapsed + "ms", elapsed >= 400);
+
+        /* next pass starts over */
+        assertEquals(3, scrubber(0).scrub(() -> 0));
+    }
+}
@@ -0,0 +1,115 @@
+package ud.binmonkey.prog3_proyecto_server.common.filesystem;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ShardedStorageTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("storage").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    private Map<File, Long> roots(long... weights) {
+        Map<File, Long> roots = new LinkedHashMap<>();
+        for (int i = 0; i < weights.length; i++) {
+            roots.put(new File(dir, "disk" + i), weights[i]);
+        }
+        return roots;
+    }
+
+    @Test
+    public void testWeightsAndConsistency() {
+        ShardedStorage storage = new ShardedStorage(roots(100, 100, 200), 16384);
+        int[] counts = new int[3];
+        for (int i = 0; i < 10000; i++) {
+            counts[storage.getShards().indexOf(storage.shardOf("user" + i))]++;
+        }
+        /* 1/4, 1/4, 1/2 */
+        assertEquals(2500, counts[0], 500);
+        assertEquals(2500, counts[1], 500);
+        assertEquals(5000, counts[2], 700);
+
+        /* adding a disk only moves users to it, about its share of the total weight */
+        ShardedStorage grown = new ShardedStorage(roots(100, 100, 200, 100), 16384);
+        int moved = 0;
+        for (int i = 0; i < 10000; i++) {
+            File before = storage.shardOf("user" + i).getRoot();
+            File after = grown.shardOf("user" + i).getRoot();
+            if (!before.equals(after)) {
+                assertEquals(new File(dir, "disk3"), after);
+                moved++;
+            }
+        }
+        assertEquals(2000, moved, 500);
+    }
+
+    @Test
+    public void testOwnerOf() {
+        ShardedStorage storage = new ShardedStorage(roots(100, 100), 1024);
+        File second = new File(dir, "disk1");
+        assertEquals("bob", storage.ownerOf(new File(second, "bob/movies/new.mkv")));
+        assertEquals("bob", storage.ownerOf(new File(second, "bob")));
+        assertEquals("common", storage.ownerOf(new File(second, "common/a.mkv")));
+        assertNull(storage.ownerOf(new File(second, ".blobs/ab/cd")));
+        assertNull(storage.ownerOf(second));
+        assertNull(storage.ownerOf(new File(dir, "elsewhere/bob/a.mkv")));
+    }
+
+    @Test
+    public void testRebalance() throws Exception {
+        File first = new File(dir, "disk0");
+        List<String> users = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            users.add("user" + i);
+            FileUtils.writeStringToFile(new File(first, "user" + i + "/file.txt"), "user" + i, "UTF-8");
+        }
+        new File(first, ".blobs").mkdirs();
+        new File(first, "common").mkdirs();
+
+        ShardedStorage storage = new ShardedStorage(roots(100, 100), 1024);
+        List<String> misplaced = new ArrayList<>();
+        for (String user : users) {
+            /* found where it is until it is moved */
+            assertEquals(new File(first, user), storage.home(user));
+            if (!storage.shardOf(user).getRoot().equals(first)) {
+                misplaced.add(user);
+            }
+        }
+        assertFalse(misplaced.isEmpty());
+
+        String busy = misplaced.get(0);
+        List<String> moved = new ArrayList<>();
+        int count = storage.rebalance(null, busy::equals, moved::add);
+        assertEquals(misplaced.size() - 1, count);
+        assertFalse(moved.contains(busy));
+        assertTrue(new File(first, busy).isDirectory());
+        for (String user : moved) {
+            File home = storage.assignedHome(user);
+            assertEquals(home, storage.home(user));
+            assertEquals(user, FileUtils.readFileToString(new File(home, "file.txt"), "UTF-8"));
+            assertFalse(new File(first, user).exists());
+        }
+        assertTrue(new File(first, ".blobs").isDirectory());
+        assertTrue(new File(first, "common").isDirectory());
+        assertEquals(users.size(), storage.homes().size());
+    }
+}
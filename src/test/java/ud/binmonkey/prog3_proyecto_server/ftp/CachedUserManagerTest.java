@@ -0,0 +1,90 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.apache.ftpserver.ftplet.AuthenticationFailedException;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.User;
+import org.apache.ftpserver.usermanager.UsernamePasswordAuthentication;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.ConcurrentLoginRequest;
+import org.apache.ftpserver.usermanager.impl.TransferRateRequest;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class CachedUserManagerTest {
+
+    private File userFile;
+
+    @Before
+    public void setUp() throws Exception {
+        userFile = File.createTempFile("users", ".properties");
+        userFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        userFile.delete();
+    }
+
+    private static BaseUser user(String name, String password) {
+        BaseUser user = new BaseUser();
+        user.setName(name);
+        user.setPassword(password);
+        user.setHomeDirectory("/tmp/" + name);
+        return user;
+    }
+
+    @Test
+    public void testBulkSaveAndReload() throws FtpException, InterruptedException {
+        CachedUserManager userManager = new CachedUserManager(userFile);
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            users.add(user("user" + i, "pass" + i));
+        }
+        userManager.saveAll(users);
+        userManager.flush();
+        /* the flush scheduled by saveAll finds nothing left to write */
+        TimeUnit.SECONDS.sleep(1);
+        Assert.assertEquals(1, userManager.getWrites());
+
+        CachedUserManager reloaded = new CachedUserManager(userFile);
+        Assert.assertEquals(1000, reloaded.getAllUserNames().length);
+        Assert.assertNotNull(reloaded.authenticate(new UsernamePasswordAuthentication("user42", "pass42")));
+        Assert.assertNull(reloaded.getUserByName("user42").getPassword());
+    }
+
+    @Test
+    public void testRenameKeepsPassword() throws FtpException {
+        CachedUserManager userManager = new CachedUserManager(userFile);
+        userManager.save(user("old", "secret"));
+        userManager.rename("old", "new", "/tmp/new");
+
+        Assert.assertFalse(userManager.doesExist("old"));
+        Assert.assertEquals("/tmp/new", userManager.getUserByName("new").getHomeDirectory());
+        Assert.assertNotNull(userManager.authenticate(new UsernamePasswordAuthentication("new", "secret")));
+    }
+
+    @Test
+    public void testSavedUserCanLogIn() throws FtpException {
+        CachedUserManager userManager = new CachedUserManager(userFile);
+        userManager.save(user("user", "secret"));
+
+        /* FtpServer refuses USER for users without login permission */
+        User saved = userManager.authenticate(new UsernamePasswordAuthentication("user", "secret"));
+        Assert.assertNotNull(saved.authorize(new ConcurrentLoginRequest(1, 1)));
+        Assert.assertNotNull(saved.authorize(new TransferRateRequest()));
+    }
+
+    @Test(expected = AuthenticationFailedException.class)
+    public void testWrongPassword() throws FtpException {
+        CachedUserManager userManager = new CachedUserManager(userFile);
+        userManager.save(user("user", "secret"));
+        userManager.authenticate(new UsernamePasswordAuthentication("user", "wrong"));
+    }
+}
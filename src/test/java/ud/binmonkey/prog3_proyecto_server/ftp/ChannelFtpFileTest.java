@@ -0,0 +1,146 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.ftplet.FileSystemView;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.ChecksumIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+public class ChannelFtpFileTest {
+
+    private File home;
+    private FileSystemView view;
+    private ChecksumIndex checksums;
+
+    @Before
+    public void setUp() throws Exception {
+        home = Files.createTempDirectory("home").toFile();
+        BaseUser user = new BaseUser();
+        user.setName("test");
+        user.setHomeDirectory(home.getPath());
+        user.setAuthorities(Collections.<Authority>singletonList(new WritePermission()));
+
+        ChannelFileSystemFactory factory = new ChannelFileSystemFactory();
+        /* small buffers so every test crosses buffer boundaries */
+        factory.setReadBufferSize(1000);
+        factory.setWriteBufferSize(1000);
+        checksums = new ChecksumIndex(new File(home, ".meta/checksums.tsv"));
+        factory.setChecksumIndex(checksums);
+        view = factory.createFileSystemView(user);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        view.dispose();
+        FileUtils.deleteDirectory(home);
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        byte[] data = new byte[10000];
+        new Random(1).nextBytes(data);
+
+        FtpFile file = view.getFile("movie.mkv");
+        Assert.assertTrue(file instanceof ChannelFtpFile);
+        try (OutputStream out = file.createOutputStream(0)) {
+            out.write(data, 0, 4096);
+            out.write(data[4096]);
+            out.write(data, 4097, data.length - 4097);
+        }
+        Assert.assertArrayEquals(data, Files.readAllBytes(new File(home, "movie.mkv").toPath()));
+
+        try (InputStream in = view.getFile("movie.mkv").createInputStream(0)) {
+            Assert.assertArrayEquals(data, IOUtils.toByteArray(in));
+        }
+        try (InputStream in = view.getFile("movie.mkv").createInputStream(2500)) {
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, 2500, data.length), IOUtils.toByteArray(in));
+        }
+    }
+
+    @Test
+    public void testResumeTruncatesAtOffset() throws Exception {
+        Files.write(new File(home, "movie.mkv").toPath(), new byte[]{1, 2, 3, 4, 5});
+        try (OutputStream out = view.getFile("movie.mkv").createOutputStream(2)) {
+            out.write(new byte[]{9});
+        }
+        Assert.assertArrayEquals(new byte[]{1, 2, 9}, Files.readAllBytes(new File(home, "movie.mkv").toPath()));
+    }
+
+    @Test
+    public void testListAndMove() throws Exception {
+        Files.write(new File(home, "a").toPath(), new byte[]{1});
+        FtpFile root = view.getFile("/");
+        Assert.assertTrue(root.listFiles().get(0) instanceof ChannelFtpFile);
+        Assert.assertTrue(view.getFile("a").move(view.getFile("b")));
+        Assert.assertTrue(new File(home, "b").exists());
+    }
+
+    @Test
+    public void testBuffersReused() throws Exception {
+        Files.write(new File(home, "movie.mkv").toPath(), new byte[]{1, 2, 3});
+        InputStream in = view.getFile("movie.mkv").createInputStream(0);
+        in.close();
+        Assert.assertTrue(DirectBufferPool.get().getIdle(1000) > 0);
+        try {
+            in.read();
+            Assert.fail();
+        } catch (IOException e) {
+            /* its buffer is back in the pool */
+        }
+
+        DirectBufferPool pool = new DirectBufferPool(1);
+        ByteBuffer first = pool.acquire(1000);
+        Assert.assertTrue(first.isDirect());
+        /* past the limit */
+        Assert.assertFalse(pool.acquire(1000).isDirect());
+        pool.release(first);
+        Assert.assertSame(first, pool.acquire(1000));
+        /* an idle buffer of another size is freed for a new one */
+        pool.release(first);
+        Assert.assertTrue(pool.acquire(2000).isDirect());
+        Assert.assertEquals(0, pool.getIdle(1000));
+    }
+
+    @Test
+    public void testUploadIsDigested() throws Exception {
+        byte[] data = new byte[10000];
+        new Random(2).nextBytes(data);
+        try (OutputStream out = view.getFile("movie.mkv").createOutputStream(0)) {
+            out.write(data);
+        }
+        File file = new File(home, "movie.mkv");
+        ChecksumIndex.Checksums inline = checksums.get(file);
+        Assert.assertNotNull(inline);
+        Assert.assertEquals(data.length, inline.getSize());
+
+        /* same result as reading the file again */
+        ChecksumIndex reread = new ChecksumIndex(new File(home, ".meta/reread.tsv"));
+        ChecksumIndex.Checksums expected = reread.compute(file, false);
+        Assert.assertEquals(expected.getSha256(), inline.getSha256());
+        Assert.assertEquals(expected.getCrc32(), inline.getCrc32());
+        Assert.assertEquals(expected.getCrc32c(), inline.getCrc32c());
+
+        /* resumed uploads invalidate the entry */
+        try (OutputStream out = view.getFile("movie.mkv").createOutputStream(5000)) {
+            out.write(1);
+        }
+        Assert.assertNull(checksums.get(file));
+    }
+}
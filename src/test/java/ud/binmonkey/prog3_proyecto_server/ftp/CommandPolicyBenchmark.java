@@ -0,0 +1,91 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ud.binmonkey.prog3_proyecto_server.common.logging.AsyncHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per command cost of FTPlet.beforeCommand: command policy check and logging, before and after precompiling.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandPolicyBenchmark {
+
+    private static final String ALLOWED = "ABOR;ACCT;ALLO;APPE;AUTH;CCC;CWD;EPRT;FEAT;GET;HELP;LIST;LPRT;MDTM;MLST;" +
+            "MODE;NLST;OPTS;PASV;PWD;QUIT;REIN;REST;RETR;SIZE;STAT;SYST;TYPE;USER";
+
+    @Param({"USER", "RETR", "STOR"})
+    public String command;
+
+    private String[] allowedCommonCommands;
+    private String homeDirectory;
+    private CommandPolicy policy;
+    private CommandPolicy.UserClass userClass;
+    private Logger syncLog;
+    private Logger asyncLog;
+
+    @Setup
+    public void setUp() throws IOException {
+        allowedCommonCommands = ALLOWED.split(";");
+        homeDirectory = "src/test/resources/ftp/ftpd/common";
+        policy = new CommandPolicy(allowedCommonCommands);
+        userClass = CommandPolicy.UserClass.COMMON;
+
+        File sync = File.createTempFile("sync", ".log.xml");
+        File async = File.createTempFile("async", ".log.xml");
+        sync.deleteOnExit();
+        async.deleteOnExit();
+
+        syncLog = Logger.getLogger("benchmark.sync");
+        syncLog.setUseParentHandlers(false);
+        syncLog.addHandler(new FileHandler(sync.getPath()));
+
+        asyncLog = Logger.getLogger("benchmark.async");
+        asyncLog.setUseParentHandlers(false);
+        asyncLog.addHandler(new AsyncHandler(new FileHandler(async.getPath())));
+    }
+
+    /**
+     * Check as done before: regex on home directory and linear scan of a new list
+     */
+    @Benchmark
+    public boolean legacyPolicy() {
+        return homeDirectory.matches(".*/common") && !Arrays.asList(allowedCommonCommands).contains(command);
+    }
+
+    /**
+     * Check with cached user class and compiled EnumSet
+     */
+    @Benchmark
+    public boolean compiledPolicy() {
+        return policy.isAllowed(userClass, command);
+    }
+
+    @Benchmark
+    public void syncLogging() {
+        syncLog.log(Level.INFO, "Request received. User: `" + "common" + "`, Command: `" + command + "`.");
+    }
+
+    @Benchmark
+    public void asyncLogging() {
+        asyncLog.log(Level.INFO, "Request received. User: `{0}`, Command: `{1}`.", new Object[]{"common", command});
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CommandPolicyBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,25 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CommandPolicyTest {
+
+    private CommandPolicy policy = new CommandPolicy("CWD;LIST;RETR;GET".split(";"));
+
+    @Test
+    public void commonRestricted() {
+        assertTrue(policy.isAllowed(CommandPolicy.UserClass.COMMON, "RETR"));
+        assertFalse(policy.isAllowed(CommandPolicy.UserClass.COMMON, "STOR"));
+        assertFalse(policy.isAllowed(CommandPolicy.UserClass.COMMON, "XUNKNOWN"));
+    }
+
+    @Test
+    public void othersUnrestricted() {
+        assertTrue(policy.isAllowed(CommandPolicy.UserClass.USER, "STOR"));
+        assertTrue(policy.isAllowed(CommandPolicy.UserClass.ADMIN, "DELE"));
+        assertTrue(policy.isAllowed(CommandPolicy.UserClass.USER, "XUNKNOWN"));
+    }
+}
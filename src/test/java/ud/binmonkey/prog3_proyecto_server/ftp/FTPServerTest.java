@@ -4,6 +4,8 @@ import org.apache.ftpserver.FtpServer;
 import org.apache.ftpserver.ftplet.FtpException;
 import org.junit.Before;
 import org.junit.Test;
+import org.w3c.dom.Element;
+import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
 import ud.binmonkey.prog3_proyecto_server.common.TextFile;
 
 import java.io.IOException;
@@ -11,6 +13,8 @@ import java.util.Arrays;
 import java.util.regex.Pattern;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 
 public class FTPServerTest {
@@ -75,4 +79,26 @@ public class FTPServerTest {
             assertArrayEquals(commands, allowed);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Programmatic bootstrap builds a server that starts, with the same allowed commands as the ftplet file
+     */
+    @Test
+    public void programmaticBootstrap() throws Exception {
+        Element config = DocumentReader.getAttr(DocumentReader.getDoc("conf/properties.xml"),
+                "network", "ftp-server");
+        String allowed = config.getElementsByTagName("allowed-common-commands").item(0).getTextContent().trim();
+        String ftpLetFile = config.getElementsByTagName("ftplet-file").item(0).getTextContent().trim();
+        assertTrue(TextFile.read(ftpLetFile).contains("name=\"allowedCommonCommands\" value=\"" + allowed + "\""));
+
+        FtpServer server = FtpServerBootstrap.fromProperties(config);
+        try {
+            server.start();
+            assertFalse(server.isStopped());
+        } catch (org.apache.ftpserver.FtpServerConfigurationException e) {
+            System.err.print("\n --- Port of programmatic bootstrap WAS NOT AVAILABLE --- \n");
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.filesystem.nativefs.NativeFileSystemFactory;
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.listener.ListenerFactory;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+
+public class FtpClientPoolTest {
+
+    private static final int PORT = 8024;
+
+    private File root;
+    private FtpServer server;
+    private FtpClientPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("ftpd").toFile();
+        File home = new File(root, "test");
+        home.mkdirs();
+
+        CachedUserManager userManager = new CachedUserManager(new File(root, "users.properties"));
+        BaseUser user = new BaseUser();
+        user.setName("test");
+        user.setPassword("test");
+        user.setHomeDirectory(home.getPath());
+        user.setAuthorities(Collections.<Authority>singletonList(new WritePermission()));
+        userManager.save(user);
+
+        FtpServerFactory serverFactory = new FtpServerFactory();
+        ListenerFactory listenerFactory = new ListenerFactory();
+        listenerFactory.setPort(PORT);
+        serverFactory.addListener("default", listenerFactory.createListener());
+        serverFactory.setUserManager(userManager);
+        serverFactory.setFileSystem(new NativeFileSystemFactory());
+        server = serverFactory.createServer();
+        server.start();
+
+        pool = new FtpClientPool("localhost", PORT, 2, 60000, 0, 200);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        pool.stop();
+        server.stop();
+        FileUtils.deleteDirectory(root);
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        FTPClient client = pool.borrow("test", "test");
+        Assert.assertTrue(client.makeDirectory("a"));
+        pool.release("test", "test", client, false);
+
+        /* idle for longer than validateAfter (0), checked with NOOP and handed out again */
+        FTPClient again = pool.borrow("test", "test");
+        Assert.assertSame(client, again);
+        Assert.assertTrue(again.removeDirectory("a"));
+        pool.release("test", "test", again, false);
+
+        Assert.assertEquals(1, pool.getCreated());
+        Assert.assertEquals(1, pool.getReused());
+        Assert.assertEquals(1, pool.getIdle());
+
+        /* a broken connection is not kept */
+        FTPClient broken = pool.borrow("test", "test");
+        broken.disconnect();
+        pool.release("test", "test", broken, false);
+        Assert.assertEquals(0, pool.getIdle());
+
+        /* a different password never gets the connection of the user */
+        try {
+            pool.borrow("test", "wrong");
+            Assert.fail();
+        } catch (IOException e) {
+            /* login failed */
+        }
+    }
+
+    @Test
+    public void testLimitAndValidation() throws Exception {
+        FTPClient first = pool.borrow("test", "test");
+        FTPClient second = pool.borrow("test", "test");
+        try {
+            pool.borrow("test", "test");
+            Assert.fail();
+        } catch (IOException e) {
+            /* maxPerUser reached */
+        }
+        pool.release("test", "test", first, false);
+        pool.release("test", "test", second, false);
+
+        /* connections closed by the server fail NOOP and are replaced */
+        server.stop();
+        try {
+            pool.borrow("test", "test");
+            Assert.fail();
+        } catch (IOException e) {
+            /* server down */
+        }
+        Assert.assertEquals(2, pool.getInvalid());
+        Assert.assertEquals(0, pool.getIdle());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        pool.stop();
+        pool = new FtpClientPool("localhost", PORT, 2, 0, 0, 200);
+        FTPClient client = pool.borrow("test", "test");
+        pool.release("test", "test", client, false);
+        Assert.assertEquals(1, pool.getIdle());
+
+        pool.evict();
+        Assert.assertEquals(0, pool.getIdle());
+        Assert.assertEquals(1, pool.getEvicted());
+        Assert.assertFalse(client.isConnected());
+    }
+}
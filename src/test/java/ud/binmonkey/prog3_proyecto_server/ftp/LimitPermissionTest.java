@@ -0,0 +1,57 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.apache.ftpserver.usermanager.impl.ConcurrentLoginRequest;
+import org.apache.ftpserver.usermanager.impl.TransferRateRequest;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import ud.binmonkey.prog3_proyecto_server.users.attributes.Role;
+
+public class LimitPermissionTest {
+
+    private final LimitRegistry.Limits defaults = LimitRegistry.INSTANCE.get(Role.USER);
+
+    @After
+    public void tearDown() {
+        LimitRegistry.INSTANCE.set(Role.USER, defaults);
+        LimitRegistry.INSTANCE.reset("limited");
+    }
+
+    @Test
+    public void testRoleLimitsChangeAtRuntime() {
+        LimitPermission permission = new LimitPermission("limited", Role.USER);
+
+        LimitRegistry.INSTANCE.set(Role.USER, new LimitRegistry.Limits(100, 200, 2, 1));
+        TransferRateRequest rate = (TransferRateRequest) permission.authorize(new TransferRateRequest());
+        Assert.assertEquals(100, rate.getMaxUploadRate());
+        Assert.assertEquals(200, rate.getMaxDownloadRate());
+
+        LimitRegistry.INSTANCE.set(Role.USER, new LimitRegistry.Limits(300, 400, 2, 1));
+        rate = (TransferRateRequest) permission.authorize(new TransferRateRequest());
+        Assert.assertEquals(300, rate.getMaxUploadRate());
+    }
+
+    @Test
+    public void testUserLimitsOverrideRole() {
+        LimitPermission permission = new LimitPermission("limited", Role.USER);
+        LimitRegistry.INSTANCE.set("limited", new LimitRegistry.Limits(1, 2, 3, 4));
+        TransferRateRequest rate = (TransferRateRequest) permission.authorize(new TransferRateRequest());
+        Assert.assertEquals(1, rate.getMaxUploadRate());
+
+        LimitRegistry.INSTANCE.reset("limited");
+        rate = (TransferRateRequest) permission.authorize(new TransferRateRequest());
+        Assert.assertEquals(defaults.getUpload(), rate.getMaxUploadRate());
+    }
+
+    @Test
+    public void testConcurrentLogins() {
+        LimitPermission permission = new LimitPermission("limited", Role.USER);
+        LimitRegistry.INSTANCE.set(Role.USER, new LimitRegistry.Limits(0, 0, 2, 1));
+
+        Assert.assertNotNull(permission.authorize(new ConcurrentLoginRequest(1, 1)));
+        /* second login from same address */
+        Assert.assertNull(permission.authorize(new ConcurrentLoginRequest(2, 2)));
+        /* third login */
+        Assert.assertNull(permission.authorize(new ConcurrentLoginRequest(3, 1)));
+    }
+}
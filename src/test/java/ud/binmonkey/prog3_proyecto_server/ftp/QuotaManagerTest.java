@@ -0,0 +1,93 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ud.binmonkey.prog3_proyecto_server.users.attributes.Role;
+
+import java.io.File;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+public class QuotaManagerTest {
+
+    private QuotaManager quotaManager = QuotaManager.INSTANCE;
+    private String user = "quotatest";
+
+    @Before
+    public void setUp() {
+        quotaManager.clear();
+        quotaManager.setRole(user, Role.USER);
+    }
+
+    @After
+    public void tearDown() {
+        quotaManager.clear();
+    }
+
+    /**
+     * Usage grows and shrinks incrementally and limit is enforced when reached
+     */
+    @Test
+    public void incrementalUsage() {
+        long limit = quotaManager.getLimit(Role.USER);
+
+        quotaManager.add(user, limit - 1);
+        assertFalse(quotaManager.isExceeded(user));
+
+        quotaManager.add(user, 1);
+        assertTrue(quotaManager.isExceeded(user));
+
+        quotaManager.add(user, -limit);
+        assertEquals(0, quotaManager.get(user).getUsed());
+        assertFalse(quotaManager.isExceeded(user));
+    }
+
+    /**
+     * Roles with limit 0 are never exceeded
+     */
+    @Test
+    public void unlimitedRole() {
+        quotaManager.setRole(user, Role.ADMIN);
+        quotaManager.add(user, Long.MAX_VALUE / 2);
+        assertFalse(quotaManager.isExceeded(user));
+    }
+
+    /**
+     * Usage survives a save and load cycle
+     */
+    @Test
+    public void persistence() throws Exception {
+        File file = File.createTempFile("quota", ".dat");
+        file.deleteOnExit();
+
+        quotaManager.add(user, 12345);
+        quotaManager.save(file);
+        quotaManager.clear();
+        quotaManager.load(file);
+
+        assertEquals(12345, quotaManager.get(user).getUsed());
+    }
+
+    /**
+     * Disk usage scan counts every regular file
+     */
+    @Test
+    public void du() throws Exception {
+        long expected = new File("src/test/resources/ftp/ftpd/test/welcome.txt").length() +
+                new File("src/test/resources/ftp/ftpd/test/testdir2/testfile2.txt").length();
+        assertEquals(expected, QuotaManager.du(Paths.get("src/test/resources/ftp/ftpd/test")));
+    }
+
+    /**
+     * A scan replaces drifted usage with the size of the home
+     */
+    @Test
+    public void reconcile() throws Exception {
+        File home = new File("src/test/resources/ftp/ftpd/test");
+        quotaManager.add(home.getName(), 1);
+        assertTrue(quotaManager.reconcile(home));
+        assertEquals(QuotaManager.du(home.toPath()), quotaManager.get(home.getName()).getUsed());
+    }
+}
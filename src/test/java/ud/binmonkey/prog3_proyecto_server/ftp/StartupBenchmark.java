@@ -0,0 +1,61 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.w3c.dom.Element;
+import ud.binmonkey.prog3_proyecto_server.common.DocumentReader;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold start of the FTP server with each @FtpServerBootstrap: time from nothing loaded to a listening server,
+ * in a fresh JVM every fork so class loading is measured too. Heap used after boot (after a full GC) is printed
+ * by every fork, the Spring context and its classes stay reachable from the server.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+    @Param({FtpServerBootstrap.XML, FtpServerBootstrap.PROGRAMMATIC})
+    public String bootstrap;
+
+    private FtpServer server;
+
+    @Benchmark
+    public FtpServer boot() throws FtpException {
+        if (bootstrap.equals(FtpServerBootstrap.XML)) {
+            Element config = DocumentReader.getAttr(DocumentReader.getDoc("conf/properties.xml"),
+                    "network", "ftp-server");
+            server = FtpServerBootstrap.fromXml(config.getElementsByTagName("ftplet-file").item(0)
+                    .getTextContent().trim(), FTPlet.class.getSimpleName());
+        } else {
+            server = FtpServerBootstrap.fromProperties(DocumentReader.getAttr(
+                    DocumentReader.getDoc("conf/properties.xml"), "network", "ftp-server"));
+        }
+        server.start();
+        return server;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        System.gc();
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        long classes = ManagementFactory.getClassLoadingMXBean().getLoadedClassCount();
+        System.out.println("\n" + bootstrap + ": heap after boot " + heap / 1024 / 1024 + " MB, " + classes +
+                " classes loaded");
+        server.stop();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(StartupBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,122 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.filesystem.nativefs.NativeFileSystemFactory;
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.ftplet.FileSystemFactory;
+import org.apache.ftpserver.listener.ListenerFactory;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RETR and STOR of a large file through a local FTP server using the native file system and the
+ * @ChannelFileSystemFactory. Run with -p sizeMB=4096 for multi GB files.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransferBenchmark {
+
+    private static final int PORT = 8023;
+    private static final int CLIENT_BUFFER = 1024 * 1024;
+
+    @Param({"native", "channel"})
+    public String fileSystem;
+
+    @Param({"2048"})
+    public long sizeMB;
+
+    private File root;
+    private FtpServer server;
+    private FTPClient client;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        root = Files.createTempDirectory("ftpd").toFile();
+        File users = new File(root, "users.properties");
+        File home = new File(root, "bench");
+        home.mkdirs();
+
+        /* real data, a sparse file would never touch the disk */
+        byte[] block = new byte[CLIENT_BUFFER];
+        new java.util.Random(42).nextBytes(block);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(home, "movie.mkv")))) {
+            for (long i = 0; i < sizeMB; i++) {
+                out.write(block);
+            }
+        }
+
+        CachedUserManager userManager = new CachedUserManager(users);
+        BaseUser user = new BaseUser();
+        user.setName("bench");
+        user.setPassword("bench");
+        user.setHomeDirectory(home.getPath());
+        user.setAuthorities(Collections.<Authority>singletonList(new WritePermission()));
+        userManager.save(user);
+
+        FileSystemFactory factory;
+        if (fileSystem.equals("native")) {
+            factory = new NativeFileSystemFactory();
+        } else {
+            factory = new ChannelFileSystemFactory();
+        }
+
+        FtpServerFactory serverFactory = new FtpServerFactory();
+        ListenerFactory listenerFactory = new ListenerFactory();
+        listenerFactory.setPort(PORT);
+        serverFactory.addListener("default", listenerFactory.createListener());
+        serverFactory.setUserManager(userManager);
+        serverFactory.setFileSystem(factory);
+        server = serverFactory.createServer();
+        server.start();
+
+        client = new FTPClient();
+        client.connect("localhost", PORT);
+        client.login("bench", "bench");
+        client.setFileType(FTP.BINARY_FILE_TYPE);
+        client.enterLocalPassiveMode();
+        client.setBufferSize(CLIENT_BUFFER);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.logout();
+        client.disconnect();
+        server.stop();
+        FileUtils.deleteDirectory(root);
+    }
+
+    @Benchmark
+    public boolean retr() throws IOException {
+        return client.retrieveFile("movie.mkv", new NullOutputStream());
+    }
+
+    @Benchmark
+    public boolean stor() throws IOException {
+        try (InputStream in = new BufferedInputStream(
+                new FileInputStream(new File(root, "bench/movie.mkv")), CLIENT_BUFFER)) {
+            return client.storeFile("upload.mkv", in);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TransferBenchmark.class.getSimpleName()).build()).run();
+    }
+}
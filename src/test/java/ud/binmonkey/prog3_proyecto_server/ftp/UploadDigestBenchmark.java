@@ -0,0 +1,75 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ud.binmonkey.prog3_proyecto_server.common.filesystem.ChecksumIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of digesting uploads inline: 1GB written through @ChannelFtpFile.ChannelOutputStream in the 4KB chunks
+ * FtpServer uses, without digests, with SHA-256 + CRC32 + CRC32C, and reading the file again afterwards as
+ * verification did before. Score is ms per GB.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UploadDigestBenchmark {
+
+    private static final long GB = 1024L * 1024 * 1024;
+
+    @Param({"none", "inline", "reread"})
+    public String digest;
+
+    private File dir;
+    private File file;
+    private ChecksumIndex index;
+    private final byte[] chunk = new byte[4096];
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("digest").toFile();
+        file = new File(dir, "upload.bin");
+        index = new ChecksumIndex(new File(dir, ".meta/checksums.tsv"));
+        new Random(1).nextBytes(chunk);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Benchmark
+    public Object upload() throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try (OutputStream out = new ChannelFtpFile.ChannelOutputStream(channel,
+                ChannelFileSystemFactory.DEFAULT_BUFFER_SIZE, file, digest.equals("inline") ? index : null)) {
+            for (long written = 0; written < GB; written += chunk.length) {
+                out.write(chunk);
+            }
+        }
+        if (digest.equals("reread")) {
+            /* the file is still in page cache here, a cold read would cost more */
+            return new ChecksumIndex(new File(dir, ".meta/reread.tsv")).compute(file, false);
+        }
+        return index.get(file);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(UploadDigestBenchmark.class.getSimpleName()).build()).run();
+    }
+}
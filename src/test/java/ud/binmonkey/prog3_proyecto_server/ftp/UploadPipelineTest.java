@@ -0,0 +1,77 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class UploadPipelineTest {
+
+    private static UploadPipeline.Job job(String name, int priority, long sequence) {
+        return new UploadPipeline.Job(new File(name), "test", priority, sequence);
+    }
+
+    @Test
+    public void testBackpressureAndPriority() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        UploadPipeline.Stage stage = new UploadPipeline.Stage("test", 1, 3, job -> {
+            started.countDown();
+            release.await();
+            order.add(job.file.getName());
+            done.countDown();
+        });
+        stage.start();
+        try {
+            /* first job keeps the only worker busy */
+            Assert.assertTrue(stage.offer(job("busy", 1, 0)));
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            Assert.assertTrue(stage.offer(job("user-old", 1, 1)));
+            Assert.assertTrue(stage.offer(job("user-new", 1, 2)));
+            Assert.assertTrue(stage.offer(job("admin", 0, 3)));
+            /* queue is full, offer returns at once */
+            long start = System.nanoTime();
+            Assert.assertFalse(stage.offer(job("dropped", 0, 4)));
+            Assert.assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+            Assert.assertEquals(1, stage.getRejected());
+            Assert.assertEquals(3, stage.getQueued());
+
+            release.countDown();
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(Arrays.asList("busy", "admin", "user-old", "user-new"), order);
+        } finally {
+            stage.stop();
+        }
+    }
+
+    @Test
+    public void testStagesChain() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        UploadPipeline.Stage second = new UploadPipeline.Stage("second", 1, 1, job -> done.countDown());
+        UploadPipeline.Stage first = new UploadPipeline.Stage("first", 1, 1, job -> {
+            throw new IllegalStateException("failure does not stop the pipeline");
+        });
+        first.next = second;
+        first.start();
+        second.start();
+        try {
+            Assert.assertTrue(first.offer(job("movie.mkv", 1, 0)));
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+            Assert.assertEquals(0, first.getCompleted());
+            Assert.assertEquals(1, first.toJson().getLong("failed"));
+        } finally {
+            first.stop();
+            second.stop();
+        }
+    }
+}
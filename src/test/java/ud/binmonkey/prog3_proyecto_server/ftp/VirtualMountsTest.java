@@ -0,0 +1,94 @@
+package ud.binmonkey.prog3_proyecto_server.ftp;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.ftpserver.filesystem.nativefs.NativeFileSystemFactory;
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.ftplet.FileSystemView;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class VirtualMountsTest {
+
+    private File ftpd;
+    private File home;
+    private FileSystemView view;
+
+    @Before
+    public void setUp() throws Exception {
+        ftpd = Files.createTempDirectory("ftpd").toFile();
+        home = new File(ftpd, "test");
+        home.mkdirs();
+        VirtualMounts mounts = new VirtualMounts(ftpd.getPath(), "/common/movies=common/movies");
+        FileUtils.writeStringToFile(new File(ftpd, "common/movies/movie.mkv"), "movie", "UTF-8");
+
+        BaseUser user = new BaseUser();
+        user.setName("test");
+        user.setHomeDirectory(home.getPath());
+        user.setAuthorities(Collections.<Authority>singletonList(new WritePermission()));
+        view = new ChannelFileSystemView(new NativeFileSystemFactory().createFileSystemView(user), 1000, 1000, mounts);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        view.dispose();
+        FileUtils.deleteDirectory(ftpd);
+    }
+
+    @Test
+    public void testNormalize() {
+        Assert.assertEquals("/common/movies", VirtualMounts.normalize("/common", "movies/"));
+        Assert.assertEquals("/common", VirtualMounts.normalize("/common/movies", ".."));
+        Assert.assertEquals("/", VirtualMounts.normalize("/common", "../../.."));
+        Assert.assertEquals("/a", VirtualMounts.normalize("/common/movies", "~/a"));
+        Assert.assertEquals("/common/movies", VirtualMounts.normalize("/common/movies", null));
+    }
+
+    @Test
+    public void testListAndRead() throws Exception {
+        List<String> names = new ArrayList<>();
+        for (FtpFile file : view.getHomeDirectory().listFiles()) {
+            names.add(file.getName());
+        }
+        Assert.assertEquals(Collections.singletonList("common"), names);
+
+        Assert.assertTrue(view.changeWorkingDirectory("/common/movies"));
+        Assert.assertEquals("/common/movies", view.getWorkingDirectory().getAbsolutePath());
+        FtpFile movie = view.getFile("movie.mkv");
+        Assert.assertTrue(movie.isFile());
+        try (InputStream in = movie.createInputStream(0)) {
+            Assert.assertEquals("movie", IOUtils.toString(in, "UTF-8"));
+        }
+
+        Assert.assertTrue(view.changeWorkingDirectory("../.."));
+        Assert.assertEquals("/", view.getWorkingDirectory().getAbsolutePath());
+        Assert.assertFalse(view.changeWorkingDirectory("/common/series"));
+    }
+
+    @Test
+    public void testReadOnly() throws Exception {
+        FtpFile movie = view.getFile("/common/movies/movie.mkv");
+        Assert.assertFalse(movie.isWritable());
+        Assert.assertFalse(movie.delete());
+        Assert.assertFalse(movie.move(view.getFile("/movie.mkv")));
+        Assert.assertFalse(view.getFile("/common/movies/new").mkdir());
+        /* entries next to a mount can't be created in the hidden native home either */
+        FtpFile hidden = view.getFile("/common/new.mkv");
+        Assert.assertTrue(hidden instanceof MountedFtpFile);
+        Assert.assertFalse(hidden.doesExist());
+        Assert.assertFalse(hidden.isWritable());
+        Assert.assertTrue(new File(ftpd, "common/movies/movie.mkv").exists());
+    }
+}
@@ -0,0 +1,74 @@
+package ud.binmonkey.prog3_proyecto_server.neo4j;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import ud.binmonkey.prog3_proyecto_server.omdb.OmdbMovie;
+import ud.binmonkey.prog3_proyecto_server.omdb.OmdbTitle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BulkLoaderTest {
+
+    private static OmdbMovie movie(int id, String actors) {
+        return new OmdbMovie(new JSONObject()
+                .put("Title", "Movie " + id).put("imdbID", "tt" + id).put("Year", "2000")
+                .put("Released", "01 Jan 00").put("DVD", "01 Jan 01").put("Plot", "Plot").put("Rated", "PG")
+                .put("Awards", "N/A").put("Metascore", "70").put("imdbRating", "7.5").put("imdbVotes", "1,000")
+                .put("Runtime", "120 min").put("Poster", "N/A").put("Filename", "movie" + id + ".mkv")
+                .put("BoxOffice", "$1,000").put("Website", "N/A").put("Language", "EN")
+                .put("Genre", "Drama").put("Writer", "Writer " + id).put("Director", "Director " + id)
+                .put("Actors", actors).put("Production", "Producer").put("Country", "USA")
+                .put("Ratings", new JSONObject().put("Internet Movie Database", 75)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSharedNodesInOnePartition() {
+        List<OmdbTitle> titles = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            titles.add(movie(i, "Popular Actor, Actor " + i));
+        }
+        BulkLoader.Batch batch = new BulkLoader.Batch(titles, 4);
+
+        int movies = 0;
+        for (Map<String, List<Object>> partition : batch.titles) {
+            for (List<Object> rows : partition.values()) {
+                movies += rows.size();
+            }
+        }
+        assertEquals(50, movies);
+
+        /* every node and all its relations written by a single transaction */
+        int withActor = 0;
+        int withRelations = 0;
+        for (int i = 0; i < 4; i++) {
+            boolean node = false;
+            for (Map.Entry<String, List<Object>> statement : batch.nodes.get(i).entrySet()) {
+                node |= statement.getKey().contains(":Person") && statement.getValue().contains("Popular Actor");
+            }
+            int relations = 0;
+            String previous = "";
+            for (Map.Entry<String, List<Object>> statement : batch.relations.get(i).entrySet()) {
+                for (Object row : statement.getValue()) {
+                    Map<String, Object> relation = (Map<String, Object>) row;
+                    if (statement.getKey().contains(":ACTED_IN]") && relation.get("from").equals("Popular Actor")) {
+                        /* sorted by title */
+                        assertTrue(previous.compareTo((String) relation.get("to")) < 0);
+                        previous = (String) relation.get("to");
+                        relations++;
+                    }
+                }
+            }
+            withActor += node ? 1 : 0;
+            withRelations += relations > 0 ? 1 : 0;
+            assertTrue(relations == 0 || relations == 50 && node);
+        }
+        assertEquals(1, withActor);
+        assertEquals(1, withRelations);
+    }
+}
@@ -0,0 +1,75 @@
+package ud.binmonkey.prog3_proyecto_server.neo4j;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static ud.binmonkey.prog3_proyecto_server.neo4j.CypherTemplates.Statement.*;
+
+public class CypherTemplatesTest {
+
+    @Test
+    public void testTemplatesReused() {
+        CypherTemplates.Template template = CypherTemplates.INSTANCE.get(CHECK_RELATION, "Person", "ACTED_IN");
+        assertSame(template, CypherTemplates.INSTANCE.get(CHECK_RELATION, "Person", "ACTED_IN"));
+        assertEquals("MATCH (a:Person)-[:ACTED_IN]->(b) WHERE a.name={node} AND b.name={title} RETURN a.name",
+                template.getText());
+        assertEquals("MATCH (b:Movie {name: {title}}) UNWIND {nodes} AS node" +
+                        " MERGE (a:Genre {name: node}) MERGE (a)-[:GENRE]->(b)",
+                CypherTemplates.INSTANCE.get(MERGE_RELATIONS, "Movie", "GENRE", "Genre").getText());
+        /* titles are matched through their label index too */
+        assertEquals("MATCH (a:List {name: {name}}), (b:Series {name: {title}}) CREATE (a)-[:CONTAINS]->(b)",
+                CypherTemplates.INSTANCE.get(CREATE_RELATION, "List", "CONTAINS", "Series").getText());
+        assertEquals("MATCH (a:ScoreOutlet {name: {name}}), (b:Episode {name: {id}})" +
+                        " CREATE (a)-[:SCORED {score: {score}}]->(b)",
+                CypherTemplates.INSTANCE.get(CREATE_SCORE, "Episode").getText());
+
+        long executions = template.getExecutions();
+        assertEquals("result", template.time(() -> "result"));
+        try {
+            template.time(() -> {
+                throw new IllegalStateException();
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            /* timed too */
+        }
+        assertEquals(executions + 2, template.getExecutions());
+        assertEquals(executions + 2, template.toJson().getLong("executions"));
+        assertTrue(CypherTemplates.INSTANCE.toJson().contains(template.toJson().getString("key")));
+    }
+
+    @Test
+    public void testOnlyWhitelistedNames() {
+        String[][] rejected = {
+                {"Person) DETACH DELETE (a", null},
+                {"Person", "ACTED_IN]->() DETACH DELETE a //"},
+                {"movie", "ACTED_IN"}, /* labels are case sensitive */
+        };
+        for (String[] names : rejected) {
+            try {
+                if (names[1] == null) {
+                    CypherTemplates.INSTANCE.get(CHECK_NODE, names[0]);
+                } else {
+                    CypherTemplates.INSTANCE.get(CHECK_RELATION, names[0], names[1]);
+                }
+                fail(names[0] + " " + names[1]);
+            } catch (IllegalArgumentException e) {
+                /* rejected */
+            }
+        }
+        /* relationship missing */
+        try {
+            CypherTemplates.INSTANCE.get(CHECK_RELATION, "Person", null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            /* rejected */
+        }
+        /* label of title missing */
+        try {
+            CypherTemplates.INSTANCE.get(CREATE_RELATION, "Person", "ACTED_IN");
+            fail();
+        } catch (IllegalArgumentException e) {
+            /* rejected */
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package ud.binmonkey.prog3_proyecto_server.neo4j;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ud.binmonkey.prog3_proyecto_server.omdb.OmdbMovie;
+import ud.binmonkey.prog3_proyecto_server.omdb.OmdbTitle;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DumpImporterTest {
+
+    private File dir;
+    private File dump;
+
+    private static String movie(int id) {
+        return new JSONObject()
+                .put("Title", "Movie " + id).put("imdbID", "tt" + id).put("Type", "movie").put("Year", "2000")
+                .put("Released", "01 Jan 00").put("DVD", "01 Jan 01").put("Plot", "Plot").put("Rated", "PG")
+                .put("Awards", "N/A").put("Metascore", "70").put("imdbRating", "7.5").put("imdbVotes", "1,000")
+                .put("Runtime", "120 min").put("Poster", "N/A").put("BoxOffice", "$1,000").put("Website", "N/A")
+                .put("Language", "EN").put("Genre", "Drama").put("Writer", "Writer").put("Director", "Director")
+                .put("Actors", "Actor").put("Production", "Producer").put("Country", "USA")
+                .put("Ratings", new JSONObject().put("Internet Movie Database", 75)).toString();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("dump").toFile();
+        dump = new File(dir, "titles.jsonl");
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            lines.add(movie(i));
+        }
+        lines.add(3, "{\"Title\": \"Game\", \"Type\": \"game\"}");
+        lines.add(5, "not json");
+        FileUtils.writeLines(dump, "UTF-8", lines);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testResumesAfterFailure() throws Exception {
+        List<String> written = new ArrayList<>();
+        DumpImporter importer = new DumpImporter(dump, 3, titles -> {
+            if (!written.isEmpty()) {
+                throw new IllegalStateException("crash");
+            }
+            for (OmdbTitle title : titles) {
+                assertTrue(title instanceof OmdbMovie);
+                written.add(title.getImdbID());
+            }
+        });
+        try {
+            importer.importDump(null);
+            fail();
+        } catch (IllegalStateException e) {
+            /* first chunk written, second one lost */
+        }
+        assertEquals(3, importer.getTitles());
+
+        DumpImporter resumed = new DumpImporter(dump, 3, titles -> {
+            for (OmdbTitle title : titles) {
+                written.add(title.getImdbID());
+            }
+        });
+        assertEquals(4, resumed.importDump(null));
+        assertEquals(dump.length(), resumed.getOffset());
+        assertEquals(7, resumed.getTitles());
+        assertEquals(2, resumed.getSkipped());
+        assertEquals("[tt0, tt1, tt2, tt3, tt4, tt5, tt6]", written.toString());
+
+        /* nothing left */
+        assertEquals(0, new DumpImporter(dump, 3, titles -> fail()).importDump(null));
+    }
+}
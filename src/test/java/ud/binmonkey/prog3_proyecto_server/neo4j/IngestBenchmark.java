@@ -0,0 +1,95 @@
+package ud.binmonkey.prog3_proyecto_server.neo4j;
+
+import org.json.JSONObject;
+import org.neo4j.driver.v1.Value;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ud.binmonkey.prog3_proyecto_server.omdb.OmdbMovie;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of adding a movie to a local Neo4j (and MySQL, for the DWH log), as configured in conf/properties.xml.
+ * @perNode writes it the way addMovie used to: an auto-commit check and CREATE for every node and relation.
+ * @singleTransaction is the current addMovie. Synthetic movies with a cast of the given size, none of its people
+ * in the graph yet. Clears the database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IngestBenchmark {
+
+    @Param({"10", "50"})
+    public int cast;
+
+    private Neo4jUtils neo4j;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        neo4j = new Neo4jUtils();
+        neo4j.clearDB();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        neo4j.clearDB();
+        neo4j.closeSession();
+    }
+
+    private OmdbMovie movie() {
+        int id = next++;
+        StringBuilder actors = new StringBuilder();
+        for (int i = 0; i < cast; i++) {
+            actors.append(i == 0 ? "" : ", ").append("Actor ").append(id).append("-").append(i);
+        }
+        JSONObject json = new JSONObject()
+                .put("Title", "Movie " + id).put("imdbID", "tb" + cast + "-" + id).put("Year", "2000")
+                .put("Released", "01 Jan 00").put("DVD", "01 Jan 01").put("Plot", "Plot").put("Rated", "PG")
+                .put("Awards", "N/A").put("Metascore", "70").put("imdbRating", "7.5").put("imdbVotes", "1,000")
+                .put("Runtime", "120 min").put("Poster", "N/A").put("Filename", "movie" + id + ".mkv")
+                .put("BoxOffice", "$1,000").put("Website", "N/A").put("Language", "EN")
+                .put("Genre", "Drama, Genre " + id % 20).put("Writer", "Writer " + id)
+                .put("Director", "Director " + id).put("Actors", actors.toString())
+                .put("Production", "Producer " + id % 50).put("Country", "USA")
+                .put("Ratings", new JSONObject().put("Internet Movie Database", 75).put("Metacritic", 70));
+        return new OmdbMovie(json);
+    }
+
+    @Benchmark
+    public void perNode() {
+        OmdbMovie movie = movie();
+        String id = movie.getImdbID();
+        if (!neo4j.checkNode(id, "Movie")) {
+            neo4j.run("CREATE (a:Movie {title: {title}, name: {name}, year: {year}, released: {released}," +
+                    " dvd: {dvd}, plot: {plot}, awards: {awards}, boxOffice: {boxOffice}," +
+                    " metascore: {metascore}, imdbRating: {imdbRating}, imdbVotes: {imdbVotes}," +
+                    " runtime: {runtime}, website: {website}, poster: {poster}})", (Value) movie.toParameters());
+            neo4j.addNode(movie.getLanguage(), "Language", id, "Movie", "SPOKEN_LANGUAGE");
+            neo4j.addNode(movie.getAgeRating(), "Rating", id, "Movie", "RATED");
+            neo4j.addNodeList(movie.getGenre(), "Genre", id, "Movie", "GENRE");
+            neo4j.addNodeList(movie.getWriter(), "Person", id, "Movie", "WROTE");
+            neo4j.addNodeList(movie.getDirector(), "Person", id, "Movie", "DIRECTED");
+            neo4j.addNodeList(movie.getActors(), "Person", id, "Movie", "ACTED_IN");
+            neo4j.addNodeList(movie.getProducers(), "Producer", id, "Movie", "PRODUCED");
+            neo4j.addNodeList(movie.getCountry(), "Country", id, "Movie", "COUNTRY");
+            for (Object outlet : movie.getRatings().keySet()) {
+                neo4j.addRating(movie, (String) outlet, (Integer) movie.getRatings().get(outlet));
+            }
+        }
+    }
+
+    @Benchmark
+    public void singleTransaction() {
+        neo4j.addMovie(movie());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(IngestBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,80 @@
+package ud.binmonkey.prog3_proyecto_server.neo4j;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.neo4j.driver.v1.Values.parameters;
+
+/**
+ * Latency of @Neo4j.checkNode on a local Neo4j (conf/properties.xml) holding the given number of Person nodes,
+ * with the schema of @Neo4jSchema and without it (label scan). Clears the database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+
+    private static final int BATCH = 10000;
+
+    @Param({"10000", "100000", "1000000"})
+    public int nodes;
+
+    @Param({"true", "false"})
+    public boolean schema;
+
+    private Neo4j neo4j;
+    private final Random random = new Random(7);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        neo4j = new Neo4j();
+        clear();
+        for (int from = 0; from < nodes; from += BATCH) {
+            List<String> names = new ArrayList<>();
+            for (int i = from; i < Math.min(nodes, from + BATCH); i++) {
+                names.add("Person " + i);
+            }
+            neo4j.run("UNWIND {names} AS name CREATE (:Person {name: name})", parameters("names", names));
+        }
+        if (schema) {
+            Neo4jSchema.bootstrap();
+        } else {
+            neo4j.run("DROP CONSTRAINT ON (n:Person) ASSERT n.name IS UNIQUE", parameters());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        clear();
+        Neo4jSchema.bootstrap();
+    }
+
+    /**
+     * Deletes every node in batches, one transaction for all of them wouldn't fit in memory
+     */
+    private void clear() {
+        while (neo4j.query("MATCH (n) WITH n LIMIT " + BATCH + " DETACH DELETE n RETURN count(*) AS deleted")
+                .get(0).get("deleted").asInt() > 0) {
+            /* next batch */
+        }
+    }
+
+    @Benchmark
+    public boolean checkNode() {
+        return neo4j.checkNode("Person " + random.nextInt(nodes), "Person");
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LookupBenchmark.class.getSimpleName()).build()).run();
+    }
+}
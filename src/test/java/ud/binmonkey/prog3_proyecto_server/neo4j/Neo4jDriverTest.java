@@ -0,0 +1,95 @@
+package ud.binmonkey.prog3_proyecto_server.neo4j;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.exceptions.ClientException;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pool of @Neo4jDriver over a fake driver recording what is called, no server needed
+ */
+public class Neo4jDriverTest {
+
+    private final List<String> calls = new CopyOnWriteArrayList<>();
+
+    @SuppressWarnings("unchecked")
+    private <T> T fake(Class<T> type, Object returned) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, (proxy, method, args) -> {
+            calls.add(type.getSimpleName() + "." + method.getName());
+            return method.getReturnType().isInstance(returned) ? returned : null;
+        });
+    }
+
+    private Driver driver() {
+        Transaction tx = fake(Transaction.class, null);
+        return fake(Driver.class, fake(Session.class, tx));
+    }
+
+    @Test
+    public void testPoolLimitAndTimeout() throws Exception {
+        Neo4jDriver driver = new Neo4jDriver(driver(), 2, 200);
+        CountDownLatch busy = new CountDownLatch(2);
+        CountDownLatch done = new CountDownLatch(1);
+        for (int i = 0; i < 2; i++) {
+            new Thread(() -> driver.withSession(session -> {
+                busy.countDown();
+                try {
+                    done.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            })).start();
+        }
+        busy.await();
+        assertEquals(2, driver.getInUse());
+
+        long start = System.currentTimeMillis();
+        try {
+            driver.withSession(session -> null);
+            fail("Pool is full");
+        } catch (ClientException e) {
+            assertTrue(System.currentTimeMillis() - start >= 200);
+        }
+        assertEquals(1, driver.getTimeouts());
+
+        done.countDown();
+        assertEquals("ok", driver.withSession(session -> "ok"));
+        assertEquals(3, driver.getAcquired());
+        assertEquals(0, driver.getInUse());
+        assertEquals(2, new JSONObject(driver.toJson()).getInt("peakInUse"));
+    }
+
+    @Test
+    public void testTransactionCommitsOnlyOnSuccess() {
+        Neo4jDriver driver = new Neo4jDriver(driver(), 1, 100);
+        driver.inTransaction(tx -> null);
+        assertTrue(calls.contains("Transaction.success"));
+        assertTrue(calls.contains("Session.close"));
+
+        calls.clear();
+        try {
+            driver.inTransaction(tx -> {
+                throw new IllegalStateException();
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertFalse(calls.contains("Transaction.success"));
+            assertTrue(calls.contains("Transaction.close"));
+            assertTrue(calls.contains("Session.close"));
+        }
+        /* the session was given back */
+        assertEquals(0, driver.getInUse());
+        driver.close();
+        assertTrue(calls.contains("Driver.close"));
+    }
+}
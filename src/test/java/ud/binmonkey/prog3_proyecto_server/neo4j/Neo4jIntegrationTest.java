@@ -1,11 +1,12 @@
 package ud.binmonkey.prog3_proyecto_server.neo4j;
 
 import org.neo4j.driver.v1.Record;
-import org.neo4j.driver.v1.StatementResult;
 import ud.binmonkey.prog3_proyecto_server.omdb.Omdb;
 import ud.binmonkey.prog3_proyecto_server.omdb.OmdbEpisode;
 import ud.binmonkey.prog3_proyecto_server.omdb.OmdbMovie;
 
+import java.util.List;
+
 public class Neo4jIntegrationTest {
 
     private static void generateDB(Neo4jUtils neo4j) {
@@ -118,68 +119,56 @@ public class Neo4jIntegrationTest {
     public static void main(String[] args) {
 
         Neo4jUtils neo4j = new Neo4jUtils();
-        Record record;
 
         neo4j.clearDB();
         generateDB(neo4j);
 
         System.out.println("\nList titles where a certain person acted, ordering them by rating:");
-        StatementResult result = neo4j.getSession().run("MATCH p = (n:Person)-[r:ACTED_IN]->(m) " +
+        List<Record> result = neo4j.query("MATCH p = (n:Person)-[r:ACTED_IN]->(m) " +
                 " WHERE n.name = 'Ewan McGregor'" +
                 " RETURN m.title as title, m.imdbRating as rating" +
                 " ORDER BY rating DESCENDING");
 
         System.out.println("Sc | Title");
         System.out.println("------------------------------------");
-        while (result.hasNext()) {
-            record = result.next();
+        for (Record record : result) {
             System.out.println(record.get("rating") + " | " + record.get("title").toString());
         }
 
         System.out.println("\nList 5 best Movies in the DB:");
 
-        result = neo4j.getSession().
-
-                run("MATCH(m:Movie)" +
-                        " RETURN m.title as title, m.imdbRating as rating" +
-                        " ORDER BY rating DESCENDING" +
-                        " LIMIT 5");
+        result = neo4j.query("MATCH(m:Movie)" +
+                " RETURN m.title as title, m.imdbRating as rating" +
+                " ORDER BY rating DESCENDING" +
+                " LIMIT 5");
 
         System.out.println("Sc | Title");
         System.out.println("------------------------------------");
-        while (result.hasNext()) {
-            record = result.next();
+        for (Record record : result) {
             System.out.println(record.get("rating") + " | " + record.get("title").toString());
         }
 
         System.out.println("\nList Episodes of a Series, ordering by season and episode:");
-        result = neo4j.getSession().
-
-                run("MATCH p = (n:Episode)-[r:" +
-                        " BELONGS_TO]->(m:Series)" +
-                        " WHERE m.name = 'tt2802850'" +
-                        " RETURN n.title as title, r.season as season, r.episode as episode" +
-                        " ORDER BY season, episode");
+        result = neo4j.query("MATCH p = (n:Episode)-[r:" +
+                " BELONGS_TO]->(m:Series)" +
+                " WHERE m.name = 'tt2802850'" +
+                " RETURN n.title as title, r.season as season, r.episode as episode" +
+                " ORDER BY season, episode");
 
         System.out.println("S | E | Title");
         System.out.println("------------------------------------");
-        while (result.hasNext()) {
-            record = result.next();
+        for (Record record : result) {
             System.out.println(record.get("season") + " | " + record.get("episode") + " | " + record.get("title").toString());
         }
 
         System.out.println("\nShow titles by age rating:");
-        result = neo4j.getSession().
-
-                run("MATCH p=(n)-[r:RATED]->(m:Movie)" +
-                        " RETURN n.name as ageRating, m.title as title" +
-                        " ORDER BY ageRating, m.year");
+        result = neo4j.query("MATCH p=(n)-[r:RATED]->(m:Movie)" +
+                " RETURN n.name as ageRating, m.title as title" +
+                " ORDER BY ageRating, m.year");
 
         System.out.println("AgeR\t| Title");
         System.out.println("------------------------------------");
-        while (result.hasNext()) {
-            record = result.next();
-
+        for (Record record : result) {
             if (record.get("ageRating").toString().length() < 4) {
                 System.out.println(record.get("ageRating") + "\t\t| " + record.get("title").toString());
             } else {
@@ -0,0 +1,46 @@
+package ud.binmonkey.prog3_proyecto_server.neo4j;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Neo4jSchemaTest {
+
+    private static Map<String, Object> index(String description, String state, String type) {
+        Map<String, Object> index = new HashMap<>();
+        index.put("description", description);
+        index.put("state", state);
+        index.put("type", type);
+        return index;
+    }
+
+    @Test
+    public void testReport() {
+        List<Map<String, Object>> indexes = new ArrayList<>();
+        for (String label : Neo4jSchema.LABELS) {
+            if (!label.equals("Person") && !label.equals("Genre")) {
+                indexes.add(index("INDEX ON :" + label + "(name)", "ONLINE", "node_unique_property"));
+            }
+        }
+        indexes.add(index("INDEX ON :Person(name)", "POPULATING", "node_label_property"));
+        /* not on name */
+        indexes.add(index("INDEX ON :Genre(title)", "ONLINE", "node_label_property"));
+
+        JSONObject report = new JSONObject(Neo4jSchema.report(indexes));
+        JSONObject labels = report.getJSONObject("labels");
+        assertEquals("ONLINE", labels.getJSONObject("Movie").getString("state"));
+        assertTrue(labels.getJSONObject("Movie").getBoolean("unique"));
+        assertEquals("POPULATING", labels.getJSONObject("Person").getString("state"));
+        assertFalse(labels.getJSONObject("Person").getBoolean("unique"));
+        assertTrue(labels.isNull("Genre"));
+        assertEquals("[\"Person\",\"Genre\"]", report.getJSONArray("missing").toString());
+    }
+}
@@ -4,13 +4,15 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.neo4j.driver.v1.Record;
-import org.neo4j.driver.v1.StatementResult;
 import ud.binmonkey.prog3_proyecto_server.omdb.MediaType;
 import ud.binmonkey.prog3_proyecto_server.omdb.Omdb;
 import ud.binmonkey.prog3_proyecto_server.omdb.OmdbEpisode;
 import ud.binmonkey.prog3_proyecto_server.omdb.OmdbMovie;
 
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 
 /**
@@ -41,12 +43,10 @@ public class Neo4jUnitTest {
 
         neo4j.addTitle(new OmdbMovie(Omdb.getTitle("tt0117951"))); /* Trainspotting */
 
-        StatementResult result = neo4j.getSession().run("MATCH (n:Movie) " +
+        List<Record> result = neo4j.query("MATCH (n:Movie) " +
                 "RETURN n.name AS name, n.title AS title");
 
-        while (result.hasNext()) {
-            Record record = result.next();
-
+        for (Record record : result) {
             assertEquals("Trainspotting", record.get("title").asString());
             assertEquals("tt0117951", record.get("name").asString());
         }
@@ -65,12 +65,10 @@ public class Neo4jUnitTest {
         neo4j.addTitle(new OmdbEpisode(Omdb.getTitle("tt3333830")));
         neo4j.addTitle(new OmdbEpisode(Omdb.getTitle("tt3333832")));
 
-        StatementResult result = neo4j.getSession().run("MATCH (n:Series) " +
+        List<Record> result = neo4j.query("MATCH (n:Series) " +
                 "RETURN n.name AS name, n.title AS title");
 
-        while (result.hasNext()) {
-            Record record = result.next();
-
+        for (Record record : result) {
             assertEquals("Rick and Morty", record.get("title").asString());
             assertEquals("tt2861424", record.get("name").asString());
         }
@@ -86,12 +84,10 @@ public class Neo4jUnitTest {
         neo4j.addList("Lord of The Rings Saga", new OmdbMovie(Omdb.getTitle("tt0167260")),
                 new OmdbMovie(Omdb.getTitle("tt0167261")));
 
-        StatementResult result = neo4j.getSession().run("MATCH p=(n:List)-[r:CONTAINS]-(m) " +
+        List<Record> result = neo4j.query("MATCH p=(n:List)-[r:CONTAINS]-(m) " +
                 "WHERE m.name='tt0167260' RETURN n.name AS name");
 
-        while (result.hasNext()) {
-            Record record = result.next();
-
+        for (Record record : result) {
             assertEquals("Lord of The Rings Saga", record.get("name").asString());
         }
     }
@@ -116,14 +112,14 @@ public class Neo4jUnitTest {
         neo4j.removeTitle("tt0086190", MediaType.MOVIE);
         neo4j.removeTitle("tt0121766", MediaType.MOVIE);
 
-        StatementResult result = neo4j.getSession().run("MATCH p=(n:List)-[r:CONTAINS]-(m) " +
+        List<Record> result = neo4j.query("MATCH p=(n:List)-[r:CONTAINS]-(m) " +
                 "WHERE m.name='tt0120915' RETURN n.name AS name");
 
-        while (result.hasNext()) {
-            Record record = result.next();
-
+        for (Record record : result) {
             assertNotEquals("Star Wars Saga", record.get("name").asString());
         }
+        /* the list lost all its movies, removed with the last one */
+        assertFalse(neo4j.checkNode("Star Wars Saga", "List"));
     }
 
     /**
@@ -140,5 +136,6 @@ public class Neo4jUnitTest {
 
         /* Fixes duplicate because of different name */
         neo4j.renameNode("Twentieth Century Fox", "20th Century Fox", "Producer");
+        assertFalse(neo4j.checkNode("Twentieth Century Fox", "Producer"));
     }
 }
\ No newline at end of file
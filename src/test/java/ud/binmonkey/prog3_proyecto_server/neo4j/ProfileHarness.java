@@ -0,0 +1,378 @@
+package ud.binmonkey.prog3_proyecto_server.neo4j;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.Value;
+import org.neo4j.driver.v1.Values;
+import org.neo4j.driver.v1.summary.ProfiledPlan;
+import org.neo4j.driver.v1.summary.ResultSummary;
+import ud.binmonkey.prog3_proyecto_server.omdb.OmdbEpisode;
+import ud.binmonkey.prog3_proyecto_server.omdb.OmdbMovie;
+import ud.binmonkey.prog3_proyecto_server.omdb.OmdbSeries;
+import ud.binmonkey.prog3_proyecto_server.omdb.OmdbTitle;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.neo4j.driver.v1.Values.parameters;
+import static ud.binmonkey.prog3_proyecto_server.neo4j.CypherTemplates.Statement.*;
+
+/**
+ * Runs every Cypher statement of @Neo4j and @Neo4jUtils, and the examples of
+ * src/main/resources/cypher/examples/query_example.cql, under PROFILE on a local Neo4j (conf/properties.xml) holding
+ * a synthetic catalog of the given number of movies, and reports the db hits, rows and wall time of each one.
+ * Every statement runs in a transaction that is rolled back, so all of them see the same catalog.
+ * The report is written to `<report>.json` and `<report>.txt`; given the JSON report of a previous run, exits with
+ * 1 if the db hits of a statement grew more than the threshold. Clears the database.
+ *
+ * Usage: ProfileHarness <movies> <report> [<baseline.json> [<threshold, 0.1 by default>]]
+ */
+public class ProfileHarness {
+
+    private static final String EXAMPLES = "src/main/resources/cypher/examples/query_example.cql";
+    private static final String FIXTURES = "src/test/resources/neo4j/omdb/";
+    private static final Pattern COMMENT = Pattern.compile("/\\*(.*?)\\*/", Pattern.DOTALL);
+
+    /* people of the examples, most popular of the catalog */
+    private static final String POPULAR = "Ewan McGregor";
+    private static final String PRODUCER = "20th Century Fox";
+    private static final String SERIES = "tt2802850";
+    private static final String LIST = "Star Wars Saga";
+
+    /* runs of every statement, the first one warms the plan cache up and isn't measured */
+    private static final int RUNS = 6;
+    /* db hits a statement may grow by regardless of the threshold, for tiny statements */
+    static final long SLACK = 10;
+    private static final int BATCH = 10000;
+
+    /**
+     * Statement to profile
+     */
+    static class Probe {
+        final String name;
+        final String text;
+        final Value parameters;
+
+        Probe(String name, String text, Value parameters) {
+            this.name = name;
+            this.text = text;
+            this.parameters = parameters;
+        }
+    }
+
+    /**
+     * Profile of a statement, error set if it failed
+     */
+    static class Result {
+        final String name;
+        final long dbHits;
+        final long rows;
+        final double millis;
+        final String error;
+
+        Result(String name, long dbHits, long rows, double millis, String error) {
+            this.name = name;
+            this.dbHits = dbHits;
+            this.rows = rows;
+            this.millis = millis;
+            this.error = error;
+        }
+    }
+
+    private final int movies;
+    private final Neo4j neo4j = new Neo4j();
+
+    private ProfileHarness(int movies) {
+        this.movies = movies;
+    }
+
+    /* Catalog */
+
+    /**
+     * Loads movies built from the movie fixture, with a cast drawn from a pool of people where a few ones act in
+     * most movies, one series with an episode every 20 movies, and a list of the first movies
+     */
+    private void load() throws IOException, InterruptedException {
+        clear();
+        Neo4jSchema.bootstrap();
+        Random random = new Random(7);
+        int people = Math.max(10, movies / 5);
+
+        List<OmdbTitle> titles = new ArrayList<>();
+        titles.add(new OmdbSeries(fixture("series.json")));
+        for (int i = 0; i < movies; i++) {
+            JSONObject movie = fixture("movie.json");
+            List<String> cast = new ArrayList<>();
+            for (int j = 0; j < 4 + random.nextInt(5); j++) {
+                /* skewed towards the first people of the pool */
+                int person = (int) (people * Math.pow(random.nextDouble(), 3));
+                cast.add(person == 0 ? POPULAR : "Person " + person);
+            }
+            movie.put("imdbID", "tp" + i).put("Title", "Movie " + i).put("Year", String.valueOf(1950 + i % 70))
+                    .put("Filename", "movies/tp" + i + ".mkv").put("Actors", new JSONArray(cast))
+                    .put("Director", new JSONArray().put("Director " + i % (people / 10 + 1)))
+                    .put("Production", new JSONArray().put(i % 10 == 0 ? PRODUCER : "Producer " + i % 50))
+                    .put("Language", i % 4 == 0 ? "Spanish" : "English");
+            titles.add(new OmdbMovie(movie));
+        }
+        for (int i = 0; i < movies / 20; i++) {
+            JSONObject episode = fixture("episode.json");
+            episode.put("imdbID", "te" + i).put("seriesID", SERIES).put("Title", "Episode " + i)
+                    .put("Season", i / 10 + 1).put("Episode", i % 10 + 1);
+            titles.add(new OmdbEpisode(episode));
+        }
+        BulkLoader loader = BulkLoader.fromProperties();
+        loader.load(titles);
+
+        List<String> saga = new ArrayList<>();
+        for (int i = 0; i < Math.min(7, movies); i++) {
+            saga.add("tp" + i);
+        }
+        neo4j.run("MATCH (m:Movie) WHERE m.name IN {titles} MERGE (l:List {name: {list}}) MERGE (l)-[:CONTAINS]->(m)",
+                parameters("titles", saga, "list", LIST));
+        System.out.println("Catalog: " + loader.toJson());
+    }
+
+    private static JSONObject fixture(String name) throws IOException {
+        return new JSONObject(new String(Files.readAllBytes(new File(FIXTURES + name).toPath()),
+                StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Deletes every node in batches, one transaction for all of them wouldn't fit in memory
+     */
+    private void clear() {
+        while (neo4j.query("MATCH (n) WITH n LIMIT " + BATCH + " DETACH DELETE n RETURN count(*) AS deleted")
+                .get(0).get("deleted").asInt() > 0) {
+            /* next batch */
+        }
+    }
+
+    /* Statements */
+
+    /**
+     * @return every statement of @Neo4j and @Neo4jUtils, with parameters matching the catalog
+     */
+    private List<Probe> statements() throws IOException {
+        CypherTemplates templates = CypherTemplates.INSTANCE;
+        OmdbMovie movie = new OmdbMovie(fixture("movie.json").put("imdbID", "tp-new").put("Filename", "tp-new.mkv"));
+        OmdbSeries series = new OmdbSeries(fixture("series.json").put("imdbID", "ts-new"));
+        OmdbEpisode episode = new OmdbEpisode(fixture("episode.json").put("imdbID", "te-new"));
+        Map<String, Object> rating = new HashMap<>();
+        rating.put("outlet", Neo4jUtils.IMDB);
+        rating.put("score", 80);
+        rating.put("votes", 1000);
+
+        List<Probe> probes = new ArrayList<>();
+        probes.add(template(templates.get(CHECK_NODE, "Person"), parameters("name", POPULAR)));
+        probes.add(template(templates.get(CHECK_RELATION, "Person", "ACTED_IN"),
+                parameters("node", POPULAR, "title", "tp0")));
+        probes.add(template(templates.get(CREATE_NODE, "Person"), parameters("name", "Person new")));
+        probes.add(template(templates.get(CREATE_RELATION, "Person", "ACTED_IN", "Movie"),
+                parameters("name", POPULAR, "title", "tp1")));
+        probes.add(template(templates.get(MERGE_RELATIONS, "Movie", "ACTED_IN", "Person"),
+                parameters("title", "tp1", "nodes", Arrays.asList(POPULAR, "Person new"))));
+        probes.add(template(templates.get(MERGE_RATINGS, "Movie"),
+                parameters("title", "tp1", "ratings", Collections.singletonList(rating))));
+        probes.add(template(templates.get(MERGE_LANGUAGE, "Movie"),
+                parameters("title", "tp1", "name", "English", "filename", "movies/tp1.mkv")));
+        probes.add(template(templates.get(DELETE_NODE, "Movie"), parameters("node", "tp1")));
+        probes.add(template(templates.get(DELETE_NODE, "Person"), parameters("node", POPULAR)));
+        probes.add(template(templates.get(RENAME_NODE, "Person"), parameters("name", POPULAR, "new_name", "New")));
+        probes.add(template(templates.get(RELATION_TYPES_OF, "Person"), parameters("node", POPULAR)));
+        probes.add(template(templates.get(MOVE_OUTGOING, "Person", "ACTED_IN"),
+                parameters("node", POPULAR, "into", "Person 1")));
+        probes.add(template(templates.get(MOVE_INCOMING, "Movie", "CONTAINS"),
+                parameters("node", "tp0", "into", "tp2")));
+
+        probes.add(new Probe("MERGE_MOVIE", Neo4jUtils.MERGE_MOVIE, (Value) movie.toParameters()));
+        probes.add(new Probe("MERGE_SERIES", Neo4jUtils.MERGE_SERIES, (Value) series.toParameters()));
+        probes.add(new Probe("MERGE_EPISODE", Neo4jUtils.MERGE_EPISODE, (Value) episode.toParameters()));
+        probes.add(new Probe("MERGE_BELONGS_TO", Neo4jUtils.MERGE_BELONGS_TO,
+                parameters("name", "te0", "title", SERIES, "season", 1, "episode", 1)));
+        probes.add(new Probe("CREATE_OUTLET", Neo4jUtils.CREATE_OUTLET, parameters("name", "Outlet new")));
+        probes.add(template(templates.get(CREATE_SCORE, "Movie"),
+                parameters("name", "Metacritic", "id", "tp0", "score", 70)));
+        probes.add(template(templates.get(CREATE_SCORE_VOTES, "Movie"),
+                parameters("name", Neo4jUtils.IMDB, "id", "tp0", "score", 70, "votes", 1000)));
+        probes.add(new Probe("CLEAN", Neo4j.CLEAN, parameters("batch", BATCH)));
+
+        probes.addAll(examples(new String(Files.readAllBytes(new File(EXAMPLES).toPath()), StandardCharsets.UTF_8)));
+        return probes;
+    }
+
+    private static Probe template(CypherTemplates.Template template, Value parameters) {
+        return new Probe(template.getKey(), template.getText(), parameters);
+    }
+
+    /**
+     * @param script statements separated by `;`, each one named by the comment before it
+     * @return statements of script, without comments
+     */
+    static List<Probe> examples(String script) {
+        List<Probe> probes = new ArrayList<>();
+        int index = 0;
+        for (String statement : script.split(";")) {
+            index++;
+            Matcher comment = COMMENT.matcher(statement);
+            String name = comment.find() ? comment.group(1).trim() : "statement " + index;
+            String text = COMMENT.matcher(statement).replaceAll("").trim().replaceAll("\\s+", " ");
+            if (!text.isEmpty()) {
+                probes.add(new Probe("example: " + name, text, Values.EmptyMap));
+            }
+        }
+        return probes;
+    }
+
+    /* Profiling */
+
+    /**
+     * @return profile of probe, its time the median of the runs after the first
+     */
+    private static Result profile(Probe probe) {
+        double[] millis = new double[RUNS - 1];
+        long dbHits = 0;
+        long rows = 0;
+        try {
+            for (int run = 0; run < RUNS; run++) {
+                long start = System.nanoTime();
+                long[] profile = Neo4jDriver.get().withSession(session -> {
+                    try (Transaction tx = session.beginTransaction()) {
+                        StatementResult result = tx.run("PROFILE " + probe.text, probe.parameters);
+                        long records = result.list().size();
+                        ResultSummary summary = result.consume();
+                        tx.failure();
+                        return new long[]{dbHits(summary.profile()), records};
+                    }
+                });
+                if (run > 0) {
+                    millis[run - 1] = (System.nanoTime() - start) / 1e6;
+                }
+                dbHits = profile[0];
+                rows = profile[1];
+            }
+        } catch (RuntimeException e) {
+            return new Result(probe.name, 0, 0, 0, String.valueOf(e.getMessage()));
+        }
+        Arrays.sort(millis);
+        return new Result(probe.name, dbHits, rows, millis[millis.length / 2], null);
+    }
+
+    private static long dbHits(ProfiledPlan plan) {
+        long hits = plan.dbHits();
+        for (ProfiledPlan child : plan.children()) {
+            hits += dbHits(child);
+        }
+        return hits;
+    }
+
+    /* Report */
+
+    static JSONObject toJson(int movies, List<Result> results) {
+        JSONObject statements = new JSONObject();
+        for (Result result : results) {
+            JSONObject json = new JSONObject().put("dbHits", result.dbHits).put("rows", result.rows)
+                    .put("ms", Math.round(result.millis * 1000) / 1000.0);
+            if (result.error != null) {
+                json.put("error", result.error);
+            }
+            statements.put(result.name, json);
+        }
+        return new JSONObject().put("movies", movies).put("statements", statements);
+    }
+
+    /**
+     * @param baseline report of a previous run, null if none
+     * @return one line per statement, with the change of its db hits since baseline
+     */
+    static String table(List<Result> results, JSONObject baseline) {
+        int width = 9;
+        for (Result result : results) {
+            width = Math.max(width, result.name.length());
+        }
+        StringBuilder table = new StringBuilder(String.format(Locale.ROOT, "%-" + width + "s %12s %10s %10s %12s%n",
+                "statement", "db hits", "rows", "ms", "vs baseline"));
+        for (Result result : results) {
+            if (result.error != null) {
+                table.append(String.format(Locale.ROOT, "%-" + width + "s error: %s%n", result.name, result.error));
+                continue;
+            }
+            Long before = baseline(baseline, result.name);
+            String change = before == null ? "-" : before == 0 ? (result.dbHits == 0 ? "0%" : "new hits") :
+                    String.format(Locale.ROOT, "%+.1f%%", (result.dbHits - before) * 100.0 / before);
+            table.append(String.format(Locale.ROOT, "%-" + width + "s %12d %10d %10.3f %12s%n",
+                    result.name, result.dbHits, result.rows, result.millis, change));
+        }
+        return table.toString();
+    }
+
+    /**
+     * @param threshold growth of db hits allowed, e.g. 0.1 for 10%
+     * @return statements whose db hits grew more than threshold (and SLACK) since baseline
+     */
+    static List<String> regressions(List<Result> results, JSONObject baseline, double threshold) {
+        List<String> regressions = new ArrayList<>();
+        for (Result result : results) {
+            Long before = baseline(baseline, result.name);
+            if (before != null && result.error == null && result.dbHits > before * (1 + threshold)
+                    && result.dbHits - before > SLACK) {
+                regressions.add(result.name + ": " + before + " -> " + result.dbHits + " db hits");
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * @return db hits of statement in baseline, null if it wasn't there or failed
+     */
+    private static Long baseline(JSONObject baseline, String statement) {
+        if (baseline == null) {
+            return null;
+        }
+        JSONObject before = baseline.getJSONObject("statements").optJSONObject(statement);
+        return before == null || before.has("error") ? null : before.getLong("dbHits");
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: ProfileHarness <movies> <report> [<baseline.json> [<threshold>]]");
+            System.exit(2);
+        }
+        int movies = Integer.parseInt(args[0]);
+        JSONObject baseline = args.length > 2 ?
+                new JSONObject(new String(Files.readAllBytes(new File(args[2]).toPath()), StandardCharsets.UTF_8)) :
+                null;
+        double threshold = args.length > 3 ? Double.parseDouble(args[3]) : 0.1;
+
+        ProfileHarness harness = new ProfileHarness(movies);
+        harness.load();
+        List<Result> results = new ArrayList<>();
+        for (Probe probe : harness.statements()) {
+            results.add(profile(probe));
+        }
+        harness.clear();
+
+        String table = table(results, baseline);
+        Files.write(new File(args[1] + ".json").toPath(),
+                toJson(movies, results).toString(2).getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(args[1] + ".txt").toPath(), table.getBytes(StandardCharsets.UTF_8));
+        System.out.print(table);
+
+        List<String> regressions = regressions(results, baseline, threshold);
+        if (!regressions.isEmpty()) {
+            System.err.println("db hits regressed more than " + threshold * 100 + "%:");
+            for (String regression : regressions) {
+                System.err.println("  " + regression);
+            }
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,44 @@
+package ud.binmonkey.prog3_proyecto_server.neo4j;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ProfileHarnessTest {
+
+    @Test
+    public void testExamplesNamedByComment() {
+        List<ProfileHarness.Probe> probes = ProfileHarness.examples(
+                "/* First */\nMATCH (n)\n  RETURN n;\n\n/* Second */\nRETURN 1;\n\nRETURN 2;\n");
+        assertEquals(3, probes.size());
+        List<ProfileHarness.Result> results = Arrays.asList(
+                new ProfileHarness.Result(probes.get(0).name, 1, 1, 0, null),
+                new ProfileHarness.Result(probes.get(2).name, 1, 1, 0, null));
+        String table = ProfileHarness.table(results, null);
+        assertTrue(table.contains("example: First "));
+        assertTrue(table.contains("example: statement 3 "));
+    }
+
+    @Test
+    public void testRegressions() {
+        JSONObject baseline = ProfileHarness.toJson(100, Arrays.asList(
+                new ProfileHarness.Result("grew", 1000, 1, 1, null),
+                new ProfileHarness.Result("within threshold", 1000, 1, 1, null),
+                new ProfileHarness.Result("tiny", 2, 1, 1, null),
+                new ProfileHarness.Result("failed", 0, 0, 0, "error")));
+        List<ProfileHarness.Result> results = Arrays.asList(
+                new ProfileHarness.Result("grew", 1200, 1, 1, null),
+                new ProfileHarness.Result("within threshold", 1090, 1, 1, null),
+                new ProfileHarness.Result("tiny", 2 + ProfileHarness.SLACK, 1, 1, null),
+                new ProfileHarness.Result("failed", 5000, 1, 1, null),
+                new ProfileHarness.Result("new", 5000, 1, 1, null));
+
+        assertEquals(Arrays.asList("grew: 1000 -> 1200 db hits"),
+                ProfileHarness.regressions(results, new JSONObject(baseline.toString()), 0.1));
+        assertTrue(ProfileHarness.table(results, baseline).contains("+20.0%"));
+    }
+}
@@ -0,0 +1,114 @@
+package ud.binmonkey.prog3_proyecto_server.neo4j;
+
+import org.apache.commons.io.FileUtils;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ud.binmonkey.prog3_proyecto_server.common.jobs.JobManager;
+import ud.binmonkey.prog3_proyecto_server.omdb.OmdbMovie;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PublishQueueTest {
+
+    private static final String MOVIE = new JSONObject()
+            .put("Title", "Movie").put("imdbID", "tt1").put("Year", "2000")
+            .put("Released", "01 Jan 00").put("DVD", "01 Jan 01").put("Plot", "Plot").put("Rated", "PG")
+            .put("Awards", "N/A").put("Metascore", "70").put("imdbRating", "7.5").put("imdbVotes", "1,000")
+            .put("Runtime", "120 min").put("Poster", "N/A").put("Filename", "movie.mkv")
+            .put("BoxOffice", "$1,000").put("Website", "N/A").put("Language", "EN")
+            .put("Genre", "Drama").put("Writer", "Writer").put("Director", "Director")
+            .put("Actors", "Actor").put("Production", "Producer").put("Country", "USA")
+            .put("Ratings", new JSONObject().put("Internet Movie Database", 75)).toString();
+
+    private File journal;
+
+    /**
+     * Records the steps run, graph fails while failGraph is set
+     */
+    private static class RecordingSteps implements PublishQueue.Steps {
+        private final List<String> run = new ArrayList<>();
+        private volatile boolean failGraph;
+
+        private RecordingSteps(boolean failGraph) {
+            this.failGraph = failGraph;
+        }
+
+        @Override
+        public void copy(String userName, String sourceFile, OmdbMovie movie) {
+            run.add("copy " + userName + " " + sourceFile + " " + movie.getFilename());
+        }
+
+        @Override
+        public void graph(OmdbMovie movie) {
+            if (failGraph) {
+                throw new IllegalStateException("crash");
+            }
+            run.add("graph " + movie.getImdbID());
+        }
+
+        @Override
+        public void poster(OmdbMovie movie) {
+            run.add("poster " + movie.getImdbID());
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        journal = Files.createTempDirectory("publish").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(journal);
+    }
+
+    private static void await(JobManager.Job job) throws InterruptedException {
+        for (int i = 0; i < 50 && job.getFinished() == 0; i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+    }
+
+    @Test
+    public void testResumesAtFailedStep() throws Exception {
+        RecordingSteps crashing = new RecordingSteps(true);
+        JobManager.Job job = new PublishQueue(journal, 1, crashing).submit("user", "movie.mkv", MOVIE);
+        await(job);
+        assertEquals(JobManager.State.FAILED, job.getState());
+        assertEquals("[copy user movie.mkv movies/movie.mkv]", crashing.run.toString());
+        assertEquals(1, journal.list().length);
+
+        /* restart: copy isn't repeated, the job keeps its id */
+        RecordingSteps steps = new RecordingSteps(false);
+        PublishQueue restarted = new PublishQueue(journal, 1, steps);
+        assertEquals(1, restarted.resume());
+        JobManager.Job resumed = JobManager.INSTANCE.get(job.getId());
+        assertNotSame(job, resumed);
+        await(resumed);
+        assertEquals(JobManager.State.DONE, resumed.getState());
+        assertEquals(3, resumed.getDone());
+        assertEquals("[graph tt1, poster tt1]", steps.run.toString());
+        assertEquals(0, journal.list().length);
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts() throws Exception {
+        RecordingSteps steps = new RecordingSteps(true);
+        JobManager.Job job = new PublishQueue(journal, 1, steps).submit("user", "movie.mkv", MOVIE);
+        await(job);
+        for (int i = 1; i < PublishQueue.MAX_ATTEMPTS; i++) {
+            PublishQueue restarted = new PublishQueue(journal, 1, steps);
+            assertEquals(1, restarted.resume());
+            await(JobManager.INSTANCE.get(job.getId()));
+        }
+        assertEquals(0, new PublishQueue(journal, 1, steps).resume());
+        assertEquals(1, journal.list().length);
+    }
+}
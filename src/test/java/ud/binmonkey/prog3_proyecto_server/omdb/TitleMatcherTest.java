@@ -0,0 +1,29 @@
+package ud.binmonkey.prog3_proyecto_server.omdb;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TitleMatcherTest {
+
+    /**
+     * Tests method TitleMatcher.parse()
+     */
+    @Test
+    public void testParse() {
+        assertArrayEquals(new String[]{"The Matrix", "1999"}, TitleMatcher.parse("The.Matrix.1999.1080p.BluRay.mkv"));
+        assertArrayEquals(new String[]{"Trainspotting", "1996"}, TitleMatcher.parse("Trainspotting (1996).mp4"));
+        assertArrayEquals(new String[]{"2001 A Space Odyssey", "1968"},
+                TitleMatcher.parse("2001_A_Space_Odyssey_1968.avi"));
+        assertArrayEquals(new String[]{"Alien", null}, TitleMatcher.parse("[group] Alien.720p.x264.mkv"));
+        assertArrayEquals(new String[]{"Heat", null}, TitleMatcher.parse("Heat.mkv"));
+    }
+
+    @Test
+    public void testIsVideo() {
+        assertTrue(TitleMatcher.isVideo("movie.MKV"));
+        assertFalse(TitleMatcher.isVideo("movie.srt"));
+    }
+}
@@ -0,0 +1,99 @@
+package ud.binmonkey.prog3_proyecto_server.users;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ud.binmonkey.prog3_proyecto_server.common.jobs.JobManager;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RenameJournalTest {
+
+    private File journal;
+
+    /**
+     * Users kept in memory, moves fail while failMove is set
+     */
+    private static class FakeSteps implements RenameJournal.Steps {
+        private final Set<String> users = new HashSet<>();
+        private final List<String> moves = new ArrayList<>();
+        private final boolean failMove;
+
+        private FakeSteps(boolean failMove, String... users) {
+            this.failMove = failMove;
+            this.users.addAll(Arrays.asList(users));
+        }
+
+        @Override
+        public boolean exists(String userName) {
+            return users.contains(userName);
+        }
+
+        @Override
+        public void rename(String oldUserName, String newUserName) {
+            users.remove(oldUserName);
+            users.add(newUserName);
+        }
+
+        @Override
+        public void move(String oldUserName, String newUserName, JobManager.Job job) {
+            if (failMove) {
+                throw new IllegalStateException("disk full");
+            }
+            moves.add(oldUserName + " -> " + newUserName);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        journal = Files.createTempDirectory("rename").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(journal);
+    }
+
+    private static void await(JobManager.Job job) throws InterruptedException {
+        for (int i = 0; i < 50 && job.getFinished() == 0; i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+    }
+
+    @Test
+    public void testFailedMoveReverted() throws Exception {
+        FakeSteps steps = new FakeSteps(true, "old");
+        RenameJournal renames = new RenameJournal(journal, steps);
+        String id = renames.begin("old", "new");
+        steps.rename("old", "new");
+        JobManager.Job job = renames.moved(id);
+        await(job);
+        assertEquals(JobManager.State.FAILED, job.getState());
+        assertEquals(Collections.singleton("old"), steps.users);
+        assertEquals(0, journal.list().length);
+    }
+
+    @Test
+    public void testResumedAfterRestart() throws Exception {
+        /* crash after MongoDB was renamed: the move is run again */
+        FakeSteps steps = new FakeSteps(false, "new");
+        new RenameJournal(journal, steps).begin("old", "new");
+        /* crash before MongoDB was renamed: nothing to do */
+        new RenameJournal(journal, steps).begin("other", "renamed");
+
+        RenameJournal restarted = new RenameJournal(journal, steps);
+        assertEquals(2, restarted.resume());
+        for (int i = 0; i < 50 && journal.list().length > 0; i++) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        assertEquals(0, journal.list().length);
+        assertEquals("[old -> new]", steps.moves.toString());
+        assertEquals(Collections.singleton("new"), steps.users);
+    }
+}